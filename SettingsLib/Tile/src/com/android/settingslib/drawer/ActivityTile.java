@@ -16,12 +16,14 @@
 
 package com.android.settingslib.drawer;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ComponentInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.os.Bundle;
 import android.os.Parcel;
 import android.util.Log;
 
@@ -39,6 +41,15 @@ public class ActivityTile extends Tile {
         setMetaData(info.metaData);
     }
 
+    /**
+     * Creates a tile for {@code component} whose {@link ActivityInfo} is only resolved when it is
+     * needed, e.g. for a tile restored from disk.
+     */
+    public ActivityTile(ComponentName component, String category, Bundle metaData) {
+        super(component, category);
+        setMetaData(metaData);
+    }
+
     ActivityTile(Parcel in) {
         super(in);
     }
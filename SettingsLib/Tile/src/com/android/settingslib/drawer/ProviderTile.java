@@ -51,10 +51,20 @@ public class ProviderTile extends Tile {
 
     ProviderTile(Parcel in) {
         super(in);
-        mAuthority = ((ProviderInfo) mComponentInfo).authority;
+        mAuthority = in.readString();
         mKey = getMetaData().getString(META_DATA_PREFERENCE_KEYHINT);
     }
 
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        super.writeToParcel(dest, flags);
+        dest.writeString(mAuthority);
+    }
+
+    String getAuthority() {
+        return mAuthority;
+    }
+
     @Override
     public int getId() {
         return Objects.hash(mAuthority, mKey);
@@ -29,6 +29,7 @@ import static com.android.settingslib.drawer.TileUtils.META_DATA_PREFERENCE_TITL
 import static com.android.settingslib.drawer.TileUtils.PROFILE_ALL;
 import static com.android.settingslib.drawer.TileUtils.PROFILE_PRIMARY;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ComponentInfo;
@@ -79,6 +80,13 @@ public abstract class Tile implements Parcelable {
         mIntent = new Intent().setClassName(mComponentPackage, mComponentName);
     }
 
+    Tile(ComponentName component, String category) {
+        mComponentPackage = component.getPackageName();
+        mComponentName = component.getClassName();
+        mCategory = category;
+        mIntent = new Intent().setComponent(component);
+    }
+
     Tile(Parcel in) {
         final boolean isProviderTile = in.readBoolean();
         mComponentPackage = in.readString();
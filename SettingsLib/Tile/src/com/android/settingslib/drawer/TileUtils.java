@@ -235,6 +235,22 @@ public class TileUtils {
     public static List<DashboardCategory> getCategories(Context context,
             Map<Pair<String, String>, Tile> cache) {
         final long startTime = System.currentTimeMillis();
+        final List<DashboardCategory> categories =
+                buildCategories(getTiles(context, null /* packageName */, cache));
+
+        if (DEBUG_TIMING) {
+            Log.d(LOG_TAG, "getCategories took "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+        }
+        return categories;
+    }
+
+    /**
+     * Build the list of tiles injected by {@code packageName}, or by every package if
+     * {@code packageName} is null.
+     */
+    public static List<Tile> getTiles(Context context, String packageName,
+            Map<Pair<String, String>, Tile> cache) {
         final boolean setup =
                 Global.getInt(context.getContentResolver(), Global.DEVICE_PROVISIONED, 0) != 0;
         final ArrayList<Tile> tiles = new ArrayList<>();
@@ -244,18 +260,28 @@ public class TileUtils {
             // TODO: Needs much optimization, too many PM queries going on here.
             if (user.getIdentifier() == ActivityManager.getCurrentUser()) {
                 // Only add Settings for this user.
-                loadTilesForAction(context, user, SETTINGS_ACTION, cache, null, tiles, true);
+                if (packageName == null || SETTING_PKG.equals(packageName)) {
+                    loadTilesForAction(context, user, SETTINGS_ACTION, cache, null, tiles, true);
+                }
                 loadTilesForAction(context, user, OPERATOR_SETTINGS, cache,
-                        OPERATOR_DEFAULT_CATEGORY, tiles, false);
+                        OPERATOR_DEFAULT_CATEGORY, tiles, false, packageName);
                 loadTilesForAction(context, user, MANUFACTURER_SETTINGS, cache,
-                        MANUFACTURER_DEFAULT_CATEGORY, tiles, false);
+                        MANUFACTURER_DEFAULT_CATEGORY, tiles, false, packageName);
             }
             if (setup) {
-                loadTilesForAction(context, user, EXTRA_SETTINGS_ACTION, cache, null, tiles, false);
-                loadTilesForAction(context, user, IA_SETTINGS_ACTION, cache, null, tiles, false);
+                loadTilesForAction(context, user, EXTRA_SETTINGS_ACTION, cache, null, tiles, false,
+                        packageName);
+                loadTilesForAction(context, user, IA_SETTINGS_ACTION, cache, null, tiles, false,
+                        packageName);
             }
         }
+        return tiles;
+    }
 
+    /**
+     * Group {@code tiles} into sorted {@link DashboardCategory}s.
+     */
+    public static List<DashboardCategory> buildCategories(List<Tile> tiles) {
         final HashMap<String, DashboardCategory> categoryMap = new HashMap<>();
         for (Tile tile : tiles) {
             final String categoryKey = tile.getCategory();
@@ -275,21 +301,37 @@ public class TileUtils {
         for (DashboardCategory category : categories) {
             category.sortTiles();
         }
-
-        if (DEBUG_TIMING) {
-            Log.d(LOG_TAG, "getCategories took "
-                    + (System.currentTimeMillis() - startTime) + " ms");
-        }
         return categories;
     }
 
+    /**
+     * Returns the key under which {@code tile} is kept in the tile cache passed to
+     * {@link #getCategories(Context, Map)}.
+     */
+    public static Pair<String, String> getCacheKey(Tile tile) {
+        return tile instanceof ProviderTile
+                ? new Pair<>(((ProviderTile) tile).getAuthority(),
+                        tile.getMetaData().getString(META_DATA_PREFERENCE_KEYHINT))
+                : new Pair<>(tile.getPackageName(), tile.getComponentName());
+    }
+
     @VisibleForTesting
     static void loadTilesForAction(Context context,
             UserHandle user, String action, Map<Pair<String, String>, Tile> addedCache,
             String defaultCategory, List<Tile> outTiles, boolean requireSettings) {
+        loadTilesForAction(context, user, action, addedCache, defaultCategory, outTiles,
+                requireSettings, null /* packageName */);
+    }
+
+    private static void loadTilesForAction(Context context,
+            UserHandle user, String action, Map<Pair<String, String>, Tile> addedCache,
+            String defaultCategory, List<Tile> outTiles, boolean requireSettings,
+            String packageName) {
         final Intent intent = new Intent(action);
         if (requireSettings) {
             intent.setPackage(SETTING_PKG);
+        } else if (packageName != null) {
+            intent.setPackage(packageName);
         }
         loadActivityTiles(context, user, addedCache, defaultCategory, outTiles, intent);
         loadProviderTiles(context, user, addedCache, defaultCategory, outTiles, intent);
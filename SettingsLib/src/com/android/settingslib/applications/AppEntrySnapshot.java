@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.applications;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Last known label and sizes of every {@link AppEntry}, persisted so that a cold start of
+ * {@link ApplicationsState} can show a sortable list right away while fresh data is loaded.
+ *
+ * <p>A label is only reused while the apk file is unchanged and the locale is the same. Sizes are
+ * always shown as stale and queried again.
+ *
+ * <p>The file is only read and written by the background thread of {@link ApplicationsState}.
+ * Until {@link #load()} has run, lookups from other threads find nothing.
+ */
+class AppEntrySnapshot {
+    private static final String TAG = "AppEntrySnapshot";
+
+    @VisibleForTesting
+    static final String FILE_NAME = "app_entry_snapshot";
+    private static final int VERSION = 1;
+
+    private final AtomicFile mFile;
+    private final Map<String, Record> mRecords = new ArrayMap<>();
+    private boolean mLoaded;
+
+    AppEntrySnapshot(Context context) {
+        this(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    @VisibleForTesting
+    AppEntrySnapshot(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Reads the snapshot from disk if it has not been read yet. Must not be called on the main
+     * thread.
+     */
+    void load() {
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+        }
+        final Map<String, Record> records = readFromDisk();
+        synchronized (this) {
+            if (!mLoaded) {
+                mLoaded = true;
+                mRecords.putAll(records);
+            }
+        }
+    }
+
+    /**
+     * Returns the last known label of {@code info}, or {@code null} if it is unknown or outdated.
+     */
+    synchronized String getLabel(ApplicationInfo info, File apkFile) {
+        final Record record = getRecord(info, apkFile);
+        return record != null ? record.mLabel : null;
+    }
+
+    /**
+     * Fills {@code entry} with the last known sizes of its package. The sizes stay marked as stale.
+     */
+    synchronized void applySizes(AppEntry entry) {
+        final Record record = getRecord(entry.info, entry.apkFile);
+        if (record == null || record.mSize < 0) {
+            return;
+        }
+        entry.size = record.mSize;
+        entry.internalSize = record.mInternalSize;
+        entry.externalSize = record.mExternalSize;
+        entry.sizeStale = true;
+    }
+
+    /**
+     * Replaces the snapshot with the current state of {@code entries} and writes it to disk if
+     * anything changed. Must not be called on the main thread.
+     *
+     * @return whether the snapshot was written.
+     */
+    boolean update(List<AppEntry> entries) {
+        load();
+        final Map<String, Record> records = new ArrayMap<>();
+        for (AppEntry entry : entries) {
+            if (!entry.mounted || entry.label == null) {
+                continue;
+            }
+            final Record record = new Record();
+            record.mApkModified = entry.apkFile.lastModified();
+            record.mLabel = entry.label;
+            record.mSize = entry.size;
+            record.mInternalSize = entry.internalSize;
+            record.mExternalSize = entry.externalSize;
+            records.put(getKey(entry.info), record);
+        }
+        synchronized (this) {
+            if (mRecords.equals(records)) {
+                return false;
+            }
+            mRecords.clear();
+            mRecords.putAll(records);
+        }
+        // Written without holding the lock, so that lookups are not blocked by the disk.
+        writeToDisk(records);
+        return true;
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return mRecords.size();
+    }
+
+    private Record getRecord(ApplicationInfo info, File apkFile) {
+        final Record record = mRecords.get(getKey(info));
+        if (record == null || !apkFile.exists()
+                || record.mApkModified != apkFile.lastModified()) {
+            return null;
+        }
+        return record;
+    }
+
+    private static String getKey(ApplicationInfo info) {
+        return UserHandle.getUserId(info.uid) + ":" + info.packageName;
+    }
+
+    private Map<String, Record> readFromDisk() {
+        final Map<String, Record> records = new ArrayMap<>();
+        if (!mFile.getBaseFile().exists()) {
+            return records;
+        }
+        try (DataInputStream in = new DataInputStream(mFile.openRead())) {
+            if (in.readInt() != VERSION || !Locale.getDefault().toString().equals(in.readUTF())) {
+                return records;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                final Record record = new Record();
+                record.mApkModified = in.readLong();
+                record.mLabel = in.readUTF();
+                record.mSize = in.readLong();
+                record.mInternalSize = in.readLong();
+                record.mExternalSize = in.readLong();
+                records.put(key, record);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read snapshot", e);
+            records.clear();
+            mFile.delete();
+        }
+        return records;
+    }
+
+    private void writeToDisk(Map<String, Record> records) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            final DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(VERSION);
+            data.writeUTF(Locale.getDefault().toString());
+            data.writeInt(records.size());
+            for (Map.Entry<String, Record> entry : records.entrySet()) {
+                final Record record = entry.getValue();
+                data.writeUTF(entry.getKey());
+                data.writeLong(record.mApkModified);
+                data.writeUTF(record.mLabel);
+                data.writeLong(record.mSize);
+                data.writeLong(record.mInternalSize);
+                data.writeLong(record.mExternalSize);
+            }
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write snapshot", e);
+            mFile.failWrite(out);
+        }
+    }
+
+    private static class Record {
+        long mApkModified;
+        String mLabel;
+        long mSize;
+        long mInternalSize;
+        long mExternalSize;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Record)) {
+                return false;
+            }
+            final Record other = (Record) o;
+            return mApkModified == other.mApkModified
+                    && mLabel.equals(other.mLabel)
+                    && mSize == other.mSize
+                    && mInternalSize == other.mInternalSize
+                    && mExternalSize == other.mExternalSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mApkModified, mLabel, mSize, mInternalSize, mExternalSize);
+        }
+    }
+}
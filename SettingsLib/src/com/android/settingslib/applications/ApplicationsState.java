@@ -60,6 +60,7 @@ import androidx.lifecycle.OnLifecycleEvent;
 import com.android.internal.R;
 import com.android.internal.util.ArrayUtils;
 import com.android.settingslib.Utils;
+import com.android.settingslib.utils.PrioritizedExecutor;
 import com.android.settingslib.utils.ThreadUtils;
 
 import java.io.File;
@@ -75,9 +76,16 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -96,6 +104,15 @@ public class ApplicationsState {
     private static final Pattern REMOVE_DIACRITICALS_PATTERN
             = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
 
+    // Number of entries, icons and sizes loaded in parallel per background message. Sessions are
+    // notified after every batch so the list fills in while the rest is loading.
+    private static final int LOAD_ENTRIES_BATCH_SIZE = 32;
+    private static final int LOAD_ICONS_BATCH_SIZE = 16;
+    private static final int LOAD_SIZES_BATCH_SIZE = 8;
+
+    // Number of locks that getEntry() stripes the creation of missing entries over.
+    private static final int ENTRY_LOCK_STRIPES = 16;
+
     @VisibleForTesting
     static ApplicationsState sInstance;
 
@@ -103,6 +120,15 @@ public class ApplicationsState {
         return getInstance(app, AppGlobals.getPackageManager());
     }
 
+    /**
+     * Returns the instance if it has already been created, or {@code null} otherwise.
+     */
+    public static ApplicationsState peekInstance() {
+        synchronized (sLock) {
+            return sInstance;
+        }
+    }
+
     @VisibleForTesting
     static ApplicationsState getInstance(Application app, IPackageManager iPackageManager) {
         synchronized (sLock) {
@@ -121,6 +147,7 @@ public class ApplicationsState {
     final StorageStatsManager mStats;
     final int mAdminRetrieveFlags;
     final int mRetrieveFlags;
+    final AppEntrySnapshot mSnapshot;
     PackageIntentReceiver mPackageIntentReceiver;
 
     boolean mResumed;
@@ -133,17 +160,24 @@ public class ApplicationsState {
     final ArrayList<Session> mRebuildingSessions = new ArrayList<>();
     private InterestingConfigChanges mInterestingConfigChanges = new InterestingConfigChanges();
     // Map: userid => (Map: package name => AppEntry)
-    final SparseArray<HashMap<String, AppEntry>> mEntriesMap = new SparseArray<>();
-    final ArrayList<AppEntry> mAppEntries = new ArrayList<>();
+    // The per user maps and mAppEntries can be read without the lock, they are only modified
+    // while holding it.
+    final SparseArray<Map<String, AppEntry>> mEntriesMap = new SparseArray<>();
+    final CopyOnWriteArrayList<AppEntry> mAppEntries = new CopyOnWriteArrayList<>();
+    // Copy of mEntriesMap published after every user change, for lookups without the lock.
+    private volatile SparseArray<Map<String, AppEntry>> mUserEntries = new SparseArray<>();
+    private final Object[] mEntryLocks = new Object[ENTRY_LOCK_STRIPES];
     List<ApplicationInfo> mApplications = new ArrayList<>();
     long mCurId = 1;
-    UUID mCurComputingSizeUuid;
-    String mCurComputingSizePkg;
-    int mCurComputingSizeUserId;
     boolean mSessionsChanged;
     // Maps all installed modules on the system to whether they're hidden or not.
     final HashMap<String, Boolean> mSystemModules = new HashMap<>();
 
+    // Contention counters, see getLockStats(). The lock counters are guarded by mEntriesMap.
+    private final AtomicLong mLockFreeLookups = new AtomicLong();
+    private long mLockAcquisitions;
+    private long mLockWaitNanos;
+
     // Temporary for dispatching session callbacks.  Only touched by main thread.
     final ArrayList<WeakReference<Session>> mActiveSessions = new ArrayList<>();
 
@@ -197,8 +231,13 @@ public class ApplicationsState {
         mIpm = iPackageManager;
         mUm = mContext.getSystemService(UserManager.class);
         mStats = mContext.getSystemService(StorageStatsManager.class);
+        mSnapshot = new AppEntrySnapshot(mContext);
         for (int userId : mUm.getProfileIdsWithDisabled(UserHandle.myUserId())) {
-            mEntriesMap.put(userId, new HashMap<>());
+            mEntriesMap.put(userId, new ConcurrentHashMap<>());
+        }
+        mUserEntries = mEntriesMap.clone();
+        for (int i = 0; i < mEntryLocks.length; i++) {
+            mEntryLocks[i] = new Object();
         }
 
         mThread = new HandlerThread("ApplicationsState.Loader");
@@ -271,7 +310,8 @@ public class ApplicationsState {
             try {
                 // If this user is new, it needs a map created.
                 if (mEntriesMap.indexOfKey(user.id) < 0) {
-                    mEntriesMap.put(user.id, new HashMap<>());
+                    mEntriesMap.put(user.id, new ConcurrentHashMap<>());
+                    mUserEntries = mEntriesMap.clone();
                 }
                 @SuppressWarnings("unchecked")
                 ParceledListSlice<ApplicationInfo> list =
@@ -289,8 +329,10 @@ public class ApplicationsState {
             // should completely reload the app entries.
             clearEntries();
         } else {
-            for (int i = 0; i < mAppEntries.size(); i++) {
-                mAppEntries.get(i).sizeStale = true;
+            for (AppEntry entry : mAppEntries) {
+                synchronized (entry) {
+                    entry.sizeStale = true;
+                }
             }
         }
 
@@ -319,7 +361,9 @@ public class ApplicationsState {
             int userId = UserHandle.getUserId(info.uid);
             final AppEntry entry = mEntriesMap.get(userId).get(info.packageName);
             if (entry != null) {
-                entry.info = info;
+                synchronized (entry) {
+                    entry.info = info;
+                }
             }
         }
 
@@ -327,7 +371,6 @@ public class ApplicationsState {
             // some apps have been uninstalled.
             clearEntries();
         }
-        mCurComputingSizePkg = null;
         if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
             mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
         }
@@ -459,26 +502,84 @@ public class ApplicationsState {
     }
 
     public AppEntry getEntry(String packageName, int userId) {
-        if (DEBUG_LOCKING) Log.v(TAG, "getEntry about to acquire lock...");
-        synchronized (mEntriesMap) {
-            AppEntry entry = mEntriesMap.get(userId).get(packageName);
-            if (entry == null) {
-                ApplicationInfo info = getAppInfoLocked(packageName, userId);
-                if (info == null) {
-                    try {
-                        info = mIpm.getApplicationInfo(packageName, 0, userId);
-                    } catch (RemoteException e) {
-                        Log.w(TAG, "getEntry couldn't reach PackageManager", e);
-                        return null;
-                    }
+        AppEntry entry = peekEntry(packageName, userId);
+        if (entry != null) {
+            return entry;
+        }
+        // Only one thread at a time creates the entry of a package. mEntriesMap is only held
+        // while looking it up and inserting it, not while its label is loaded.
+        synchronized (mEntryLocks[(packageName.hashCode() * 31 + userId)
+                & (ENTRY_LOCK_STRIPES - 1)]) {
+            ApplicationInfo info;
+            if (DEBUG_LOCKING) Log.v(TAG, "getEntry about to acquire lock...");
+            final long start = SystemClock.elapsedRealtimeNanos();
+            synchronized (mEntriesMap) {
+                noteLockAcquiredLocked(start);
+                entry = mEntriesMap.get(userId).get(packageName);
+                if (entry != null) {
+                    return entry;
                 }
-                if (info != null) {
-                    entry = getEntryLocked(info);
+                info = getAppInfoLocked(packageName, userId);
+                if (DEBUG_LOCKING) Log.v(TAG, "...getEntry releasing lock");
+            }
+            if (info == null) {
+                try {
+                    info = mIpm.getApplicationInfo(packageName, 0, userId);
+                } catch (RemoteException e) {
+                    Log.w(TAG, "getEntry couldn't reach PackageManager", e);
+                    return null;
                 }
             }
-            if (DEBUG_LOCKING) Log.v(TAG, "...getEntry releasing lock");
-            return entry;
+            return info != null ? getOrCreateEntry(info) : null;
+        }
+    }
+
+    /**
+     * Returns the entry of {@code packageName} without taking any lock, or {@code null} if it has
+     * not been loaded yet.
+     */
+    private AppEntry peekEntry(String packageName, int userId) {
+        final Map<String, AppEntry> userEntries = mUserEntries.get(userId);
+        final AppEntry entry = userEntries != null ? userEntries.get(packageName) : null;
+        if (entry != null) {
+            mLockFreeLookups.incrementAndGet();
         }
+        return entry;
+    }
+
+    /**
+     * Like {@link #getEntryLocked}, but loads the label of a new entry without holding the lock.
+     */
+    private AppEntry getOrCreateEntry(ApplicationInfo info) {
+        final int userId = UserHandle.getUserId(info.uid);
+        final long id;
+        long start = SystemClock.elapsedRealtimeNanos();
+        synchronized (mEntriesMap) {
+            noteLockAcquiredLocked(start);
+            final Map<String, AppEntry> userEntries = mEntriesMap.get(userId);
+            final AppEntry entry = userEntries != null ? userEntries.get(info.packageName) : null;
+            if (entry != null || userEntries == null || isHiddenModule(info.packageName)) {
+                return getEntryLocked(info);
+            }
+            id = mCurId++;
+        }
+        final AppEntry entry = createEntry(info, id);
+        start = SystemClock.elapsedRealtimeNanos();
+        synchronized (mEntriesMap) {
+            noteLockAcquiredLocked(start);
+            final Map<String, AppEntry> userEntries = mEntriesMap.get(userId);
+            if (userEntries == null) {
+                // The user has been removed meanwhile.
+                return null;
+            }
+            final AppEntry existing = userEntries.get(info.packageName);
+            if (existing != null) {
+                return existing;
+            }
+            userEntries.put(info.packageName, entry);
+            mAppEntries.add(entry);
+        }
+        return entry;
     }
 
     private ApplicationInfo getAppInfoLocked(String pkg, int userId) {
@@ -516,57 +617,67 @@ public class ApplicationsState {
     }
 
     public void requestSize(String packageName, int userId) {
-        if (DEBUG_LOCKING) Log.v(TAG, "requestSize about to acquire lock...");
-        synchronized (mEntriesMap) {
-            AppEntry entry = mEntriesMap.get(userId).get(packageName);
-            if (entry != null && hasFlag(entry.info.flags, ApplicationInfo.FLAG_INSTALLED)) {
-                mBackgroundHandler.post(
-                        () -> {
+        final AppEntry entry = peekEntry(packageName, userId);
+        if (entry != null && hasFlag(entry.info.flags, ApplicationInfo.FLAG_INSTALLED)) {
+            mBackgroundHandler.post(
+                    () -> {
+                        try {
+                            final StorageStats stats =
+                                    mStats.queryStatsForPackage(
+                                            entry.info.storageUuid,
+                                            packageName,
+                                            UserHandle.of(userId));
+                            final long cacheQuota =
+                                    mStats.getCacheQuotaBytes(
+                                            entry.info.storageUuid.toString(), entry.info.uid);
+                            final PackageStats legacy = new PackageStats(packageName, userId);
+                            legacy.codeSize = stats.getCodeBytes();
+                            legacy.dataSize = stats.getDataBytes();
+                            legacy.cacheSize = Math.min(stats.getCacheBytes(), cacheQuota);
                             try {
-                                final StorageStats stats =
-                                        mStats.queryStatsForPackage(
-                                                entry.info.storageUuid,
-                                                packageName,
-                                                UserHandle.of(userId));
-                                final long cacheQuota =
-                                        mStats.getCacheQuotaBytes(
-                                                entry.info.storageUuid.toString(), entry.info.uid);
-                                final PackageStats legacy = new PackageStats(packageName, userId);
-                                legacy.codeSize = stats.getCodeBytes();
-                                legacy.dataSize = stats.getDataBytes();
-                                legacy.cacheSize = Math.min(stats.getCacheBytes(), cacheQuota);
-                                try {
-                                    mBackgroundHandler.mStatsObserver.onGetStatsCompleted(
-                                            legacy, true);
-                                } catch (RemoteException ignored) {
-                                }
-                            } catch (NameNotFoundException | IOException e) {
-                                Log.w(TAG, "Failed to query stats: " + e);
-                                try {
-                                    mBackgroundHandler.mStatsObserver.onGetStatsCompleted(
-                                            null, false);
-                                } catch (RemoteException ignored) {
-                                }
+                                mBackgroundHandler.mStatsObserver.onGetStatsCompleted(
+                                        legacy, true);
+                            } catch (RemoteException ignored) {
                             }
-                        });
-            }
-            if (DEBUG_LOCKING) Log.v(TAG, "...requestSize releasing lock");
+                        } catch (NameNotFoundException | IOException e) {
+                            Log.w(TAG, "Failed to query stats: " + e);
+                            try {
+                                mBackgroundHandler.mStatsObserver.onGetStatsCompleted(
+                                        null, false);
+                            } catch (RemoteException ignored) {
+                            }
+                        }
+                    });
         }
     }
 
     long sumCacheSizes() {
         long sum = 0;
-        if (DEBUG_LOCKING) Log.v(TAG, "sumCacheSizes about to acquire lock...");
-        synchronized (mEntriesMap) {
-            if (DEBUG_LOCKING) Log.v(TAG, "-> sumCacheSizes now has lock");
-            for (int i = mAppEntries.size() - 1; i >= 0; i--) {
-                sum += mAppEntries.get(i).cacheSize;
-            }
-            if (DEBUG_LOCKING) Log.v(TAG, "...sumCacheSizes releasing lock");
+        for (AppEntry entry : mAppEntries) {
+            sum += entry.cacheSize;
         }
         return sum;
     }
 
+    /**
+     * Returns how often the entry store was read without the lock, and how often and how long
+     * callers had to wait for it.
+     */
+    public LockStats getLockStats() {
+        synchronized (mEntriesMap) {
+            return new LockStats(mLockFreeLookups.get(), mLockAcquisitions,
+                    mLockWaitNanos / 1000000);
+        }
+    }
+
+    /**
+     * Records an acquisition of the lock that was requested at {@code startNanos}.
+     */
+    private void noteLockAcquiredLocked(long startNanos) {
+        mLockAcquisitions++;
+        mLockWaitNanos += SystemClock.elapsedRealtimeNanos() - startNanos;
+    }
+
     int indexOfApplicationInfoLocked(String pkgName, int userId) {
         for (int i = mApplications.size() - 1; i >= 0; i--) {
             ApplicationInfo appInfo = mApplications.get(i);
@@ -580,7 +691,9 @@ public class ApplicationsState {
 
     void addPackage(String pkgName, int userId) {
         try {
+            long start = SystemClock.elapsedRealtimeNanos();
             synchronized (mEntriesMap) {
+                noteLockAcquiredLocked(start);
                 if (DEBUG_LOCKING) Log.v(TAG, "addPackage acquired lock");
                 if (DEBUG) Log.i(TAG, "Adding package " + pkgName);
                 if (!mResumed) {
@@ -595,10 +708,18 @@ public class ApplicationsState {
                     if (DEBUG_LOCKING) Log.v(TAG, "addPackage release lock: already exists");
                     return;
                 }
-                ApplicationInfo info = mIpm.getApplicationInfo(pkgName,
-                        mUm.isUserAdmin(userId) ? mAdminRetrieveFlags : mRetrieveFlags,
-                        userId);
-                if (info == null) {
+            }
+            // Do not keep others waiting for the lock during the binder call.
+            ApplicationInfo info = mIpm.getApplicationInfo(pkgName,
+                    mUm.isUserAdmin(userId) ? mAdminRetrieveFlags : mRetrieveFlags,
+                    userId);
+            if (info == null) {
+                return;
+            }
+            start = SystemClock.elapsedRealtimeNanos();
+            synchronized (mEntriesMap) {
+                noteLockAcquiredLocked(start);
+                if (!mResumed || indexOfApplicationInfoLocked(pkgName, userId) >= 0) {
                     return;
                 }
                 if (!info.enabled) {
@@ -625,7 +746,9 @@ public class ApplicationsState {
     }
 
     public void removePackage(String pkgName, int userId) {
+        final long start = SystemClock.elapsedRealtimeNanos();
         synchronized (mEntriesMap) {
+            noteLockAcquiredLocked(start);
             if (DEBUG_LOCKING) Log.v(TAG, "removePackage acquired lock");
             int idx = indexOfApplicationInfoLocked(pkgName, userId);
             if (DEBUG) Log.i(TAG, "removePackage: " + pkgName + " @ " + idx);
@@ -673,7 +796,8 @@ public class ApplicationsState {
         final int profileIds[] = mUm.getProfileIdsWithDisabled(UserHandle.myUserId());
         if (ArrayUtils.contains(profileIds, userId)) {
             synchronized (mEntriesMap) {
-                mEntriesMap.put(userId, new HashMap<String, AppEntry>());
+                mEntriesMap.put(userId, new ConcurrentHashMap<>());
+                mUserEntries = mEntriesMap.clone();
                 if (mResumed) {
                     // If resumed, Manually pause, then cause a resume to repopulate the app list.
                     // This is the simplest way to reload the packages so that the new user
@@ -690,13 +814,14 @@ public class ApplicationsState {
 
     private void removeUser(int userId) {
         synchronized (mEntriesMap) {
-            HashMap<String, AppEntry> userMap = mEntriesMap.get(userId);
+            Map<String, AppEntry> userMap = mEntriesMap.get(userId);
             if (userMap != null) {
+                mAppEntries.removeAll(userMap.values());
                 for (AppEntry appEntry : userMap.values()) {
-                    mAppEntries.remove(appEntry);
                     mApplications.remove(appEntry.info);
                 }
                 mEntriesMap.remove(userId);
+                mUserEntries = mEntriesMap.clone();
                 if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_LIST_CHANGED)) {
                     mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_LIST_CHANGED);
                 }
@@ -720,15 +845,79 @@ public class ApplicationsState {
             if (DEBUG) {
                 Log.i(TAG, "Creating AppEntry for " + info.packageName);
             }
-            entry = new AppEntry(mContext, info, mCurId++);
+            entry = createEntry(info, mCurId++);
             mEntriesMap.get(userId).put(info.packageName, entry);
             mAppEntries.add(entry);
         } else if (entry.info != info) {
-            entry.info = info;
+            synchronized (entry) {
+                entry.info = info;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * If an app is for a profile and we are on the owner, removes the owner entry if it isn't
+     * installed. This prevents duplicates of work only apps showing up as 'not installed for this
+     * user'.
+     */
+    private void removeUninstalledOwnerEntriesLocked() {
+        if (mEntriesMap.indexOfKey(0) < 0) {
+            return;
+        }
+        final Map<String, AppEntry> ownerEntries = mEntriesMap.get(0);
+        for (int i = 0; i < mApplications.size(); i++) {
+            final ApplicationInfo info = mApplications.get(i);
+            if (UserHandle.getUserId(info.uid) == 0) {
+                continue;
+            }
+            final AppEntry entry = ownerEntries.get(info.packageName);
+            if (entry != null && !hasFlag(entry.info.flags, ApplicationInfo.FLAG_INSTALLED)) {
+                ownerEntries.remove(info.packageName);
+                mAppEntries.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Creates the entry of {@code info}, starting from its last known label and sizes if any.
+     */
+    private AppEntry createEntry(ApplicationInfo info, long id) {
+        final File apkFile = new File(info.sourceDir);
+        final AppEntry entry = new AppEntry(mContext, info, id,
+                mSnapshot.getLabel(info, apkFile));
+        mSnapshot.applySizes(entry);
+        if (entry.size >= 0) {
+            entry.sizeStr = getSizeStr(entry.size);
+            entry.internalSizeStr = getSizeStr(entry.internalSize);
+            entry.externalSizeStr = getSizeStr(entry.externalSize);
         }
         return entry;
     }
 
+    /**
+     * Runs all {@code tasks} on the shared background pool and waits for them. Results of tasks
+     * that failed are {@code null}.
+     */
+    private <T> List<T> runInParallel(PrioritizedExecutor.Priority priority,
+            List<Callable<T>> tasks) {
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(ThreadUtils.postOnBackgroundThread(priority, task));
+        }
+        final List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : futures) {
+            T result = null;
+            try {
+                result = future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, "Failed to load app info", e);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
     // --------------------------------------------------------------
 
     private long getTotalInternalSize(PackageStats ps) {
@@ -820,7 +1009,9 @@ public class ApplicationsState {
         @OnLifecycleEvent(Lifecycle.Event.ON_RESUME)
         public void onResume() {
             if (DEBUG_LOCKING) Log.v(TAG, "resume about to acquire lock...");
+            final long start = SystemClock.elapsedRealtimeNanos();
             synchronized (mEntriesMap) {
+                noteLockAcquiredLocked(start);
                 if (!mResumed) {
                     mResumed = true;
                     mSessionsChanged = true;
@@ -834,7 +1025,9 @@ public class ApplicationsState {
         @OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
         public void onPause() {
             if (DEBUG_LOCKING) Log.v(TAG, "pause about to acquire lock...");
+            final long start = SystemClock.elapsedRealtimeNanos();
             synchronized (mEntriesMap) {
+                noteLockAcquiredLocked(start);
                 if (mResumed) {
                     mResumed = false;
                     mSessionsChanged = true;
@@ -846,9 +1039,7 @@ public class ApplicationsState {
         }
 
         public ArrayList<AppEntry> getAllApps() {
-            synchronized (mEntriesMap) {
-                return new ArrayList<>(mAppEntries);
-            }
+            return new ArrayList<>(mAppEntries);
         }
 
         // Creates a new list of app entries with the given filter and comparator.
@@ -905,41 +1096,40 @@ public class ApplicationsState {
                 filter.init(mContext);
             }
 
-            final List<AppEntry> apps;
-            synchronized (mEntriesMap) {
-                apps = new ArrayList<>(mAppEntries);
-            }
+            // The snapshot does not change while it is filtered and sorted, so this does not
+            // block other sessions or the background handler.
+            final List<AppEntry> apps = new ArrayList<>(mAppEntries);
 
             ArrayList<AppEntry> filteredApps = new ArrayList<>();
             if (DEBUG) {
                 Log.i(TAG, "Rebuilding...");
             }
+            // The background handler keeps updating the sizes and labels of the entries, so they
+            // are sorted by copies taken under the entry lock, which cannot change meanwhile.
+            final Map<AppEntry, AppEntry> sortKeys = comparator != null
+                    ? new IdentityHashMap<>() : null;
             for (AppEntry entry : apps) {
                 if (entry != null && (filter == null || filter.filterApp(entry))) {
-                    synchronized (mEntriesMap) {
-                        if (DEBUG_LOCKING) {
-                            Log.v(TAG, "rebuild acquired lock");
-                        }
-                        if (comparator != null) {
-                            // Only need the label if we are going to be sorting.
+                    if (comparator != null) {
+                        // Only need the label if we are going to be sorting.
+                        synchronized (entry) {
                             entry.ensureLabel(mContext);
-                        }
-                        if (DEBUG) {
-                            Log.i(TAG, "Using " + entry.info.packageName + ": " + entry);
-                        }
-                        filteredApps.add(entry);
-                        if (DEBUG_LOCKING) {
-                            Log.v(TAG, "rebuild releasing lock");
+                            sortKeys.put(new AppEntry(entry), entry);
                         }
                     }
+                    if (DEBUG) {
+                        Log.i(TAG, "Using " + entry.info.packageName + ": " + entry);
+                    }
+                    filteredApps.add(entry);
                 }
             }
 
             if (comparator != null) {
-                synchronized (mEntriesMap) {
-                    // Locking to ensure that the background handler does not mutate
-                    // the size of AppEntries used for ordering while sorting.
-                    Collections.sort(filteredApps, comparator);
+                final List<AppEntry> keys = new ArrayList<>(sortKeys.keySet());
+                Collections.sort(keys, comparator);
+                filteredApps.clear();
+                for (AppEntry key : keys) {
+                    filteredApps.add(sortKeys.get(key));
                 }
             }
 
@@ -1073,6 +1263,8 @@ public class ApplicationsState {
         static final int MSG_LOAD_SIZES = 7;
 
         boolean mRunning;
+        // Whether entries or sizes were loaded since the snapshot was last written.
+        private boolean mSnapshotStale;
 
         BackgroundHandler(Looper looper) {
             super(looper);
@@ -1100,42 +1292,77 @@ public class ApplicationsState {
                 case MSG_REBUILD_LIST: {
                 } break;
                 case MSG_LOAD_ENTRIES: {
-                    int numDone = 0;
+                    // Read here rather than on the first lookup, which may be on the main thread.
+                    mSnapshot.load();
+                    // Pick the next batch of applications that do not have an entry yet.
+                    final List<ApplicationInfo> batch = new ArrayList<>();
+                    final long firstId;
                     synchronized (mEntriesMap) {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES acquired lock");
-                        for (int i = 0; i < mApplications.size() && numDone < 6; i++) {
-                            if (!mRunning) {
-                                mRunning = true;
-                                Message m = mMainHandler.obtainMessage(
-                                        MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                mMainHandler.sendMessage(m);
-                            }
+                        for (int i = 0; i < mApplications.size()
+                                && batch.size() < LOAD_ENTRIES_BATCH_SIZE; i++) {
                             ApplicationInfo info = mApplications.get(i);
                             int userId = UserHandle.getUserId(info.uid);
-                            if (mEntriesMap.get(userId).get(info.packageName) == null) {
-                                numDone++;
-                                getEntryLocked(info);
+                            if (mEntriesMap.get(userId).get(info.packageName) == null
+                                    && !isHiddenModule(info.packageName)) {
+                                batch.add(info);
                             }
-                            if (userId != 0 && mEntriesMap.indexOfKey(0) >= 0) {
-                                // If this app is for a profile and we are on the owner, remove
-                                // the owner entry if it isn't installed.  This will prevent
-                                // duplicates of work only apps showing up as 'not installed
-                                // for this user'.
-                                // Note: This depends on us traversing the users in order, which
-                                // happens because of the way we generate the list in
-                                // doResumeIfNeededLocked.
-                                AppEntry entry = mEntriesMap.get(0).get(info.packageName);
-                                if (entry != null && !hasFlag(entry.info.flags,
-                                        ApplicationInfo.FLAG_INSTALLED)) {
-                                    mEntriesMap.get(0).remove(info.packageName);
-                                    mAppEntries.remove(entry);
-                                }
+                        }
+                        firstId = mCurId;
+                        mCurId += batch.size();
+                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES releasing lock");
+                    }
+                    if (!batch.isEmpty() && !mRunning) {
+                        mRunning = true;
+                        Message m = mMainHandler.obtainMessage(
+                                MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                        mMainHandler.sendMessage(m);
+                    }
+
+                    // Loading labels is the slow part of creating entries, so create them in
+                    // parallel and without holding the lock.
+                    final List<Callable<AppEntry>> tasks = new ArrayList<>(batch.size());
+                    for (int i = 0; i < batch.size(); i++) {
+                        final ApplicationInfo info = batch.get(i);
+                        final long id = firstId + i;
+                        tasks.add(() -> createEntry(info, id));
+                    }
+                    final List<AppEntry> entries =
+                            runInParallel(PrioritizedExecutor.Priority.UI, tasks);
+                    mSnapshotStale |= !batch.isEmpty();
+
+                    final long start = SystemClock.elapsedRealtimeNanos();
+                    synchronized (mEntriesMap) {
+                        noteLockAcquiredLocked(start);
+                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES acquired lock");
+                        final List<AppEntry> added = new ArrayList<>(batch.size());
+                        for (int i = 0; i < batch.size(); i++) {
+                            final AppEntry entry = entries.get(i);
+                            final ApplicationInfo info = batch.get(i);
+                            final Map<String, AppEntry> userEntries =
+                                    mEntriesMap.get(UserHandle.getUserId(info.uid));
+                            if (userEntries == null) {
+                                // The user has been removed meanwhile.
+                                continue;
+                            }
+                            if (entry == null) {
+                                getEntryLocked(info);
+                            } else if (!userEntries.containsKey(info.packageName)) {
+                                userEntries.put(info.packageName, entry);
+                                added.add(entry);
                             }
                         }
+                        // Copy the list once per batch rather than once per entry.
+                        mAppEntries.addAll(added);
+                        removeUninstalledOwnerEntriesLocked();
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES releasing lock");
                     }
 
-                    if (numDone >= 6) {
+                    if (batch.size() >= LOAD_ENTRIES_BATCH_SIZE) {
+                        // Let sessions show the entries loaded so far.
+                        if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_LIST_CHANGED)) {
+                            mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_LIST_CHANGED);
+                        }
                         sendEmptyMessage(MSG_LOAD_ENTRIES);
                     } else {
                         if (!mMainHandler.hasMessages(MainHandler.MSG_LOAD_ENTRIES_COMPLETE)) {
@@ -1152,8 +1379,7 @@ public class ApplicationsState {
                             final int entryCount = mEntriesMap.size();
                             for (int i = 0; i < entryCount; i++) {
                                 if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_HOME_APP acquired lock");
-                                final HashMap<String, AppEntry> userEntries = mEntriesMap.valueAt(
-                                        i);
+                                final Map<String, AppEntry> userEntries = mEntriesMap.valueAt(i);
                                 for (ResolveInfo activity : homeActivities) {
                                     String packageName = activity.activityInfo.packageName;
                                     AppEntry entry = userEntries.get(packageName);
@@ -1194,7 +1420,7 @@ public class ApplicationsState {
                             );
                             synchronized (mEntriesMap) {
                                 if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_LAUNCHER acquired lock");
-                                HashMap<String, AppEntry> userEntries = mEntriesMap.valueAt(i);
+                                Map<String, AppEntry> userEntries = mEntriesMap.valueAt(i);
                                 final int N = intents.size();
                                 for (int j = 0; j < N; j++) {
                                     ResolveInfo resolveInfo = intents.get(j);
@@ -1225,33 +1451,45 @@ public class ApplicationsState {
                 } break;
                 case MSG_LOAD_ICONS: {
                     if (hasFlag(flags, FLAG_SESSION_REQUEST_ICONS)) {
-                        int numDone = 0;
-                        synchronized (mEntriesMap) {
-                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS acquired lock");
-                            for (int i = 0; i < mAppEntries.size() && numDone < 2; i++) {
-                                AppEntry entry = mAppEntries.get(i);
-                                if (entry.icon == null || !entry.mounted) {
-                                    synchronized (entry) {
-                                        if (entry.ensureIconLocked(mContext)) {
-                                            if (!mRunning) {
-                                                mRunning = true;
-                                                Message m = mMainHandler.obtainMessage(
-                                                        MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                                mMainHandler.sendMessage(m);
-                                            }
-                                            numDone++;
-                                        }
-                                    }
+                        final List<AppEntry> batch = new ArrayList<>();
+                        for (AppEntry entry : mAppEntries) {
+                            if (batch.size() >= LOAD_ICONS_BATCH_SIZE) {
+                                break;
+                            }
+                            // Unmounted entries keep the placeholder icon until their apk
+                            // shows up again.
+                            if (entry.icon == null
+                                    || (!entry.mounted && entry.apkFile.exists())) {
+                                batch.add(entry);
+                            }
+                        }
+                        final List<Callable<Boolean>> tasks = new ArrayList<>(batch.size());
+                        for (AppEntry entry : batch) {
+                            tasks.add(() -> {
+                                synchronized (entry) {
+                                    return entry.ensureIconLocked(mContext);
                                 }
+                            });
+                        }
+                        int numDone = 0;
+                        for (Boolean loaded : runInParallel(
+                                PrioritizedExecutor.Priority.PREFETCH, tasks)) {
+                            if (loaded != null && loaded) {
+                                numDone++;
                             }
-                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
                         }
                         if (numDone > 0) {
+                            if (!mRunning) {
+                                mRunning = true;
+                                Message m = mMainHandler.obtainMessage(
+                                        MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                                mMainHandler.sendMessage(m);
+                            }
                             if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
                                 mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_ICON_CHANGED);
                             }
                         }
-                        if (numDone >= 2) {
+                        if (batch.size() >= LOAD_ICONS_BATCH_SIZE) {
                             sendEmptyMessage(MSG_LOAD_ICONS);
                             break;
                         }
@@ -1260,85 +1498,82 @@ public class ApplicationsState {
                 } break;
                 case MSG_LOAD_SIZES: {
                     if (hasFlag(flags, FLAG_SESSION_REQUEST_SIZES)) {
-                        synchronized (mEntriesMap) {
-                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES acquired lock");
-                            if (mCurComputingSizePkg != null) {
-                                if (DEBUG_LOCKING) {
-                                    Log.v(TAG,
-                                            "MSG_LOAD_SIZES releasing: currently computing");
-                                }
-                                return;
+                        final List<AppEntry> batch = new ArrayList<>();
+                        long now = SystemClock.uptimeMillis();
+                        for (AppEntry entry : mAppEntries) {
+                            if (batch.size() >= LOAD_SIZES_BATCH_SIZE) {
+                                break;
                             }
-
-                            long now = SystemClock.uptimeMillis();
-                            for (int i = 0; i < mAppEntries.size(); i++) {
-                                AppEntry entry = mAppEntries.get(i);
+                            synchronized (entry) {
                                 if (hasFlag(entry.info.flags, ApplicationInfo.FLAG_INSTALLED)
-                                        && (entry.size == SIZE_UNKNOWN || entry.sizeStale)) {
-                                    if (entry.sizeLoadStart == 0 ||
-                                            (entry.sizeLoadStart < (now - 20 * 1000))) {
-                                        if (!mRunning) {
-                                            mRunning = true;
-                                            Message m = mMainHandler.obtainMessage(
-                                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                            mMainHandler.sendMessage(m);
-                                        }
-                                        entry.sizeLoadStart = now;
-                                        mCurComputingSizeUuid = entry.info.storageUuid;
-                                        mCurComputingSizePkg = entry.info.packageName;
-                                        mCurComputingSizeUserId = UserHandle.getUserId(
-                                                entry.info.uid);
-
-                                        mBackgroundHandler.post(() -> {
-                                            try {
-                                                final StorageStats stats =
-                                                        mStats.queryStatsForPackage(
-                                                                mCurComputingSizeUuid,
-                                                                mCurComputingSizePkg,
-                                                                UserHandle.of(
-                                                                        mCurComputingSizeUserId));
-                                                final PackageStats legacy = new PackageStats(
-                                                        mCurComputingSizePkg,
-                                                        mCurComputingSizeUserId);
-                                                legacy.codeSize = stats.getCodeBytes();
-                                                legacy.dataSize = stats.getDataBytes();
-                                                legacy.cacheSize = stats.getCacheBytes();
-                                                try {
-                                                    mStatsObserver.onGetStatsCompleted(legacy,
-                                                            true);
-                                                } catch (RemoteException ignored) {
-                                                }
-                                            } catch (NameNotFoundException | IOException e) {
-                                                Log.w(TAG, "Failed to query stats: " + e);
-                                                try {
-                                                    mStatsObserver.onGetStatsCompleted(null, false);
-                                                } catch (RemoteException ignored) {
-                                                }
-                                            }
-
-                                        });
-                                    }
-                                    if (DEBUG_LOCKING) {
-                                        Log.v(TAG,
-                                                "MSG_LOAD_SIZES releasing: now computing");
-                                    }
-                                    return;
+                                        && (entry.size == SIZE_UNKNOWN || entry.sizeStale)
+                                        && (entry.sizeLoadStart == 0
+                                        || entry.sizeLoadStart < (now - 20 * 1000))) {
+                                    entry.sizeLoadStart = now;
+                                    batch.add(entry);
                                 }
                             }
-                            if (!mMainHandler.hasMessages(MainHandler.MSG_ALL_SIZES_COMPUTED)) {
-                                mMainHandler.sendEmptyMessage(MainHandler.MSG_ALL_SIZES_COMPUTED);
-                                mRunning = false;
+                        }
+
+                        if (!batch.isEmpty()) {
+                            if (!mRunning) {
+                                mRunning = true;
                                 Message m = mMainHandler.obtainMessage(
-                                        MainHandler.MSG_RUNNING_STATE_CHANGED, 0);
+                                        MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
                                 mMainHandler.sendMessage(m);
                             }
-                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing lock");
+                            final List<Callable<PackageStats>> tasks =
+                                    new ArrayList<>(batch.size());
+                            for (AppEntry entry : batch) {
+                                final ApplicationInfo info = entry.info;
+                                tasks.add(() -> queryPackageStats(info));
+                            }
+                            for (PackageStats stats : runInParallel(
+                                    PrioritizedExecutor.Priority.BACKGROUND, tasks)) {
+                                try {
+                                    mStatsObserver.onGetStatsCompleted(stats, stats != null);
+                                } catch (RemoteException ignored) {
+                                }
+                            }
+                            mSnapshotStale = true;
+                            sendEmptyMessage(MSG_LOAD_SIZES);
+                            break;
+                        }
+
+                        if (!mMainHandler.hasMessages(MainHandler.MSG_ALL_SIZES_COMPUTED)) {
+                            mMainHandler.sendEmptyMessage(MainHandler.MSG_ALL_SIZES_COMPUTED);
+                            mRunning = false;
+                            Message m = mMainHandler.obtainMessage(
+                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 0);
+                            mMainHandler.sendMessage(m);
+                        }
+                        // Everything is loaded, remember it for the next cold start.
+                        if (mSnapshotStale) {
+                            mSnapshotStale = false;
+                            mSnapshot.update(mAppEntries);
                         }
                     }
                 } break;
             }
         }
 
+        private PackageStats queryPackageStats(ApplicationInfo info) {
+            final String packageName = info.packageName;
+            final int userId = UserHandle.getUserId(info.uid);
+            try {
+                final StorageStats stats = mStats.queryStatsForPackage(info.storageUuid,
+                        packageName, UserHandle.of(userId));
+                final PackageStats legacy = new PackageStats(packageName, userId);
+                legacy.codeSize = stats.getCodeBytes();
+                legacy.dataSize = stats.getDataBytes();
+                legacy.cacheSize = stats.getCacheBytes();
+                return legacy;
+            } catch (NameNotFoundException | IOException e) {
+                Log.w(TAG, "Failed to query stats: " + e);
+                return null;
+            }
+        }
+
         @SessionFlags
         private int getCombinedSessionFlags(List<Session> sessions) {
             synchronized (mEntriesMap) {
@@ -1360,7 +1595,7 @@ public class ApplicationsState {
                 boolean sizeChanged = false;
                 synchronized (mEntriesMap) {
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted acquired lock");
-                    HashMap<String, AppEntry> userMap = mEntriesMap.get(stats.userHandle);
+                    Map<String, AppEntry> userMap = mEntriesMap.get(stats.userHandle);
                     if (userMap == null) {
                         // The user must have been removed.
                         return;
@@ -1408,12 +1643,6 @@ public class ApplicationsState {
                             mMainHandler.sendMessage(msg);
                         }
                     }
-                    if (mCurComputingSizePkg != null
-                            && (mCurComputingSizePkg.equals(stats.packageName)
-                            && mCurComputingSizeUserId == stats.userHandle)) {
-                        mCurComputingSizePkg = null;
-                        sendEmptyMessage(MSG_LOAD_SIZES);
-                    }
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted releasing lock");
                 }
             }
@@ -1532,6 +1761,24 @@ public class ApplicationsState {
         public long externalCacheSize;
     }
 
+    /**
+     * Contention counters of the entry store, see {@link #getLockStats()}.
+     */
+    public static class LockStats {
+        /** Number of entry lookups served without taking the lock. */
+        public final long lockFreeLookups;
+        /** Number of times the lock was taken by instrumented paths. */
+        public final long lockAcquisitions;
+        /** Total time spent waiting for the lock by instrumented paths. */
+        public final long lockWaitMillis;
+
+        LockStats(long lockFreeLookups, long lockAcquisitions, long lockWaitMillis) {
+            this.lockFreeLookups = lockFreeLookups;
+            this.lockAcquisitions = lockAcquisitions;
+            this.lockWaitMillis = lockWaitMillis;
+        }
+    }
+
     public static class AppEntry extends SizeInfo {
         public final File apkFile;
         public final long id;
@@ -1567,7 +1814,7 @@ public class ApplicationsState {
             return normalizedLabel;
         }
 
-        // Need to synchronize on 'this' for the following.
+        // Need to synchronize on 'this' for the following, and to write the label and sizes.
         public ApplicationInfo info;
         public Drawable icon;
         public String sizeStr;
@@ -1583,11 +1830,20 @@ public class ApplicationsState {
 
         @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
         public AppEntry(Context context, ApplicationInfo info, long id) {
+            this(context, info, id, null /* cachedLabel */);
+        }
+
+        AppEntry(Context context, ApplicationInfo info, long id, String cachedLabel) {
             apkFile = new File(info.sourceDir);
             this.id = id;
             this.info = info;
             this.size = SIZE_UNKNOWN;
             this.sizeStale = true;
+            if (cachedLabel != null) {
+                // Only handed out for an unchanged apk file, so it is mounted.
+                this.label = cachedLabel;
+                this.mounted = true;
+            }
             ensureLabel(context);
             // Speed up the cache of the icon and label description if they haven't been created.
             ThreadUtils.postOnBackgroundThread(() -> {
@@ -1600,6 +1856,34 @@ public class ApplicationsState {
             });
         }
 
+        /**
+         * Copies the fields of {@code other} that filters and comparators look at. Must be called
+         * while synchronized on {@code other}.
+         */
+        private AppEntry(AppEntry other) {
+            apkFile = other.apkFile;
+            id = other.id;
+            info = other.info;
+            label = other.label;
+            normalizedLabel = other.normalizedLabel;
+            labelDescription = other.labelDescription;
+            mounted = other.mounted;
+            hasLauncherEntry = other.hasLauncherEntry;
+            launcherEntryEnabled = other.launcherEntryEnabled;
+            isHomeApp = other.isHomeApp;
+            size = other.size;
+            internalSize = other.internalSize;
+            externalSize = other.externalSize;
+            sizeStale = other.sizeStale;
+            cacheSize = other.cacheSize;
+            codeSize = other.codeSize;
+            dataSize = other.dataSize;
+            externalCodeSize = other.externalCodeSize;
+            externalDataSize = other.externalDataSize;
+            externalCacheSize = other.externalCacheSize;
+            extraInfo = other.extraInfo;
+        }
+
         public void ensureLabel(Context context) {
             if (this.label == null || !this.mounted) {
                 if (!this.apkFile.exists()) {
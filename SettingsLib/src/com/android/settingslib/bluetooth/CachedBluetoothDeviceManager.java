@@ -25,10 +25,20 @@ import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * CachedBluetoothDeviceManager manages the set of remote Bluetooth devices.
+ *
+ * Devices are read far more often than they change, from the UI as well as from the
+ * {@link BluetoothEventManager} receiver, so reads do not take the manager lock. The device list
+ * is copy-on-write, and lookups by device go through an immutable index of the main and sub
+ * devices that is replaced after each change. Changes are still serialized on the manager.
  */
 public class CachedBluetoothDeviceManager {
     private static final String TAG = "CachedBluetoothDeviceManager";
@@ -38,17 +48,20 @@ public class CachedBluetoothDeviceManager {
     private final LocalBluetoothManager mBtManager;
 
     @VisibleForTesting
-    final List<CachedBluetoothDevice> mCachedDevices = new ArrayList<CachedBluetoothDevice>();
+    final List<CachedBluetoothDevice> mCachedDevices =
+            new CopyOnWriteArrayList<CachedBluetoothDevice>();
     @VisibleForTesting
     HearingAidDeviceManager mHearingAidDeviceManager;
 
+    private volatile DeviceIndex mDeviceIndex = DeviceIndex.EMPTY;
+
     CachedBluetoothDeviceManager(Context context, LocalBluetoothManager localBtManager) {
         mContext = context;
         mBtManager = localBtManager;
         mHearingAidDeviceManager = new HearingAidDeviceManager(localBtManager, mCachedDevices);
     }
 
-    public synchronized Collection<CachedBluetoothDevice> getCachedDevicesCopy() {
+    public Collection<CachedBluetoothDevice> getCachedDevicesCopy() {
         return new ArrayList<>(mCachedDevices);
     }
 
@@ -74,7 +87,12 @@ public class CachedBluetoothDeviceManager {
      * @return the cached device object for this device, or null if it has
      *   not been previously seen
      */
-    public synchronized CachedBluetoothDevice findDevice(BluetoothDevice device) {
+    public CachedBluetoothDevice findDevice(BluetoothDevice device) {
+        final CachedBluetoothDevice indexedDevice = mDeviceIndex.mDevices.get(device);
+        if (indexedDevice == null || indexedDevice.getDevice().equals(device)) {
+            return indexedDevice;
+        }
+        // The device was switched with its sub device since the index was built.
         for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
             if (cachedDevice.getDevice().equals(device)) {
                 return cachedDevice;
@@ -96,7 +114,10 @@ public class CachedBluetoothDeviceManager {
      * @return the newly created CachedBluetoothDevice object
      */
     public CachedBluetoothDevice addDevice(BluetoothDevice device) {
-        CachedBluetoothDevice newDevice;
+        CachedBluetoothDevice newDevice = findDevice(device);
+        if (newDevice != null) {
+            return newDevice;
+        }
         final LocalBluetoothProfileManager profileManager = mBtManager.getProfileManager();
         synchronized (this) {
             newDevice = findDevice(device);
@@ -105,7 +126,10 @@ public class CachedBluetoothDeviceManager {
                 mHearingAidDeviceManager.initHearingAidDeviceIfNeeded(newDevice);
                 if (!mHearingAidDeviceManager.setSubDeviceIfNeeded(newDevice)) {
                     mCachedDevices.add(newDevice);
+                    updateDeviceIndexLocked();
                     mBtManager.getEventManager().dispatchDeviceAdded(newDevice);
+                } else {
+                    updateDeviceIndexLocked();
                 }
             }
         }
@@ -120,7 +144,7 @@ public class CachedBluetoothDeviceManager {
      * @return Device summary, or if the pair does not exist or if it is not a hearing aid,
      * then {@code null}.
      */
-    public synchronized String getSubDeviceSummary(CachedBluetoothDevice device) {
+    public String getSubDeviceSummary(CachedBluetoothDevice device) {
         CachedBluetoothDevice subDevice = device.getSubDevice();
         if (subDevice != null && subDevice.isConnected()) {
             return subDevice.getConnectionSummary();
@@ -134,17 +158,15 @@ public class CachedBluetoothDeviceManager {
      * @param device the address of the Bluetooth device
      * @return true for found sub device or false.
      */
-    public synchronized boolean isSubDevice(BluetoothDevice device) {
-        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
-            if (!cachedDevice.getDevice().equals(device)) {
-                // Check sub devices if it exists
-                CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
-                if (subDevice != null && subDevice.getDevice().equals(device)) {
-                    return true;
-                }
-            }
+    public boolean isSubDevice(BluetoothDevice device) {
+        final CachedBluetoothDevice cachedDevice = findDevice(device);
+        if (cachedDevice == null) {
+            return false;
         }
-        return false;
+        final CachedBluetoothDevice mainDevice =
+                mDeviceIndex.mMainDevicesBySubDevice.get(cachedDevice);
+        return mainDevice != null && mainDevice.getSubDevice() == cachedDevice
+                && !mainDevice.getDevice().equals(device);
     }
 
     /**
@@ -154,6 +176,7 @@ public class CachedBluetoothDeviceManager {
      */
     public synchronized void updateHearingAidsDevices() {
         mHearingAidDeviceManager.updateHearingAidsDevices();
+        updateDeviceIndexLocked();
     }
 
     /**
@@ -180,6 +203,7 @@ public class CachedBluetoothDeviceManager {
         clearNonBondedSubDevices();
         mCachedDevices.removeIf(cachedDevice
             -> cachedDevice.getBondState() == BluetoothDevice.BOND_NONE);
+        updateDeviceIndexLocked();
     }
 
     private void clearNonBondedSubDevices() {
@@ -194,12 +218,10 @@ public class CachedBluetoothDeviceManager {
         }
     }
 
-    public synchronized void onScanningStateChanged(boolean started) {
+    public void onScanningStateChanged(boolean started) {
         if (!started) return;
         // If starting a new scan, clear old visibility
-        // Iterate in reverse order since devices may be removed.
-        for (int i = mCachedDevices.size() - 1; i >= 0; i--) {
-            CachedBluetoothDevice cachedDevice = mCachedDevices.get(i);
+        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
             cachedDevice.setJustDiscovered(false);
             final CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
             if (subDevice != null) {
@@ -225,13 +247,16 @@ public class CachedBluetoothDeviceManager {
                     mCachedDevices.remove(i);
                 }
             }
+            updateDeviceIndexLocked();
         }
     }
 
     public synchronized boolean onProfileConnectionStateChangedIfProcessed(CachedBluetoothDevice
             cachedDevice, int state) {
-        return mHearingAidDeviceManager.onProfileConnectionStateChangedIfProcessed(cachedDevice,
-                state);
+        final boolean processed = mHearingAidDeviceManager
+                .onProfileConnectionStateChangedIfProcessed(cachedDevice, state);
+        updateDeviceIndexLocked();
+        return processed;
     }
 
     public synchronized void onDeviceUnpaired(CachedBluetoothDevice device) {
@@ -246,6 +271,27 @@ public class CachedBluetoothDeviceManager {
             mainDevice.unpair();
             mainDevice.setSubDevice(null);
         }
+        updateDeviceIndexLocked();
+    }
+
+    /**
+     * Rebuilds the index from the device list. Must be called with the manager lock held, after
+     * any change to the list or to the main-sub device relationships.
+     */
+    private void updateDeviceIndexLocked() {
+        final Map<BluetoothDevice, CachedBluetoothDevice> devices = new HashMap<>();
+        final Map<CachedBluetoothDevice, CachedBluetoothDevice> mainDevicesBySubDevice =
+                new IdentityHashMap<>();
+        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
+            // Keep the first match in list order, as a scan of the list would.
+            devices.putIfAbsent(cachedDevice.getDevice(), cachedDevice);
+            final CachedBluetoothDevice subDevice = cachedDevice.getSubDevice();
+            if (subDevice != null) {
+                devices.putIfAbsent(subDevice.getDevice(), subDevice);
+                mainDevicesBySubDevice.putIfAbsent(subDevice, cachedDevice);
+            }
+        }
+        mDeviceIndex = new DeviceIndex(devices, mainDevicesBySubDevice);
     }
 
     private void log(String msg) {
@@ -253,4 +299,24 @@ public class CachedBluetoothDeviceManager {
             Log.d(TAG, msg);
         }
     }
+
+    /**
+     * Immutable lookup tables of the cached devices, replaced as a whole on each change.
+     */
+    private static final class DeviceIndex {
+        static final DeviceIndex EMPTY = new DeviceIndex(Collections.emptyMap(),
+                Collections.emptyMap());
+
+        // Main and sub devices by their Bluetooth device.
+        final Map<BluetoothDevice, CachedBluetoothDevice> mDevices;
+        // Main devices by their sub device. Switching the content of a main and a sub device
+        // keeps the objects, so this is keyed by identity rather than by Bluetooth device.
+        final Map<CachedBluetoothDevice, CachedBluetoothDevice> mMainDevicesBySubDevice;
+
+        DeviceIndex(Map<BluetoothDevice, CachedBluetoothDevice> devices,
+                Map<CachedBluetoothDevice, CachedBluetoothDevice> mainDevicesBySubDevice) {
+            mDevices = devices;
+            mMainDevicesBySubDevice = mainDevicesBySubDevice;
+        }
+    }
 }
@@ -18,10 +18,15 @@ package com.android.settingslib.net;
 
 import android.app.usage.NetworkStats;
 import android.content.Context;
+import android.net.NetworkStatsHistory;
 import android.os.RemoteException;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -34,26 +39,43 @@ public class NetworkCycleChartDataLoader
     private static final String TAG = "NetworkCycleChartLoader";
 
     private final List<NetworkCycleChartData> mData;
+    private final boolean mAggregateHistory;
+    // Cycles waiting to be aggregated from the history, as {start, end} pairs.
+    private final List<long[]> mPendingCycles;
 
     private NetworkCycleChartDataLoader(Builder builder) {
         super(builder);
         mData = new ArrayList<>();
+        mAggregateHistory = builder.mAggregateHistory;
+        mPendingCycles = new ArrayList<>();
     }
 
     @Override
     void recordUsage(long start, long end) {
+        final NetworkCycleChartData cached = getCachedUsage(start, end);
+        if (cached != null) {
+            addUsage(cached);
+            return;
+        }
+        if (mAggregateHistory) {
+            mPendingCycles.add(new long[] {start, end});
+            return;
+        }
         try {
             final NetworkStats.Bucket bucket = mNetworkStatsManager.querySummaryForDevice(
                     mNetworkTemplate, start, end);
             final long total = bucket == null ? 0L : bucket.getRxBytes() + bucket.getTxBytes();
+            final NetworkCycleChartData.Builder builder = new NetworkCycleChartData.Builder();
             if (total > 0L) {
-                final NetworkCycleChartData.Builder builder = new NetworkCycleChartData.Builder();
-                builder.setUsageBuckets(getUsageBuckets(start, end))
-                    .setStartTime(start)
-                    .setEndTime(end)
-                    .setTotalUsage(total);
-                mData.add(builder.build());
+                builder.setUsageBuckets(getUsageBuckets(start, end));
             }
+            builder.setStartTime(start)
+                .setEndTime(end)
+                .setTotalUsage(total);
+            final NetworkCycleChartData data = builder.build();
+            mCache.put(mNetworkTemplate, NetworkCycleDataCache.KIND_CHART,
+                    NetworkCycleDataCache.UID_ALL, start, end, data);
+            addUsage(data);
         } catch (RemoteException e) {
             Log.e(TAG, "Exception querying network detail.", e);
         }
@@ -61,9 +83,38 @@ public class NetworkCycleChartDataLoader
 
     @Override
     List<NetworkCycleChartData> getCycleUsage() {
+        if (!mPendingCycles.isEmpty()) {
+            try {
+                final List<NetworkCycleChartData> data = aggregateHistory(getHistory(),
+                        mPendingCycles, System.currentTimeMillis());
+                for (NetworkCycleChartData cycle : data) {
+                    mCache.put(mNetworkTemplate, NetworkCycleDataCache.KIND_CHART,
+                            NetworkCycleDataCache.UID_ALL, cycle.getStartTime(),
+                            cycle.getEndTime(), cycle);
+                    addUsage(cycle);
+                }
+            } catch (RemoteException e) {
+                Log.e(TAG, "Exception querying network history.", e);
+            }
+            mPendingCycles.clear();
+            // Cycles served from the cache were added first; restore the cycle order.
+            Collections.sort(mData,
+                    (lhs, rhs) -> Long.compare(rhs.getStartTime(), lhs.getStartTime()));
+        }
         return mData;
     }
 
+    private NetworkCycleChartData getCachedUsage(long start, long end) {
+        return (NetworkCycleChartData) mCache.get(mNetworkTemplate,
+                NetworkCycleDataCache.KIND_CHART, NetworkCycleDataCache.UID_ALL, start, end);
+    }
+
+    private void addUsage(NetworkCycleChartData data) {
+        if (data.getTotalUsage() > 0L) {
+            mData.add(data);
+        }
+    }
+
     public static Builder<?> builder(Context context) {
         return new Builder<NetworkCycleChartDataLoader>(context) {
             @Override
@@ -96,13 +147,140 @@ public class NetworkCycleChartDataLoader
         return data;
     }
 
+    /**
+     * Computes the same usage as {@link #recordUsage} does with one summary query per cycle and
+     * per bucket, in a single pass over {@code history}. Like the summary queries, the usage of a
+     * history bucket is split in proportion to its overlap with a cycle or chart bucket, unless it
+     * is the bucket containing {@code now}, which counts in full.
+     *
+     * @param cycles the {start, end} pairs of the cycles, in the order of the returned data,
+     *               which includes the cycles without usage
+     */
+    @VisibleForTesting
+    static List<NetworkCycleChartData> aggregateHistory(NetworkStatsHistory history,
+            List<long[]> cycles, long now) {
+        final CycleUsage[] recorded = new CycleUsage[cycles.size()];
+        for (int i = 0; i < recorded.length; i++) {
+            recorded[i] = new CycleUsage(cycles.get(i)[0], cycles.get(i)[1]);
+        }
+        final CycleUsage[] sorted = recorded.clone();
+        Arrays.sort(sorted, (lhs, rhs) -> Long.compare(lhs.mStart, rhs.mStart));
+
+        NetworkStatsHistory.Entry entry = null;
+        int firstCycle = 0;
+        final int size = history.size();
+        for (int i = 0; i < size; i++) {
+            entry = history.getValues(i, entry);
+            final long entryStart = entry.bucketStart;
+            final long entryEnd = entryStart + entry.bucketDuration;
+            final boolean active = entryStart < now && entryEnd > now;
+            // History buckets come in time order, so cycles that ended are done.
+            while (firstCycle < sorted.length && sorted[firstCycle].mEnd <= entryStart) {
+                firstCycle++;
+            }
+            for (int c = firstCycle; c < sorted.length && sorted[c].mStart < entryEnd; c++) {
+                sorted[c].add(entry, active);
+            }
+        }
+
+        final List<NetworkCycleChartData> data = new ArrayList<>(recorded.length);
+        for (CycleUsage cycle : recorded) {
+            data.add(cycle.build());
+        }
+        return data;
+    }
+
+    private static long getUsage(NetworkStatsHistory.Entry entry, boolean active, long start,
+            long end) {
+        final long entryStart = entry.bucketStart;
+        final long entryEnd = entryStart + entry.bucketDuration;
+        if (entryEnd <= start || entryStart >= end) {
+            return 0L;
+        }
+        final long overlap = active ? entry.bucketDuration
+                : Math.min(entryEnd, end) - Math.max(entryStart, start);
+        if (overlap <= 0L) {
+            return 0L;
+        }
+        return multiply(entry.rxBytes, overlap, entry.bucketDuration)
+                + multiply(entry.txBytes, overlap, entry.bucketDuration);
+    }
+
+    private static long multiply(long value, long num, long den) {
+        try {
+            return Math.multiplyExact(value, num) / den;
+        } catch (ArithmeticException e) {
+            return (long) (((double) num / den) * value);
+        }
+    }
+
+    private static class CycleUsage {
+        final long mStart;
+        final long mEnd;
+        final long[] mBuckets;
+        long mTotal;
+
+        CycleUsage(long start, long end) {
+            mStart = start;
+            mEnd = end;
+            final long count = (end - start) / NetworkCycleChartData.BUCKET_DURATION_MS;
+            mBuckets = new long[(int) Math.max(0L, count)];
+        }
+
+        void add(NetworkStatsHistory.Entry entry, boolean active) {
+            mTotal += getUsage(entry, active, mStart, mEnd);
+            final long entryEnd = entry.bucketStart + entry.bucketDuration;
+            int index = (int) (Math.max(0L, entry.bucketStart - mStart)
+                    / NetworkCycleChartData.BUCKET_DURATION_MS);
+            for (; index < mBuckets.length; index++) {
+                final long bucketStart = getBucketStart(index);
+                if (bucketStart >= entryEnd) {
+                    break;
+                }
+                mBuckets[index] += getUsage(entry, active, bucketStart,
+                        bucketStart + NetworkCycleChartData.BUCKET_DURATION_MS);
+            }
+        }
+
+        NetworkCycleChartData build() {
+            final List<NetworkCycleData> buckets = new ArrayList<>(mBuckets.length);
+            for (int i = 0; i < mBuckets.length; i++) {
+                final long bucketStart = getBucketStart(i);
+                buckets.add(new NetworkCycleData.Builder()
+                    .setStartTime(bucketStart)
+                    .setEndTime(bucketStart + NetworkCycleChartData.BUCKET_DURATION_MS)
+                    .setTotalUsage(mBuckets[i]).build());
+            }
+            final NetworkCycleChartData.Builder builder = new NetworkCycleChartData.Builder();
+            builder.setUsageBuckets(buckets)
+                .setStartTime(mStart)
+                .setEndTime(mEnd)
+                .setTotalUsage(mTotal);
+            return builder.build();
+        }
+
+        private long getBucketStart(int index) {
+            return mStart + index * NetworkCycleChartData.BUCKET_DURATION_MS;
+        }
+    }
+
     public static abstract class Builder<T extends NetworkCycleChartDataLoader>
             extends NetworkCycleDataLoader.Builder<T> {
 
+        private boolean mAggregateHistory;
+
         public Builder(Context context) {
             super(context);
         }
 
+        /**
+         * Sets whether to compute the usage from a single history query instead of one summary
+         * query per cycle and per chart bucket. The results are the same.
+         */
+        public Builder<T> setAggregateHistory(boolean aggregateHistory) {
+            mAggregateHistory = aggregateHistory;
+            return this;
+        }
     }
 
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.net;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.NetworkTemplate;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Process wide cache of the usage loaded by {@link NetworkCycleDataLoader}s, so that moving
+ * between data usage screens of the same network does not query the same cycles again.
+ *
+ * <p>The usage of a cycle is only complete once network stats were polled after its end, so it is
+ * kept until it is evicted only if it was loaded after such a poll. Any other usage is dropped
+ * after the next poll.
+ */
+public class NetworkCycleDataCache {
+    /** Uid of the usage of the whole device. */
+    static final int UID_ALL = -1;
+
+    /** {@link NetworkCycleChartData} of the device. */
+    static final int KIND_CHART = 0;
+    /** {@link NetworkCycleDataForUid} without foreground and background usage. */
+    static final int KIND_UID = 1;
+    /** {@link NetworkCycleDataForUid} with foreground and background usage. */
+    static final int KIND_UID_DETAIL = 2;
+
+    // Sent by NetworkStatsService after every poll.
+    @VisibleForTesting
+    static final String ACTION_NETWORK_STATS_UPDATED =
+            "com.android.server.action.NETWORK_STATS_UPDATED";
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 256;
+
+    private static NetworkCycleDataCache sInstance;
+
+    private final Map<Key, Entry> mEntries = new LinkedHashMap<Key, Entry>(
+            16 /* initialCapacity */, 0.75f /* loadFactor */, true /* accessOrder */) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // Time of the last network stats poll seen by this process, 0 until the first one.
+    private long mLastPollTime;
+
+    @VisibleForTesting
+    final BroadcastReceiver mStatsUpdatedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onStatsPolled(System.currentTimeMillis());
+        }
+    };
+
+    public static synchronized NetworkCycleDataCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkCycleDataCache();
+            final Context appContext = context.getApplicationContext();
+            (appContext != null ? appContext : context).registerReceiver(
+                    sInstance.mStatsUpdatedReceiver,
+                    new IntentFilter(ACTION_NETWORK_STATS_UPDATED));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    NetworkCycleDataCache() {
+    }
+
+    /**
+     * Returns the cached usage of {@code uid} on {@code template} between {@code start} and
+     * {@code end}, or {@code null} if it needs to be loaded.
+     */
+    synchronized NetworkCycleData get(NetworkTemplate template, int kind, int uid, long start,
+            long end) {
+        final Entry entry = mEntries.get(new Key(template, kind, uid, start, end));
+        return entry != null ? entry.mData : null;
+    }
+
+    synchronized void put(NetworkTemplate template, int kind, int uid, long start, long end,
+            NetworkCycleData data) {
+        mEntries.put(new Key(template, kind, uid, start, end),
+                new Entry(data, end <= mLastPollTime));
+    }
+
+    @VisibleForTesting
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    @VisibleForTesting
+    synchronized void onStatsPolled(long pollTime) {
+        mLastPollTime = pollTime;
+        removeOpenCycles();
+    }
+
+    private void removeOpenCycles() {
+        final Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            if (!it.next().mClosed) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Key {
+        final NetworkTemplate mTemplate;
+        final int mKind;
+        final int mUid;
+        final long mStart;
+        final long mEnd;
+
+        Key(NetworkTemplate template, int kind, int uid, long start, long end) {
+            mTemplate = template;
+            mKind = kind;
+            mUid = uid;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mKind == other.mKind && mUid == other.mUid && mStart == other.mStart
+                    && mEnd == other.mEnd && Objects.equals(mTemplate, other.mTemplate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mTemplate, mKind, mUid, mStart, mEnd);
+        }
+    }
+
+    private static class Entry {
+        final NetworkCycleData mData;
+        // Whether network stats had been polled after the end of the cycle when it was loaded.
+        final boolean mClosed;
+
+        Entry(NetworkCycleData data, boolean closed) {
+            mData = data;
+            mClosed = closed;
+        }
+    }
+}
@@ -53,15 +53,9 @@ public class NetworkCycleDataForUidLoader extends
             long totalUsage = 0L;
             long totalForeground = 0L;
             for (int uid : mUids) {
-                final NetworkStats stats = mNetworkStatsManager.queryDetailsForUid(
-                        mNetworkTemplate, start, end, uid);
-                final long usage = getTotalUsage(stats);
-                if (usage > 0L) {
-                    totalUsage += usage;
-                    if (mRetrieveDetail) {
-                        totalForeground += getForegroundUsage(start, end, uid);
-                    }
-                }
+                final NetworkCycleDataForUid usage = getUsage(start, end, uid);
+                totalUsage += usage.getTotalUsage();
+                totalForeground += usage.getForegroudUsage();
             }
             if (totalUsage > 0L) {
                 final NetworkCycleDataForUid.Builder builder = new NetworkCycleDataForUid.Builder();
@@ -98,6 +92,34 @@ public class NetworkCycleDataForUidLoader extends
         return mUids;
     }
 
+    private NetworkCycleDataForUid getUsage(long start, long end, int uid) {
+        final int kind = mRetrieveDetail
+                ? NetworkCycleDataCache.KIND_UID_DETAIL : NetworkCycleDataCache.KIND_UID;
+        NetworkCycleDataForUid usage = (NetworkCycleDataForUid) mCache.get(mNetworkTemplate,
+                kind, uid, start, end);
+        if (usage == null && !mRetrieveDetail) {
+            // The usage with details also has the total.
+            usage = (NetworkCycleDataForUid) mCache.get(mNetworkTemplate,
+                    NetworkCycleDataCache.KIND_UID_DETAIL, uid, start, end);
+        }
+        if (usage == null) {
+            final NetworkStats stats = mNetworkStatsManager.queryDetailsForUid(
+                    mNetworkTemplate, start, end, uid);
+            final long total = getTotalUsage(stats);
+            final long foreground = total > 0L && mRetrieveDetail
+                    ? getForegroundUsage(start, end, uid) : 0L;
+            final NetworkCycleDataForUid.Builder builder = new NetworkCycleDataForUid.Builder();
+            builder.setBackgroundUsage(total - foreground)
+                .setForegroundUsage(foreground)
+                .setStartTime(start)
+                .setEndTime(end)
+                .setTotalUsage(total);
+            usage = builder.build();
+            mCache.put(mNetworkTemplate, kind, uid, start, end, usage);
+        }
+        return usage;
+    }
+
     private long getForegroundUsage(long start, long end, int uid) {
         final NetworkStats stats = mNetworkStatsManager.queryDetailsForUidTagState(
                 mNetworkTemplate, start, end, uid, TAG_NONE, STATE_FOREGROUND);
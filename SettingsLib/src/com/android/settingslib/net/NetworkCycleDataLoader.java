@@ -50,10 +50,12 @@ public abstract class NetworkCycleDataLoader<D> extends AsyncTaskLoader<D> {
     private static final String TAG = "NetworkCycleDataLoader";
     protected final NetworkStatsManager mNetworkStatsManager;
     protected final NetworkTemplate mNetworkTemplate;
+    protected final NetworkCycleDataCache mCache;
     private final NetworkPolicy mPolicy;
     private final ArrayList<Long> mCycles;
     @VisibleForTesting
     final INetworkStatsService mNetworkStatsService;
+    private NetworkStatsHistory mHistory;
 
     protected NetworkCycleDataLoader(Builder<?> builder) {
         super(builder.mContext);
@@ -63,6 +65,7 @@ public abstract class NetworkCycleDataLoader<D> extends AsyncTaskLoader<D> {
             builder.mContext.getSystemService(Context.NETWORK_STATS_SERVICE);
         mNetworkStatsService = INetworkStatsService.Stub.asInterface(
             ServiceManager.getService(Context.NETWORK_STATS_SERVICE));
+        mCache = NetworkCycleDataCache.getInstance(builder.mContext);
         final NetworkPolicyEditor policyEditor =
             new NetworkPolicyEditor(NetworkPolicyManager.from(builder.mContext));
         policyEditor.read();
@@ -83,7 +86,9 @@ public abstract class NetworkCycleDataLoader<D> extends AsyncTaskLoader<D> {
         } else {
             loadPolicyData();
         }
-        return getCycleUsage();
+        final D usage = getCycleUsage();
+        mHistory = null;
+        return usage;
     }
 
     @VisibleForTesting
@@ -113,9 +118,7 @@ public abstract class NetworkCycleDataLoader<D> extends AsyncTaskLoader<D> {
     @VisibleForTesting
     void loadFourWeeksData() {
         try {
-            final INetworkStatsSession networkSession = mNetworkStatsService.openSession();
-            final NetworkStatsHistory networkHistory = networkSession.getHistoryForNetwork(
-                mNetworkTemplate, FIELD_RX_BYTES | FIELD_TX_BYTES);
+            final NetworkStatsHistory networkHistory = getHistory();
             final long historyStart = networkHistory.getStart();
             final long historyEnd = networkHistory.getEnd();
 
@@ -125,13 +128,25 @@ public abstract class NetworkCycleDataLoader<D> extends AsyncTaskLoader<D> {
                 recordUsage(cycleStart, cycleEnd);
                 cycleEnd = cycleStart;
             }
-
-            TrafficStats.closeQuietly(networkSession);
         } catch (RemoteException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Returns the rx and tx bytes history of the network template. It is only queried once for
+     * each load.
+     */
+    protected NetworkStatsHistory getHistory() throws RemoteException {
+        if (mHistory == null) {
+            final INetworkStatsSession networkSession = mNetworkStatsService.openSession();
+            mHistory = networkSession.getHistoryForNetwork(
+                mNetworkTemplate, FIELD_RX_BYTES | FIELD_TX_BYTES);
+            TrafficStats.closeQuietly(networkSession);
+        }
+        return mHistory;
+    }
+
     @VisibleForTesting
     void loadDataForSpecificCycles() {
         long cycleEnd = mCycles.get(0);
@@ -34,10 +34,21 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
 import com.android.settingslib.R;
 import com.android.settingslib.Utils;
+import com.android.settingslib.utils.PrioritizedExecutor.Priority;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Return details about a specific UID, handling special cases like
@@ -45,8 +56,25 @@ import com.android.settingslib.Utils;
  */
 public class UidDetailProvider {
     private static final String TAG = "DataUsage";
+    @VisibleForTesting
+    static final int MAX_CACHED_DETAILS = 128;
+
     private final Context mContext;
-    private final SparseArray<UidDetail> mUidDetailCache;
+    private final LruCache<Integer, UidDetail> mUidDetailCache;
+    // Details being built, so that concurrent requests for a uid share one build. Also guards
+    // mUidDetailCache, so that a detail is either pending or cached once it is requested.
+    private final SparseArray<PendingDetail> mPendingDetails = new SparseArray<>();
+
+    /**
+     * Receives a {@link UidDetail} requested with {@link #getUidDetail(int, Callback)}.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread once the detail of {@code uid} is built, or right away if it
+         * was cached. {@code detail} is {@code null} if it could not be built.
+         */
+        void onUidDetailLoaded(int uid, UidDetail detail);
+    }
 
     public static final int OTHER_USER_RANGE_START = -2000;
 
@@ -64,12 +92,13 @@ public class UidDetailProvider {
 
     public UidDetailProvider(Context context) {
         mContext = context;
-        mUidDetailCache = new SparseArray<UidDetail>();
+        mUidDetailCache = new LruCache<>(MAX_CACHED_DETAILS);
     }
 
     public void clearCache() {
-        synchronized (mUidDetailCache) {
-            mUidDetailCache.clear();
+        synchronized (mPendingDetails) {
+            mUidDetailCache.evictAll();
+            mPendingDetails.clear();
         }
     }
 
@@ -77,25 +106,141 @@ public class UidDetailProvider {
      * Resolve best descriptive label for the given UID.
      */
     public UidDetail getUidDetail(int uid, boolean blocking) {
-        UidDetail detail;
+        final PendingDetail pending;
+        synchronized (mPendingDetails) {
+            final UidDetail detail = mUidDetailCache.get(uid);
+            if (detail != null) {
+                return detail;
+            } else if (!blocking) {
+                return null;
+            }
+            pending = getOrCreatePendingLocked(uid);
+        }
+        // Builds the detail on this thread, unless it is already being built elsewhere.
+        pending.run();
+        if (pending.isCancelled()) {
+            // A prefetch of the uid was cancelled meanwhile.
+            return buildUidDetail(uid);
+        }
+        return pending.getDetail();
+    }
 
-        synchronized (mUidDetailCache) {
+    /**
+     * Resolve best descriptive label for the given UID in the background, and deliver it to
+     * {@code callback} on the main thread.
+     */
+    public void getUidDetail(int uid, @NonNull Callback callback) {
+        final UidDetail detail;
+        final PendingDetail pending;
+        boolean submit = false;
+        synchronized (mPendingDetails) {
             detail = mUidDetailCache.get(uid);
+            if (detail != null) {
+                pending = null;
+            } else {
+                submit = mPendingDetails.get(uid) == null;
+                pending = getOrCreatePendingLocked(uid);
+                pending.mCallbacks.add(callback);
+            }
         }
-
         if (detail != null) {
-            return detail;
-        } else if (!blocking) {
-            return null;
+            callback.onUidDetailLoaded(uid, detail);
+        } else if (submit) {
+            ThreadUtils.postOnBackgroundThread(Priority.UI, pending);
         }
+    }
 
-        detail = buildUidDetail(uid);
+    /**
+     * Builds the details of {@code uids} in the background so that they are cached by the time
+     * they are shown. Requests for these uids made meanwhile wait for the same build.
+     */
+    public void prefetchUidDetails(int[] uids) {
+        final List<PendingDetail> toSubmit = new ArrayList<>();
+        synchronized (mPendingDetails) {
+            for (int uid : uids) {
+                if (mUidDetailCache.get(uid) == null && mPendingDetails.get(uid) == null) {
+                    final PendingDetail pending = getOrCreatePendingLocked(uid);
+                    pending.mPrefetch = true;
+                    toSubmit.add(pending);
+                }
+            }
+        }
+        for (PendingDetail pending : toSubmit) {
+            ThreadUtils.postOnBackgroundThread(Priority.PREFETCH, pending);
+        }
+    }
 
-        synchronized (mUidDetailCache) {
-            mUidDetailCache.put(uid, detail);
+    /**
+     * Cancels the builds started by {@link #prefetchUidDetails(int[])} that nobody waits for yet.
+     */
+    public void cancelPrefetch() {
+        synchronized (mPendingDetails) {
+            for (int i = mPendingDetails.size() - 1; i >= 0; i--) {
+                final PendingDetail pending = mPendingDetails.valueAt(i);
+                if (pending.mPrefetch && pending.mCallbacks.isEmpty()) {
+                    mPendingDetails.removeAt(i);
+                    pending.cancel(false /* mayInterruptIfRunning */);
+                }
+            }
         }
+    }
 
-        return detail;
+    private PendingDetail getOrCreatePendingLocked(int uid) {
+        PendingDetail pending = mPendingDetails.get(uid);
+        if (pending == null) {
+            pending = new PendingDetail(uid);
+            mPendingDetails.put(uid, pending);
+        }
+        return pending;
+    }
+
+    /**
+     * A build of the detail of a uid, run by whichever of the background thread or a blocking
+     * caller gets to it first.
+     */
+    private class PendingDetail extends FutureTask<UidDetail> {
+        private final int mUid;
+        // Guarded by mPendingDetails.
+        private final List<Callback> mCallbacks = new ArrayList<>();
+        // Whether it was started by a prefetch. Guarded by mPendingDetails.
+        private boolean mPrefetch;
+
+        PendingDetail(int uid) {
+            super(() -> buildUidDetail(uid));
+            mUid = uid;
+        }
+
+        UidDetail getDetail() {
+            try {
+                return get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, "Error while building UI detail for uid " + mUid, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void done() {
+            final UidDetail detail = isCancelled() ? null : getDetail();
+            final List<Callback> callbacks;
+            synchronized (mPendingDetails) {
+                // Not cached if the cache was cleared meanwhile.
+                if (mPendingDetails.get(mUid) == this) {
+                    mPendingDetails.remove(mUid);
+                    if (detail != null) {
+                        mUidDetailCache.put(mUid, detail);
+                    }
+                }
+                callbacks = new ArrayList<>(mCallbacks);
+            }
+            if (!callbacks.isEmpty()) {
+                ThreadUtils.postOnMainThread(() -> {
+                    for (Callback callback : callbacks) {
+                        callback.onUidDetailLoaded(mUid, detail);
+                    }
+                });
+            }
+        }
     }
 
     /**
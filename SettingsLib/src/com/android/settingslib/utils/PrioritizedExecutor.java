@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settingslib.utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.OnLifecycleEvent;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A background executor that serves tasks by {@link Priority} instead of in submission order.
+ *
+ * <p>Tasks may be bound to a {@link Lifecycle}; all pending and running tasks of that owner are
+ * cancelled once it is destroyed. Queue depth and wait time are tracked per priority so that
+ * starvation of a lane can be spotted from a dump.
+ */
+public class PrioritizedExecutor {
+
+    /**
+     * Scheduling lanes, in decreasing order of urgency.
+     */
+    public enum Priority {
+        /** Work needed to render the screen that is currently visible. */
+        UI(Process.THREAD_PRIORITY_DEFAULT),
+        /** Work that warms up data the user is likely to need next. */
+        PREFETCH(Process.THREAD_PRIORITY_BACKGROUND),
+        /** Work nobody is waiting on, such as search or slice indexing. */
+        BACKGROUND(Process.THREAD_PRIORITY_LOWEST);
+
+        private final int mThreadPriority;
+
+        Priority(int threadPriority) {
+            mThreadPriority = threadPriority;
+        }
+    }
+
+    private static final String THREAD_NAME_PREFIX = "SettingsLibExecutor-";
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicInteger[] mQueueDepth = new AtomicInteger[Priority.values().length];
+    private final AtomicLong[] mStartedCount = new AtomicLong[Priority.values().length];
+    private final AtomicLong[] mTotalWaitMillis = new AtomicLong[Priority.values().length];
+    private final AtomicLong[] mMaxWaitMillis = new AtomicLong[Priority.values().length];
+    private final Map<Lifecycle, Set<PrioritizedTask<?>>> mOwnerTasks = new HashMap<>();
+
+    public PrioritizedExecutor(int poolSize) {
+        for (int i = 0; i < mQueueDepth.length; i++) {
+            mQueueDepth[i] = new AtomicInteger();
+            mStartedCount[i] = new AtomicLong();
+            mTotalWaitMillis[i] = new AtomicLong();
+            mMaxWaitMillis[i] = new AtomicLong();
+        }
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L /* keepAliveTime */,
+                TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), new NamedThreadFactory());
+    }
+
+    /**
+     * Submits {@code runnable} on the given lane.
+     */
+    public Future<?> submit(@NonNull Priority priority, @NonNull Runnable runnable) {
+        return enqueue(new PrioritizedTask<>(priority, null /* owner */,
+                Executors.callable(runnable)));
+    }
+
+    /**
+     * Submits {@code callable} on the given lane.
+     */
+    public <T> Future<T> submit(@NonNull Priority priority, @NonNull Callable<T> callable) {
+        return enqueue(new PrioritizedTask<>(priority, null /* owner */, callable));
+    }
+
+    /**
+     * Submits {@code runnable} on the given lane and cancels it when {@code owner} is destroyed.
+     * If {@code owner} is already destroyed the task is cancelled right away.
+     */
+    public Future<?> submit(@NonNull Priority priority, @NonNull Lifecycle owner,
+            @NonNull Runnable runnable) {
+        return submit(priority, owner, Executors.callable(runnable));
+    }
+
+    /**
+     * Submits {@code callable} on the given lane and cancels it when {@code owner} is destroyed.
+     * If {@code owner} is already destroyed the task is cancelled right away.
+     */
+    public <T> Future<T> submit(@NonNull Priority priority, @NonNull Lifecycle owner,
+            @NonNull Callable<T> callable) {
+        final PrioritizedTask<T> task = new PrioritizedTask<>(priority, owner, callable);
+        if (owner.getCurrentState() == Lifecycle.State.DESTROYED) {
+            task.cancel(false /* mayInterruptIfRunning */);
+            return task;
+        }
+        final boolean firstTask;
+        synchronized (mOwnerTasks) {
+            Set<PrioritizedTask<?>> tasks = mOwnerTasks.get(owner);
+            firstTask = tasks == null;
+            if (firstTask) {
+                tasks = new HashSet<>();
+                mOwnerTasks.put(owner, tasks);
+            }
+            tasks.add(task);
+        }
+        if (firstTask) {
+            // LifecycleRegistry only accepts observers on the main thread.
+            final Runnable observe = () -> {
+                if (owner.getCurrentState() == Lifecycle.State.DESTROYED) {
+                    cancelAll(owner);
+                } else {
+                    owner.addObserver(new OwnerObserver(owner));
+                }
+            };
+            if (ThreadUtils.isMainThread()) {
+                observe.run();
+            } else {
+                ThreadUtils.postOnMainThread(observe);
+            }
+        }
+        return enqueue(task);
+    }
+
+    /**
+     * Cancels every task that was submitted with {@code owner} and has not finished yet.
+     */
+    public void cancelAll(@NonNull Lifecycle owner) {
+        final Set<PrioritizedTask<?>> tasks;
+        synchronized (mOwnerTasks) {
+            tasks = mOwnerTasks.remove(owner);
+        }
+        if (tasks == null) {
+            return;
+        }
+        for (PrioritizedTask<?> task : tasks) {
+            task.cancel(true /* mayInterruptIfRunning */);
+        }
+    }
+
+    /**
+     * Returns the number of tasks of {@code priority} waiting for a thread.
+     */
+    public int getQueueDepth(@NonNull Priority priority) {
+        return mQueueDepth[priority.ordinal()].get();
+    }
+
+    /**
+     * Returns the average time tasks of {@code priority} spent queued before they started.
+     */
+    public long getAverageWaitMillis(@NonNull Priority priority) {
+        final long started = mStartedCount[priority.ordinal()].get();
+        return started == 0 ? 0 : mTotalWaitMillis[priority.ordinal()].get() / started;
+    }
+
+    /**
+     * Returns the longest time a task of {@code priority} spent queued before it started.
+     */
+    public long getMaxWaitMillis(@NonNull Priority priority) {
+        return mMaxWaitMillis[priority.ordinal()].get();
+    }
+
+    /**
+     * Dumps the per-lane counters.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("PrioritizedExecutor: poolSize=" + mExecutor.getCorePoolSize()
+                + " active=" + mExecutor.getActiveCount());
+        for (Priority priority : Priority.values()) {
+            final int i = priority.ordinal();
+            writer.println("  " + priority
+                    + ": queued=" + mQueueDepth[i].get()
+                    + " started=" + mStartedCount[i].get()
+                    + " avgWaitMs=" + getAverageWaitMillis(priority)
+                    + " maxWaitMs=" + mMaxWaitMillis[i].get());
+        }
+    }
+
+    @VisibleForTesting
+    int getOwnerCount() {
+        synchronized (mOwnerTasks) {
+            return mOwnerTasks.size();
+        }
+    }
+
+    private <T> Future<T> enqueue(PrioritizedTask<T> task) {
+        mQueueDepth[task.mPriority.ordinal()].incrementAndGet();
+        mExecutor.execute(task);
+        return task;
+    }
+
+    private void onTaskDone(PrioritizedTask<?> task) {
+        if (task.mOwner == null) {
+            return;
+        }
+        synchronized (mOwnerTasks) {
+            final Set<PrioritizedTask<?>> tasks = mOwnerTasks.get(task.mOwner);
+            if (tasks != null) {
+                tasks.remove(task);
+            }
+        }
+    }
+
+    private class PrioritizedTask<T> extends FutureTask<T>
+            implements Comparable<PrioritizedTask<?>> {
+        private final Priority mPriority;
+        private final Lifecycle mOwner;
+        private final long mSequenceNumber;
+        private final long mEnqueueTime;
+        private final AtomicBoolean mDequeued = new AtomicBoolean();
+
+        PrioritizedTask(Priority priority, Lifecycle owner, Callable<T> callable) {
+            super(callable);
+            mPriority = priority;
+            mOwner = owner;
+            mSequenceNumber = mSequence.getAndIncrement();
+            mEnqueueTime = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void run() {
+            markDequeued();
+            if (isCancelled()) {
+                return;
+            }
+            final int lane = mPriority.ordinal();
+            final long waitMillis = SystemClock.elapsedRealtime() - mEnqueueTime;
+            mStartedCount[lane].incrementAndGet();
+            mTotalWaitMillis[lane].addAndGet(waitMillis);
+            long max = mMaxWaitMillis[lane].get();
+            while (waitMillis > max && !mMaxWaitMillis[lane].compareAndSet(max, waitMillis)) {
+                max = mMaxWaitMillis[lane].get();
+            }
+
+            Process.setThreadPriority(mPriority.mThreadPriority);
+            try {
+                super.run();
+            } finally {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mExecutor.remove(this)) {
+                markDequeued();
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            onTaskDone(this);
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            final int byPriority = mPriority.compareTo(other.mPriority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return Long.compare(mSequenceNumber, other.mSequenceNumber);
+        }
+
+        private void markDequeued() {
+            if (mDequeued.compareAndSet(false, true)) {
+                mQueueDepth[mPriority.ordinal()].decrementAndGet();
+            }
+        }
+    }
+
+    private class OwnerObserver implements LifecycleObserver {
+        private final Lifecycle mOwner;
+
+        OwnerObserver(Lifecycle owner) {
+            mOwner = owner;
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+        public void onDestroy() {
+            mOwner.removeObserver(this);
+            cancelAll(mOwner);
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, THREAD_NAME_PREFIX + mCount.incrementAndGet());
+        }
+    }
+}
@@ -18,6 +18,10 @@ package com.android.settingslib.utils;
 import android.os.Handler;
 import android.os.Looper;
 
+import androidx.lifecycle.Lifecycle;
+
+import com.android.settingslib.utils.PrioritizedExecutor.Priority;
+
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,6 +32,7 @@ public class ThreadUtils {
     private static volatile Thread sMainThread;
     private static volatile Handler sMainThreadHandler;
     private static volatile ExecutorService sThreadExecutor;
+    private static volatile PrioritizedExecutor sPrioritizedExecutor;
 
     /**
      * Returns true if the current thread is the UI thread.
@@ -77,6 +82,48 @@ public class ThreadUtils {
         return getThreadExecutor().submit(callable);
     }
 
+    /**
+     * Posts runnable in background on the given {@link Priority} lane of the shared prioritized
+     * thread pool.
+     *
+     * @Return A future of the task that can be monitored for updates or cancelled.
+     */
+    public static Future postOnBackgroundThread(Priority priority, Runnable runnable) {
+        return getPrioritizedExecutor().submit(priority, runnable);
+    }
+
+    /**
+     * Posts callable in background on the given {@link Priority} lane of the shared prioritized
+     * thread pool.
+     *
+     * @Return A future of the task that can be monitored for updates or cancelled.
+     */
+    public static <T> Future<T> postOnBackgroundThread(Priority priority, Callable<T> callable) {
+        return getPrioritizedExecutor().submit(priority, callable);
+    }
+
+    /**
+     * Posts runnable in background on the given {@link Priority} lane of the shared prioritized
+     * thread pool. The task is cancelled when {@code owner} is destroyed.
+     *
+     * @Return A future of the task that can be monitored for updates or cancelled.
+     */
+    public static Future postOnBackgroundThread(Priority priority, Lifecycle owner,
+            Runnable runnable) {
+        return getPrioritizedExecutor().submit(priority, owner, runnable);
+    }
+
+    /**
+     * Returns the shared prioritized thread pool, e.g. to dump its counters.
+     */
+    public static synchronized PrioritizedExecutor getPrioritizedExecutor() {
+        if (sPrioritizedExecutor == null) {
+            sPrioritizedExecutor = new PrioritizedExecutor(
+                    Runtime.getRuntime().availableProcessors());
+        }
+        return sPrioritizedExecutor;
+    }
+
     /**
      * Posts the runnable on the main thread.
      */
@@ -60,13 +60,13 @@ import com.android.settingslib.core.lifecycle.events.OnDestroy;
 import com.android.settingslib.core.lifecycle.events.OnStart;
 import com.android.settingslib.core.lifecycle.events.OnStop;
 import com.android.settingslib.utils.ThreadUtils;
+import com.android.wifitrackerlib.ScanResultStore;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -163,7 +163,7 @@ public class WifiTracker implements LifecycleObserver, OnStart, OnStop, OnDestro
 
     // Does not need to be locked as it only updated on the worker thread, with the exception of
     // during onStart, which occurs before the receiver is registered on the work handler.
-    private final HashMap<String, ScanResult> mScanResultCache = new HashMap<>();
+    private final ScanResultStore mScanResultCache = new ScanResultStore();
     private boolean mRegistered;
 
     private NetworkInfo mLastNetworkInfo;
@@ -468,18 +468,20 @@ public class WifiTracker implements LifecycleObserver, OnStart, OnStop, OnDestro
             final List<ScanResult> newResults) {
         // TODO(sghuman): Delete this and replace it with the Map of Ap Keys to ScanResults for
         // memory efficiency
+        final List<ScanResult> validResults = new ArrayList<>(newResults.size());
         for (ScanResult newResult : newResults) {
             if (newResult.SSID == null || newResult.SSID.isEmpty()) {
                 continue;
             }
-            mScanResultCache.put(newResult.BSSID, newResult);
+            validResults.add(newResult);
         }
+        mScanResultCache.putAll(validResults);
 
         // Evict old results in all conditions
         evictOldScans();
 
         ArrayMap<String, List<ScanResult>> scanResultsByApKey = new ArrayMap<>();
-        for (ScanResult result : mScanResultCache.values()) {
+        for (ScanResult result : mScanResultCache.getScanResults()) {
             // Ignore hidden and ad-hoc networks.
             if (result.SSID == null || result.SSID.length() == 0 ||
                     result.capabilities.contains("[IBSS]")) {
@@ -514,13 +516,7 @@ public class WifiTracker implements LifecycleObserver, OnStart, OnStop, OnDestro
                 : MAX_SCAN_RESULT_AGE_MILLIS * 2;
 
         long nowMs = SystemClock.elapsedRealtime();
-        for (Iterator<ScanResult> iter = mScanResultCache.values().iterator(); iter.hasNext(); ) {
-            ScanResult result = iter.next();
-            // result timestamp is in microseconds
-            if (nowMs - result.timestamp / 1000 > evictionTimeoutMillis) {
-                iter.remove();
-            }
-        }
+        mScanResultCache.evictOlderThan(nowMs - evictionTimeoutMillis);
     }
 
     private WifiConfiguration getWifiConfigurationForNetworkId(
@@ -613,7 +609,7 @@ public class WifiTracker implements LifecycleObserver, OnStart, OnStop, OnDestro
                 accessPoints.add(accessPoint);
             }
 
-            List<ScanResult> cachedScanResults = new ArrayList<>(mScanResultCache.values());
+            List<ScanResult> cachedScanResults = mScanResultCache.getScanResults();
 
             // Add a unique Passpoint AccessPoint for each Passpoint profile's unique identifier.
             accessPoints.addAll(updatePasspointAccessPoints(
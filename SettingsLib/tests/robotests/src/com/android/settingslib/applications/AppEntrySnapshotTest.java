@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppEntrySnapshotTest {
+
+    private static final String PACKAGE_NAME = "com.android.test";
+
+    private Context mContext;
+    private File mFile;
+    private File mApkFile;
+    private ApplicationInfo mInfo;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        mFile = new File(mContext.getCacheDir(), AppEntrySnapshot.FILE_NAME);
+        mFile.delete();
+        mApkFile = new File(mContext.getCacheDir(), "base.apk");
+        try (FileOutputStream out = new FileOutputStream(mApkFile)) {
+            out.write(0);
+        }
+
+        mInfo = new ApplicationInfo();
+        mInfo.packageName = PACKAGE_NAME;
+        mInfo.sourceDir = mApkFile.getPath();
+        mInfo.flags |= ApplicationInfo.FLAG_INSTALLED;
+    }
+
+    @Test
+    public void update_thenRead_shouldRestoreLabelAndSizes() {
+        final AppEntry entry = new AppEntry(mContext, mInfo, 1 /* id */, "label");
+        entry.size = 100;
+        entry.internalSize = 60;
+        entry.externalSize = 40;
+        new AppEntrySnapshot(mFile).update(Collections.singletonList(entry));
+
+        final AppEntrySnapshot snapshot = new AppEntrySnapshot(mFile);
+        snapshot.load();
+        final AppEntry restored = new AppEntry(mContext, mInfo, 2 /* id */,
+                snapshot.getLabel(mInfo, mApkFile));
+        snapshot.applySizes(restored);
+
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(restored.label).isEqualTo("label");
+        assertThat(restored.size).isEqualTo(100);
+        assertThat(restored.internalSize).isEqualTo(60);
+        assertThat(restored.externalSize).isEqualTo(40);
+        assertThat(restored.sizeStale).isTrue();
+    }
+
+    @Test
+    public void getLabel_apkChanged_shouldReturnNull() {
+        final AppEntry entry = new AppEntry(mContext, mInfo, 1 /* id */, "label");
+        new AppEntrySnapshot(mFile).update(Collections.singletonList(entry));
+
+        mApkFile.setLastModified(mApkFile.lastModified() + 10000);
+
+        final AppEntrySnapshot snapshot = new AppEntrySnapshot(mFile);
+        snapshot.load();
+        assertThat(snapshot.getLabel(mInfo, mApkFile)).isNull();
+    }
+
+    @Test
+    public void getLabel_notLoaded_shouldNotReadDisk() {
+        final AppEntry entry = new AppEntry(mContext, mInfo, 1 /* id */, "label");
+        new AppEntrySnapshot(mFile).update(Collections.singletonList(entry));
+
+        final AppEntrySnapshot snapshot = new AppEntrySnapshot(mFile);
+
+        assertThat(snapshot.getLabel(mInfo, mApkFile)).isNull();
+        assertThat(snapshot.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void update_unchanged_shouldNotWrite() {
+        final AppEntry entry = new AppEntry(mContext, mInfo, 1 /* id */, "label");
+        entry.size = 100;
+        final AppEntrySnapshot snapshot = new AppEntrySnapshot(mFile);
+        assertThat(snapshot.update(Collections.singletonList(entry))).isTrue();
+
+        assertThat(snapshot.update(Collections.singletonList(entry))).isFalse();
+        assertThat(new AppEntrySnapshot(mFile).update(Collections.singletonList(entry)))
+                .isFalse();
+
+        entry.size = 200;
+        assertThat(snapshot.update(Collections.singletonList(entry))).isTrue();
+    }
+
+    @Test
+    public void readFromDisk_corruptFile_shouldStartEmpty() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[] {0, 0, 0, 1, 42});
+        }
+
+        final AppEntrySnapshot snapshot = new AppEntrySnapshot(mFile);
+        snapshot.load();
+
+        assertThat(snapshot.size()).isEqualTo(0);
+        assertThat(mFile.exists()).isFalse();
+    }
+}
@@ -702,6 +702,29 @@ public class ApplicationsStateRoboTest {
         verify(mApplicationsState, never()).clearEntries();
     }
 
+    @Test
+    public void getEntry_loadedEntry_shouldNotTakeLock() {
+        addApp(HOME_PACKAGE_NAME, 1);
+        final long acquisitions = mApplicationsState.getLockStats().lockAcquisitions;
+
+        final AppEntry entry = mApplicationsState.getEntry(HOME_PACKAGE_NAME, 0);
+
+        assertThat(entry.id).isEqualTo(1);
+        assertThat(mApplicationsState.getLockStats().lockFreeLookups).isEqualTo(1);
+        assertThat(mApplicationsState.getLockStats().lockAcquisitions).isEqualTo(acquisitions);
+    }
+
+    @Test
+    public void getAllApps_entryAddedLater_shouldNotChangeSnapshot() {
+        addApp(HOME_PACKAGE_NAME, 1);
+        final List<AppEntry> apps = mSession.getAllApps();
+
+        addApp(LAUNCHABLE_PACKAGE_NAME, 2);
+
+        assertThat(apps).hasSize(1);
+        assertThat(mSession.getAllApps()).hasSize(2);
+    }
+
     private void setupDoResumeIfNeededLocked(ArrayList<ApplicationInfo> ownerApps,
             ArrayList<ApplicationInfo> profileApps)
             throws RemoteException {
@@ -220,6 +220,24 @@ public class CachedBluetoothDeviceManagerTest {
         assertThat(mCachedDeviceManager.findDevice(mDevice2)).isEqualTo(cachedDevice2);
     }
 
+    /**
+     * Test to verify findDevice() and isSubDevice() after the main and sub devices are switched.
+     */
+    @Test
+    public void findDevice_subDeviceContentSwitched_foundSwitchedDevices() {
+        doAnswer((invocation) -> HISYNCID1).when(mHearingAidProfile).getHiSyncId(mDevice1);
+        doAnswer((invocation) -> HISYNCID1).when(mHearingAidProfile).getHiSyncId(mDevice2);
+        CachedBluetoothDevice cachedDevice1 = mCachedDeviceManager.addDevice(mDevice1);
+        CachedBluetoothDevice cachedDevice2 = mCachedDeviceManager.addDevice(mDevice2);
+
+        cachedDevice1.switchSubDeviceContent();
+
+        assertThat(mCachedDeviceManager.findDevice(mDevice1)).isEqualTo(cachedDevice2);
+        assertThat(mCachedDeviceManager.findDevice(mDevice2)).isEqualTo(cachedDevice1);
+        assertThat(mCachedDeviceManager.isSubDevice(mDevice1)).isTrue();
+        assertThat(mCachedDeviceManager.isSubDevice(mDevice2)).isFalse();
+    }
+
     /**
      * Test to verify getName().
      */
@@ -31,6 +31,7 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.ProviderInfo;
 import android.content.pm.ResolveInfo;
 import android.os.Bundle;
+import android.os.Parcel;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -71,6 +72,20 @@ public class ProviderTileTest {
         mTile = new ProviderTile(mProviderInfo, "category", mMetaData);
     }
 
+    @Test
+    public void parcel_shouldKeepAuthorityAndKey() {
+        final Parcel parcel = Parcel.obtain();
+        mTile.writeToParcel(parcel, 0 /* flags */);
+        parcel.setDataPosition(0);
+
+        final Tile tile = Tile.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertThat(tile).isInstanceOf(ProviderTile.class);
+        assertThat(tile.getDescription()).isEqualTo(mTile.getDescription());
+        assertThat(TileUtils.getCacheKey(tile)).isEqualTo(TileUtils.getCacheKey(mTile));
+    }
+
     @Test
     public void isPrimaryProfileOnly_profilePrimary_shouldReturnTrue() {
         mMetaData.putString(META_DATA_KEY_PROFILE, PROFILE_PRIMARY);
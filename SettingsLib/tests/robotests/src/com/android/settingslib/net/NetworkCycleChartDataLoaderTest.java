@@ -16,13 +16,25 @@
 
 package com.android.settingslib.net;
 
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.app.usage.NetworkStats;
 import android.app.usage.NetworkStatsManager;
 import android.content.Context;
+import android.net.INetworkStatsService;
+import android.net.INetworkStatsSession;
 import android.net.NetworkPolicy;
 import android.net.NetworkPolicyManager;
+import android.net.NetworkStatsHistory;
 import android.net.NetworkTemplate;
 import android.os.RemoteException;
 import android.text.format.DateUtils;
@@ -33,6 +45,10 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
 public class NetworkCycleChartDataLoaderTest {
@@ -45,6 +61,10 @@ public class NetworkCycleChartDataLoaderTest {
     private Context mContext;
     @Mock
     private NetworkTemplate mNetworkTemplate;
+    @Mock
+    private INetworkStatsService mNetworkStatsService;
+    @Mock
+    private INetworkStatsSession mNetworkStatsSession;
 
     private NetworkCycleChartDataLoader mLoader;
 
@@ -56,6 +76,7 @@ public class NetworkCycleChartDataLoaderTest {
         when(mContext.getSystemService(Context.NETWORK_POLICY_SERVICE))
             .thenReturn(mNetworkPolicyManager);
         when(mNetworkPolicyManager.getNetworkPolicies()).thenReturn(new NetworkPolicy[0]);
+        NetworkCycleDataCache.getInstance(mContext).clear();
     }
 
     @Test
@@ -70,4 +91,82 @@ public class NetworkCycleChartDataLoaderTest {
 
         verify(mNetworkStatsManager).querySummaryForDevice(mNetworkTemplate, start, end);
     }
+
+    @Test
+    public void loadInBackground_aggregateHistory_shouldMatchSummaryQueries() throws Exception {
+        final NetworkStatsHistory history = createHistory();
+        when(mNetworkStatsService.openSession()).thenReturn(mNetworkStatsSession);
+        when(mNetworkStatsSession.getHistoryForNetwork(nullable(NetworkTemplate.class), anyInt()))
+                .thenReturn(history);
+        // The summary of the fake source is computed from the same history, like the service.
+        when(mNetworkStatsManager.querySummaryForDevice(eq(mNetworkTemplate), anyLong(),
+                anyLong())).thenAnswer(invocation -> {
+                    final NetworkStatsHistory.Entry entry = history.getValues(
+                            invocation.getArgument(1), invocation.getArgument(2), null);
+                    final NetworkStats.Bucket bucket = new NetworkStats.Bucket();
+                    ReflectionHelpers.setField(bucket, "mRxBytes", entry.rxBytes);
+                    ReflectionHelpers.setField(bucket, "mTxBytes", entry.txBytes);
+                    return bucket;
+                });
+        // Cycles that are not aligned to history buckets, one of them before any usage.
+        final long historyStart = history.getStart();
+        final ArrayList<Long> cycles = new ArrayList<>();
+        cycles.add(history.getEnd() + DateUtils.HOUR_IN_MILLIS * 5 + 17);
+        cycles.add(historyStart + DateUtils.DAY_IN_MILLIS * 31 + DateUtils.MINUTE_IN_MILLIS * 7);
+        cycles.add(historyStart + DateUtils.DAY_IN_MILLIS * 10 + DateUtils.HOUR_IN_MILLIS * 3);
+        cycles.add(historyStart - DateUtils.DAY_IN_MILLIS * 2 - 1234);
+        cycles.add(historyStart - DateUtils.DAY_IN_MILLIS * 20);
+
+        final List<NetworkCycleChartData> aggregated = createLoader(cycles, true)
+                .loadInBackground();
+        verify(mNetworkStatsManager, never())
+                .querySummaryForDevice(eq(mNetworkTemplate), anyLong(), anyLong());
+        NetworkCycleDataCache.getInstance(mContext).clear();
+        final List<NetworkCycleChartData> queried = createLoader(cycles, false)
+                .loadInBackground();
+
+        assertThat(aggregated).hasSize(3);
+        assertThat(aggregated).hasSize(queried.size());
+        for (int i = 0; i < queried.size(); i++) {
+            assertSameUsage(aggregated.get(i), queried.get(i));
+            final List<NetworkCycleData> aggregatedBuckets = aggregated.get(i).getUsageBuckets();
+            final List<NetworkCycleData> queriedBuckets = queried.get(i).getUsageBuckets();
+            assertThat(aggregatedBuckets).hasSize(queriedBuckets.size());
+            for (int j = 0; j < queriedBuckets.size(); j++) {
+                assertSameUsage(aggregatedBuckets.get(j), queriedBuckets.get(j));
+            }
+        }
+    }
+
+    private NetworkCycleChartDataLoader createLoader(ArrayList<Long> cycles,
+            boolean aggregateHistory) {
+        final NetworkCycleChartDataLoader loader = NetworkCycleChartDataLoader.builder(mContext)
+                .setAggregateHistory(aggregateHistory)
+                .setNetworkTemplate(mNetworkTemplate)
+                .setCycles(cycles)
+                .build();
+        ReflectionHelpers.setField(loader, "mNetworkStatsService", mNetworkStatsService);
+        return loader;
+    }
+
+    private static NetworkStatsHistory createHistory() {
+        final NetworkStatsHistory history = new NetworkStatsHistory(DateUtils.HOUR_IN_MILLIS);
+        final long start = System.currentTimeMillis() - DateUtils.DAY_IN_MILLIS * 60;
+        final long hourStart = start - start % DateUtils.HOUR_IN_MILLIS;
+        for (int hour = 0; hour < 24 * 45; hour++) {
+            final long bucketStart = hourStart + hour * DateUtils.HOUR_IN_MILLIS;
+            // Uneven amounts, so that splitting buckets rounds differently.
+            final long rxBytes = (hour * 7919L) % 100003L;
+            final long txBytes = (hour * 104729L) % 65537L;
+            history.recordData(bucketStart, bucketStart + DateUtils.HOUR_IN_MILLIS,
+                    new android.net.NetworkStats.Entry(rxBytes, 1L, txBytes, 1L, 0L));
+        }
+        return history;
+    }
+
+    private static void assertSameUsage(NetworkCycleData actual, NetworkCycleData expected) {
+        assertThat(actual.getStartTime()).isEqualTo(expected.getStartTime());
+        assertThat(actual.getEndTime()).isEqualTo(expected.getEndTime());
+        assertThat(actual.getTotalUsage()).isEqualTo(expected.getTotalUsage());
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.net;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Intent;
+import android.net.NetworkTemplate;
+import android.text.format.DateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class NetworkCycleDataCacheTest {
+    private static final String SUB_ID = "Test Subscriber";
+
+    private NetworkCycleDataCache mCache;
+    private NetworkTemplate mNetworkTemplate;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mCache = new NetworkCycleDataCache();
+        mNetworkTemplate = NetworkTemplate.buildTemplateMobileAll(SUB_ID);
+        mNow = System.currentTimeMillis();
+    }
+
+    @Test
+    public void get_differentUid_shouldReturnNull() {
+        final NetworkCycleData data = put(1 /* uid */, mNow - DateUtils.DAY_IN_MILLIS);
+
+        assertThat(mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, 1 /* uid */,
+                0L, mNow - DateUtils.DAY_IN_MILLIS)).isSameAs(data);
+        assertThat(mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, 2 /* uid */,
+                0L, mNow - DateUtils.DAY_IN_MILLIS)).isNull();
+        assertThat(mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID_DETAIL,
+                1 /* uid */, 0L, mNow - DateUtils.DAY_IN_MILLIS)).isNull();
+    }
+
+    @Test
+    public void onStatsUpdated_shouldOnlyDropOpenCycles() {
+        mCache.onStatsPolled(mNow);
+        put(1 /* uid */, mNow - DateUtils.DAY_IN_MILLIS);
+        put(2 /* uid */, mNow + DateUtils.DAY_IN_MILLIS);
+
+        mCache.mStatsUpdatedReceiver.onReceive(RuntimeEnvironment.application,
+                new Intent(NetworkCycleDataCache.ACTION_NETWORK_STATS_UPDATED));
+
+        assertThat(mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, 1 /* uid */,
+                0L, mNow - DateUtils.DAY_IN_MILLIS)).isNotNull();
+        assertThat(mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, 2 /* uid */,
+                0L, mNow + DateUtils.DAY_IN_MILLIS)).isNull();
+    }
+
+    @Test
+    public void onStatsUpdated_cycleEndedAfterLastPoll_shouldDropCycle() {
+        // The cycle has ended, but the stats it was loaded from may miss its last minutes.
+        mCache.onStatsPolled(mNow - 2 * DateUtils.DAY_IN_MILLIS);
+        put(1 /* uid */, mNow - DateUtils.DAY_IN_MILLIS);
+
+        mCache.mStatsUpdatedReceiver.onReceive(RuntimeEnvironment.application,
+                new Intent(NetworkCycleDataCache.ACTION_NETWORK_STATS_UPDATED));
+
+        assertThat(mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, 1 /* uid */,
+                0L, mNow - DateUtils.DAY_IN_MILLIS)).isNull();
+    }
+
+    @Test
+    public void onStatsUpdated_noPollYet_shouldDropAllCycles() {
+        put(1 /* uid */, mNow - DateUtils.DAY_IN_MILLIS);
+
+        mCache.mStatsUpdatedReceiver.onReceive(RuntimeEnvironment.application,
+                new Intent(NetworkCycleDataCache.ACTION_NETWORK_STATS_UPDATED));
+
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void put_overMaxEntries_shouldEvictLeastRecentlyUsed() {
+        for (int uid = 0; uid <= NetworkCycleDataCache.MAX_ENTRIES; uid++) {
+            put(uid, mNow - DateUtils.DAY_IN_MILLIS);
+            // Keep the first entry in use.
+            mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, 0 /* uid */, 0L,
+                    mNow - DateUtils.DAY_IN_MILLIS);
+        }
+
+        assertThat(mCache.size()).isEqualTo(NetworkCycleDataCache.MAX_ENTRIES);
+        assertThat(mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, 0 /* uid */,
+                0L, mNow - DateUtils.DAY_IN_MILLIS)).isNotNull();
+        assertThat(mCache.get(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, 1 /* uid */,
+                0L, mNow - DateUtils.DAY_IN_MILLIS)).isNull();
+    }
+
+    private NetworkCycleData put(int uid, long end) {
+        final NetworkCycleData data = new NetworkCycleDataForUid.Builder()
+                .setStartTime(0L).setEndTime(end).setTotalUsage(1024L).build();
+        mCache.put(mNetworkTemplate, NetworkCycleDataCache.KIND_UID, uid, 0L, end, data);
+        return data;
+    }
+}
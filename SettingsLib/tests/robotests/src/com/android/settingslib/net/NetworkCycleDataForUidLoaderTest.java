@@ -19,6 +19,8 @@ package com.android.settingslib.net;
 import static android.app.usage.NetworkStats.Bucket.STATE_FOREGROUND;
 import static android.net.NetworkStats.TAG_NONE;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
@@ -63,6 +65,7 @@ public class NetworkCycleDataForUidLoaderTest {
                 .thenReturn(mNetworkPolicyManager);
         when(mNetworkPolicyManager.getNetworkPolicies()).thenReturn(new NetworkPolicy[0]);
         mNetworkTemplate = NetworkTemplate.buildTemplateMobileAll(SUB_ID);
+        NetworkCycleDataCache.getInstance(mContext).clear();
     }
 
     @Test
@@ -116,4 +119,26 @@ public class NetworkCycleDataForUidLoaderTest {
         verify(mNetworkStatsManager).queryDetailsForUid(mNetworkTemplate, start, end, 3);
     }
 
+    @Test
+    public void recordUsage_sameClosedCycle_shouldQueryOnce() {
+        final long end = System.currentTimeMillis() - DateUtils.DAY_IN_MILLIS;
+        final long start = end - (DateUtils.WEEK_IN_MILLIS * 4);
+        final int uid = 1;
+        mLoader = spy(NetworkCycleDataForUidLoader.builder(mContext)
+                .addUid(uid)
+                .setNetworkTemplate(mNetworkTemplate)
+                .build());
+        doReturn(1024L).when(mLoader).getTotalUsage(any());
+        mLoader.recordUsage(start, end);
+
+        final NetworkCycleDataForUidLoader loader = NetworkCycleDataForUidLoader.builder(mContext)
+                .addUid(uid)
+                .setNetworkTemplate(mNetworkTemplate)
+                .build();
+        loader.recordUsage(start, end);
+
+        verify(mNetworkStatsManager).queryDetailsForUid(mNetworkTemplate, start, end, uid);
+        assertThat(loader.getCycleUsage()).hasSize(1);
+        assertThat(loader.getCycleUsage().get(0).getTotalUsage()).isEqualTo(1024L);
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settingslib.net;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.UserManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class UidDetailProviderTest {
+    @Mock
+    private UserManager mUserManager;
+
+    private Context mContext;
+    private UidDetailProvider mProvider;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = spy(RuntimeEnvironment.application);
+        // No user has a UserInfo, so keys of users fall back to the package manager.
+        doReturn(mUserManager).when(mContext).getSystemService(Context.USER_SERVICE);
+        mProvider = new UidDetailProvider(mContext);
+    }
+
+    @Test
+    public void getUidDetail_blockingTwice_shouldBuildOnce() {
+        final UidDetail detail = mProvider.getUidDetail(Process.SYSTEM_UID, true /* blocking */);
+
+        assertThat(mProvider.getUidDetail(Process.SYSTEM_UID, true /* blocking */))
+                .isSameAs(detail);
+        verify(mContext, times(1)).getResources();
+    }
+
+    @Test
+    public void getUidDetail_callbackWithCachedDetail_shouldDeliverRightAway() {
+        final UidDetail detail = mProvider.getUidDetail(Process.SYSTEM_UID, true /* blocking */);
+        final List<UidDetail> delivered = new ArrayList<>();
+
+        mProvider.getUidDetail(Process.SYSTEM_UID, (uid, loaded) -> delivered.add(loaded));
+
+        assertThat(delivered).containsExactly(detail);
+    }
+
+    @Test
+    public void cancelPrefetch_thenGetBlocking_shouldStillBuildDetail() {
+        mProvider.prefetchUidDetails(new int[] {Process.SYSTEM_UID});
+        mProvider.cancelPrefetch();
+
+        assertThat(mProvider.getUidDetail(Process.SYSTEM_UID, true /* blocking */)).isNotNull();
+    }
+
+    @Test
+    public void getUidDetail_overMaxCachedDetails_shouldEvictLeastRecentlyUsed() {
+        final int firstKey = UidDetailProvider.buildKeyForUser(0);
+        for (int i = 0; i <= UidDetailProvider.MAX_CACHED_DETAILS; i++) {
+            mProvider.getUidDetail(UidDetailProvider.buildKeyForUser(i), true /* blocking */);
+        }
+
+        assertThat(mProvider.getUidDetail(firstKey, false /* blocking */)).isNull();
+        assertThat(mProvider.getUidDetail(UidDetailProvider.buildKeyForUser(
+                UidDetailProvider.MAX_CACHED_DETAILS), false /* blocking */)).isNotNull();
+    }
+}
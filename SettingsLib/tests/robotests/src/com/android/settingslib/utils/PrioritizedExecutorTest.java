@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settingslib.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+
+import com.android.settingslib.utils.PrioritizedExecutor.Priority;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class PrioritizedExecutorTest {
+
+    private PrioritizedExecutor mExecutor;
+    private CountDownLatch mBlocker;
+
+    @Before
+    public void setUp() {
+        mExecutor = new PrioritizedExecutor(1 /* poolSize */);
+        mBlocker = new CountDownLatch(1);
+    }
+
+    @Test
+    public void submit_higherPriorityQueuedLater_shouldRunFirst() throws Exception {
+        final List<Priority> order = Collections.synchronizedList(new ArrayList<>());
+        blockWorker();
+
+        mExecutor.submit(Priority.BACKGROUND, () -> order.add(Priority.BACKGROUND));
+        mExecutor.submit(Priority.PREFETCH, () -> order.add(Priority.PREFETCH));
+        final Future<?> last = mExecutor.submit(Priority.UI, () -> order.add(Priority.UI));
+        assertThat(mExecutor.getQueueDepth(Priority.BACKGROUND)).isEqualTo(1);
+        assertThat(mExecutor.getQueueDepth(Priority.UI)).isEqualTo(1);
+
+        mBlocker.countDown();
+        mExecutor.submit(Priority.BACKGROUND, () -> { }).get(1, TimeUnit.SECONDS);
+        last.get(1, TimeUnit.SECONDS);
+
+        assertThat(order).containsExactly(Priority.UI, Priority.PREFETCH, Priority.BACKGROUND)
+                .inOrder();
+        assertThat(mExecutor.getQueueDepth(Priority.BACKGROUND)).isEqualTo(0);
+        assertThat(mExecutor.getQueueDepth(Priority.UI)).isEqualTo(0);
+    }
+
+    @Test
+    public void submit_samePriority_shouldRunInSubmissionOrder() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        blockWorker();
+
+        for (int i = 0; i < 5; i++) {
+            final int index = i;
+            mExecutor.submit(Priority.PREFETCH, () -> order.add(index));
+        }
+        mBlocker.countDown();
+        mExecutor.submit(Priority.BACKGROUND, () -> { }).get(1, TimeUnit.SECONDS);
+
+        assertThat(order).containsExactly(0, 1, 2, 3, 4).inOrder();
+    }
+
+    @Test
+    public void ownerDestroyed_shouldCancelPendingTasks() throws Exception {
+        final LifecycleOwner owner = () -> null;
+        final LifecycleRegistry lifecycle = new LifecycleRegistry(owner);
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
+        blockWorker();
+
+        final Future<?> future = mExecutor.submit(Priority.UI, lifecycle, () -> { });
+        assertThat(mExecutor.getOwnerCount()).isEqualTo(1);
+
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
+        mBlocker.countDown();
+
+        assertThat(future.isCancelled()).isTrue();
+        assertThat(mExecutor.getOwnerCount()).isEqualTo(0);
+        assertThat(mExecutor.getQueueDepth(Priority.UI)).isEqualTo(0);
+    }
+
+    @Test
+    public void submit_ownerAlreadyDestroyed_shouldNotRun() {
+        final LifecycleOwner owner = () -> null;
+        final LifecycleRegistry lifecycle = new LifecycleRegistry(owner);
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
+
+        final Future<?> future = mExecutor.submit(Priority.UI, lifecycle, () -> { });
+
+        assertThat(future.isCancelled()).isTrue();
+        assertThat(mExecutor.getOwnerCount()).isEqualTo(0);
+    }
+
+    private void blockWorker() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        mExecutor.submit(Priority.UI, () -> {
+            started.countDown();
+            try {
+                mBlocker.await();
+            } catch (InterruptedException e) {
+                // Exit.
+            }
+        });
+        started.await(1, TimeUnit.SECONDS);
+    }
+}
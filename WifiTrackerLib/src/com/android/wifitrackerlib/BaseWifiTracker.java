@@ -32,6 +32,7 @@ import android.net.NetworkKey;
 import android.net.NetworkRequest;
 import android.net.NetworkScoreManager;
 import android.net.ScoredNetwork;
+import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiNetworkScoreCache;
 import android.os.Handler;
@@ -47,6 +48,7 @@ import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.OnLifecycleEvent;
 
+import java.io.PrintWriter;
 import java.time.Clock;
 import java.util.HashSet;
 import java.util.List;
@@ -106,7 +108,12 @@ public class BaseWifiTracker implements LifecycleObserver {
                 notifyOnWifiStateChanged();
                 handleWifiStateChangedAction();
             } else if (WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action)) {
-                mNetworkScoreManager.requestScores(mWifiManager.getScanResults().stream()
+                final List<ScanResult> scanResults = mWifiManager.getScanResults();
+                if (intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, true)) {
+                    mScanScheduler.onScanResults(
+                            ScanScheduler.fingerprint(scanResults, mWifiManager));
+                }
+                mNetworkScoreManager.requestScores(scanResults.stream()
                         .map(NetworkKey::createFromScanResult)
                         .filter(mRequestedScoreKeys::add)
                         .collect(toList()));
@@ -121,6 +128,7 @@ public class BaseWifiTracker implements LifecycleObserver {
         }
     };
     private final BaseWifiTracker.Scanner mScanner;
+    private final ScanScheduler mScanScheduler;
     private final BaseWifiTrackerCallback mListener;
 
     protected final Context mContext;
@@ -129,6 +137,7 @@ public class BaseWifiTracker implements LifecycleObserver {
     protected final NetworkScoreManager mNetworkScoreManager;
     protected final Handler mMainHandler;
     protected final Handler mWorkerHandler;
+    protected final Clock mClock;
     protected final long mMaxScanAgeMillis;
     protected final long mScanIntervalMillis;
     protected final ScanResultUpdater mScanResultUpdater;
@@ -186,6 +195,7 @@ public class BaseWifiTracker implements LifecycleObserver {
         mNetworkScoreManager = networkScoreManager;
         mMainHandler = mainHandler;
         mWorkerHandler = workerHandler;
+        mClock = clock;
         mMaxScanAgeMillis = maxScanAgeMillis;
         mScanIntervalMillis = scanIntervalMillis;
         mListener = listener;
@@ -200,6 +210,7 @@ public class BaseWifiTracker implements LifecycleObserver {
                         handleNetworkScoreCacheUpdated();
                     }
                 });
+        mScanScheduler = ScanScheduler.getInstance();
         mScanner = new BaseWifiTracker.Scanner(workerHandler.getLooper());
         sVerboseLogging = mWifiManager.isVerboseLoggingEnabled();
     }
@@ -260,6 +271,17 @@ public class BaseWifiTracker implements LifecycleObserver {
         return mWifiManager.getWifiState();
     }
 
+    /**
+     * Dumps the state of the tracker, including the counters of the scans requested, coalesced
+     * with another tracker's scan and skipped to back off, which are shared by all trackers.
+     */
+    @AnyThread
+    public void dump(@NonNull PrintWriter pw) {
+        pw.println("  - " + mTag + " ------");
+        pw.println("  Wi-Fi state: " + getWifiState());
+        mScanScheduler.dump(pw);
+    }
+
     /**
      * Method to run on the worker thread when onStart is invoked.
      * Data that can be updated immediately after onStart should be populated here.
@@ -334,13 +356,15 @@ public class BaseWifiTracker implements LifecycleObserver {
     }
 
     /**
-     * Scanner to handle starting scans every SCAN_INTERVAL_MILLIS
+     * Scanner to handle starting scans every SCAN_INTERVAL_MILLIS, or less often while the
+     * ScanScheduler backs off.
      */
     @WorkerThread
     private class Scanner extends Handler {
         private static final int SCAN_RETRY_TIMES = 3;
 
         private int mRetry = 0;
+        private boolean mStarted;
 
         private Scanner(Looper looper) {
             super(looper);
@@ -350,6 +374,12 @@ public class BaseWifiTracker implements LifecycleObserver {
             if (isVerboseLoggingEnabled()) {
                 Log.v(mTag, "Scanner start");
             }
+            if (!mStarted) {
+                mStarted = true;
+                mScanScheduler.onTrackerStarted(mClock.millis(), mScanIntervalMillis);
+            }
+            // Restart the scan loop rather than running a second one.
+            removeCallbacksAndMessages(null);
             postScan();
         }
 
@@ -357,22 +387,35 @@ public class BaseWifiTracker implements LifecycleObserver {
             if (isVerboseLoggingEnabled()) {
                 Log.v(mTag, "Scanner stop");
             }
+            if (mStarted) {
+                mStarted = false;
+                mScanScheduler.onTrackerStopped();
+            }
             mRetry = 0;
             removeCallbacksAndMessages(null);
         }
 
         private void postScan() {
-            if (mWifiManager.startScan()) {
-                mRetry = 0;
-            } else if (++mRetry >= SCAN_RETRY_TIMES) {
-                // TODO(b/70983952): See if toast is needed here
-                if (isVerboseLoggingEnabled()) {
-                    Log.v(mTag, "Scanner failed to start scan " + mRetry + " times!");
+            final long nowMillis = mClock.millis();
+            final int decision = mScanScheduler.onScanTick(nowMillis, mScanIntervalMillis);
+            if (decision == ScanScheduler.DECISION_SCAN) {
+                if (mWifiManager.startScan()) {
+                    mRetry = 0;
+                } else if (++mRetry >= SCAN_RETRY_TIMES) {
+                    // TODO(b/70983952): See if toast is needed here
+                    if (isVerboseLoggingEnabled()) {
+                        Log.v(mTag, "Scanner failed to start scan " + mRetry + " times!");
+                    }
+                    mRetry = 0;
+                    return;
                 }
-                mRetry = 0;
-                return;
+            } else if (isVerboseLoggingEnabled()) {
+                Log.v(mTag, decision == ScanScheduler.DECISION_COALESCED
+                        ? "Scan coalesced with another tracker's scan"
+                        : "Scan skipped while scan results are unchanged");
             }
-            postDelayed(this::postScan, mScanIntervalMillis);
+            postDelayed(this::postScan,
+                    mScanScheduler.getTickMillis(nowMillis, mScanIntervalMillis));
         }
     }
 
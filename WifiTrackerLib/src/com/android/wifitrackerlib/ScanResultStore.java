@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wifitrackerlib;
+
+import android.net.wifi.ScanResult;
+import android.util.LongSparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store of the latest scan result per BSSID, kept in timestamp order.
+ *
+ * BSSIDs are keyed by their 48-bit value rather than by string. Since results are ordered by
+ * timestamp, evicting old results only trims the oldest ones, and reading the results newer than
+ * some age only walks those results. Reads return an unmodifiable list that is reused until the
+ * store changes.
+ *
+ * Not thread-safe; callers are expected to hold their own lock.
+ */
+public class ScanResultStore {
+    @VisibleForTesting
+    static final long INVALID_BSSID = -1;
+
+    // Results by 48-bit BSSID.
+    private final LongSparseArray<Node> mNodesByBssid = new LongSparseArray<>();
+    // Results whose BSSID is not a MAC address, which should not happen outside of tests.
+    private final Map<String, Node> mNodesByOtherBssid = new HashMap<>();
+    // Doubly linked list of all results, from the oldest to the newest timestamp.
+    private Node mOldest;
+    private Node mNewest;
+    private int mSize;
+    // All results, from the newest to the oldest, or null if the store changed since.
+    private List<ScanResult> mAllResults;
+
+    /**
+     * Stores the given results, each replacing a result of the same BSSID that is not newer.
+     */
+    public void putAll(@NonNull List<ScanResult> results) {
+        // Putting results in timestamp order keeps the insertions at the newest end.
+        final ScanResult[] sorted = results.toArray(new ScanResult[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.timestamp, b.timestamp));
+        for (ScanResult result : sorted) {
+            put(result);
+        }
+    }
+
+    /**
+     * Stores {@code result} unless a newer result of the same BSSID is already stored.
+     *
+     * @return whether the result was stored.
+     */
+    public boolean put(@NonNull ScanResult result) {
+        final long bssid = parseBssid(result.BSSID);
+        Node node = bssid != INVALID_BSSID
+                ? mNodesByBssid.get(bssid) : mNodesByOtherBssid.get(result.BSSID);
+        if (node != null) {
+            if (node.mResult == result || node.mResult.timestamp > result.timestamp) {
+                return false;
+            }
+            unlink(node);
+        } else {
+            node = new Node(bssid, result.BSSID);
+            if (bssid != INVALID_BSSID) {
+                mNodesByBssid.put(bssid, node);
+            } else {
+                mNodesByOtherBssid.put(result.BSSID, node);
+            }
+            mSize++;
+        }
+        node.mResult = result;
+        linkInOrder(node);
+        mAllResults = null;
+        return true;
+    }
+
+    /**
+     * Removes the results older than {@code minTimestampMillis}, in elapsed real time.
+     */
+    public void evictOlderThan(long minTimestampMillis) {
+        while (mOldest != null && mOldest.mResult.timestamp / 1000 < minTimestampMillis) {
+            final Node node = mOldest;
+            unlink(node);
+            if (node.mBssid != INVALID_BSSID) {
+                mNodesByBssid.remove(node.mBssid);
+            } else {
+                mNodesByOtherBssid.remove(node.mOtherBssid);
+            }
+            mSize--;
+            mAllResults = null;
+        }
+    }
+
+    /**
+     * Returns all stored results, from the newest to the oldest.
+     */
+    @NonNull
+    public List<ScanResult> getScanResults() {
+        if (mAllResults == null) {
+            final List<ScanResult> results = new ArrayList<>(mSize);
+            for (Node node = mNewest; node != null; node = node.mPrev) {
+                results.add(node.mResult);
+            }
+            mAllResults = Collections.unmodifiableList(results);
+        }
+        return mAllResults;
+    }
+
+    /**
+     * Returns the stored results not older than {@code minTimestampMillis}, in elapsed real time,
+     * from the newest to the oldest.
+     */
+    @NonNull
+    public List<ScanResult> getScanResults(long minTimestampMillis) {
+        if (mOldest == null || mOldest.mResult.timestamp / 1000 >= minTimestampMillis) {
+            return getScanResults();
+        }
+        final List<ScanResult> results = new ArrayList<>();
+        for (Node node = mNewest; node != null && node.mResult.timestamp / 1000
+                >= minTimestampMillis; node = node.mPrev) {
+            results.add(node.mResult);
+        }
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Returns the number of stored results.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes all results.
+     */
+    public void clear() {
+        mNodesByBssid.clear();
+        mNodesByOtherBssid.clear();
+        mOldest = null;
+        mNewest = null;
+        mSize = 0;
+        mAllResults = null;
+    }
+
+    /**
+     * Returns the 48-bit value of a BSSID formatted as six hex octets separated by colons, or
+     * {@link #INVALID_BSSID} if it is not formatted that way.
+     */
+    @VisibleForTesting
+    static long parseBssid(String bssid) {
+        if (bssid == null || bssid.length() != 17) {
+            return INVALID_BSSID;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            final char c = bssid.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return INVALID_BSSID;
+                }
+                continue;
+            }
+            final int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return INVALID_BSSID;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void unlink(Node node) {
+        if (node.mPrev != null) {
+            node.mPrev.mNext = node.mNext;
+        } else {
+            mOldest = node.mNext;
+        }
+        if (node.mNext != null) {
+            node.mNext.mPrev = node.mPrev;
+        } else {
+            mNewest = node.mPrev;
+        }
+        node.mPrev = null;
+        node.mNext = null;
+    }
+
+    private void linkInOrder(Node node) {
+        // New results are usually the newest, so look for the position from the newest end.
+        Node prev = mNewest;
+        while (prev != null && prev.mResult.timestamp > node.mResult.timestamp) {
+            prev = prev.mPrev;
+        }
+        node.mPrev = prev;
+        if (prev != null) {
+            node.mNext = prev.mNext;
+            prev.mNext = node;
+        } else {
+            node.mNext = mOldest;
+            mOldest = node;
+        }
+        if (node.mNext != null) {
+            node.mNext.mPrev = node;
+        } else {
+            mNewest = node;
+        }
+    }
+
+    private static class Node {
+        final long mBssid;
+        // Only set if mBssid is INVALID_BSSID.
+        final String mOtherBssid;
+        ScanResult mResult;
+        Node mPrev;
+        Node mNext;
+
+        Node(long bssid, String otherBssid) {
+            mBssid = bssid;
+            mOtherBssid = bssid == INVALID_BSSID ? otherBssid : null;
+        }
+    }
+}
@@ -21,17 +21,18 @@ import android.net.wifi.ScanResult;
 import androidx.annotation.NonNull;
 
 import java.time.Clock;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
  * Utility class to keep a running list of scan results merged by BSSID.
  *
+ * Results are kept in a {@link ScanResultStore}, so that evicting and filtering results by age
+ * only touches the results outside or inside the age window.
+ *
  * Thread-safe.
  */
 public class ScanResultUpdater {
-    private HashMap<String, ScanResult> mScanResultsByBssid = new HashMap<>();
+    private final ScanResultStore mScanResultStore = new ScanResultStore();
     private final long mMaxScanAgeMillis;
     private final Object mLock = new Object();
     private final Clock mClock;
@@ -60,13 +61,7 @@ public class ScanResultUpdater {
     public void update(@NonNull List<ScanResult> newResults) {
         synchronized (mLock) {
             evictOldScans();
-
-            for (ScanResult result : newResults) {
-                ScanResult prevResult = mScanResultsByBssid.get(result.BSSID);
-                if (prevResult == null || (prevResult.timestamp < result.timestamp)) {
-                    mScanResultsByBssid.put(result.BSSID, result);
-                }
-            }
+            mScanResultStore.putAll(newResults);
         }
     }
 
@@ -81,6 +76,7 @@ public class ScanResultUpdater {
     /**
      * Returns all seen scan results merged by BSSID and newer than maxScanAgeMillis.
      * maxScanAgeMillis must be less than or equal to the mMaxScanAgeMillis field if it was set.
+     * The returned list is unmodifiable.
      */
     @NonNull
     public List<ScanResult> getScanResults(long maxScanAgeMillis) throws IllegalArgumentException {
@@ -89,20 +85,13 @@ public class ScanResultUpdater {
                     "maxScanAgeMillis argument cannot be greater than mMaxScanAgeMillis!");
         }
         synchronized (mLock) {
-            List<ScanResult> ageFilteredResults = new ArrayList<>();
-            for (ScanResult result : mScanResultsByBssid.values()) {
-                if (mClock.millis() - result.timestamp / 1000 <= maxScanAgeMillis) {
-                    ageFilteredResults.add(result);
-                }
-            }
-            return ageFilteredResults;
+            return mScanResultStore.getScanResults(mClock.millis() - maxScanAgeMillis);
         }
     }
 
     private void evictOldScans() {
         synchronized (mLock) {
-            mScanResultsByBssid.entrySet().removeIf((entry) ->
-                    mClock.millis() - entry.getValue().timestamp / 1000 > mMaxScanAgeMillis);
+            mScanResultStore.evictOlderThan(mClock.millis() - mMaxScanAgeMillis);
         }
     }
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wifitrackerlib;
+
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.List;
+
+/**
+ * Decides when the started trackers of the process issue Wi-Fi scans.
+ *
+ * Each tracker's Scanner ticks at its scan interval and asks the scheduler whether to scan. The
+ * scheduler is shared by all trackers, so that
+ * - a tick shortly after another tracker's scan is coalesced with it, since the scan results
+ *   broadcast reaches every tracker,
+ * - the interval backs off while successive scans bring no material change, i.e. no BSSID
+ *   appears, disappears or changes signal level,
+ * - the interval is halved for a short while after a tracker starts, when the user just opened a
+ *   Wi-Fi screen.
+ *
+ * Thread-safe.
+ */
+class ScanScheduler {
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            DECISION_SCAN,
+            DECISION_COALESCED,
+            DECISION_SKIPPED,
+    })
+
+    @interface Decision {}
+
+    // Issue a scan now.
+    static final int DECISION_SCAN = 0;
+    // Another tracker scanned during this tick; its results will be broadcast to this one too.
+    static final int DECISION_COALESCED = 1;
+    // Results have not been changing, so this tick is skipped to back off.
+    static final int DECISION_SKIPPED = 2;
+
+    // Maximum back off is the scan interval shifted left by this.
+    @VisibleForTesting
+    static final int MAX_BACKOFF_SHIFT = 2;
+    // Number of scan intervals after a tracker starts during which scans are twice as frequent.
+    @VisibleForTesting
+    static final int BOOST_INTERVALS = 2;
+
+    private static ScanScheduler sInstance;
+
+    private long mLastScanMillis = -1;
+    private boolean mScanPending;
+    private long mLastFingerprint;
+    private int mUnchangedScans;
+    private long mBoostEndMillis;
+    private int mStartedTrackers;
+
+    private long mScansRequested;
+    private long mScansCoalesced;
+    private long mScansSkipped;
+
+    /**
+     * Returns the scheduler shared by all trackers in the process.
+     */
+    @AnyThread
+    static synchronized ScanScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new ScanScheduler();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ScanScheduler() {
+    }
+
+    /**
+     * Called when a tracker starts scanning. Resets the back off and speeds up scanning for a
+     * little while.
+     */
+    synchronized void onTrackerStarted(long nowMillis, long scanIntervalMillis) {
+        mStartedTrackers++;
+        mUnchangedScans = 0;
+        mBoostEndMillis = nowMillis + BOOST_INTERVALS * scanIntervalMillis;
+    }
+
+    /**
+     * Called when a tracker stops scanning.
+     */
+    synchronized void onTrackerStopped() {
+        if (mStartedTrackers > 0) {
+            mStartedTrackers--;
+        }
+    }
+
+    /**
+     * Returns the delay until a tracker's next tick.
+     */
+    synchronized long getTickMillis(long nowMillis, long scanIntervalMillis) {
+        return nowMillis < mBoostEndMillis ? scanIntervalMillis / 2 : scanIntervalMillis;
+    }
+
+    /**
+     * Decides whether a tracker scans on this tick, and counts the decision.
+     */
+    @Decision
+    synchronized int onScanTick(long nowMillis, long scanIntervalMillis) {
+        final long tickMillis = getTickMillis(nowMillis, scanIntervalMillis);
+        final long intervalMillis = nowMillis < mBoostEndMillis ? tickMillis
+                : scanIntervalMillis << Math.min(mUnchangedScans, MAX_BACKOFF_SHIFT);
+        final long sinceLastScan = nowMillis - mLastScanMillis;
+        if (mLastScanMillis < 0 || sinceLastScan >= intervalMillis) {
+            mLastScanMillis = nowMillis;
+            mScanPending = true;
+            mScansRequested++;
+            return DECISION_SCAN;
+        }
+        if (sinceLastScan < tickMillis) {
+            mScansCoalesced++;
+            return DECISION_COALESCED;
+        }
+        mScansSkipped++;
+        return DECISION_SKIPPED;
+    }
+
+    /**
+     * Called with each new set of scan results. Every tracker receives the same results, so only
+     * the first report after a scan counts towards the back off.
+     */
+    synchronized void onScanResults(long fingerprint) {
+        if (fingerprint != mLastFingerprint) {
+            mLastFingerprint = fingerprint;
+            mUnchangedScans = 0;
+        } else if (mScanPending) {
+            mUnchangedScans++;
+        }
+        mScanPending = false;
+    }
+
+    /**
+     * Returns a fingerprint of the BSSIDs in {@code scanResults} and their signal levels, that
+     * does not depend on the order of the results.
+     */
+    static long fingerprint(@NonNull List<ScanResult> scanResults,
+            @NonNull WifiManager wifiManager) {
+        long fingerprint = scanResults.size();
+        for (ScanResult result : scanResults) {
+            final long hash = 31L * (result.BSSID == null ? 0 : result.BSSID.hashCode())
+                    + wifiManager.calculateSignalLevel(result.level);
+            // Mix the bits so that the sum of different results is unlikely to collide.
+            fingerprint += hash * 0x9E3779B97F4A7C15L ^ (hash >>> 29);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Dumps the scheduler state and its counters.
+     */
+    synchronized void dump(@NonNull PrintWriter pw) {
+        pw.println("  ScanScheduler:");
+        pw.println("    started trackers: " + mStartedTrackers);
+        pw.println("    unchanged scans: " + mUnchangedScans);
+        pw.println("    scans requested: " + mScansRequested);
+        pw.println("    scans coalesced: " + mScansCoalesced);
+        pw.println("    scans skipped: " + mScansSkipped);
+    }
+
+    @VisibleForTesting
+    synchronized long getScansRequested() {
+        return mScansRequested;
+    }
+
+    @VisibleForTesting
+    synchronized long getScansCoalesced() {
+        return mScansCoalesced;
+    }
+
+    @VisibleForTesting
+    synchronized long getScansSkipped() {
+        return mScansSkipped;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wifitrackerlib;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sorted list of WifiEntries that is maintained incrementally.
+ *
+ * Each update only repositions the entries whose sort order may have changed, i.e. whose level,
+ * saved, subscription or suggestion state, or title changed since they were last placed. Entries
+ * are tracked by identity, since a standard and a suggested entry may share the same key.
+ */
+class WifiEntryIndex {
+    // Above this fraction of entries to (re)place, a full sort is cheaper than binary insertions.
+    private static final int FULL_SORT_DIVISOR = 2;
+
+    private final List<WifiEntry> mEntries = new ArrayList<>();
+    // Sort fields of each entry in mEntries, as of when it was placed.
+    private final Map<WifiEntry, Placement> mPlacements = new IdentityHashMap<>();
+
+    /**
+     * Returns the sorted entries. Must only be modified through {@link #update(Collection)}.
+     */
+    @NonNull
+    List<WifiEntry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Makes the index contain exactly {@code entries}, and returns what changed since the last
+     * update.
+     */
+    @WorkerThread
+    @NonNull
+    WifiPickerTracker.WifiEntriesDiff update(@NonNull Collection<? extends WifiEntry> entries) {
+        final Map<WifiEntry, Placement> previous = new IdentityHashMap<>(mPlacements);
+        final List<WifiEntry> added = new ArrayList<>();
+        final List<WifiEntry> moved = new ArrayList<>();
+        for (WifiEntry entry : entries) {
+            final Placement placement = previous.remove(entry);
+            if (placement == null) {
+                added.add(entry);
+                mPlacements.put(entry, new Placement(entry));
+            } else if (!placement.matches(entry)) {
+                moved.add(entry);
+                placement.set(entry);
+            }
+        }
+        // Anything left over was not in the given entries anymore.
+        final List<WifiEntry> removed = new ArrayList<>(previous.keySet());
+        for (WifiEntry entry : removed) {
+            mPlacements.remove(entry);
+        }
+
+        final int toPlace = added.size() + moved.size();
+        if (!removed.isEmpty() || !moved.isEmpty()) {
+            // Entries to reposition are taken out first, so that the rest stays sorted by the
+            // sort fields they were placed with.
+            final Set<WifiEntry> takenOut = Collections.newSetFromMap(new IdentityHashMap<>());
+            takenOut.addAll(removed);
+            takenOut.addAll(moved);
+            mEntries.removeIf(takenOut::contains);
+        }
+        if (toPlace > 0 && toPlace * FULL_SORT_DIVISOR > mEntries.size() + toPlace) {
+            mEntries.addAll(added);
+            mEntries.addAll(moved);
+            Collections.sort(mEntries);
+        } else {
+            for (WifiEntry entry : moved) {
+                insert(entry);
+            }
+            for (WifiEntry entry : added) {
+                insert(entry);
+            }
+        }
+        return new WifiPickerTracker.WifiEntriesDiff(added, removed, moved);
+    }
+
+    private void insert(WifiEntry entry) {
+        final int index = Collections.binarySearch(mEntries, entry);
+        mEntries.add(index < 0 ? -index - 1 : index, entry);
+    }
+
+    /**
+     * Fields that {@link WifiEntry#compareTo(WifiEntry)} orders by.
+     */
+    private static class Placement {
+        private int mLevel;
+        private boolean mSubscription;
+        private boolean mSaved;
+        private boolean mSuggestion;
+        private String mTitle;
+
+        Placement(WifiEntry entry) {
+            set(entry);
+        }
+
+        void set(WifiEntry entry) {
+            mLevel = entry.getLevel();
+            mSubscription = entry.isSubscription();
+            mSaved = entry.isSaved();
+            mSuggestion = entry.isSuggestion();
+            mTitle = entry.getTitle();
+        }
+
+        boolean matches(WifiEntry entry) {
+            return mLevel == entry.getLevel()
+                    && mSubscription == entry.isSubscription()
+                    && mSaved == entry.isSaved()
+                    && mSuggestion == entry.isSuggestion()
+                    && TextUtils.equals(mTitle, entry.getTitle());
+        }
+    }
+}
@@ -59,9 +59,11 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.Lifecycle;
 
+import java.io.PrintWriter;
 import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -89,8 +91,8 @@ public class WifiPickerTracker extends BaseWifiTracker {
 
     // Lock object for data returned by the public API
     private final Object mLock = new Object();
-    // List representing return value of the getWifiEntries() API
-    @GuardedBy("mLock") private final List<WifiEntry> mWifiEntries = new ArrayList<>();
+    // Sorted entries representing return value of the getWifiEntries() API
+    @GuardedBy("mLock") private final WifiEntryIndex mWifiEntryIndex = new WifiEntryIndex();
     // Reference to the WifiEntry representing the network that is currently connected to
     private WifiEntry mConnectedWifiEntry;
     // NetworkRequestEntry representing a network that was connected through the NetworkRequest API
@@ -164,7 +166,7 @@ public class WifiPickerTracker extends BaseWifiTracker {
     @AnyThread
     public @NonNull List<WifiEntry> getWifiEntries() {
         synchronized (mLock) {
-            return new ArrayList<>(mWifiEntries);
+            return new ArrayList<>(mWifiEntryIndex.getEntries());
         }
     }
 
@@ -184,6 +186,16 @@ public class WifiPickerTracker extends BaseWifiTracker {
         return mPasspointConfigCache.size();
     }
 
+    @AnyThread
+    @Override
+    public void dump(@NonNull PrintWriter pw) {
+        super.dump(pw);
+        pw.println("  Connected WifiEntry: " + mConnectedWifiEntry);
+        synchronized (mLock) {
+            pw.println("  WifiEntries: " + mWifiEntryIndex.getEntries().size());
+        }
+    }
+
     @WorkerThread
     @Override
     protected void handleOnStart() {
@@ -233,7 +245,7 @@ public class WifiPickerTracker extends BaseWifiTracker {
         updatePasspointConfigurations(mWifiManager.getPasspointConfigurations());
         // Update scans since config changes may result in different entries being shown.
         final List<ScanResult> scanResults = mScanResultUpdater.getScanResults();
-        updateStandardWifiEntryScans(scanResults);
+        updateStandardWifiEntryScans(mapStandardScanResultsToKey(scanResults));
         updateNetworkRequestEntryScans(scanResults);
         updatePasspointWifiEntryScans(scanResults);
         updateOsuWifiEntryScans(scanResults);
@@ -295,34 +307,27 @@ public class WifiPickerTracker extends BaseWifiTracker {
 
     /**
      * Update the list returned by getWifiEntries() with the current states of the entry caches.
+     *
+     * Only entries that were added, removed or whose sort order changed are repositioned in the
+     * list, and the listener is told which ones through
+     * {@link WifiPickerTrackerCallback#onWifiEntriesUpdated(WifiEntriesDiff)}.
      */
     @WorkerThread
     private void updateWifiEntries() {
+        final WifiEntriesDiff diff;
         synchronized (mLock) {
-            mConnectedWifiEntry = mStandardWifiEntryCache.values().stream().filter(entry -> {
-                final @WifiEntry.ConnectedState int connectedState = entry.getConnectedState();
-                return connectedState == CONNECTED_STATE_CONNECTED
-                        || connectedState == CONNECTED_STATE_CONNECTING;
-            }).findAny().orElse(null /* other */);
+            mConnectedWifiEntry = findConnectedWifiEntry(mStandardWifiEntryCache.values());
             if (mConnectedWifiEntry == null) {
-                mConnectedWifiEntry = mSuggestedWifiEntryCache.values().stream().filter(entry -> {
-                    final @WifiEntry.ConnectedState int connectedState = entry.getConnectedState();
-                    return connectedState == CONNECTED_STATE_CONNECTED
-                            || connectedState == CONNECTED_STATE_CONNECTING;
-                }).findAny().orElse(null /* other */);
+                mConnectedWifiEntry = findConnectedWifiEntry(mSuggestedWifiEntryCache.values());
             }
             if (mConnectedWifiEntry == null) {
-                mConnectedWifiEntry = mPasspointWifiEntryCache.values().stream().filter(entry -> {
-                    final @WifiEntry.ConnectedState int connectedState = entry.getConnectedState();
-                    return connectedState == CONNECTED_STATE_CONNECTED
-                            || connectedState == CONNECTED_STATE_CONNECTING;
-                }).findAny().orElse(null /* other */);
+                mConnectedWifiEntry = findConnectedWifiEntry(mPasspointWifiEntryCache.values());
             }
             if (mConnectedWifiEntry == null && mNetworkRequestEntry != null
                     && mNetworkRequestEntry.getConnectedState() != CONNECTED_STATE_DISCONNECTED) {
                 mConnectedWifiEntry = mNetworkRequestEntry;
             }
-            mWifiEntries.clear();
+            final List<WifiEntry> visibleEntries = new ArrayList<>();
             for (String key : mStandardWifiEntryCache.keySet()) {
                 // Continue if we're connected to this network with a non-user-shareable config.
                 if (mConnectedWifiEntry != null
@@ -335,61 +340,99 @@ public class WifiPickerTracker extends BaseWifiTracker {
                 if (!entry.isSaved()
                         && suggestedEntry != null && suggestedEntry.isUserShareable()) {
                     if (suggestedEntry.getConnectedState() == CONNECTED_STATE_DISCONNECTED) {
-                        mWifiEntries.add(suggestedEntry);
+                        visibleEntries.add(suggestedEntry);
                     }
                 } else {
                     if (entry.getConnectedState() == CONNECTED_STATE_DISCONNECTED) {
-                        mWifiEntries.add(entry);
+                        visibleEntries.add(entry);
                     }
                 }
 
             }
-            mWifiEntries.addAll(mPasspointWifiEntryCache.values().stream().filter(entry ->
-                    entry.getConnectedState() == CONNECTED_STATE_DISCONNECTED).collect(toList()));
-            mWifiEntries.addAll(mOsuWifiEntryCache.values().stream().filter(entry ->
-                    entry.getConnectedState() == CONNECTED_STATE_DISCONNECTED
-                            && !entry.isAlreadyProvisioned()).collect(toList()));
-            Collections.sort(mWifiEntries);
+            for (PasspointWifiEntry entry : mPasspointWifiEntryCache.values()) {
+                if (entry.getConnectedState() == CONNECTED_STATE_DISCONNECTED) {
+                    visibleEntries.add(entry);
+                }
+            }
+            for (OsuWifiEntry entry : mOsuWifiEntryCache.values()) {
+                if (entry.getConnectedState() == CONNECTED_STATE_DISCONNECTED
+                        && !entry.isAlreadyProvisioned()) {
+                    visibleEntries.add(entry);
+                }
+            }
+            diff = mWifiEntryIndex.update(visibleEntries);
             if (isVerboseLoggingEnabled()) {
                 Log.v(TAG, "Connected WifiEntry: " + mConnectedWifiEntry);
-                Log.v(TAG, "Updated WifiEntries: " + Arrays.toString(mWifiEntries.toArray()));
+                Log.v(TAG, "Updated WifiEntries: "
+                        + Arrays.toString(mWifiEntryIndex.getEntries().toArray()));
+                Log.v(TAG, "WifiEntries diff: " + diff);
             }
         }
-        notifyOnWifiEntriesChanged();
+        notifyOnWifiEntriesChanged(diff);
     }
 
     /**
-     * Updates or removes scan results for the corresponding StandardWifiEntries.
-     * New entries will be created for scan results without an existing entry.
-     * Unreachable entries will be removed.
-     *
-     * @param scanResults List of valid scan results to convey as StandardWifiEntries
+     * Returns an entry of {@code entries} that is connected or connecting, or null if none is.
      */
     @WorkerThread
-    private void updateStandardWifiEntryScans(@NonNull List<ScanResult> scanResults) {
-        checkNotNull(scanResults, "Scan Result list should not be null!");
+    @Nullable
+    private static WifiEntry findConnectedWifiEntry(
+            @NonNull Collection<? extends WifiEntry> entries) {
+        for (WifiEntry entry : entries) {
+            final @WifiEntry.ConnectedState int connectedState = entry.getConnectedState();
+            if (connectedState == CONNECTED_STATE_CONNECTED
+                    || connectedState == CONNECTED_STATE_CONNECTING) {
+                return entry;
+            }
+        }
+        return null;
+    }
 
-        // Group scans by StandardWifiEntry key
-        final Map<String, List<ScanResult>> scanResultsByKey = mapScanResultsToKey(
+    /**
+     * Groups scan results by StandardWifiEntry key. The grouping is shared by the standard and
+     * suggested entries, since both are keyed the same way.
+     */
+    @WorkerThread
+    @NonNull
+    private Map<String, List<ScanResult>> mapStandardScanResultsToKey(
+            @NonNull List<ScanResult> scanResults) {
+        checkNotNull(scanResults, "Scan Result list should not be null!");
+        return mapScanResultsToKey(
                 scanResults,
                 true /* chooseSingleSecurity */,
                 mWifiConfigCache,
                 mWifiManager.isWpa3SaeSupported(),
                 mWifiManager.isWpa3SuiteBSupported(),
                 mWifiManager.isEnhancedOpenSupported());
+    }
+
+    /**
+     * Updates or removes scan results for the corresponding StandardWifiEntries.
+     * New entries will be created for scan results without an existing entry.
+     * Unreachable entries will be removed.
+     *
+     * @param scanResultsByKey Valid scan results grouped by StandardWifiEntry key
+     */
+    @WorkerThread
+    private void updateStandardWifiEntryScans(
+            @NonNull Map<String, List<ScanResult>> scanResultsByKey) {
+        checkNotNull(scanResultsByKey, "Scan Result map should not be null!");
 
         // Iterate through current entries and update each entry's scan results
         mStandardWifiEntryCache.entrySet().removeIf(e -> {
             final String key = e.getKey();
             final StandardWifiEntry entry = e.getValue();
             // Update scan results if available, or set to null.
-            entry.updateScanResultInfo(scanResultsByKey.remove(key));
+            entry.updateScanResultInfo(scanResultsByKey.get(key));
             // Entry is now unreachable, remove it.
             return entry.getLevel() == WIFI_LEVEL_UNREACHABLE;
         });
 
-        // Create new StandardWifiEntry objects for each leftover group of scan results.
+        // Create new StandardWifiEntry objects for each group of scan results without an entry.
         for (Map.Entry<String, List<ScanResult>> e: scanResultsByKey.entrySet()) {
+            if (mStandardWifiEntryCache.containsKey(e.getKey())) {
+                continue;
+            }
             final StandardWifiEntry newEntry = new StandardWifiEntry(mContext, mMainHandler,
                     e.getKey(), e.getValue(), mWifiManager, mWifiNetworkScoreCache,
                     false /* forSavedNetworksPage */);
@@ -405,20 +448,13 @@ public class WifiPickerTracker extends BaseWifiTracker {
      * Unreachable entries will be removed.
      *
      * @param scanResults List of valid scan results to convey as StandardWifiEntries
+     * @param scanResultsByKey The same scan results grouped by StandardWifiEntry key
      */
     @WorkerThread
-    private void updateSuggestedWifiEntryScans(@NonNull List<ScanResult> scanResults) {
+    private void updateSuggestedWifiEntryScans(@NonNull List<ScanResult> scanResults,
+            @NonNull Map<String, List<ScanResult>> scanResultsByKey) {
         checkNotNull(scanResults, "Scan Result list should not be null!");
 
-        // Group scans by StandardWifiEntry key
-        final Map<String, List<ScanResult>> scanResultsByKey = mapScanResultsToKey(
-                scanResults,
-                true /* chooseSingleSecurity */,
-                mWifiConfigCache,
-                mWifiManager.isWpa3SaeSupported(),
-                mWifiManager.isWpa3SuiteBSupported(),
-                mWifiManager.isEnhancedOpenSupported());
-
         Map<String, WifiConfiguration> userSharedConfigsByKey =
                 mWifiManager.getWifiConfigForMatchedNetworkSuggestionsSharedWithUser(scanResults)
                         .stream()
@@ -563,8 +599,8 @@ public class WifiPickerTracker extends BaseWifiTracker {
     @WorkerThread
     private void conditionallyUpdateScanResults(boolean lastScanSucceeded) {
         if (mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLED) {
-            updateStandardWifiEntryScans(Collections.emptyList());
-            updateSuggestedWifiEntryScans(Collections.emptyList());
+            updateStandardWifiEntryScans(Collections.emptyMap());
+            updateSuggestedWifiEntryScans(Collections.emptyList(), Collections.emptyMap());
             updatePasspointWifiEntryScans(Collections.emptyList());
             updateOsuWifiEntryScans(Collections.emptyList());
             updateNetworkRequestEntryScans(Collections.emptyList());
@@ -582,8 +618,10 @@ public class WifiPickerTracker extends BaseWifiTracker {
         }
 
         List<ScanResult> scanResults = mScanResultUpdater.getScanResults(scanAgeWindow);
-        updateStandardWifiEntryScans(scanResults);
-        updateSuggestedWifiEntryScans(scanResults);
+        final Map<String, List<ScanResult>> scanResultsByKey =
+                mapStandardScanResultsToKey(scanResults);
+        updateStandardWifiEntryScans(scanResultsByKey);
+        updateSuggestedWifiEntryScans(scanResults, scanResultsByKey);
         updatePasspointWifiEntryScans(scanResults);
         updateOsuWifiEntryScans(scanResults);
         updateNetworkRequestEntryScans(scanResults);
@@ -854,12 +892,15 @@ public class WifiPickerTracker extends BaseWifiTracker {
     }
 
     /**
-     * Posts onWifiEntryChanged callback on the main thread.
+     * Posts onWifiEntriesUpdated and onWifiEntriesChanged callbacks on the main thread.
      */
     @WorkerThread
-    private void notifyOnWifiEntriesChanged() {
+    private void notifyOnWifiEntriesChanged(@NonNull WifiEntriesDiff diff) {
         if (mListener != null) {
-            mMainHandler.post(mListener::onWifiEntriesChanged);
+            mMainHandler.post(() -> {
+                mListener.onWifiEntriesUpdated(diff);
+                mListener.onWifiEntriesChanged();
+            });
         }
     }
 
@@ -883,6 +924,64 @@ public class WifiPickerTracker extends BaseWifiTracker {
         }
     }
 
+    /**
+     * Changes to the list returned by {@link #getWifiEntries()} between two updates.
+     *
+     * Moved entries are still in the list, but their level, saved state or title changed so that
+     * they may have a different position.
+     */
+    public static class WifiEntriesDiff {
+        private final List<WifiEntry> mAddedEntries;
+        private final List<WifiEntry> mRemovedEntries;
+        private final List<WifiEntry> mMovedEntries;
+
+        WifiEntriesDiff(@NonNull List<WifiEntry> addedEntries,
+                @NonNull List<WifiEntry> removedEntries,
+                @NonNull List<WifiEntry> movedEntries) {
+            mAddedEntries = Collections.unmodifiableList(addedEntries);
+            mRemovedEntries = Collections.unmodifiableList(removedEntries);
+            mMovedEntries = Collections.unmodifiableList(movedEntries);
+        }
+
+        /**
+         * Returns the entries that are new in the list.
+         */
+        @NonNull
+        public List<WifiEntry> getAddedEntries() {
+            return mAddedEntries;
+        }
+
+        /**
+         * Returns the entries that are not in the list anymore.
+         */
+        @NonNull
+        public List<WifiEntry> getRemovedEntries() {
+            return mRemovedEntries;
+        }
+
+        /**
+         * Returns the entries that may have moved within the list.
+         */
+        @NonNull
+        public List<WifiEntry> getMovedEntries() {
+            return mMovedEntries;
+        }
+
+        /**
+         * Returns true if the list did not change.
+         */
+        public boolean isEmpty() {
+            return mAddedEntries.isEmpty() && mRemovedEntries.isEmpty()
+                    && mMovedEntries.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "added:" + mAddedEntries.size() + ",removed:" + mRemovedEntries.size()
+                    + ",moved:" + mMovedEntries.size();
+        }
+    }
+
     /**
      * Listener for changes to the list of visible WifiEntries as well as the number of saved
      * networks and subscriptions.
@@ -898,6 +997,16 @@ public class WifiPickerTracker extends BaseWifiTracker {
         @MainThread
         void onWifiEntriesChanged();
 
+        /**
+         * Called right before {@link #onWifiEntriesChanged()} with the entries that were added
+         * to, removed from or moved within {@link #getWifiEntries()}, so that clients can update
+         * only those instead of the full list.
+         */
+        @MainThread
+        default void onWifiEntriesUpdated(@NonNull WifiEntriesDiff diff) {
+            // Do nothing.
+        }
+
         /**
          * Called when there are changes to
          *      {@link #getNumSavedNetworks()}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wifitrackerlib;
+
+import static com.android.wifitrackerlib.TestUtils.buildScanResult;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class ScanResultStoreTest {
+    private static final String SSID = "ssid";
+    private static final String BSSID_1 = "11:11:11:11:11:11";
+    private static final String BSSID_2 = "22:22:22:22:22:22";
+    private static final String BSSID_3 = "33:33:33:33:33:33";
+
+    /**
+     * Verify that BSSIDs are parsed to their 48-bit value, and that other strings are rejected.
+     */
+    @Test
+    public void testParseBssid() {
+        assertThat(ScanResultStore.parseBssid("aa:bb:cc:dd:ee:ff")).isEqualTo(0xaabbccddeeffL);
+        assertThat(ScanResultStore.parseBssid("00:00:00:00:00:01")).isEqualTo(1L);
+        assertThat(ScanResultStore.parseBssid("bssid"))
+                .isEqualTo(ScanResultStore.INVALID_BSSID);
+        assertThat(ScanResultStore.parseBssid("aa-bb-cc-dd-ee-ff"))
+                .isEqualTo(ScanResultStore.INVALID_BSSID);
+        assertThat(ScanResultStore.parseBssid(null)).isEqualTo(ScanResultStore.INVALID_BSSID);
+    }
+
+    /**
+     * Verify that results are returned from the newest to the oldest, regardless of the order
+     * they were put in, and that only the newest result of a BSSID is kept.
+     */
+    @Test
+    public void testPutAll_returnsNewestFirst() {
+        final ScanResult scan1 = buildScanResult(SSID, BSSID_1, 30);
+        final ScanResult scan2 = buildScanResult(SSID, BSSID_2, 10);
+        final ScanResult scan3 = buildScanResult(SSID, BSSID_3, 20);
+        final ScanResult oldScan1 = buildScanResult(SSID, BSSID_1, 5);
+        final ScanResultStore store = new ScanResultStore();
+
+        store.putAll(Arrays.asList(scan1, scan2, scan3, oldScan1));
+
+        assertThat(store.size()).isEqualTo(3);
+        assertThat(store.getScanResults()).containsExactly(scan1, scan3, scan2).inOrder();
+    }
+
+    /**
+     * Verify that eviction and age-filtered reads only keep results at or after the given time.
+     */
+    @Test
+    public void testEvictOlderThan_trimsOldestResults() {
+        final ScanResult scan1 = buildScanResult(SSID, BSSID_1, 10);
+        final ScanResult scan2 = buildScanResult(SSID, BSSID_2, 20);
+        final ScanResult scan3 = buildScanResult(SSID, BSSID_3, 30);
+        final ScanResultStore store = new ScanResultStore();
+        store.putAll(Arrays.asList(scan1, scan2, scan3));
+
+        assertThat(store.getScanResults(20)).containsExactly(scan3, scan2).inOrder();
+
+        store.evictOlderThan(20);
+
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.getScanResults()).containsExactly(scan3, scan2).inOrder();
+
+        // A newer scan of an evicted BSSID is stored again.
+        final ScanResult newScan1 = buildScanResult(SSID, BSSID_1, 40);
+        store.putAll(Arrays.asList(newScan1));
+        assertThat(store.getScanResults()).containsExactly(newScan1, scan3, scan2).inOrder();
+    }
+}
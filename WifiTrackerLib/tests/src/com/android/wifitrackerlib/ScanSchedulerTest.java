@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wifitrackerlib;
+
+import static com.android.wifitrackerlib.ScanScheduler.DECISION_COALESCED;
+import static com.android.wifitrackerlib.ScanScheduler.DECISION_SCAN;
+import static com.android.wifitrackerlib.ScanScheduler.DECISION_SKIPPED;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScanSchedulerTest {
+    private static final long START_MILLIS = 123_456_789;
+    private static final long SCAN_INTERVAL_MILLIS = 10_000;
+    private static final long BOOST_END_MILLIS =
+            START_MILLIS + ScanScheduler.BOOST_INTERVALS * SCAN_INTERVAL_MILLIS;
+
+    private ScanScheduler mScanScheduler;
+
+    @Before
+    public void setUp() {
+        mScanScheduler = new ScanScheduler();
+        mScanScheduler.onTrackerStarted(START_MILLIS, SCAN_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Tests that scans are twice as frequent right after a tracker starts.
+     */
+    @Test
+    public void testOnScanTick_afterStart_scansAtHalfInterval() {
+        assertThat(mScanScheduler.getTickMillis(START_MILLIS, SCAN_INTERVAL_MILLIS))
+                .isEqualTo(SCAN_INTERVAL_MILLIS / 2);
+        assertThat(mScanScheduler.onScanTick(START_MILLIS, SCAN_INTERVAL_MILLIS))
+                .isEqualTo(DECISION_SCAN);
+        assertThat(mScanScheduler.onScanTick(START_MILLIS + SCAN_INTERVAL_MILLIS / 2,
+                SCAN_INTERVAL_MILLIS)).isEqualTo(DECISION_SCAN);
+        assertThat(mScanScheduler.getTickMillis(BOOST_END_MILLIS, SCAN_INTERVAL_MILLIS))
+                .isEqualTo(SCAN_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Tests that a second tracker's tick right after a scan is coalesced with it.
+     */
+    @Test
+    public void testOnScanTick_otherTrackerJustScanned_coalesced() {
+        mScanScheduler.onTrackerStarted(START_MILLIS, SCAN_INTERVAL_MILLIS);
+
+        assertThat(mScanScheduler.onScanTick(START_MILLIS, SCAN_INTERVAL_MILLIS))
+                .isEqualTo(DECISION_SCAN);
+        assertThat(mScanScheduler.onScanTick(START_MILLIS + 1_000, SCAN_INTERVAL_MILLIS))
+                .isEqualTo(DECISION_COALESCED);
+        assertThat(mScanScheduler.getScansRequested()).isEqualTo(1);
+        assertThat(mScanScheduler.getScansCoalesced()).isEqualTo(1);
+    }
+
+    /**
+     * Tests that ticks are skipped while scans bring no change, and that a change or a tracker
+     * start resets the back off.
+     */
+    @Test
+    public void testOnScanTick_unchangedResults_backsOff() {
+        long now = BOOST_END_MILLIS;
+        assertThat(mScanScheduler.onScanTick(now, SCAN_INTERVAL_MILLIS)).isEqualTo(DECISION_SCAN);
+        mScanScheduler.onScanResults(1L);
+        now += SCAN_INTERVAL_MILLIS;
+        assertThat(mScanScheduler.onScanTick(now, SCAN_INTERVAL_MILLIS)).isEqualTo(DECISION_SCAN);
+        // Every tracker reports the same results, but only the first report counts.
+        mScanScheduler.onScanResults(1L);
+        mScanScheduler.onScanResults(1L);
+
+        now += SCAN_INTERVAL_MILLIS;
+        assertThat(mScanScheduler.onScanTick(now, SCAN_INTERVAL_MILLIS))
+                .isEqualTo(DECISION_SKIPPED);
+        now += SCAN_INTERVAL_MILLIS;
+        assertThat(mScanScheduler.onScanTick(now, SCAN_INTERVAL_MILLIS)).isEqualTo(DECISION_SCAN);
+        mScanScheduler.onScanResults(2L);
+
+        now += SCAN_INTERVAL_MILLIS;
+        assertThat(mScanScheduler.onScanTick(now, SCAN_INTERVAL_MILLIS)).isEqualTo(DECISION_SCAN);
+        assertThat(mScanScheduler.getScansSkipped()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wifitrackerlib;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class WifiEntryIndexTest {
+
+    private static WifiEntry buildWifiEntry(String title, int level) {
+        final WifiEntry entry = mock(WifiEntry.class, withSettings()
+                .defaultAnswer(CALLS_REAL_METHODS));
+        doReturn(title).when(entry).getKey();
+        doReturn(title).when(entry).getTitle();
+        doReturn(level).when(entry).getLevel();
+        doReturn(false).when(entry).isSaved();
+        doReturn(false).when(entry).isSubscription();
+        doReturn(false).when(entry).isSuggestion();
+        return entry;
+    }
+
+    /**
+     * Tests that the first update sorts all entries and reports them as added.
+     */
+    @Test
+    public void testUpdate_newEntries_sortedAndAdded() {
+        final WifiEntryIndex index = new WifiEntryIndex();
+        final WifiEntry weak = buildWifiEntry("weak", 1);
+        final WifiEntry strong = buildWifiEntry("strong", 4);
+        final WifiEntry medium = buildWifiEntry("medium", 2);
+
+        final WifiPickerTracker.WifiEntriesDiff diff =
+                index.update(Arrays.asList(weak, strong, medium));
+
+        assertThat(index.getEntries()).containsExactly(strong, medium, weak).inOrder();
+        assertThat(diff.getAddedEntries()).containsExactly(weak, strong, medium);
+        assertThat(diff.getRemovedEntries()).isEmpty();
+        assertThat(diff.getMovedEntries()).isEmpty();
+    }
+
+    /**
+     * Tests that an update without changes to any sort field reports an empty diff.
+     */
+    @Test
+    public void testUpdate_unchangedEntries_emptyDiff() {
+        final WifiEntryIndex index = new WifiEntryIndex();
+        final List<WifiEntry> entries = Arrays.asList(
+                buildWifiEntry("a", 1), buildWifiEntry("b", 2), buildWifiEntry("c", 3));
+        index.update(entries);
+
+        assertThat(index.update(entries).isEmpty()).isTrue();
+    }
+
+    /**
+     * Tests that an entry whose level changed is moved, and that a missing entry is removed.
+     */
+    @Test
+    public void testUpdate_levelChangedAndEntryGone_movedAndRemoved() {
+        final WifiEntryIndex index = new WifiEntryIndex();
+        final List<WifiEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            entries.add(buildWifiEntry("ssid" + i, 2));
+        }
+        final WifiEntry gone = buildWifiEntry("gone", 3);
+        entries.add(gone);
+        index.update(entries);
+
+        final WifiEntry changed = entries.get(5);
+        doReturn(4).when(changed).getLevel();
+        entries.remove(gone);
+        final WifiPickerTracker.WifiEntriesDiff diff = index.update(entries);
+
+        assertThat(diff.getMovedEntries()).containsExactly(changed);
+        assertThat(diff.getRemovedEntries()).containsExactly(gone);
+        assertThat(diff.getAddedEntries()).isEmpty();
+        assertThat(index.getEntries().get(0)).isSameAs(changed);
+        assertThat(index.getEntries()).hasSize(10);
+        final List<WifiEntry> sorted = new ArrayList<>(entries);
+        sorted.sort(null);
+        assertThat(index.getEntries()).containsExactlyElementsIn(sorted).inOrder();
+    }
+}
@@ -33,7 +33,13 @@ import android.telephony.TelephonyManager;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.settings.applications.ProcStatsData;
+import com.android.settings.dashboard.CategoryManager;
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
+import com.android.settings.homepage.contextualcards.ContextualCardLoader;
+import com.android.settings.overlay.FeatureFactory;
+import com.android.settings.slices.SliceBackgroundWorker;
+import com.android.settings.slices.SliceBindLatencyRecorder;
+import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.net.DataUsageController;
 
 import org.json.JSONArray;
@@ -58,6 +64,18 @@ public class SettingsDumpService extends Service {
     @VisibleForTesting
     static final String KEY_ANOMALY_DETECTION = "anomaly_detection";
     @VisibleForTesting
+    static final String KEY_DASHBOARD_TILES = "dashboard_tiles";
+    @VisibleForTesting
+    static final String KEY_SLICES_INDEX = "slices_index";
+    @VisibleForTesting
+    static final String KEY_SLICES_BIND = "slices_bind";
+    @VisibleForTesting
+    static final String KEY_SLICE_NOTIFICATIONS = "slice_notifications";
+    @VisibleForTesting
+    static final String KEY_APPLICATIONS_STATE = "applications_state";
+    @VisibleForTesting
+    static final String KEY_CONTEXTUAL_CARDS = "contextual_cards";
+    @VisibleForTesting
     static final Intent BROWSER_INTENT =
             new Intent("android.intent.action.VIEW", Uri.parse("http://"));
 
@@ -77,6 +95,13 @@ public class SettingsDumpService extends Service {
             dump.put(KEY_MEMORY, dumpMemory());
             dump.put(KEY_DEFAULT_BROWSER_APP, dumpDefaultBrowser());
             dump.put(KEY_ANOMALY_DETECTION, dumpAnomalyDetection());
+            dump.put(KEY_DASHBOARD_TILES, CategoryManager.get(this).dumpStats());
+            dump.put(KEY_SLICES_INDEX, FeatureFactory.getFactory(this)
+                    .getSlicesFeatureProvider().dumpIndexingStats(this));
+            dump.put(KEY_SLICES_BIND, SliceBindLatencyRecorder.getInstance().dump());
+            dump.put(KEY_SLICE_NOTIFICATIONS, SliceBackgroundWorker.dumpNotificationStats());
+            dump.put(KEY_APPLICATIONS_STATE, dumpApplicationsState());
+            dump.put(KEY_CONTEXTUAL_CARDS, ContextualCardLoader.dumpEligibilityStats(this));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -98,6 +123,24 @@ public class SettingsDumpService extends Service {
         return obj;
     }
 
+    @VisibleForTesting
+    JSONObject dumpApplicationsState() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        // Creating the state would start its loader thread just for the dump.
+        final ApplicationsState state = ApplicationsState.peekInstance();
+        obj.put("created", state != null);
+        if (state == null) {
+            return obj;
+        }
+        final ApplicationsState.LockStats stats = state.getLockStats();
+
+        obj.put("lock_free_lookups", stats.lockFreeLookups);
+        obj.put("lock_acquisitions", stats.lockAcquisitions);
+        obj.put("lock_wait_ms", stats.lockWaitMillis);
+
+        return obj;
+    }
+
     private JSONObject dumpDataUsage() throws JSONException {
         JSONObject obj = new JSONObject();
         DataUsageController controller = new DataUsageController(this);
@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppGlobals;
+import android.app.AppOpsManager;
+import android.app.AppOpsManager.OpEntry;
+import android.app.AppOpsManager.PackageOps;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.Pair;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * App op modes and permission state shared by all {@link AppStateBaseBridge}s.
+ *
+ * <p>While a bridge is resumed, the results of the app ops and package manager queries are kept
+ * until an app op, permission or package change invalidates them, so bridges do not query them
+ * again on every package list change. A single app ops query covers the ops of all resumed
+ * bridges. {@link #invalidatePackage} and a mode change of a single package only query that
+ * package again.
+ *
+ * <p>Invalidations are recorded without locking and applied on the next query, so the main
+ * thread never waits for a query running on the loader thread.
+ */
+public class AppOpsStateCache {
+    private static final String TAG = "AppOpsStateCache";
+
+    private static AppOpsStateCache sInstance;
+
+    private final Context mContext;
+    private final IPackageManager mIpm;
+    private final AppOpsManager mAppOpsManager;
+    private final UserManager mUserManager;
+
+    // Number of resumed bridges using each op, guarded by this.
+    private final SparseIntArray mOpRefCounts = new SparseIntArray();
+    private int mClients;
+
+    // Pending invalidations, applied by applyInvalidationsLocked().
+    private final Set<Integer> mChangedOps = ConcurrentHashMap.newKeySet();
+    // Packages whose mode of an op changed, as (op, package); their uids are not known.
+    private final Queue<Pair<Integer, String>> mChangedOpPackages =
+            new ConcurrentLinkedQueue<>();
+    private final Queue<Pair<Integer, String>> mChangedPackages = new ConcurrentLinkedQueue<>();
+    private volatile boolean mPermissionsChanged;
+    private volatile boolean mAllChanged;
+
+    // Cached results, guarded by mCacheLock.
+    private final Object mCacheLock = new Object();
+    // op => (uid => (package => mode)), for every package that has a mode for op.
+    private final SparseArray<SparseArray<Map<String, Integer>>> mOpModes = new SparseArray<>();
+    // op => ("uid:package" => mode), results of single checks.
+    private final SparseArray<Map<String, Integer>> mCheckedModes = new SparseArray<>();
+    private final Map<String, String[]> mRequestingPackages = new ArrayMap<>();
+    private final Map<String, List<PackageInfo>> mHoldingPackages = new ArrayMap<>();
+    private final Map<String, Boolean> mAvailablePackages = new ArrayMap<>();
+
+    @VisibleForTesting
+    final AppOpsManager.OnOpChangedListener mOpChangedListener =
+            new AppOpsManager.OnOpChangedListener() {
+                @Override
+                public void onOpChanged(String op, String packageName) {
+                    if (packageName == null) {
+                        mChangedOps.add(AppOpsManager.strOpToOp(op));
+                    } else {
+                        mChangedOpPackages.add(
+                                Pair.create(AppOpsManager.strOpToOp(op), packageName));
+                    }
+                }
+            };
+
+    private final PackageManager.OnPermissionsChangedListener mPermissionsChangedListener =
+            uid -> mPermissionsChanged = true;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mAllChanged = true;
+        }
+    };
+
+    public static synchronized AppOpsStateCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppOpsStateCache(context.getApplicationContext(),
+                    AppGlobals.getPackageManager());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppOpsStateCache(Context context, IPackageManager ipm) {
+        mContext = context;
+        mIpm = ipm;
+        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mUserManager = context.getSystemService(UserManager.class);
+    }
+
+    /**
+     * Starts caching {@code ops}, called when a bridge using them resumes.
+     */
+    public synchronized void register(int[] ops) {
+        if (mClients++ == 0) {
+            final IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addDataScheme("package");
+            mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter, null, null);
+            mContext.getPackageManager().addOnPermissionsChangeListener(
+                    mPermissionsChangedListener);
+            // Nothing was observed while there were no clients.
+            mAllChanged = true;
+        }
+        for (int op : ops) {
+            final int count = mOpRefCounts.get(op);
+            mOpRefCounts.put(op, count + 1);
+            if (count == 0) {
+                mAppOpsManager.startWatchingMode(op, null /* packageName */, mOpChangedListener);
+            }
+        }
+    }
+
+    /**
+     * Stops caching {@code ops}, called when a bridge using them pauses.
+     */
+    public synchronized void unregister(int[] ops) {
+        boolean opRemoved = false;
+        for (int op : ops) {
+            final int count = mOpRefCounts.get(op);
+            if (count <= 1) {
+                mOpRefCounts.delete(op);
+                // Changes are not observed anymore, drop the cached modes.
+                mChangedOps.add(op);
+                opRemoved = true;
+            } else {
+                mOpRefCounts.put(op, count - 1);
+            }
+        }
+        if (opRemoved) {
+            // Watching cannot be stopped per op, so watch the remaining ones again.
+            mAppOpsManager.stopWatchingMode(mOpChangedListener);
+            for (int i = 0; i < mOpRefCounts.size(); i++) {
+                mAppOpsManager.startWatchingMode(mOpRefCounts.keyAt(i), null /* packageName */,
+                        mOpChangedListener);
+            }
+        }
+        if (--mClients == 0) {
+            mContext.unregisterReceiver(mPackageReceiver);
+            mContext.getPackageManager().removeOnPermissionsChangeListener(
+                    mPermissionsChangedListener);
+            mAllChanged = true;
+        }
+    }
+
+    /**
+     * Queries the app op modes and checks of {@code packageName} again on next use, for a change
+     * made by the caller itself.
+     */
+    public void invalidatePackage(String packageName, int uid) {
+        if (isActive()) {
+            mChangedPackages.add(Pair.create(uid, packageName));
+        }
+    }
+
+    /**
+     * Returns the packages requesting {@code permission}, see
+     * {@link IPackageManager#getAppOpPermissionPackages}.
+     */
+    public String[] getAppOpPermissionPackages(String permission) throws RemoteException {
+        if (!isActive()) {
+            return mIpm.getAppOpPermissionPackages(permission);
+        }
+        synchronized (mCacheLock) {
+            applyInvalidationsLocked();
+            String[] packages = mRequestingPackages.get(permission);
+            if (packages == null && !mRequestingPackages.containsKey(permission)) {
+                packages = mIpm.getAppOpPermissionPackages(permission);
+                mRequestingPackages.put(permission, packages);
+            }
+            return packages;
+        }
+    }
+
+    /**
+     * Returns the packages of {@code userId} holding any of {@code permissions}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<PackageInfo> getPackagesHoldingPermissions(String[] permissions, int userId)
+            throws RemoteException {
+        if (!isActive()) {
+            return mIpm.getPackagesHoldingPermissions(permissions, 0, userId).getList();
+        }
+        synchronized (mCacheLock) {
+            applyInvalidationsLocked();
+            final String key = userId + ":" + Arrays.toString(permissions);
+            List<PackageInfo> packages = mHoldingPackages.get(key);
+            if (packages == null) {
+                packages = mIpm.getPackagesHoldingPermissions(permissions, 0, userId).getList();
+                mHoldingPackages.put(key, packages);
+            }
+            return packages;
+        }
+    }
+
+    public boolean isPackageAvailable(String packageName, int userId) throws RemoteException {
+        if (!isActive()) {
+            return mIpm.isPackageAvailable(packageName, userId);
+        }
+        synchronized (mCacheLock) {
+            applyInvalidationsLocked();
+            final String key = userId + ":" + packageName;
+            Boolean available = mAvailablePackages.get(key);
+            if (available == null) {
+                available = mIpm.isPackageAvailable(packageName, userId);
+                mAvailablePackages.put(key, available);
+            }
+            return available;
+        }
+    }
+
+    /**
+     * Returns the mode of {@code op} of every package that has one, as uid => (package => mode).
+     * All registered ops that are not cached yet are loaded with the same query.
+     */
+    public SparseArray<Map<String, Integer>> getOpModes(int op) {
+        final int[] registeredOps = getRegisteredOps();
+        if (Arrays.binarySearch(registeredOps, op) < 0) {
+            return queryOpModes(new int[] {op}).get(op);
+        }
+        synchronized (mCacheLock) {
+            applyInvalidationsLocked();
+            if (mOpModes.indexOfKey(op) < 0) {
+                final int[] missingOps = new int[registeredOps.length];
+                int count = 0;
+                for (int registeredOp : registeredOps) {
+                    if (mOpModes.indexOfKey(registeredOp) < 0) {
+                        missingOps[count++] = registeredOp;
+                    }
+                }
+                final SparseArray<SparseArray<Map<String, Integer>>> modes =
+                        queryOpModes(Arrays.copyOf(missingOps, count));
+                for (int i = 0; i < modes.size(); i++) {
+                    mOpModes.put(modes.keyAt(i), modes.valueAt(i));
+                }
+            }
+            // Copied as the cached modes are updated in place.
+            return copyOf(mOpModes.get(op));
+        }
+    }
+
+    /**
+     * Returns {@link AppOpsManager#checkOpNoThrow} of {@code op} for {@code packageName}.
+     */
+    public int checkOp(int op, int uid, String packageName) {
+        if (Arrays.binarySearch(getRegisteredOps(), op) < 0) {
+            return mAppOpsManager.checkOpNoThrow(op, uid, packageName);
+        }
+        synchronized (mCacheLock) {
+            applyInvalidationsLocked();
+            Map<String, Integer> modes = mCheckedModes.get(op);
+            if (modes == null) {
+                modes = new ArrayMap<>();
+                mCheckedModes.put(op, modes);
+            }
+            final String key = uid + ":" + packageName;
+            Integer mode = modes.get(key);
+            if (mode == null) {
+                mode = mAppOpsManager.checkOpNoThrow(op, uid, packageName);
+                modes.put(key, mode);
+            }
+            return mode;
+        }
+    }
+
+    private synchronized boolean isActive() {
+        return mClients > 0;
+    }
+
+    private synchronized int[] getRegisteredOps() {
+        final int[] ops = new int[mOpRefCounts.size()];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = mOpRefCounts.keyAt(i);
+        }
+        return ops;
+    }
+
+    private static SparseArray<Map<String, Integer>> copyOf(
+            SparseArray<Map<String, Integer>> modes) {
+        final SparseArray<Map<String, Integer>> copy = new SparseArray<>(modes.size());
+        for (int i = 0; i < modes.size(); i++) {
+            final Map<String, Integer> uidModes = new ArrayMap<>();
+            uidModes.putAll(modes.valueAt(i));
+            copy.put(modes.keyAt(i), uidModes);
+        }
+        return copy;
+    }
+
+    private SparseArray<SparseArray<Map<String, Integer>>> queryOpModes(int[] ops) {
+        final SparseArray<SparseArray<Map<String, Integer>>> modes = new SparseArray<>();
+        for (int op : ops) {
+            modes.put(op, new SparseArray<>());
+        }
+        final List<PackageOps> packageOps = mAppOpsManager.getPackagesForOps(ops);
+        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
+        for (int i = 0; i < packageOpsCount; i++) {
+            putModes(modes, packageOps.get(i));
+        }
+        return modes;
+    }
+
+    private static void putModes(SparseArray<SparseArray<Map<String, Integer>>> modes,
+            PackageOps packageOps) {
+        for (OpEntry entry : packageOps.getOps()) {
+            final SparseArray<Map<String, Integer>> opModes = modes.get(entry.getOp());
+            if (opModes == null) {
+                continue;
+            }
+            Map<String, Integer> uidModes = opModes.get(packageOps.getUid());
+            if (uidModes == null) {
+                uidModes = new ArrayMap<>();
+                opModes.put(packageOps.getUid(), uidModes);
+            }
+            uidModes.put(packageOps.getPackageName(), entry.getMode());
+        }
+    }
+
+    private void applyInvalidationsLocked() {
+        if (mAllChanged) {
+            mAllChanged = false;
+            mChangedOps.clear();
+            mChangedOpPackages.clear();
+            mChangedPackages.clear();
+            mPermissionsChanged = false;
+            mOpModes.clear();
+            mCheckedModes.clear();
+            mRequestingPackages.clear();
+            mHoldingPackages.clear();
+            mAvailablePackages.clear();
+            return;
+        }
+        if (mPermissionsChanged) {
+            mPermissionsChanged = false;
+            mHoldingPackages.clear();
+        }
+        if (!mChangedOps.isEmpty()) {
+            for (Integer op : mChangedOps.toArray(new Integer[0])) {
+                mChangedOps.remove(op);
+                mOpModes.remove(op);
+                mCheckedModes.remove(op);
+            }
+        }
+        Pair<Integer, String> changed;
+        while ((changed = mChangedOpPackages.poll()) != null) {
+            if (!updatePackageLocked(changed.second)) {
+                mOpModes.remove(changed.first);
+                mCheckedModes.remove(changed.first);
+            }
+        }
+        while ((changed = mChangedPackages.poll()) != null) {
+            updatePackageLocked(changed.second, changed.first);
+        }
+    }
+
+    /**
+     * Queries {@code packageName} again in every profile it is installed in, returns whether it
+     * was found.
+     */
+    private boolean updatePackageLocked(String packageName) {
+        boolean found = false;
+        for (int userId : mUserManager.getProfileIdsWithDisabled(UserHandle.myUserId())) {
+            final int uid;
+            try {
+                uid = mIpm.getPackageUid(packageName, 0 /* flags */, userId);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Cannot get uid of " + packageName, e);
+                return false;
+            }
+            if (uid >= 0) {
+                updatePackageLocked(packageName, uid);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private void updatePackageLocked(String packageName, int uid) {
+        final String key = uid + ":" + packageName;
+        for (int i = 0; i < mCheckedModes.size(); i++) {
+            mCheckedModes.valueAt(i).remove(key);
+        }
+        if (mOpModes.size() == 0) {
+            return;
+        }
+        final int[] ops = new int[mOpModes.size()];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = mOpModes.keyAt(i);
+            final Map<String, Integer> uidModes = mOpModes.valueAt(i).get(uid);
+            if (uidModes != null) {
+                uidModes.remove(packageName);
+            }
+        }
+        try {
+            final List<PackageOps> packageOps = mAppOpsManager.getOpsForPackage(uid, packageName,
+                    ops);
+            final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
+            for (int i = 0; i < packageOpsCount; i++) {
+                putModes(mOpModes, packageOps.get(i));
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot get app ops of " + packageName, e);
+            mOpModes.clear();
+        }
+    }
+}
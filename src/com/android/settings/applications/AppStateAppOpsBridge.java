@@ -38,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /*
@@ -55,17 +56,17 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
     private final Context mContext;
     private final int[] mAppOpsOpCodes;
     private final String[] mPermissions;
+    private final AppOpsStateCache mAppOpsStateCache;
 
     public AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int appOpsOpCode, String[] permissions) {
-        this(context, appState, callback, appOpsOpCode, permissions,
-                AppGlobals.getPackageManager());
+        this(context, appState, callback, new int[]{appOpsOpCode}, permissions);
     }
 
     AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int[] appOpsOpCodes, String[] permissions) {
         this(context, appState, callback, appOpsOpCodes, permissions,
-                AppGlobals.getPackageManager());
+                AppGlobals.getPackageManager(), AppOpsStateCache.getInstance(context));
     }
 
     @VisibleForTesting
@@ -77,8 +78,16 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
 
     AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int[] appOpsOpCodes, String[] permissions, IPackageManager packageManager) {
-        super(appState, callback);
+        this(context, appState, callback, appOpsOpCodes, permissions, packageManager,
+                new AppOpsStateCache(context, packageManager));
+    }
+
+    private AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
+            int[] appOpsOpCodes, String[] permissions, IPackageManager packageManager,
+            AppOpsStateCache appOpsStateCache) {
+        super(appState, callback, appOpsStateCache, appOpsOpCodes);
         mContext = context;
+        mAppOpsStateCache = appOpsStateCache;
         mIPackageManager = packageManager;
         mUserManager = UserManager.get(context);
         mProfiles = mUserManager.getUserProfiles();
@@ -174,7 +183,7 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
         try {
             Set<String> packagesSet = new HashSet<>();
             for (String permission : mPermissions) {
-                String[] pkgs = mIPackageManager.getAppOpPermissionPackages(permission);
+                String[] pkgs = mAppOpsStateCache.getAppOpPermissionPackages(permission);
                 if (pkgs != null) {
                     packagesSet.addAll(Arrays.asList(pkgs));
                 }
@@ -193,7 +202,7 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
                 final int profileId = profile.getIdentifier();
                 entries.put(profileId, entriesForProfile);
                 for (final String packageName : packagesSet) {
-                    final boolean isAvailable = mIPackageManager.isPackageAvailable(packageName,
+                    final boolean isAvailable = mAppOpsStateCache.isPackageAvailable(packageName,
                             profileId);
                     if (!shouldIgnorePackage(packageName) && isAvailable) {
                         final PermissionState newEntry = new PermissionState(packageName, profile);
@@ -227,10 +236,8 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
                 if (entriesForProfile == null) {
                     continue;
                 }
-                @SuppressWarnings("unchecked") final List<PackageInfo> packageInfos =
-                        mIPackageManager
-                                .getPackagesHoldingPermissions(mPermissions, 0,
-                                        profileId).getList();
+                final List<PackageInfo> packageInfos =
+                        mAppOpsStateCache.getPackagesHoldingPermissions(mPermissions, profileId);
                 final int packageInfoCount = packageInfos != null ? packageInfos.size() : 0;
                 for (int i = 0; i < packageInfoCount; i++) {
                     final PackageInfo packageInfo = packageInfos.get(i);
@@ -257,35 +264,37 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
             return;
         }
 
-        // Find out which packages have been granted permission from AppOps.
-        final List<AppOpsManager.PackageOps> packageOps = mAppOpsManager.getPackagesForOps(
-                mAppOpsOpCodes);
-        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
-        for (int i = 0; i < packageOpsCount; i++) {
-            final AppOpsManager.PackageOps packageOp = packageOps.get(i);
-            final int userId = UserHandle.getUserId(packageOp.getUid());
-            if (!isThisUserAProfileOfCurrentUser(userId)) {
-                // This AppOp does not belong to any of this user's profiles.
-                continue;
-            }
-
-            final ArrayMap<String, PermissionState> entriesForProfile = entries.get(userId);
-            if (entriesForProfile == null) {
-                continue;
-            }
-            final PermissionState pe = entriesForProfile.get(packageOp.getPackageName());
-            if (pe == null) {
-                Log.w(TAG, "AppOp permission exists for package " + packageOp.getPackageName()
-                        + " of user " + userId + " but package doesn't exist or did not request "
-                        + mPermissions + " access");
-                continue;
-            }
+        // Find out which packages have been granted permission from AppOps. Like app ops report
+        // them, the mode of a package is the one of its lowest op.
+        final int[] opCodes = mAppOpsOpCodes.clone();
+        Arrays.sort(opCodes);
+        final Set<PermissionState> loaded = new HashSet<>();
+        for (int opCode : opCodes) {
+            final SparseArray<Map<String, Integer>> modes = mAppOpsStateCache.getOpModes(opCode);
+            for (int i = 0; i < modes.size(); i++) {
+                final int userId = UserHandle.getUserId(modes.keyAt(i));
+                if (!isThisUserAProfileOfCurrentUser(userId)) {
+                    // This AppOp does not belong to any of this user's profiles.
+                    continue;
+                }
 
-            if (packageOp.getOps().size() < 1) {
-                Log.w(TAG, "No AppOps permission exists for package " + packageOp.getPackageName());
-                continue;
+                final ArrayMap<String, PermissionState> entriesForProfile = entries.get(userId);
+                if (entriesForProfile == null) {
+                    continue;
+                }
+                for (Map.Entry<String, Integer> mode : modes.valueAt(i).entrySet()) {
+                    final PermissionState pe = entriesForProfile.get(mode.getKey());
+                    if (pe == null) {
+                        Log.w(TAG, "AppOp permission exists for package " + mode.getKey()
+                                + " of user " + userId + " but package doesn't exist or did not "
+                                + "request " + mPermissions + " access");
+                        continue;
+                    }
+                    if (loaded.add(pe)) {
+                        pe.appOpMode = mode.getValue();
+                    }
+                }
             }
-            pe.appOpMode = packageOp.getOps().get(0).getMode();
         }
     }
 
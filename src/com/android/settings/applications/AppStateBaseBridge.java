@@ -36,7 +36,20 @@ public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks
     protected final BackgroundHandler mHandler;
     protected final MainHandler mMainHandler;
 
+    private final AppOpsStateCache mAppOpsStateCache;
+    private final int[] mAppOpsOpCodes;
+    private boolean mAppOpsRegistered;
+
     public AppStateBaseBridge(ApplicationsState appState, Callback callback) {
+        this(appState, callback, null /* appOpsStateCache */, null /* appOpsOpCodes */);
+    }
+
+    /**
+     * Creates a bridge that loads {@code appOpsOpCodes} through {@code appOpsStateCache}, which
+     * keeps them cached for all bridges while this one is resumed.
+     */
+    public AppStateBaseBridge(ApplicationsState appState, Callback callback,
+            AppOpsStateCache appOpsStateCache, int[] appOpsOpCodes) {
         mAppState = appState;
         mAppSession = mAppState != null ? mAppState.newSession(this) : null;
         mCallback = callback;
@@ -46,33 +59,58 @@ public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks
         mHandler = new BackgroundHandler(mAppState != null ? mAppState.getBackgroundLooper()
                 : Looper.getMainLooper());
         mMainHandler = new MainHandler(Looper.getMainLooper());
+        mAppOpsStateCache = appOpsStateCache;
+        mAppOpsOpCodes = appOpsOpCodes;
     }
 
     public void resume() {
-        mHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ALL);
+        if (mAppOpsStateCache != null && !mAppOpsRegistered) {
+            mAppOpsRegistered = true;
+            mAppOpsStateCache.register(mAppOpsOpCodes);
+        }
+        loadAll();
         mAppSession.onResume();
     }
 
     public void pause() {
+        unregisterAppOps();
         mAppSession.onPause();
     }
 
     public void release() {
+        unregisterAppOps();
         mAppSession.onDestroy();
     }
 
     public void forceUpdate(String pkg, int uid) {
+        if (mAppOpsStateCache != null) {
+            mAppOpsStateCache.invalidatePackage(pkg, uid);
+        }
         mHandler.obtainMessage(BackgroundHandler.MSG_FORCE_LOAD_PKG, uid, 0, pkg).sendToTarget();
     }
 
     @Override
     public void onPackageListChanged() {
-        mHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ALL);
+        loadAll();
     }
 
     @Override
     public void onLoadEntriesCompleted() {
-        mHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ALL);
+        loadAll();
+    }
+
+    private void loadAll() {
+        // A pending load will see all changes made until it runs.
+        if (!mHandler.hasMessages(BackgroundHandler.MSG_LOAD_ALL)) {
+            mHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ALL);
+        }
+    }
+
+    private void unregisterAppOps() {
+        if (mAppOpsRegistered) {
+            mAppOpsRegistered = false;
+            mAppOpsStateCache.unregister(mAppOpsOpCodes);
+        }
     }
 
     @Override
@@ -41,13 +41,19 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
     private static final String TAG = AppStateInstallAppsBridge.class.getSimpleName();
 
     private final IPackageManager mIpm;
-    private final AppOpsManager mAppOpsManager;
+    private final AppOpsStateCache mAppOpsStateCache;
 
     public AppStateInstallAppsBridge(Context context, ApplicationsState appState,
             Callback callback) {
-        super(appState, callback);
+        this(appState, callback, AppOpsStateCache.getInstance(context));
+    }
+
+    private AppStateInstallAppsBridge(ApplicationsState appState, Callback callback,
+            AppOpsStateCache appOpsStateCache) {
+        super(appState, callback, appOpsStateCache,
+                new int[]{AppOpsManager.OP_REQUEST_INSTALL_PACKAGES});
         mIpm = AppGlobals.getPackageManager();
-        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mAppOpsStateCache = appOpsStateCache;
     }
 
     @Override
@@ -57,7 +63,7 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
 
     @Override
     protected void loadAllExtraInfo() {
-        // TODO: consider making this a batch operation with a single binder call
+        // The requesting packages and app op modes are cached while this bridge is resumed.
         final List<AppEntry> allApps = mAppSession.getAllApps();
         for (int i = 0; i < allApps.size(); i++) {
             AppEntry currentEntry = allApps.get(i);
@@ -67,7 +73,7 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
 
     private boolean hasRequestedAppOpPermission(String permission, String packageName) {
         try {
-            String[] packages = mIpm.getAppOpPermissionPackages(permission);
+            String[] packages = mAppOpsStateCache.getAppOpPermissionPackages(permission);
             return ArrayUtils.contains(packages, packageName);
         } catch (RemoteException exc) {
             Log.e(TAG, "PackageManager dead. Cannot get permission info");
@@ -86,7 +92,7 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
     }
 
     private int getAppOpMode(int appOpCode, int uid, String packageName) {
-        return mAppOpsManager.checkOpNoThrow(appOpCode, uid, packageName);
+        return mAppOpsStateCache.checkOp(appOpCode, uid, packageName);
     }
 
     public InstallAppsState createInstallAppsStateFor(String packageName, int uid) {
@@ -28,6 +28,7 @@ import android.os.UserHandle;
 import android.text.BidiFormatter;
 import android.text.format.DateUtils;
 import android.text.format.Formatter;
+import android.util.ArraySet;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -51,6 +52,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 public class RunningProcessesView extends FrameLayout
         implements AdapterView.OnItemClickListener, RecyclerListener,
@@ -488,6 +490,22 @@ public class RunningProcessesView extends FrameLayout
         return false;
     }
 
+    /**
+     * Binds the visible items whose content changed again, leaving the rest of the list as is.
+     */
+    void rebindChangedItems() {
+        final ArraySet<RunningState.MergedItem> changedItems = mState.takeChangedItems();
+        if (changedItems.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<View, ActiveItem> entry : mActiveItems.entrySet()) {
+            final ActiveItem ai = entry.getValue();
+            if (changedItems.contains(ai.mItem)) {
+                entry.setValue(ai.mHolder.bind(mState, ai.mItem, mBuilder));
+            }
+        }
+    }
+
     void updateTimes() {
         Iterator<ActiveItem> it = mActiveItems.values().iterator();
         while (it.hasNext()) {
@@ -511,6 +529,11 @@ public class RunningProcessesView extends FrameLayout
                 refreshUi(false);
                 updateTimes();
                 break;
+            case REFRESH_ITEMS:
+                refreshUi(false);
+                rebindChangedItems();
+                updateTimes();
+                break;
             case REFRESH_STRUCTURE:
                 refreshUi(true);
                 updateTimes();
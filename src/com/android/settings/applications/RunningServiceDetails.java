@@ -648,7 +648,10 @@ public class RunningServiceDetails extends InstrumentedFragment
                 refreshUi(false);
                 updateTimes();
                 break;
+            case REFRESH_ITEMS:
             case REFRESH_STRUCTURE:
+                // Everything is bound again, so the changed items are not needed.
+                mState.takeChangedItems();
                 refreshUi(true);
                 updateTimes();
                 break;
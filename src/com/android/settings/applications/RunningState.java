@@ -39,10 +39,14 @@ import android.os.Message;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.text.TextUtils;
 import android.text.format.Formatter;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.settings.R;
 import com.android.settingslib.Utils;
 import com.android.settingslib.applications.InterestingConfigChanges;
@@ -124,6 +128,10 @@ public class RunningState {
     // representing all items that would be put in mUserBackgroundItems for that user.
     final SparseArray<MergedItem> mOtherUserBackgroundItems = new SparseArray<MergedItem>();
 
+    // Service and process metadata that outlives the items using it, so that a
+    // service or process that comes back does not need to be resolved again.
+    final MetadataCache mMetadataCache = new MetadataCache();
+
     static class AppProcessInfo {
         final ActivityManager.RunningAppProcessInfo info;
         boolean hasServices;
@@ -210,6 +218,10 @@ public class RunningState {
     ArrayList<MergedItem> mMergedItems = new ArrayList<MergedItem>();
     ArrayList<MergedItem> mBackgroundItems = new ArrayList<MergedItem>();
     ArrayList<MergedItem> mUserBackgroundItems = new ArrayList<MergedItem>();
+
+    // Items whose shown content changed without the lists themselves changing,
+    // collected until the UI takes them.
+    ArraySet<MergedItem> mChangedItems = new ArraySet<MergedItem>();
     
     int mNumBackgroundProcesses;
     long mBackgroundProcessMemory;
@@ -239,7 +251,7 @@ public class RunningState {
                         }
                     }
                     Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
-                    cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
+                    cmd.arg1 = update(mApplicationContext, mAm);
                     mHandler.sendMessage(cmd);
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
@@ -258,9 +270,9 @@ public class RunningState {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_REFRESH_UI:
-                    mNextUpdate = msg.arg1 != 0
-                            ? OnRefreshUiListener.REFRESH_STRUCTURE
-                            : OnRefreshUiListener.REFRESH_DATA;
+                    // Several updates may arrive before the next UI refresh;
+                    // keep the largest one so a structure change is not lost.
+                    mNextUpdate = Math.max(mNextUpdate, msg.arg1);
                     break;
                 case MSG_UPDATE_TIME:
                     synchronized (mLock) {
@@ -324,7 +336,10 @@ public class RunningState {
     static interface OnRefreshUiListener {
         public static final int REFRESH_TIME = 0;
         public static final int REFRESH_DATA = 1;
-        public static final int REFRESH_STRUCTURE = 2;
+        // The lists are the same, but some of their items need to be
+        // bound again; see takeChangedItems().
+        public static final int REFRESH_ITEMS = 2;
+        public static final int REFRESH_STRUCTURE = 3;
 
         public void onRefreshUi(int what);
     }
@@ -348,6 +363,7 @@ public class RunningState {
 
         long mActiveSince;
         long mSize;
+        long mFormattedSize = -1;
         String mSizeStr;
         String mCurSizeStr;
         boolean mNeedDivider;
@@ -358,6 +374,13 @@ public class RunningState {
             mUserId = userId;
         }
 
+        void updateSizeStr(Context context) {
+            if (mFormattedSize != mSize) {
+                mFormattedSize = mSize;
+                mSizeStr = Formatter.formatShortFileSize(context, mSize);
+            }
+        }
+
         public Drawable loadIcon(Context context, RunningState state) {
             if (mPackageInfo != null) {
                 Drawable unbadgedIcon = mPackageInfo.loadUnbadgedIcon(state.mPm);
@@ -372,6 +395,8 @@ public class RunningState {
         ActivityManager.RunningServiceInfo mRunningService;
         ServiceInfo mServiceInfo;
         boolean mShownAsStarted;
+        String mClientPackage;
+        int mClientLabel;
         
         MergedItem mMergedItem;
         
@@ -406,9 +431,13 @@ public class RunningState {
         long mActiveSince;
         
         public ProcessItem(Context context, int uid, String processName) {
+            this(uid, processName, context.getResources().getString(
+                    R.string.service_process_name, processName));
+        }
+
+        ProcessItem(int uid, String processName, String description) {
             super(true, UserHandle.getUserId(uid));
-            mDescription = context.getResources().getString(
-                    R.string.service_process_name, processName);
+            mDescription = description;
             mUid = uid;
             mProcessName = processName;
         }
@@ -489,7 +518,8 @@ public class RunningState {
             }
         }
 
-        boolean updateService(Context context, ActivityManager.RunningServiceInfo service) {
+        boolean updateService(Context context, MetadataCache cache,
+                ActivityManager.RunningServiceInfo service) {
             final PackageManager pm = context.getPackageManager();
 
             boolean changed = false;
@@ -499,8 +529,7 @@ public class RunningState {
                 si = new ServiceItem(mUserId);
                 si.mRunningService = service;
                 try {
-                    si.mServiceInfo = ActivityThread.getPackageManager().getServiceInfo(
-                            service.service, PackageManager.MATCH_ANY_USER,
+                    si.mServiceInfo = cache.getServiceInfo(service.service,
                             UserHandle.getUserId(service.uid));
 
                     if (si.mServiceInfo == null) {
@@ -512,7 +541,7 @@ public class RunningState {
                 }
                 si.mDisplayLabel = makeLabel(pm,
                         si.mRunningService.service.getClassName(), si.mServiceInfo);
-                mLabel = mDisplayLabel != null ? mDisplayLabel.toString() : null;
+                si.mLabel = si.mDisplayLabel != null ? si.mDisplayLabel.toString() : null;
                 si.mPackageInfo = si.mServiceInfo.applicationInfo;
                 mServices.put(service.service, si);
             }
@@ -528,21 +557,21 @@ public class RunningState {
                     si.mShownAsStarted = false;
                     changed = true;
                 }
-                try {
-                    Resources clientr = pm.getResourcesForApplication(service.clientPackage);
-                    String label = clientr.getString(service.clientLabel);
-                    si.mDescription = context.getResources().getString(
-                            R.string.service_client_name, label);
-                } catch (PackageManager.NameNotFoundException e) {
-                    si.mDescription = null;
+                if (si.mDescription == null || si.mClientLabel != service.clientLabel
+                        || !service.clientPackage.equals(si.mClientPackage)) {
+                    si.mClientPackage = service.clientPackage;
+                    si.mClientLabel = service.clientLabel;
+                    si.mDescription = cache.getClientDescription(context,
+                            service.clientPackage, service.clientLabel);
                 }
             } else {
-                if (!si.mShownAsStarted) {
+                if (!si.mShownAsStarted || si.mDescription == null) {
                     si.mShownAsStarted = true;
+                    si.mClientPackage = null;
+                    si.mClientLabel = 0;
+                    si.mDescription = cache.getStartedDescription(context);
                     changed = true;
                 }
-                si.mDescription = context.getResources().getString(
-                        R.string.service_started_by_app);
             }
             
             return changed;
@@ -551,15 +580,10 @@ public class RunningState {
         boolean updateSize(Context context, long pss, int curSeq) {
             mSize = pss * 1024;
             if (mCurSeq == curSeq) {
-                String sizeStr = Formatter.formatShortFileSize(
-                        context, mSize);
-                if (!sizeStr.equals(mSizeStr)){
-                    mSizeStr = sizeStr;
-                    // We update this on the second tick where we update just
-                    // the text in the current items, so no need to say we
-                    // changed here.
-                    return false;
-                }
+                // We update this on the second tick where we update just
+                // the text in the current items, so no need to say we
+                // changed here.
+                updateSizeStr(context);
             }
             return false;
         }
@@ -630,7 +654,14 @@ public class RunningState {
             }
         }
 
+        /**
+         * Returns true if anything shown for this item changed since the last call.
+         */
         boolean update(Context context, boolean background) {
+            final boolean wasBackground = mBackground;
+            final CharSequence oldDisplayLabel = mDisplayLabel;
+            final String oldDescription = mDescription;
+            final long oldActiveSince = mActiveSince;
             mBackground = background;
 
             if (mUser != null) {
@@ -676,7 +707,10 @@ public class RunningState {
                 }
             }
 
-            return false;
+            return wasBackground != mBackground
+                    || !TextUtils.equals(oldDisplayLabel, mDisplayLabel)
+                    || !TextUtils.equals(oldDescription, mDescription)
+                    || oldActiveSince != mActiveSince;
         }
         
         boolean updateSize(Context context) {
@@ -694,15 +728,10 @@ public class RunningState {
                 }
             }
             
-            String sizeStr = Formatter.formatShortFileSize(
-                    context, mSize);
-            if (!sizeStr.equals(mSizeStr)){
-                mSizeStr = sizeStr;
-                // We update this on the second tick where we update just
-                // the text in the current items, so no need to say we
-                // changed here.
-                return false;
-            }
+            // We update this on the second tick where we update just
+            // the text in the current items, so no need to say we
+            // changed here.
+            updateSizeStr(context);
             return false;
         }
 
@@ -723,6 +752,98 @@ public class RunningState {
         }
     }
 
+    /**
+     * Metadata about services and processes that does not change while their packages
+     * stay installed.  Only used on the background thread, and dropped on every reset.
+     */
+    static class MetadataCache {
+        private final SparseArray<HashMap<ComponentName, ServiceInfo>> mServiceInfos
+                = new SparseArray<HashMap<ComponentName, ServiceInfo>>();
+        private final HashMap<String, String> mClientDescriptions = new HashMap<String, String>();
+        private final HashMap<String, ProcessItem> mProcessLabels
+                = new HashMap<String, ProcessItem>();
+        private String mStartedDescription;
+
+        ServiceInfo getServiceInfo(ComponentName name, int userId) throws RemoteException {
+            HashMap<ComponentName, ServiceInfo> infos = mServiceInfos.get(userId);
+            if (infos == null) {
+                infos = new HashMap<ComponentName, ServiceInfo>();
+                mServiceInfos.put(userId, infos);
+            }
+            ServiceInfo info = infos.get(name);
+            if (info == null) {
+                info = ActivityThread.getPackageManager().getServiceInfo(name,
+                        PackageManager.MATCH_ANY_USER, userId);
+                if (info != null) {
+                    infos.put(name, info);
+                }
+            }
+            return info;
+        }
+
+        String getClientDescription(Context context, String clientPackage, int clientLabel) {
+            final String key = clientPackage + ':' + clientLabel;
+            String description = mClientDescriptions.get(key);
+            if (description == null) {
+                try {
+                    Resources clientr = context.getPackageManager()
+                            .getResourcesForApplication(clientPackage);
+                    String label = clientr.getString(clientLabel);
+                    description = context.getResources().getString(
+                            R.string.service_client_name, label);
+                    mClientDescriptions.put(key, description);
+                } catch (PackageManager.NameNotFoundException e) {
+                }
+            }
+            return description;
+        }
+
+        String getStartedDescription(Context context) {
+            if (mStartedDescription == null) {
+                mStartedDescription = context.getResources().getString(
+                        R.string.service_started_by_app);
+            }
+            return mStartedDescription;
+        }
+
+        /**
+         * Creates the item for a process, reusing the label and description of an
+         * earlier process with the same uid and name.
+         */
+        ProcessItem newProcessItem(Context context, int uid, String processName) {
+            final ProcessItem last = mProcessLabels.get(uid + ":" + processName);
+            if (last == null) {
+                return new ProcessItem(context, uid, processName);
+            }
+            final ProcessItem proc = new ProcessItem(uid, processName, last.mDescription);
+            proc.mDisplayLabel = last.mDisplayLabel;
+            proc.mLabel = last.mLabel;
+            proc.mPackageInfo = last.mPackageInfo;
+            return proc;
+        }
+
+        /**
+         * Remembers the label of a process that is going away.
+         */
+        void putProcessLabel(ProcessItem proc) {
+            if (proc.mLabel != null) {
+                final ProcessItem label = new ProcessItem(proc.mUid, proc.mProcessName,
+                        proc.mDescription);
+                label.mDisplayLabel = proc.mDisplayLabel;
+                label.mLabel = proc.mLabel;
+                label.mPackageInfo = proc.mPackageInfo;
+                mProcessLabels.put(proc.mUid + ":" + proc.mProcessName, label);
+            }
+        }
+
+        void clear() {
+            mServiceInfos.clear();
+            mClientDescriptions.clear();
+            mProcessLabels.clear();
+            mStartedDescription = null;
+        }
+    }
+
     class ServiceProcessComparator implements Comparator<ProcessItem> {
         public int compare(ProcessItem object1, ProcessItem object2) {
             if (object1.mUserId != object2.mUserId) {
@@ -855,7 +976,9 @@ public class RunningState {
         return false;
     }
 
-    private void reset() {
+    @VisibleForTesting
+    void reset() {
+        mMetadataCache.clear();
         mServiceProcessesByName.clear();
         mServiceProcessesByPid.clear();
         mInterestingProcesses.clear();
@@ -893,17 +1016,28 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
-    private boolean update(Context context, ActivityManager am) {
+    private int update(Context context, ActivityManager am) {
+        return update(context, am.getRunningServices(MAX_SERVICES),
+                am.getRunningAppProcesses());
+    }
+
+    /**
+     * Updates the items from the given running services and processes, returning
+     * which {@link OnRefreshUiListener} refresh the change needs.
+     */
+    @VisibleForTesting
+    int update(Context context, List<ActivityManager.RunningServiceInfo> services,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
         final PackageManager pm = context.getPackageManager();
 
         mSequence++;
         
         boolean changed = false;
+        boolean structureChanged = false;
+        final ArraySet<MergedItem> changedItems = new ArraySet<MergedItem>();
 
-        // Retrieve list of services, filtering out anything that definitely
+        // Filter the list of services, removing anything that definitely
         // won't be shown in the UI.
-        List<ActivityManager.RunningServiceInfo> services 
-                = am.getRunningServices(MAX_SERVICES);
         int NS = services != null ? services.size() : 0;
         for (int i=0; i<NS; i++) {
             ActivityManager.RunningServiceInfo si = services.get(i);
@@ -927,10 +1061,7 @@ public class RunningState {
             }
         }
 
-        // Retrieve list of running processes, organizing them into a sparse
-        // array for easy retrieval.
-        List<ActivityManager.RunningAppProcessInfo> processes
-                = am.getRunningAppProcesses();
+        // Organize the running processes into a sparse array for easy retrieval.
         final int NP = processes != null ? processes.size() : 0;
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
@@ -998,7 +1129,7 @@ public class RunningState {
             ProcessItem proc = procs.get(si.process);
             if (proc == null) {
                 changed = true;
-                proc = new ProcessItem(context, si.uid, si.process);
+                proc = mMetadataCache.newProcessItem(context, si.uid, si.process);
                 procs.put(si.process, proc);
             }
             
@@ -1019,7 +1150,7 @@ public class RunningState {
                 proc.mDependentProcesses.clear();
                 proc.mCurSeq = mSequence;
             }
-            changed |= proc.updateService(context, si);
+            changed |= proc.updateService(context, mMetadataCache, si);
         }
         
         // Now update the map of other processes that are running (but
@@ -1034,7 +1165,7 @@ public class RunningState {
                 proc = mRunningProcesses.get(pi.pid);
                 if (proc == null) {
                     changed = true;
-                    proc = new ProcessItem(context, pi.uid, pi.processName);
+                    proc = mMetadataCache.newProcessItem(context, pi.uid, pi.processName);
                     proc.mPid = pi.pid;
                     mRunningProcesses.put(pi.pid, proc);
                 }
@@ -1081,6 +1212,7 @@ public class RunningState {
                 i++;
             } else {
                 changed = true;
+                mMetadataCache.putProcessLabel(proc);
                 mRunningProcesses.remove(mRunningProcesses.keyAt(i));
                 NRP--;
             }
@@ -1125,6 +1257,7 @@ public class RunningState {
                     }
                 } else {
                     changed = true;
+                    mMetadataCache.putProcessLabel(pi);
                     pit.remove();
                     if (procs.size() == 0) {
                         if (uidToDelete == null) {
@@ -1201,7 +1334,7 @@ public class RunningState {
                 
                 // Now add the services running in it.
                 MergedItem mergedItem = null;
-                boolean haveAllMerged = false;
+                boolean haveAllMerged = true;
                 boolean needDivider = false;
                 for (ServiceItem si : pi.mServices.values()) {
                     si.mNeedDivider = needDivider;
@@ -1217,7 +1350,7 @@ public class RunningState {
                     }
                 }
                 
-                if (!haveAllMerged || mergedItem == null
+                if (!haveAllMerged || mergedItem == null || mergedItem.mProcess != pi
                         || mergedItem.mServices.size() != pi.mServices.size()) {
                     // Whoops, we need to build a new MergedItem!
                     mergedItem = new MergedItem(pi.mUserId);
@@ -1226,13 +1359,16 @@ public class RunningState {
                         si.mMergedItem = mergedItem;
                     }
                     mergedItem.mProcess = pi;
-                    mergedItem.mOtherProcesses.clear();
-                    for (int mpi=firstProc; mpi<(mProcessItems.size()-1); mpi++) {
-                        mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
-                    }
+                }
+                // The processes it depends on can change while its services stay the same.
+                mergedItem.mOtherProcesses.clear();
+                for (int mpi=firstProc; mpi<(mProcessItems.size()-1); mpi++) {
+                    mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
                 }
                 
-                mergedItem.update(context, false);
+                if (mergedItem.update(context, false)) {
+                    changedItems.add(mergedItem);
+                }
                 if (mergedItem.mUserId != mMyUserId) {
                     addOtherUserItem(context, newMergedItems, mOtherUserMergedItems, mergedItem);
                 } else {
@@ -1250,7 +1386,9 @@ public class RunningState {
                         proc.mMergedItem = new MergedItem(proc.mUserId);
                         proc.mMergedItem.mProcess = proc;
                     }
-                    proc.mMergedItem.update(context, false);
+                    if (proc.mMergedItem.update(context, false)) {
+                        changedItems.add(proc.mMergedItem);
+                    }
                     if (proc.mMergedItem.mUserId != mMyUserId) {
                         addOtherUserItem(context, newMergedItems, mOtherUserMergedItems,
                                 proc.mMergedItem);
@@ -1266,14 +1404,19 @@ public class RunningState {
             final int NU = mOtherUserMergedItems.size();
             for (int i=0; i<NU; i++) {
                 MergedItem user = mOtherUserMergedItems.valueAt(i);
-                if (user.mCurSeq == mSequence) {
-                    user.update(context, false);
+                if (user.mCurSeq == mSequence && user.update(context, false)) {
+                    changedItems.add(user);
                 }
             }
 
             synchronized (mLock) {
                 mItems = newItems;
-                mMergedItems = newMergedItems;
+                // Keep handing out the same list while nothing was added, removed
+                // or moved, so the UI only needs to bind the changed items again.
+                if (!newMergedItems.equals(mMergedItems)) {
+                    mMergedItems = newMergedItems;
+                    structureChanged = true;
+                }
             }
         }
         
@@ -1332,8 +1475,7 @@ public class RunningState {
                     backgroundProcessMemory += proc.mSize;
                     MergedItem mergedItem;
                     if (newBackgroundItems != null) {
-                        mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                        proc.mMergedItem.mProcess = proc;
+                        mergedItem = getBackgroundItem(proc);
                         diffUsers |= mergedItem.mUserId != mMyUserId;
                         newBackgroundItems.add(mergedItem);
                     } else {
@@ -1345,15 +1487,16 @@ public class RunningState {
                                 diffUsers |= mergedItem.mUserId != mMyUserId;
                                 newBackgroundItems.add(mergedItem);
                             }
-                            mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                            proc.mMergedItem.mProcess = proc;
+                            mergedItem = getBackgroundItem(proc);
                             diffUsers |= mergedItem.mUserId != mMyUserId;
                             newBackgroundItems.add(mergedItem);
                         } else {
                             mergedItem = mBackgroundItems.get(bgIndex);
                         }
                     }
-                    mergedItem.update(context, true);
+                    if (mergedItem.update(context, true)) {
+                        changedItems.add(mergedItem);
+                    }
                     mergedItem.updateSize(context);
                     bgIndex++;
                 } else if (proc.mRunningProcessInfo.importance <=
@@ -1402,7 +1545,9 @@ public class RunningState {
                 for (int i=0; i<NU; i++) {
                     MergedItem user = mOtherUserBackgroundItems.valueAt(i);
                     if (user.mCurSeq == mSequence) {
-                        user.update(context, true);
+                        if (user.update(context, true)) {
+                            changedItems.add(user);
+                        }
                         user.updateSize(context);
                     }
                 }
@@ -1424,16 +1569,32 @@ public class RunningState {
                 mBackgroundItems = newBackgroundItems;
                 mUserBackgroundItems = newUserBackgroundItems;
                 if (mWatchingBackgroundItems) {
-                    changed = true;
+                    structureChanged = true;
                 }
             }
             if (!mHaveData) {
                 mHaveData = true;
                 mLock.notifyAll();
             }
+            if (structureChanged) {
+                mChangedItems.clear();
+                return OnRefreshUiListener.REFRESH_STRUCTURE;
+            }
+            if (changed || changedItems.size() > 0) {
+                mChangedItems.addAll(changedItems);
+                return OnRefreshUiListener.REFRESH_ITEMS;
+            }
         }
         
-        return changed;
+        return OnRefreshUiListener.REFRESH_DATA;
+    }
+
+    private MergedItem getBackgroundItem(ProcessItem proc) {
+        if (proc.mMergedItem == null || proc.mMergedItem.mProcess != proc) {
+            proc.mMergedItem = new MergedItem(proc.mUserId);
+            proc.mMergedItem.mProcess = proc;
+        }
+        return proc.mMergedItem;
     }
     
     void setWatchingBackgroundItems(boolean watching) {
@@ -1453,4 +1614,15 @@ public class RunningState {
             return mUserBackgroundItems;
         }
     }
+
+    /**
+     * Returns the items that need to be bound again since the last call, and forgets them.
+     */
+    ArraySet<MergedItem> takeChangedItems() {
+        synchronized (mLock) {
+            final ArraySet<MergedItem> items = mChangedItems;
+            mChangedItems = new ArraySet<MergedItem>();
+            return items;
+        }
+    }
 }
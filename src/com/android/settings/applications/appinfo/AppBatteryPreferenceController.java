@@ -42,7 +42,6 @@ import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnPause;
 import com.android.settingslib.core.lifecycle.events.OnResume;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class AppBatteryPreferenceController extends BasePreferenceController
@@ -147,10 +146,16 @@ public class AppBatteryPreferenceController extends BasePreferenceController
             final int dischargeAmount = mBatteryHelper.getStats().getDischargeAmount(
                     BatteryStats.STATS_SINCE_CHARGED);
 
-            final List<BatterySipper> usageList = new ArrayList<>(mBatteryHelper.getUsageList());
+            // Smearing changes the sippers, so work on copies of the shared usage list.
+            final List<BatterySipper> usageList = BatteryUtils.copyUsageList(
+                    mBatteryHelper.getUsageList());
+            BatterySipper sipper = findTargetSipper(usageList, mSipper.getUid());
+            if (sipper == null) {
+                sipper = mSipper;
+            }
             final double hiddenAmount = mBatteryUtils.removeHiddenBatterySippers(usageList);
             final int percentOfMax = (int) mBatteryUtils.calculateBatteryPercent(
-                    mSipper.totalPowerMah, mBatteryHelper.getTotalPower(), hiddenAmount,
+                    sipper.totalPowerMah, mBatteryHelper.getTotalPower(), hiddenAmount,
                     dischargeAmount);
             mBatteryPercent = Utils.formatPercentage(percentOfMax);
             mPreference.setSummary(mContext.getString(R.string.battery_summary, mBatteryPercent));
@@ -166,7 +171,10 @@ public class AppBatteryPreferenceController extends BasePreferenceController
 
     @VisibleForTesting
     BatterySipper findTargetSipper(BatteryStatsHelper batteryHelper, int uid) {
-        final List<BatterySipper> usageList = batteryHelper.getUsageList();
+        return findTargetSipper(batteryHelper.getUsageList(), uid);
+    }
+
+    private static BatterySipper findTargetSipper(List<BatterySipper> usageList, int uid) {
         for (int i = 0, size = usageList.size(); i < size; i++) {
             final BatterySipper sipper = usageList.get(i);
             if (sipper.getUid() == uid) {
@@ -19,6 +19,8 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
@@ -36,10 +38,16 @@ import com.android.settingslib.bluetooth.CachedBluetoothDevice;
 import com.android.settingslib.bluetooth.LocalBluetoothManager;
 import com.android.settingslib.bluetooth.LocalBluetoothProfileManager;
 import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
+import com.android.settingslib.utils.ThreadUtils;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Update the bluetooth devices. It gets bluetooth event from {@link LocalBluetoothManager} using
@@ -48,12 +56,20 @@ import java.util.Map;
  *
  * In {@link BluetoothDeviceUpdater}, it uses {@link BluetoothDeviceFilter.Filter} to detect
  * whether the {@link CachedBluetoothDevice} is relevant.
+ *
+ * Connection and bond events usually come in bursts, e.g. one per profile when a headset
+ * connects. They are coalesced per device for {@link #COALESCE_WINDOW_MS}, then the filter is
+ * evaluated once per device on a background thread and only the results are applied to
+ * {@link #mPreferenceMap} on the main thread.
  */
 public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
         LocalBluetoothProfileManager.ServiceListener {
     private static final String TAG = "BluetoothDeviceUpdater";
     private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
 
+    @VisibleForTesting
+    static final long COALESCE_WINDOW_MS = 100;
+
     protected final MetricsFeatureProvider mMetricsFeatureProvider;
     protected final DevicePreferenceCallback mDevicePreferenceCallback;
     protected final Map<BluetoothDevice, Preference> mPreferenceMap;
@@ -62,6 +78,16 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
     @VisibleForTesting
     protected LocalBluetoothManager mLocalManager;
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Devices with events since the last flush, in arrival order. Only used on the main thread.
+    private final Set<CachedBluetoothDevice> mPendingDevices = new LinkedHashSet<>();
+    // Devices deleted since the last update of the whole list, so that filter results computed
+    // for them before are dropped. Only used on the main thread.
+    private final Set<CachedBluetoothDevice> mDeletedDevices = new HashSet<>();
+    private boolean mFlushScheduled;
+    // Bumped when the whole list is updated, so that filter results computed before are dropped.
+    private int mGeneration;
+
     @VisibleForTesting
     final GearPreference.OnGearClickListener mDeviceProfilesListener = pref -> {
         launchDeviceDetails(pref);
@@ -107,6 +133,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
         mLocalManager.setForegroundActivity(null);
         mLocalManager.getEventManager().unregisterCallback(this);
         mLocalManager.getProfileManager().removeServiceListener(this);
+        cancelPendingUpdates();
     }
 
     /**
@@ -117,6 +144,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
             Log.e(TAG, "forceUpdate() Bluetooth is not supported on this device");
             return;
         }
+        cancelPendingUpdates();
         if (BluetoothAdapter.getDefaultAdapter().isEnabled()) {
             final Collection<CachedBluetoothDevice> cachedDevices =
                     mLocalManager.getCachedDeviceManager().getCachedDevicesCopy();
@@ -133,6 +161,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
             Log.e(TAG, "removeAllDevicesFromPreference() BT is not supported on this device");
             return;
         }
+        cancelPendingUpdates();
         final Collection<CachedBluetoothDevice> cachedDevices =
                 mLocalManager.getCachedDeviceManager().getCachedDevicesCopy();
         for (CachedBluetoothDevice cachedBluetoothDevice : cachedDevices) {
@@ -151,7 +180,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
 
     @Override
     public void onDeviceAdded(CachedBluetoothDevice cachedDevice) {
-        update(cachedDevice);
+        scheduleUpdate(cachedDevice);
     }
 
     @Override
@@ -159,12 +188,14 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
         // Used to combine the hearing aid entries just after pairing. Once both the hearing aids
         // get connected and their hiSyncId gets populated, this gets called for one of the
         // 2 hearing aids so that only one entry in the connected devices list will be seen.
+        mPendingDevices.remove(cachedDevice);
+        mDeletedDevices.add(cachedDevice);
         removePreference(cachedDevice);
     }
 
     @Override
     public void onDeviceBondStateChanged(CachedBluetoothDevice cachedDevice, int bondState) {
-        update(cachedDevice);
+        scheduleUpdate(cachedDevice);
     }
 
     @Override
@@ -174,7 +205,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
             Log.d(TAG, "onProfileConnectionStateChanged() device: " + cachedDevice.getName()
                     + ", state: " + state + ", bluetoothProfile: " + bluetoothProfile);
         }
-        update(cachedDevice);
+        scheduleUpdate(cachedDevice);
     }
 
     @Override
@@ -183,7 +214,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
             Log.d(TAG, "onAclConnectionStateChanged() device: " + cachedDevice.getName()
                     + ", state: " + state);
         }
-        update(cachedDevice);
+        scheduleUpdate(cachedDevice);
     }
 
     @Override
@@ -207,6 +238,8 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
     /**
      * Return {@code true} if {@code cachedBluetoothDevice} matches this
      * {@link BluetoothDeviceUpdater} and should stay in the list, otherwise return {@code false}
+     *
+     * This may be called on a background thread.
      */
     public abstract boolean isFilterMatched(CachedBluetoothDevice cachedBluetoothDevice);
 
@@ -219,12 +252,71 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
      * Update whether to show {@link CachedBluetoothDevice} in the list.
      */
     protected void update(CachedBluetoothDevice cachedBluetoothDevice) {
-        if (isFilterMatched(cachedBluetoothDevice)) {
+        applyFilterResult(cachedBluetoothDevice, isFilterMatched(cachedBluetoothDevice));
+    }
+
+    /**
+     * Add or remove the {@link Preference} of {@code cachedDevice} depending on whether it
+     * matched {@link #isFilterMatched(CachedBluetoothDevice)}.
+     */
+    protected void applyFilterResult(CachedBluetoothDevice cachedDevice, boolean matched) {
+        if (matched) {
             // Add the preference if it is new one
-            addPreference(cachedBluetoothDevice);
+            addPreference(cachedDevice);
         } else {
-            removePreference(cachedBluetoothDevice);
+            removePreference(cachedDevice);
+        }
+    }
+
+    /**
+     * Update {@code cachedDevice} once the events of the current burst are over.
+     */
+    @VisibleForTesting
+    void scheduleUpdate(CachedBluetoothDevice cachedDevice) {
+        mDeletedDevices.remove(cachedDevice);
+        mPendingDevices.add(cachedDevice);
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(this::flushPendingUpdates, COALESCE_WINDOW_MS);
+        }
+    }
+
+    /**
+     * Drop the pending device updates, and the filter results that are still being computed.
+     */
+    protected void cancelPendingUpdates() {
+        mHandler.removeCallbacksAndMessages(null);
+        mFlushScheduled = false;
+        mPendingDevices.clear();
+        mDeletedDevices.clear();
+        mGeneration++;
+    }
+
+    private void flushPendingUpdates() {
+        mFlushScheduled = false;
+        if (mPendingDevices.isEmpty()) {
+            return;
         }
+        final List<CachedBluetoothDevice> devices = new ArrayList<>(mPendingDevices);
+        mPendingDevices.clear();
+        final int generation = mGeneration;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final boolean[] matched = new boolean[devices.size()];
+            for (int i = 0; i < matched.length; i++) {
+                matched[i] = isFilterMatched(devices.get(i));
+            }
+            ThreadUtils.postOnMainThread(() -> {
+                if (generation != mGeneration) {
+                    return;
+                }
+                for (int i = 0; i < matched.length; i++) {
+                    final CachedBluetoothDevice device = devices.get(i);
+                    if (!mDeletedDevices.contains(device)) {
+                        applyFilterResult(device, matched[i]);
+                    }
+                }
+            });
+        });
     }
 
     /**
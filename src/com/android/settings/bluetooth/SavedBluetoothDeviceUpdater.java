@@ -54,6 +54,7 @@ public class SavedBluetoothDeviceUpdater extends BluetoothDeviceUpdater
 
     @Override
     public void forceUpdate() {
+        cancelPendingUpdates();
         if (mBluetoothAdapter.isEnabled()) {
             final CachedBluetoothDeviceManager cachedManager =
                     mLocalManager.getCachedDeviceManager();
@@ -84,8 +85,8 @@ public class SavedBluetoothDeviceUpdater extends BluetoothDeviceUpdater
     }
 
     @Override
-    public void update(CachedBluetoothDevice cachedDevice) {
-        if (isFilterMatched(cachedDevice)) {
+    protected void applyFilterResult(CachedBluetoothDevice cachedDevice, boolean matched) {
+        if (matched) {
             // Add the preference if it is new one
             addPreference(cachedDevice, BluetoothDevicePreference.SortType.TYPE_NO_SORT);
         } else {
@@ -20,12 +20,17 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.annotation.XmlRes;
 import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.util.Xml;
 
@@ -43,6 +48,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Utility class to parse elements of XML preferences
@@ -105,6 +111,27 @@ public class PreferenceXmlParserUtils {
 
     private static final String ENTRIES_SEPARATOR = "|";
 
+    private static final int ALL_METADATA_FLAGS = MetadataFlag.FLAG_INCLUDE_PREF_SCREEN
+            | MetadataFlag.FLAG_NEED_KEY
+            | MetadataFlag.FLAG_NEED_PREF_TYPE
+            | MetadataFlag.FLAG_NEED_PREF_CONTROLLER
+            | MetadataFlag.FLAG_NEED_PREF_TITLE
+            | MetadataFlag.FLAG_NEED_PREF_SUMMARY
+            | MetadataFlag.FLAG_NEED_PREF_ICON
+            | MetadataFlag.FLAG_NEED_KEYWORDS
+            | MetadataFlag.FLAG_NEED_SEARCHABLE
+            | MetadataFlag.FLAG_NEED_PREF_APPEND
+            | MetadataFlag.FLAG_UNAVAILABLE_SLICE_SUBTITLE
+            | MetadataFlag.FLAG_FOR_WORK;
+
+    // Indexing reads xml with contexts of different configurations, so metadata is cached for a
+    // few configurations at once.
+    private static final int MAX_CACHED_CONFIGURATIONS = 4;
+
+    // Metadata parsed with ALL_METADATA_FLAGS, per resources configuration (value key: xml res id).
+    private static final LruCache<MetadataCacheKey, SparseArray<List<Bundle>>> sMetadataCache =
+            new LruCache<>(MAX_CACHED_CONFIGURATIONS);
+
     /**
      * Call {@link #extractMetadata(Context, int, int)} with {@link #METADATA_KEY} instead.
      */
@@ -181,6 +208,114 @@ public class PreferenceXmlParserUtils {
             Log.d(TAG, xmlResId + " is invalid.");
             return metadata;
         }
+        final boolean hasPrefScreenFlag = hasFlag(flags, MetadataFlag.FLAG_INCLUDE_PREF_SCREEN);
+        for (Bundle allMetadata : getAllMetadata(context, xmlResId)) {
+            final String nodeName = allMetadata.getString(METADATA_PREF_TYPE);
+            if (!hasPrefScreenFlag && TextUtils.equals(PREF_SCREEN_TAG, nodeName)) {
+                continue;
+            }
+            metadata.add(selectMetadata(allMetadata, flags));
+        }
+        return metadata;
+    }
+
+    /**
+     * Drops the metadata cached by {@link #extractMetadata(Context, int, int)}, so that the next
+     * call parses the xml again.
+     */
+    public static void clearMetadataCache() {
+        sMetadataCache.evictAll();
+    }
+
+    @VisibleForTesting
+    static boolean isMetadataCached(Context context, @XmlRes int xmlResId) {
+        final Resources res = context.getResources();
+        synchronized (sMetadataCache) {
+            final SparseArray<List<Bundle>> cache = sMetadataCache.get(
+                    new MetadataCacheKey(res.getAssets(), res.getConfiguration()));
+            return cache != null && cache.get(xmlResId) != null;
+        }
+    }
+
+    /**
+     * Returns the metadata of every preference in {@code xmlResId}, with all {@link MetadataFlag}s
+     * set. Results are cached per {@link AssetManager}, locales, density and UI mode, which are
+     * the parts of the configuration the parsed metadata depends on.
+     */
+    private static List<Bundle> getAllMetadata(Context context, @XmlRes int xmlResId)
+            throws IOException, XmlPullParserException {
+        final Resources res = context.getResources();
+        final AssetManager assets = res.getAssets();
+        final Configuration configuration = res.getConfiguration();
+        if (assets == null || configuration == null) {
+            return parseMetadata(context, xmlResId, ALL_METADATA_FLAGS);
+        }
+        final MetadataCacheKey key = new MetadataCacheKey(assets, configuration);
+        synchronized (sMetadataCache) {
+            final SparseArray<List<Bundle>> cache = sMetadataCache.get(key);
+            final List<Bundle> cached = cache != null ? cache.get(xmlResId) : null;
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final List<Bundle> metadata = parseMetadata(context, xmlResId, ALL_METADATA_FLAGS);
+        synchronized (sMetadataCache) {
+            SparseArray<List<Bundle>> cache = sMetadataCache.get(key);
+            if (cache == null) {
+                cache = new SparseArray<>();
+                sMetadataCache.put(key, cache);
+            }
+            cache.put(xmlResId, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Copies the entries of {@code allMetadata} requested by {@code flags} into a new bundle.
+     */
+    private static Bundle selectMetadata(Bundle allMetadata, int flags) {
+        final Bundle metadata = new Bundle();
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_TYPE)) {
+            metadata.putString(METADATA_PREF_TYPE, allMetadata.getString(METADATA_PREF_TYPE));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_KEY)) {
+            metadata.putString(METADATA_KEY, allMetadata.getString(METADATA_KEY));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_CONTROLLER)) {
+            metadata.putString(METADATA_CONTROLLER, allMetadata.getString(METADATA_CONTROLLER));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_TITLE)) {
+            metadata.putString(METADATA_TITLE, allMetadata.getString(METADATA_TITLE));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_SUMMARY)) {
+            metadata.putString(METADATA_SUMMARY, allMetadata.getString(METADATA_SUMMARY));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_ICON)) {
+            metadata.putInt(METADATA_ICON, allMetadata.getInt(METADATA_ICON));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_KEYWORDS)) {
+            metadata.putString(METADATA_KEYWORDS, allMetadata.getString(METADATA_KEYWORDS));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_SEARCHABLE)) {
+            metadata.putBoolean(METADATA_SEARCHABLE, allMetadata.getBoolean(METADATA_SEARCHABLE));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_APPEND)
+                && hasFlag(flags, MetadataFlag.FLAG_INCLUDE_PREF_SCREEN)) {
+            metadata.putBoolean(METADATA_APPEND, allMetadata.getBoolean(METADATA_APPEND));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_UNAVAILABLE_SLICE_SUBTITLE)) {
+            metadata.putString(METADATA_UNAVAILABLE_SLICE_SUBTITLE,
+                    allMetadata.getString(METADATA_UNAVAILABLE_SLICE_SUBTITLE));
+        }
+        if (hasFlag(flags, MetadataFlag.FLAG_FOR_WORK)) {
+            metadata.putBoolean(METADATA_FOR_WORK, allMetadata.getBoolean(METADATA_FOR_WORK));
+        }
+        return metadata;
+    }
+
+    private static List<Bundle> parseMetadata(Context context, @XmlRes int xmlResId, int flags)
+            throws IOException, XmlPullParserException {
+        final List<Bundle> metadata = new ArrayList<>();
         final XmlResourceParser parser = context.getResources().getXml(xmlResId);
 
         int type;
@@ -253,6 +388,9 @@ public class PreferenceXmlParserUtils {
             metadata.add(preferenceMetadata);
 
             preferenceAttributes.recycle();
+            if (preferenceScreenAttributes != null) {
+                preferenceScreenAttributes.recycle();
+            }
         } while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
                 && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth));
         parser.close();
@@ -340,4 +478,34 @@ public class PreferenceXmlParserUtils {
         return styledAttributes.getBoolean(
                 R.styleable.Preference_forWork, false);
     }
-}
\ No newline at end of file
+
+    private static final class MetadataCacheKey {
+        private final AssetManager mAssets;
+        private final String mLocales;
+        private final int mDensityDpi;
+        private final int mUiMode;
+
+        MetadataCacheKey(AssetManager assets, Configuration configuration) {
+            mAssets = assets;
+            mLocales = configuration.getLocales().toLanguageTags();
+            mDensityDpi = configuration.densityDpi;
+            mUiMode = configuration.uiMode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MetadataCacheKey)) return false;
+            final MetadataCacheKey that = (MetadataCacheKey) o;
+            return mAssets == that.mAssets
+                    && mDensityDpi == that.mDensityDpi
+                    && mUiMode == that.mUiMode
+                    && mLocales.equals(that.mLocales);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(mAssets), mLocales, mDensityDpi, mUiMode);
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.android.settings.dashboard;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
@@ -31,6 +32,9 @@ import com.android.settingslib.drawer.ProviderTile;
 import com.android.settingslib.drawer.Tile;
 import com.android.settingslib.drawer.TileUtils;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -51,8 +55,15 @@ public class CategoryManager {
     // Tile cache (key: category key, value: category)
     private final Map<String, DashboardCategory> mCategoryByKeyMap;
 
+    private final TileIndex mTileIndex;
+
     private List<DashboardCategory> mCategories;
 
+    // Timing counters
+    private long mColdStartMillis = -1;
+    private long mLastReloadMillis;
+    private int mReloadCount;
+
     public static CategoryManager get(Context context) {
         if (sInstance == null) {
             sInstance = new CategoryManager(context);
@@ -61,6 +72,12 @@ public class CategoryManager {
     }
 
     CategoryManager(Context context) {
+        this(context, new TileIndex(context));
+    }
+
+    @VisibleForTesting
+    CategoryManager(Context context, TileIndex tileIndex) {
+        mTileIndex = tileIndex;
         mTileByComponentCache = new ArrayMap<>();
         mCategoryByKeyMap = new ArrayMap<>();
         mInterestingConfigChanges = new InterestingConfigChanges();
@@ -106,19 +123,47 @@ public class CategoryManager {
         tryInitCategories(context, false /* forceClearCache */);
     }
 
+    /**
+     * Dumps the timing counters of category loading.
+     */
+    public synchronized JSONObject dumpStats() throws JSONException {
+        final TileIndex.Stats stats = mTileIndex.getStats();
+        final JSONObject obj = new JSONObject();
+        obj.put("cold_start_ms", mColdStartMillis);
+        obj.put("last_reload_ms", mLastReloadMillis);
+        obj.put("reload_count", mReloadCount);
+        obj.put("index_packages", stats.packageCount);
+        obj.put("index_full_rebuilds", stats.fullRebuildCount);
+        obj.put("index_incremental_updates", stats.incrementalUpdateCount);
+        obj.put("index_packages_requeried", stats.packagesRequeried);
+        obj.put("index_last_update_ms", stats.lastUpdateMillis);
+        return obj;
+    }
+
     private synchronized void tryInitCategories(Context context, boolean forceClearCache) {
         if (mCategories == null) {
+            final long startTime = SystemClock.elapsedRealtime();
             if (forceClearCache) {
+                // The tile index is kept, it rebuilds itself when the locales change.
                 mTileByComponentCache.clear();
             }
             mCategoryByKeyMap.clear();
-            mCategories = TileUtils.getCategories(context, mTileByComponentCache);
+            mCategories = TileUtils.buildCategories(
+                    mTileIndex.getTiles(context, mTileByComponentCache));
             for (DashboardCategory category : mCategories) {
                 mCategoryByKeyMap.put(category.key, category);
             }
             backwardCompatCleanupForCategory(mTileByComponentCache, mCategoryByKeyMap);
             sortCategories(context, mCategoryByKeyMap);
             filterDuplicateTiles(mCategoryByKeyMap);
+
+            final long elapsedTime = SystemClock.elapsedRealtime() - startTime;
+            if (mColdStartMillis < 0) {
+                mColdStartMillis = elapsedTime;
+            }
+            mLastReloadMillis = elapsedTime;
+            mReloadCount++;
+            Log.d(TAG, "Categories loaded in " + elapsedTime + " ms");
         }
     }
 
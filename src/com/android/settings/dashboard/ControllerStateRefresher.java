@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.app.settings.SettingsEnums;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.Lifecycle;
+import androidx.preference.Preference;
+import androidx.preference.PreferenceScreen;
+
+import com.android.settingslib.core.AbstractPreferenceController;
+import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
+import com.android.settingslib.utils.PrioritizedExecutor;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the state of all controllers of a screen in one batch.
+ *
+ * <p>{@link AbstractPreferenceController#isAvailable()} and
+ * {@link AbstractPreferenceController#getSummary()} are computed in parallel in the background.
+ * The main thread waits at most for the given deadline, then applies every finished result to the
+ * {@link PreferenceScreen}. Controllers that miss the deadline show their summary from the
+ * previous refresh and are updated on their own once their result arrives.
+ *
+ * <p>Controllers that keep the default {@link AbstractPreferenceController#updateState} and
+ * {@link AbstractPreferenceController#refreshSummary}, which only set the summary, get the
+ * summary computed in the background applied directly, so that no controller code runs on the
+ * main thread for them.
+ */
+public class ControllerStateRefresher {
+    private static final String TAG = "ControllerStateRefresher";
+    private static final int CONTROLLER_TIME_THRESHOLD = 50;
+
+    // Whether a controller class keeps the default, summary only, updateState() and
+    // refreshSummary(). Main thread only.
+    private static final Map<Class<?>, Boolean> sSummaryOnlyClasses = new ArrayMap<>();
+
+    private final MetricsFeatureProvider mMetricsFeature;
+    private final int mMetricsCategory;
+    private final Map<String, CharSequence> mSummaryCache = new ArrayMap<>();
+    private final Map<String, Long> mTimings = new ArrayMap<>();
+    private int mGeneration;
+
+    public ControllerStateRefresher(MetricsFeatureProvider metricsFeature, int metricsCategory) {
+        mMetricsFeature = metricsFeature;
+        mMetricsCategory = metricsCategory;
+    }
+
+    /**
+     * Refreshes {@code controllers} against {@code screen}, blocking for at most
+     * {@code deadlineMillis}. Background work is cancelled when {@code lifecycle} is destroyed.
+     */
+    @MainThread
+    public void refresh(PreferenceScreen screen,
+            Collection<List<AbstractPreferenceController>> controllerLists,
+            long deadlineMillis, @Nullable Lifecycle lifecycle) {
+        final int generation = ++mGeneration;
+        final long start = SystemClock.elapsedRealtime();
+        final List<ControllerState> states = new ArrayList<>();
+        for (List<AbstractPreferenceController> controllerList : controllerLists) {
+            for (AbstractPreferenceController controller : controllerList) {
+                final String key = controller.getPreferenceKey();
+                if (TextUtils.isEmpty(key)) {
+                    Log.d(TAG, String.format("Preference key is %s in Controller %s",
+                            key, controller.getClass().getSimpleName()));
+                    continue;
+                }
+                states.add(new ControllerState(controller, key, isSummaryOnly(controller)));
+            }
+        }
+
+        final CountDownLatch latch = new CountDownLatch(states.size());
+        for (ControllerState state : states) {
+            final Runnable compute = () -> {
+                final boolean late = state.compute();
+                latch.countDown();
+                if (late) {
+                    ThreadUtils.postOnMainThread(() -> {
+                        if (generation == mGeneration) {
+                            apply(screen, state);
+                        }
+                    });
+                }
+            };
+            if (lifecycle != null) {
+                ThreadUtils.postOnBackgroundThread(PrioritizedExecutor.Priority.UI, lifecycle,
+                        compute);
+            } else {
+                ThreadUtils.postOnBackgroundThread(PrioritizedExecutor.Priority.UI, compute);
+            }
+        }
+
+        try {
+            latch.await(deadlineMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "interrupted");
+        }
+
+        int lateCount = 0;
+        for (ControllerState state : states) {
+            synchronized (state) {
+                if (!state.mDone) {
+                    state.mLate = true;
+                }
+            }
+            if (state.mLate) {
+                lateCount++;
+                applyCached(screen, state);
+            } else {
+                apply(screen, state);
+            }
+        }
+        Log.d(TAG, "Refreshed " + states.size() + " controllers in "
+                + (SystemClock.elapsedRealtime() - start) + " ms, " + lateCount
+                + " missed the " + deadlineMillis + " ms deadline");
+    }
+
+    @VisibleForTesting
+    Map<String, Long> getTimings() {
+        return mTimings;
+    }
+
+    @VisibleForTesting
+    Map<String, CharSequence> getSummaryCache() {
+        return mSummaryCache;
+    }
+
+    private void apply(PreferenceScreen screen, ControllerState state) {
+        if (!state.mAvailable) {
+            mSummaryCache.remove(state.mKey);
+            return;
+        }
+        if (state.mSummary != null) {
+            mSummaryCache.put(state.mKey, state.mSummary);
+        }
+        final Preference preference = screen.findPreference(state.mKey);
+        if (preference == null) {
+            Log.d(TAG, String.format("Cannot find preference with key %s in Controller %s",
+                    state.mKey, state.mController.getClass().getSimpleName()));
+            return;
+        }
+        final long t = SystemClock.elapsedRealtime();
+        if (state.mSummaryOnly) {
+            if (state.mSummary != null) {
+                preference.setSummary(state.mSummary);
+            }
+        } else {
+            state.mController.updateState(preference);
+        }
+        recordTiming(state, state.mComputeMillis + SystemClock.elapsedRealtime() - t);
+    }
+
+    @VisibleForTesting
+    static boolean isSummaryOnly(AbstractPreferenceController controller) {
+        final Class<?> clazz = controller.getClass();
+        Boolean summaryOnly = sSummaryOnlyClasses.get(clazz);
+        if (summaryOnly == null) {
+            summaryOnly = true;
+            // Either method may be overridden to update the preference in its own way, e.g. to
+            // load the summary asynchronously.
+            for (Class<?> c = clazz; c != AbstractPreferenceController.class && summaryOnly;
+                    c = c.getSuperclass()) {
+                summaryOnly = !declaresMethod(c, "updateState")
+                        && !declaresMethod(c, "refreshSummary");
+            }
+            sSummaryOnlyClasses.put(clazz, summaryOnly);
+        }
+        return summaryOnly;
+    }
+
+    private static boolean declaresMethod(Class<?> clazz, String name) {
+        try {
+            clazz.getDeclaredMethod(name, Preference.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private void applyCached(PreferenceScreen screen, ControllerState state) {
+        final CharSequence summary = mSummaryCache.get(state.mKey);
+        if (summary == null) {
+            return;
+        }
+        final Preference preference = screen.findPreference(state.mKey);
+        if (preference != null) {
+            preference.setSummary(summary);
+        }
+    }
+
+    private void recordTiming(ControllerState state, long elapsedTime) {
+        final String name = state.mController.getClass().getSimpleName();
+        mTimings.put(state.mKey, elapsedTime);
+        if (elapsedTime > CONTROLLER_TIME_THRESHOLD) {
+            Log.w(TAG, "Refreshing took " + elapsedTime + " ms in Controller " + name);
+            if (mMetricsFeature != null) {
+                mMetricsFeature.action(SettingsEnums.PAGE_UNKNOWN,
+                        SettingsEnums.ACTION_CONTROLLER_UPDATE_STATE, mMetricsCategory, name,
+                        (int) elapsedTime);
+            }
+        }
+    }
+
+    private static class ControllerState {
+        private final AbstractPreferenceController mController;
+        private final String mKey;
+        private final boolean mSummaryOnly;
+        private boolean mAvailable;
+        private CharSequence mSummary;
+        private long mComputeMillis;
+        private boolean mDone;
+        private boolean mLate;
+
+        ControllerState(AbstractPreferenceController controller, String key,
+                boolean summaryOnly) {
+            mController = controller;
+            mKey = key;
+            mSummaryOnly = summaryOnly;
+        }
+
+        /**
+         * Computes the state and returns whether the main thread already gave up waiting for it.
+         */
+        boolean compute() {
+            final long t = SystemClock.elapsedRealtime();
+            final boolean available = mController.isAvailable();
+            final CharSequence summary = available ? mController.getSummary() : null;
+            synchronized (this) {
+                mAvailable = available;
+                mSummary = summary;
+                mComputeMillis = SystemClock.elapsedRealtime() - t;
+                mDone = true;
+                return mLate;
+            }
+        }
+    }
+}
@@ -48,6 +48,7 @@ import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.ProviderTile;
 import com.android.settingslib.drawer.Tile;
 import com.android.settingslib.search.Indexable;
+import com.android.settingslib.utils.PrioritizedExecutor;
 import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
@@ -67,6 +68,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         BasePreferenceController.UiBlockListener {
     public static final String CATEGORY = "category";
     private static final String TAG = "DashboardFragment";
+    private static final long CONTROLLER_REFRESH_DEADLINE_MILLIS = 100;
 
     @VisibleForTesting
     final ArrayMap<String, List<DynamicDataObserver>> mDashboardTilePrefKeys = new ArrayMap<>();
@@ -80,6 +82,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     private DashboardTilePlaceholderPreferenceController mPlaceholderPreferenceController;
     private boolean mListeningToCategoryChange;
     private List<String> mSuppressInjectedTileKeys;
+    private ControllerStateRefresher mControllerStateRefresher;
 
     @Override
     public void onAttach(Context context) {
@@ -211,7 +214,8 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         super.onResume();
         updatePreferenceStates();
         writeElapsedTimeMetric(SettingsEnums.ACTION_DASHBOARD_VISIBLE_TIME,
-                "isParalleledControllers:" + isParalleledControllers());
+                "isParalleledControllers:" + isParalleledControllers()
+                        + " isDeadlineBoundedControllers:" + isDeadlineBoundedControllers());
     }
 
     @Override
@@ -340,6 +344,24 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         return false;
     }
 
+    /**
+     * @return {@code true} if the availability and summary of the underlying controllers should
+     * be computed in parallel and applied in one batch, bounded by
+     * {@link #getControllerRefreshDeadlineMillis()}. Override this function to enable the
+     * behavior.
+     */
+    protected boolean isDeadlineBoundedControllers() {
+        return false;
+    }
+
+    /**
+     * @return the longest time, in milliseconds, {@link #updatePreferenceStates()} waits for
+     * controllers when {@link #isDeadlineBoundedControllers()} is {@code true}.
+     */
+    protected long getControllerRefreshDeadlineMillis() {
+        return CONTROLLER_REFRESH_DEADLINE_MILLIS;
+    }
+
     /**
      * Get current PreferenceController(s)
      */
@@ -351,6 +373,11 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
      * Update state of each preference managed by PreferenceController.
      */
     protected void updatePreferenceStates() {
+        if (isDeadlineBoundedControllers() && FeatureFlagUtils.isEnabled(getContext(),
+                FeatureFlags.CONTROLLER_ENHANCEMENT)) {
+            updatePreferenceStatesWithDeadline();
+            return;
+        }
         if (isParalleledControllers() && FeatureFlagUtils.isEnabled(getContext(),
                 FeatureFlags.CONTROLLER_ENHANCEMENT)) {
             updatePreferenceStatesInParallel();
@@ -398,7 +425,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
                         new ControllerTask(controller, screen, mMetricsFeatureProvider,
                                 getMetricsCategory()), null /* result */);
                 taskList.add(task);
-                ThreadUtils.postOnBackgroundThread(task);
+                ThreadUtils.postOnBackgroundThread(PrioritizedExecutor.Priority.UI, task);
             }
         }
 
@@ -411,6 +438,20 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         }
     }
 
+    /**
+     * Compute the state of every PreferenceController in parallel and apply the results within
+     * {@link #getControllerRefreshDeadlineMillis()}.
+     */
+    @VisibleForTesting
+    void updatePreferenceStatesWithDeadline() {
+        if (mControllerStateRefresher == null) {
+            mControllerStateRefresher = new ControllerStateRefresher(mMetricsFeatureProvider,
+                    getMetricsCategory());
+        }
+        mControllerStateRefresher.refresh(getPreferenceScreen(), mPreferenceControllers.values(),
+                getControllerRefreshDeadlineMillis(), getSettingsLifecycle());
+    }
+
     /**
      * Refresh all preference items, including both static prefs from xml, and dynamic items from
      * DashboardCategory.
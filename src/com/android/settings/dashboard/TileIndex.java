@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.provider.Settings;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.Pair;
+import android.util.SparseIntArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.drawer.ActivityTile;
+import com.android.settingslib.drawer.ProviderTile;
+import com.android.settingslib.drawer.Tile;
+import com.android.settingslib.drawer.TileUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-disk index of the dashboard tiles injected by each package.
+ *
+ * <p>Tiles are stored per package together with the version code and last update time they were
+ * read from. Within a boot only the packages reported by
+ * {@link PackageManager#getChangedPackages(int)} for the current user and its profiles are
+ * queried again. After a reboot every indexed package is checked against its version code and
+ * last update time instead; tiles are only accepted from system packages, so a new one can only
+ * show up with an OTA, which changes the build fingerprint and rebuilds the whole index. A change
+ * of locales or of the profiles also rebuilds it.
+ *
+ * <p>The index is stored as versioned JSON. Provider tiles get their metadata from their provider
+ * at runtime, so they are not stored; the packages injecting them are queried again once per
+ * process instead.
+ */
+public class TileIndex {
+    private static final String TAG = "TileIndex";
+
+    @VisibleForTesting
+    static final String FILE_NAME = "dashboard_tile_index.json";
+    private static final int VERSION = 2;
+    private static final String SETTINGS_PACKAGE = "com.android.settings";
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_USER_ID = "user_id";
+    private static final String KEY_PROFILES = "profiles";
+    private static final String KEY_PROVISIONED = "provisioned";
+    private static final String KEY_BOOT_COUNT = "boot_count";
+    private static final String KEY_LOCALES = "locales";
+    private static final String KEY_SEQUENCE_NUMBERS = "sequence_numbers";
+    private static final String KEY_PACKAGES = "packages";
+    private static final String KEY_PACKAGE = "package";
+    private static final String KEY_VERSION_CODE = "version_code";
+    private static final String KEY_LAST_UPDATE_TIME = "last_update_time";
+    private static final String KEY_COMPLETE = "complete";
+    private static final String KEY_TILES = "tiles";
+    private static final String KEY_COMPONENT = "component";
+    private static final String KEY_CATEGORY = "category";
+    private static final String KEY_USER_HANDLES = "user_handles";
+    private static final String KEY_META_DATA = "meta_data";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_VALUE = "value";
+
+    private final AtomicFile mFile;
+    private final Map<String, PackageTiles> mPackages = new ArrayMap<>();
+    // Packages restored without all of their tiles, to be queried again by the next getTiles().
+    private final Set<String> mIncompletePackages = new ArraySet<>();
+    // Changed packages sequence number, per profile user id.
+    private final SparseIntArray mSequenceNumbers = new SparseIntArray();
+
+    private boolean mLoaded;
+    private String mFingerprint;
+    private int mUserId;
+    private List<Integer> mProfiles = new ArrayList<>();
+    private boolean mProvisioned;
+    private int mBootCount;
+    private String mLocales;
+
+    // Counters
+    private int mFullRebuildCount;
+    private int mIncrementalUpdateCount;
+    private int mPackagesRequeried;
+    private long mLastUpdateMillis;
+
+    public TileIndex(Context context) {
+        this(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    @VisibleForTesting
+    TileIndex(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Returns all indexed tiles, re-querying only the packages that changed since the index was
+     * last written. Every returned tile is also put into {@code cache}.
+     */
+    public synchronized List<Tile> getTiles(Context context,
+            Map<Pair<String, String>, Tile> cache) {
+        final long startTime = System.currentTimeMillis();
+        if (!mLoaded) {
+            mLoaded = true;
+            readFromDisk(cache);
+        }
+
+        final String fingerprint = Build.FINGERPRINT;
+        final int userId = ActivityManager.getCurrentUser();
+        final List<Integer> profiles = getProfiles(context);
+        final boolean provisioned = Settings.Global.getInt(context.getContentResolver(),
+                Settings.Global.DEVICE_PROVISIONED, 0) != 0;
+        final int bootCount = Settings.Global.getInt(context.getContentResolver(),
+                Settings.Global.BOOT_COUNT, 0);
+        final String locales = context.getResources().getConfiguration().getLocales()
+                .toLanguageTags();
+        final PackageManager pm = context.getPackageManager();
+
+        boolean dirty = false;
+        boolean resetSequence = false;
+        if (!fingerprint.equals(mFingerprint) || userId != mUserId
+                || !profiles.equals(mProfiles) || provisioned != mProvisioned
+                || !locales.equals(mLocales)) {
+            rebuild(context, cache);
+            mFullRebuildCount++;
+            dirty = true;
+            resetSequence = true;
+        } else if (bootCount != mBootCount) {
+            final Set<String> changed = new ArraySet<>(mIncompletePackages);
+            changed.add(SETTINGS_PACKAGE);
+            for (Map.Entry<String, PackageTiles> entry : mPackages.entrySet()) {
+                final PackageInfo info = getPackageInfo(pm, entry.getKey());
+                if (info == null
+                        || info.getLongVersionCode() != entry.getValue().mVersionCode
+                        || info.lastUpdateTime != entry.getValue().mLastUpdateTime) {
+                    changed.add(entry.getKey());
+                }
+            }
+            requery(context, changed, cache);
+            mIncrementalUpdateCount++;
+            dirty = true;
+            // Sequence numbers restart at every boot.
+            resetSequence = true;
+        } else {
+            final Set<String> changed = new ArraySet<>(mIncompletePackages);
+            for (int profile : profiles) {
+                final ChangedPackages changedPackages = getPackageManager(context, profile)
+                        .getChangedPackages(mSequenceNumbers.get(profile));
+                if (changedPackages != null) {
+                    changed.addAll(changedPackages.getPackageNames());
+                    mSequenceNumbers.put(profile, changedPackages.getSequenceNumber());
+                }
+            }
+            if (!changed.isEmpty()) {
+                requery(context, changed, cache);
+                mIncrementalUpdateCount++;
+                dirty = true;
+            }
+        }
+        mIncompletePackages.clear();
+
+        if (dirty) {
+            if (resetSequence) {
+                mSequenceNumbers.clear();
+                for (int profile : profiles) {
+                    final ChangedPackages changedPackages =
+                            getPackageManager(context, profile).getChangedPackages(0);
+                    mSequenceNumbers.put(profile, changedPackages != null
+                            ? changedPackages.getSequenceNumber() : 0);
+                }
+            }
+            mFingerprint = fingerprint;
+            mUserId = userId;
+            mProfiles = profiles;
+            mProvisioned = provisioned;
+            mBootCount = bootCount;
+            mLocales = locales;
+            writeToDisk();
+        }
+
+        final List<Tile> tiles = new ArrayList<>();
+        for (PackageTiles packageTiles : mPackages.values()) {
+            for (Tile tile : packageTiles.mTiles) {
+                // The cache may have been cleared since the tile was indexed.
+                cache.put(TileUtils.getCacheKey(tile), tile);
+                tiles.add(tile);
+            }
+        }
+        mLastUpdateMillis = System.currentTimeMillis() - startTime;
+        return tiles;
+    }
+
+    /**
+     * Returns the counters describing how the index has been served so far.
+     */
+    public synchronized Stats getStats() {
+        return new Stats(mPackages.size(), mFullRebuildCount, mIncrementalUpdateCount,
+                mPackagesRequeried, mLastUpdateMillis);
+    }
+
+    @VisibleForTesting
+    void putPackage(String packageName, long versionCode, List<Tile> tiles) {
+        final PackageTiles packageTiles = new PackageTiles(versionCode, 0 /* lastUpdateTime */);
+        packageTiles.mTiles.addAll(tiles);
+        mPackages.put(packageName, packageTiles);
+    }
+
+    @VisibleForTesting
+    Set<String> getIncompletePackages() {
+        return mIncompletePackages;
+    }
+
+    private void rebuild(Context context, Map<Pair<String, String>, Tile> cache) {
+        mPackages.clear();
+        final PackageManager pm = context.getPackageManager();
+        for (Tile tile : TileUtils.getTiles(context, null /* packageName */, cache)) {
+            final String packageName = tile.getPackageName();
+            PackageTiles packageTiles = mPackages.get(packageName);
+            if (packageTiles == null) {
+                packageTiles = newPackageTiles(pm, packageName);
+                mPackages.put(packageName, packageTiles);
+            }
+            packageTiles.mTiles.add(tile);
+        }
+        mPackagesRequeried += mPackages.size();
+    }
+
+    private void requery(Context context, Set<String> packageNames,
+            Map<Pair<String, String>, Tile> cache) {
+        final PackageManager pm = context.getPackageManager();
+        for (String packageName : packageNames) {
+            final PackageTiles oldTiles = mPackages.remove(packageName);
+            if (oldTiles != null) {
+                for (Tile tile : oldTiles.mTiles) {
+                    cache.remove(TileUtils.getCacheKey(tile));
+                }
+            }
+            final List<Tile> tiles = TileUtils.getTiles(context, packageName, cache);
+            if (!tiles.isEmpty()) {
+                final PackageTiles packageTiles = newPackageTiles(pm, packageName);
+                packageTiles.mTiles.addAll(tiles);
+                mPackages.put(packageName, packageTiles);
+            }
+            mPackagesRequeried++;
+        }
+    }
+
+    private static PackageTiles newPackageTiles(PackageManager pm, String packageName) {
+        final PackageInfo info = getPackageInfo(pm, packageName);
+        return info == null
+                ? new PackageTiles(-1 /* versionCode */, 0 /* lastUpdateTime */)
+                : new PackageTiles(info.getLongVersionCode(), info.lastUpdateTime);
+    }
+
+    private static PackageInfo getPackageInfo(PackageManager pm, String packageName) {
+        try {
+            return pm.getPackageInfo(packageName, 0 /* flags */);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static List<Integer> getProfiles(Context context) {
+        final List<Integer> profiles = new ArrayList<>();
+        for (UserHandle user : context.getSystemService(UserManager.class).getUserProfiles()) {
+            profiles.add(user.getIdentifier());
+        }
+        profiles.sort(null);
+        return profiles;
+    }
+
+    private static PackageManager getPackageManager(Context context, int userId) {
+        return userId == context.getUserId() ? context.getPackageManager()
+                : context.createContextAsUser(UserHandle.of(userId), 0 /* flags */)
+                        .getPackageManager();
+    }
+
+    @VisibleForTesting
+    void readFromDisk(Map<Pair<String, String>, Tile> cache) {
+        if (!mFile.getBaseFile().exists()) {
+            return;
+        }
+        try {
+            final JSONObject index = new JSONObject(
+                    new String(mFile.readFully(), StandardCharsets.UTF_8));
+            if (index.getInt(KEY_VERSION) != VERSION) {
+                mFile.delete();
+                return;
+            }
+            final List<Integer> profiles = new ArrayList<>();
+            final JSONArray profilesJson = index.getJSONArray(KEY_PROFILES);
+            for (int i = 0; i < profilesJson.length(); i++) {
+                profiles.add(profilesJson.getInt(i));
+            }
+            final SparseIntArray sequenceNumbers = new SparseIntArray();
+            final JSONObject sequenceNumbersJson = index.getJSONObject(KEY_SEQUENCE_NUMBERS);
+            for (int profile : profiles) {
+                sequenceNumbers.put(profile,
+                        sequenceNumbersJson.optInt(String.valueOf(profile), 0));
+            }
+            final Map<String, PackageTiles> packages = new ArrayMap<>();
+            final Set<String> incompletePackages = new ArraySet<>();
+            final JSONArray packagesJson = index.getJSONArray(KEY_PACKAGES);
+            for (int i = 0; i < packagesJson.length(); i++) {
+                final JSONObject packageJson = packagesJson.getJSONObject(i);
+                final String packageName = packageJson.getString(KEY_PACKAGE);
+                final PackageTiles packageTiles = new PackageTiles(
+                        packageJson.getLong(KEY_VERSION_CODE),
+                        packageJson.getLong(KEY_LAST_UPDATE_TIME));
+                final JSONArray tilesJson = packageJson.getJSONArray(KEY_TILES);
+                for (int j = 0; j < tilesJson.length(); j++) {
+                    packageTiles.mTiles.add(tileFromJson(tilesJson.getJSONObject(j)));
+                }
+                packages.put(packageName, packageTiles);
+                if (!packageJson.getBoolean(KEY_COMPLETE)) {
+                    incompletePackages.add(packageName);
+                }
+            }
+
+            mFingerprint = index.optString(KEY_FINGERPRINT, null);
+            mUserId = index.getInt(KEY_USER_ID);
+            mProfiles = profiles;
+            mProvisioned = index.getBoolean(KEY_PROVISIONED);
+            mBootCount = index.getInt(KEY_BOOT_COUNT);
+            mLocales = index.optString(KEY_LOCALES, null);
+            mSequenceNumbers.clear();
+            for (int i = 0; i < sequenceNumbers.size(); i++) {
+                mSequenceNumbers.put(sequenceNumbers.keyAt(i), sequenceNumbers.valueAt(i));
+            }
+            mPackages.putAll(packages);
+            mIncompletePackages.addAll(incompletePackages);
+            for (PackageTiles packageTiles : packages.values()) {
+                for (Tile tile : packageTiles.mTiles) {
+                    cache.put(TileUtils.getCacheKey(tile), tile);
+                }
+            }
+        } catch (IOException | JSONException | RuntimeException e) {
+            Log.w(TAG, "Cannot read tile index, rebuilding", e);
+            mFile.delete();
+        }
+    }
+
+    @VisibleForTesting
+    void writeToDisk() {
+        FileOutputStream out = null;
+        try {
+            final JSONObject index = new JSONObject();
+            index.put(KEY_VERSION, VERSION);
+            index.put(KEY_FINGERPRINT, mFingerprint);
+            index.put(KEY_USER_ID, mUserId);
+            index.put(KEY_PROFILES, new JSONArray(mProfiles));
+            index.put(KEY_PROVISIONED, mProvisioned);
+            index.put(KEY_BOOT_COUNT, mBootCount);
+            index.put(KEY_LOCALES, mLocales);
+            final JSONObject sequenceNumbers = new JSONObject();
+            for (int i = 0; i < mSequenceNumbers.size(); i++) {
+                sequenceNumbers.put(String.valueOf(mSequenceNumbers.keyAt(i)),
+                        mSequenceNumbers.valueAt(i));
+            }
+            index.put(KEY_SEQUENCE_NUMBERS, sequenceNumbers);
+            final JSONArray packages = new JSONArray();
+            for (Map.Entry<String, PackageTiles> entry : mPackages.entrySet()) {
+                final JSONObject packageJson = new JSONObject();
+                packageJson.put(KEY_PACKAGE, entry.getKey());
+                packageJson.put(KEY_VERSION_CODE, entry.getValue().mVersionCode);
+                packageJson.put(KEY_LAST_UPDATE_TIME, entry.getValue().mLastUpdateTime);
+                final JSONArray tiles = new JSONArray();
+                boolean complete = true;
+                for (Tile tile : entry.getValue().mTiles) {
+                    final JSONObject tileJson = tileToJson(tile);
+                    if (tileJson == null) {
+                        complete = false;
+                    } else {
+                        tiles.put(tileJson);
+                    }
+                }
+                packageJson.put(KEY_COMPLETE, complete);
+                packageJson.put(KEY_TILES, tiles);
+                packages.put(packageJson);
+            }
+            index.put(KEY_PACKAGES, packages);
+
+            out = mFile.startWrite();
+            out.write(index.toString().getBytes(StandardCharsets.UTF_8));
+            mFile.finishWrite(out);
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Cannot write tile index", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code tile} as JSON, or null if it cannot be stored: provider tiles, and tiles
+     * whose metadata holds values other than strings, booleans and numbers.
+     */
+    private static JSONObject tileToJson(Tile tile) throws JSONException {
+        if (tile instanceof ProviderTile) {
+            return null;
+        }
+        final JSONObject metaData = new JSONObject();
+        final Bundle bundle = tile.getMetaData();
+        if (bundle != null) {
+            for (String key : bundle.keySet()) {
+                final Object value = bundle.get(key);
+                final String type;
+                if (value instanceof String) {
+                    type = "string";
+                } else if (value instanceof Integer) {
+                    type = "int";
+                } else if (value instanceof Boolean) {
+                    type = "boolean";
+                } else if (value instanceof Long) {
+                    type = "long";
+                } else if (value instanceof Float) {
+                    type = "float";
+                } else {
+                    return null;
+                }
+                final JSONObject valueJson = new JSONObject();
+                valueJson.put(KEY_TYPE, type);
+                valueJson.put(KEY_VALUE, value instanceof Float ? value.toString() : value);
+                metaData.put(key, valueJson);
+            }
+        }
+        final JSONArray userHandles = new JSONArray();
+        for (UserHandle user : tile.userHandle) {
+            userHandles.put(user.getIdentifier());
+        }
+        final JSONObject tileJson = new JSONObject();
+        tileJson.put(KEY_COMPONENT, new ComponentName(tile.getPackageName(),
+                tile.getComponentName()).flattenToString());
+        tileJson.put(KEY_CATEGORY, tile.getCategory());
+        tileJson.put(KEY_USER_HANDLES, userHandles);
+        tileJson.put(KEY_META_DATA, metaData);
+        return tileJson;
+    }
+
+    private static Tile tileFromJson(JSONObject tileJson) throws JSONException {
+        final JSONObject metaDataJson = tileJson.getJSONObject(KEY_META_DATA);
+        final Bundle metaData = new Bundle();
+        final JSONArray keys = metaDataJson.names();
+        for (int i = 0; keys != null && i < keys.length(); i++) {
+            final String key = keys.getString(i);
+            final JSONObject valueJson = metaDataJson.getJSONObject(key);
+            switch (valueJson.getString(KEY_TYPE)) {
+                case "string":
+                    metaData.putString(key, valueJson.getString(KEY_VALUE));
+                    break;
+                case "int":
+                    metaData.putInt(key, valueJson.getInt(KEY_VALUE));
+                    break;
+                case "boolean":
+                    metaData.putBoolean(key, valueJson.getBoolean(KEY_VALUE));
+                    break;
+                case "long":
+                    metaData.putLong(key, valueJson.getLong(KEY_VALUE));
+                    break;
+                case "float":
+                    metaData.putFloat(key, Float.parseFloat(valueJson.getString(KEY_VALUE)));
+                    break;
+                default:
+                    throw new JSONException("Unknown metadata type for " + key);
+            }
+        }
+        final ComponentName component =
+                ComponentName.unflattenFromString(tileJson.getString(KEY_COMPONENT));
+        if (component == null) {
+            throw new JSONException("Bad component " + tileJson.getString(KEY_COMPONENT));
+        }
+        final Tile tile = new ActivityTile(component, tileJson.getString(KEY_CATEGORY),
+                metaData);
+        final JSONArray userHandles = tileJson.getJSONArray(KEY_USER_HANDLES);
+        for (int i = 0; i < userHandles.length(); i++) {
+            tile.userHandle.add(UserHandle.of(userHandles.getInt(i)));
+        }
+        return tile;
+    }
+
+    private static class PackageTiles {
+        private final long mVersionCode;
+        private final long mLastUpdateTime;
+        private final List<Tile> mTiles = new ArrayList<>();
+
+        PackageTiles(long versionCode, long lastUpdateTime) {
+            mVersionCode = versionCode;
+            mLastUpdateTime = lastUpdateTime;
+        }
+    }
+
+    /**
+     * Snapshot of the {@link TileIndex} counters.
+     */
+    public static class Stats {
+        public final int packageCount;
+        public final int fullRebuildCount;
+        public final int incrementalUpdateCount;
+        public final int packagesRequeried;
+        public final long lastUpdateMillis;
+
+        Stats(int packageCount, int fullRebuildCount, int incrementalUpdateCount,
+                int packagesRequeried, long lastUpdateMillis) {
+            this.packageCount = packageCount;
+            this.fullRebuildCount = fullRebuildCount;
+            this.incrementalUpdateCount = incrementalUpdateCount;
+            this.packagesRequeried = packagesRequeried;
+            this.lastUpdateMillis = lastUpdateMillis;
+        }
+    }
+}
@@ -32,27 +32,26 @@ public class AppDataUsagePreference extends AppPreference {
 
     private final AppItem mItem;
     private final int mPercent;
+    private final UidDetailProvider mProvider;
     private UidDetail mDetail;
+    private boolean mDetailRequested;
 
     public AppDataUsagePreference(Context context, AppItem item, int percent,
             UidDetailProvider provider) {
         super(context);
         mItem = item;
         mPercent = percent;
+        mProvider = provider;
 
         if (item.restricted && item.total <= 0) {
             setSummary(com.android.settings.R.string.data_usage_app_restricted);
         } else {
             setSummary(DataUsageUtils.formatDataUsage(context, item.total));
         }
+        // Details that are not cached yet are loaded once the row is bound.
         mDetail = provider.getUidDetail(item.key, false /* blocking */);
         if (mDetail != null) {
             setAppInfo();
-        } else {
-            ThreadUtils.postOnBackgroundThread(() -> {
-                mDetail = provider.getUidDetail(mItem.key, true /* blocking */);
-                ThreadUtils.postOnMainThread(() -> setAppInfo());
-            });
         }
     }
 
@@ -70,6 +69,17 @@ public class AppDataUsagePreference extends AppPreference {
         progress.setProgress(mPercent);
         progress.setContentDescription(
                 NumberFormat.getPercentInstance().format((double) mPercent / 100));
+
+        if (mDetail == null && !mDetailRequested) {
+            mDetailRequested = true;
+            // Requested after the bind, as a detail loaded meanwhile is delivered right away and
+            // updates the row.
+            ThreadUtils.postOnMainThread(() -> mProvider.getUidDetail(mItem.key,
+                    (uid, detail) -> {
+                        mDetail = detail;
+                        setAppInfo();
+                    }));
+        }
     }
 
     private void setAppInfo() {
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import android.app.usage.NetworkStats;
+import android.app.usage.NetworkStats.Bucket;
+import android.content.pm.UserInfo;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Usage of every uid in a cycle, grouped into the app and user items shown by
+ * {@link DataUsageList}.
+ *
+ * <p>The summary buckets are read once into primitive arrays and summed per uid by sorting them,
+ * in parallel when there are many. Each uid is then mapped to the key of its item once, however
+ * many buckets it had.
+ */
+public class AppUsageAggregate {
+    @VisibleForTesting
+    static final int PARALLEL_THRESHOLD = 8192;
+
+    private final ArrayList<AppItem> mItems;
+    private final long mLargest;
+
+    private AppUsageAggregate(ArrayList<AppItem> items, long largest) {
+        mItems = items;
+        mLargest = largest;
+    }
+
+    /**
+     * Returns the items to show, sorted by category and usage.
+     */
+    public List<AppItem> getItems() {
+        return mItems;
+    }
+
+    /**
+     * Returns the largest usage of an item, which the other items are shown relative to.
+     */
+    public long getLargest() {
+        return mLargest;
+    }
+
+    /**
+     * Groups {@code buckets} into items.
+     *
+     * @param profiles the profiles of the current user, whose apps get an item each
+     * @param restrictedUids uids restricted in the background, which get an item even without
+     *                       usage
+     */
+    static AppUsageAggregate create(Buckets buckets, int currentUserId,
+            List<UserHandle> profiles, UserManager userManager, int[] restrictedUids) {
+        final int count = buckets.mCount;
+        final long[] keys = buckets.mKeys;
+        if (count >= PARALLEL_THRESHOLD) {
+            Arrays.parallelSort(keys, 0, count);
+        } else {
+            Arrays.sort(keys, 0, count);
+        }
+
+        // Sum the usage of each uid.
+        int numUids = 0;
+        final int[] uids = new int[count];
+        final long[] totals = new long[count];
+        for (int i = 0; i < count; i++) {
+            final int uid = (int) (keys[i] >> 32);
+            final int index = (int) keys[i];
+            if (numUids == 0 || uids[numUids - 1] != uid) {
+                uids[numUids++] = uid;
+            }
+            totals[numUids - 1] += buckets.mBytes[index];
+        }
+
+        // Decide how to collapse uids together.
+        final ArrayList<AppItem> items = new ArrayList<>();
+        final SparseArray<AppItem> knownItems = new SparseArray<>();
+        final SparseBooleanArray removedUsers = new SparseBooleanArray();
+        long largest = 0;
+        for (int i = 0; i < numUids; i++) {
+            final int uid = uids[i];
+            final long total = totals[i];
+            final int collapseKey;
+            final int category;
+            final int userId = UserHandle.getUserId(uid);
+            if (UserHandle.isApp(uid)) {
+                if (profiles.contains(new UserHandle(userId))) {
+                    if (userId != currentUserId) {
+                        // Add to a managed user item.
+                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
+                        largest = accumulate(managedKey, knownItems, uid, total,
+                                AppItem.CATEGORY_USER, items, largest);
+                    }
+                    // Add to app item.
+                    collapseKey = uid;
+                    category = AppItem.CATEGORY_APP;
+                } else {
+                    // If it is a removed user add it to the removed users' key
+                    if (removedUsers.indexOfKey(userId) < 0) {
+                        final UserInfo info = userManager.getUserInfo(userId);
+                        removedUsers.put(userId, info == null);
+                    }
+                    if (removedUsers.get(userId)) {
+                        collapseKey = UID_REMOVED;
+                        category = AppItem.CATEGORY_APP;
+                    } else {
+                        // Add to other user item.
+                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
+                        category = AppItem.CATEGORY_USER;
+                    }
+                }
+            } else if (uid == UID_REMOVED || uid == UID_TETHERING
+                    || uid == Process.OTA_UPDATE_UID) {
+                collapseKey = uid;
+                category = AppItem.CATEGORY_APP;
+            } else {
+                collapseKey = Process.SYSTEM_UID;
+                category = AppItem.CATEGORY_APP;
+            }
+            largest = accumulate(collapseKey, knownItems, uid, total, category, items, largest);
+        }
+
+        if (restrictedUids != null) {
+            for (int uid : restrictedUids) {
+                // Only splice in restricted state for current user or managed users
+                if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
+                    continue;
+                }
+
+                AppItem item = knownItems.get(uid);
+                if (item == null) {
+                    item = new AppItem(uid);
+                    item.total = -1;
+                    items.add(item);
+                    knownItems.put(item.key, item);
+                }
+                item.restricted = true;
+            }
+        }
+
+        Collections.sort(items);
+        return new AppUsageAggregate(items, largest);
+    }
+
+    private static long accumulate(int collapseKey, SparseArray<AppItem> knownItems, int uid,
+            long total, int itemCategory, ArrayList<AppItem> items, long largest) {
+        AppItem item = knownItems.get(collapseKey);
+        if (item == null) {
+            item = new AppItem(collapseKey);
+            item.category = itemCategory;
+            items.add(item);
+            knownItems.put(item.key, item);
+        }
+        item.addUid(uid);
+        item.total += total;
+        return Math.max(largest, item.total);
+    }
+
+    /**
+     * Summary buckets, reduced to their uid and usage.
+     */
+    static class Buckets {
+        // The uid in the high bits and the index of the bucket in the low bits, so that sorting
+        // groups the buckets of a uid together.
+        long[] mKeys = new long[64];
+        long[] mBytes = new long[64];
+        int mCount;
+
+        static Buckets read(NetworkStats stats) {
+            final Buckets buckets = new Buckets();
+            final Bucket bucket = new Bucket();
+            while (stats.hasNextBucket() && stats.getNextBucket(bucket)) {
+                buckets.add(bucket.getUid(), bucket.getRxBytes() + bucket.getTxBytes());
+            }
+            stats.close();
+            return buckets;
+        }
+
+        void add(int uid, long bytes) {
+            if (mCount == mKeys.length) {
+                final int size = mCount * 2;
+                mKeys = Arrays.copyOf(mKeys, size);
+                mBytes = Arrays.copyOf(mBytes, size);
+            }
+            mKeys[mCount] = ((long) uid << 32) | mCount;
+            mBytes[mCount] = bytes;
+            mCount++;
+        }
+    }
+}
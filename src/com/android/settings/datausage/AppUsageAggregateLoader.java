@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
+
+import android.app.ActivityManager;
+import android.app.usage.NetworkStats;
+import android.app.usage.NetworkStatsManager;
+import android.content.Context;
+import android.net.NetworkPolicyManager;
+import android.net.NetworkTemplate;
+import android.os.RemoteException;
+import android.os.UserManager;
+import android.util.Log;
+
+import com.android.settingslib.utils.AsyncLoaderCompat;
+
+/**
+ * Loads the usage of all uids in a cycle and groups it into the items of {@link DataUsageList}.
+ */
+public class AppUsageAggregateLoader extends AsyncLoaderCompat<AppUsageAggregate> {
+    private static final String TAG = "AppUsageAggregateLoader";
+
+    private final NetworkPolicyManager mPolicyManager;
+    private final NetworkTemplate mTemplate;
+    private final long mStart;
+    private final long mEnd;
+
+    public AppUsageAggregateLoader(Context context, NetworkPolicyManager policyManager,
+            NetworkTemplate template, long start, long end) {
+        super(context);
+        mPolicyManager = policyManager;
+        mTemplate = template;
+        mStart = start;
+        mEnd = end;
+    }
+
+    @Override
+    public AppUsageAggregate loadInBackground() {
+        final Context context = getContext();
+        final NetworkStats stats;
+        try {
+            stats = context.getSystemService(NetworkStatsManager.class)
+                    .querySummary(mTemplate, mStart, mEnd);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Exception querying network detail.", e);
+            return null;
+        }
+        if (stats == null) {
+            return null;
+        }
+
+        final UserManager userManager = UserManager.get(context);
+        return AppUsageAggregate.create(
+                AppUsageAggregate.Buckets.read(stats), ActivityManager.getCurrentUser(),
+                userManager.getUserProfiles(), userManager,
+                mPolicyManager.getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND));
+    }
+
+    @Override
+    protected void onDiscardResult(AppUsageAggregate result) {
+    }
+}
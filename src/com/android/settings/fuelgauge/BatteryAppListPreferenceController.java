@@ -186,8 +186,10 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
         mAppListGroup.setOrderingAsAdded(false);
 
         if (averagePower >= MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP || USE_FAKE_DATA) {
+            // The sippers below are changed, so work on copies of the shared usage list.
             final List<BatterySipper> usageList = getCoalescedUsageList(
-                    USE_FAKE_DATA ? getFakeStats() : statsHelper.getUsageList());
+                    USE_FAKE_DATA ? getFakeStats()
+                            : BatteryUtils.copyUsageList(statsHelper.getUsageList()));
             double hiddenPowerMah = showAllApps ? 0 :
                     mBatteryUtils.removeHiddenBatterySippers(usageList);
             mBatteryUtils.sortUsageList(usageList);
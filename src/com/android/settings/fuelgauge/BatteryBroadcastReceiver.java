@@ -106,8 +106,12 @@ public class BatteryBroadcastReceiver extends BroadcastReceiver {
                 if (forceUpdate) {
                     mBatteryListener.onBatteryChanged(BatteryUpdateType.MANUAL);
                 } else if(!batteryLevel.equals(mBatteryLevel)) {
+                    BatteryStatsSnapshot.getInstance(mContext).onBatteryChanged(batteryLevel,
+                            batteryStatus);
                     mBatteryListener.onBatteryChanged(BatteryUpdateType.BATTERY_LEVEL);
                 } else if (!batteryStatus.equals(mBatteryStatus)) {
+                    BatteryStatsSnapshot.getInstance(mContext).onBatteryChanged(batteryLevel,
+                            batteryStatus);
                     mBatteryListener.onBatteryChanged(BatteryUpdateType.BATTERY_STATUS);
                 }
                 mBatteryLevel = batteryLevel;
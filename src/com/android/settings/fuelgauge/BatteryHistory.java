@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settings.fuelgauge.BatteryInfo.BatteryDataParser;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Battery history decoded once into primitive arrays, and replayed to any number of
+ * {@link BatteryDataParser}s.
+ *
+ * <p>Decoded histories are cached per {@link BatteryStats} snapshot, so the history chart, its
+ * flag rows and the battery tip detectors share one pass over the history buffer.
+ */
+public class BatteryHistory {
+    // Time of a timeline entry that is a gap rather than a data point.
+    private static final long GAP = -1;
+
+    private static final Map<BatteryStats, BatteryHistory> sCache = new WeakHashMap<>();
+
+    private final long mStartWalltime;
+    private final long mEndWalltime;
+    private final int mSize;
+    // Time since mStartWalltime of each data point, or GAP.
+    private final long[] mTimes;
+    private final long[] mCurrentTimes;
+    private final byte[] mLevels;
+    private final int[] mStates;
+    private final int[] mStates2;
+
+    private BatteryHistory(long startWalltime, long endWalltime, int size, long[] times,
+            long[] currentTimes, byte[] levels, int[] states, int[] states2) {
+        mStartWalltime = startWalltime;
+        mEndWalltime = endWalltime;
+        mSize = size;
+        mTimes = times;
+        mCurrentTimes = currentTimes;
+        mLevels = levels;
+        mStates = states;
+        mStates2 = states2;
+    }
+
+    /**
+     * Returns the history of {@code stats}, decoding it on first use.
+     */
+    public static BatteryHistory get(BatteryStats stats) {
+        BatteryHistory history = peek(stats);
+        if (history != null) {
+            return history;
+        }
+        // Iterating the history of a snapshot is not thread safe, so it is decoded under the
+        // lock of the snapshot rather than the cache, which does not hold up other snapshots.
+        synchronized (stats) {
+            history = peek(stats);
+            if (history == null) {
+                history = decode(stats);
+                synchronized (sCache) {
+                    sCache.put(stats, history);
+                }
+            }
+            return history;
+        }
+    }
+
+    private static BatteryHistory peek(BatteryStats stats) {
+        synchronized (sCache) {
+            return sCache.get(stats);
+        }
+    }
+
+    @VisibleForTesting
+    static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of data points and gaps.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Calls {@code parsers} with every data point and gap, the same way a pass over the history
+     * of the snapshot would.
+     */
+    public void replay(BatteryDataParser... parsers) {
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingStarted(mStartWalltime, mEndWalltime);
+        }
+        // Parsers only read the level, states and wall clock time of a record.
+        final HistoryItem rec = new HistoryItem();
+        for (int i = 0; i < mSize; i++) {
+            if (mTimes[i] == GAP) {
+                for (int j = 0; j < parsers.length; j++) {
+                    parsers[j].onDataGap();
+                }
+                continue;
+            }
+            rec.cmd = HistoryItem.CMD_UPDATE;
+            rec.currentTime = mCurrentTimes[i];
+            rec.batteryLevel = mLevels[i];
+            rec.states = mStates[i];
+            rec.states2 = mStates2[i];
+            for (int j = 0; j < parsers.length; j++) {
+                parsers[j].onDataPoint(mTimes[i], rec);
+            }
+        }
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingDone();
+        }
+    }
+
+    @VisibleForTesting
+    static BatteryHistory decode(BatteryStats stats) {
+        final Records records = new Records();
+        if (stats.startIteratingHistoryLocked()) {
+            final HistoryItem rec = new HistoryItem();
+            while (stats.getNextHistoryLocked(rec)) {
+                records.add(rec);
+            }
+        }
+        stats.finishIteratingHistoryLocked();
+        return records.toHistory();
+    }
+
+    /**
+     * The fields of history records that the timeline is computed from.
+     */
+    @VisibleForTesting
+    static class Records {
+        int mCount;
+        byte[] mCmds = new byte[256];
+        long[] mTimes = new long[256];
+        long[] mCurrentTimes = new long[256];
+        byte[] mLevels = new byte[256];
+        int[] mStates = new int[256];
+        int[] mStates2 = new int[256];
+
+        void add(HistoryItem rec) {
+            add(rec.cmd, rec.time, rec.currentTime, rec.batteryLevel, rec.states, rec.states2);
+        }
+
+        void add(byte cmd, long time, long currentTime, byte level, int states, int states2) {
+            if (mCount == mCmds.length) {
+                final int size = mCount * 2;
+                mCmds = Arrays.copyOf(mCmds, size);
+                mTimes = Arrays.copyOf(mTimes, size);
+                mCurrentTimes = Arrays.copyOf(mCurrentTimes, size);
+                mLevels = Arrays.copyOf(mLevels, size);
+                mStates = Arrays.copyOf(mStates, size);
+                mStates2 = Arrays.copyOf(mStates2, size);
+            }
+            mCmds[mCount] = cmd;
+            mTimes[mCount] = time;
+            mCurrentTimes[mCount] = currentTime;
+            mLevels[mCount] = level;
+            mStates[mCount] = states;
+            mStates2[mCount] = states2;
+            mCount++;
+        }
+
+        /**
+         * Computes the wall clock bounds and the timeline, following what used to be two passes
+         * over the history in {@link BatteryInfo#parse}.
+         */
+        BatteryHistory toHistory() {
+            long startWalltime = 0;
+            long historyStart = 0;
+            long lastWallTime = 0;
+            long lastRealtime = 0;
+            long historyEnd = 0;
+            int lastInteresting = 0;
+            for (int pos = 0; pos < mCount; pos++) {
+                if (pos == 0) {
+                    historyStart = mTimes[pos];
+                }
+                if (mCmds[pos] == HistoryItem.CMD_CURRENT_TIME
+                        || mCmds[pos] == HistoryItem.CMD_RESET) {
+                    // If there is a ridiculously large jump in time, then we won't be
+                    // able to create a good chart with that data, so just ignore the
+                    // times we got before and pretend like our data extends back from
+                    // the time we have now.
+                    // Also, if we are getting a time change and we are less than 5 minutes
+                    // since the start of the history real time, then also use this new
+                    // time to compute the base time, since whatever time we had before is
+                    // pretty much just noise.
+                    if (mCurrentTimes[pos] > (lastWallTime + (180 * 24 * 60 * 60 * 1000L))
+                            || mTimes[pos] < (historyStart + (5 * 60 * 1000L))) {
+                        startWalltime = 0;
+                    }
+                    lastWallTime = mCurrentTimes[pos];
+                    lastRealtime = mTimes[pos];
+                    if (startWalltime == 0) {
+                        startWalltime = lastWallTime - (lastRealtime - historyStart);
+                    }
+                }
+                if (mCmds[pos] == HistoryItem.CMD_UPDATE) {
+                    lastInteresting = pos + 1;
+                    historyEnd = mTimes[pos];
+                }
+            }
+            final long endWalltime = lastWallTime + historyEnd - lastRealtime;
+
+            // The timeline is written over the records, which are read ahead of it.
+            int size = 0;
+            long curWalltime = 0;
+            if (endWalltime > startWalltime) {
+                for (int i = 0; i < lastInteresting; i++) {
+                    final byte cmd = mCmds[i];
+                    final long time = mTimes[i];
+                    if (cmd == HistoryItem.CMD_UPDATE) {
+                        curWalltime += time - lastRealtime;
+                        lastRealtime = time;
+                        mTimes[size] = Math.max(curWalltime - startWalltime, 0);
+                        mCurrentTimes[size] = mCurrentTimes[i];
+                        mLevels[size] = mLevels[i];
+                        mStates[size] = mStates[i];
+                        mStates2[size] = mStates2[i];
+                        size++;
+                    } else {
+                        final long lastWalltime = curWalltime;
+                        if (cmd == HistoryItem.CMD_CURRENT_TIME || cmd == HistoryItem.CMD_RESET) {
+                            if (mCurrentTimes[i] >= startWalltime) {
+                                curWalltime = mCurrentTimes[i];
+                            } else {
+                                curWalltime = startWalltime + (time - historyStart);
+                            }
+                            lastRealtime = time;
+                        }
+
+                        if (cmd != HistoryItem.CMD_OVERFLOW
+                                && (cmd != HistoryItem.CMD_CURRENT_TIME
+                                || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000))) {
+                            mTimes[size] = GAP;
+                            size++;
+                        }
+                    }
+                }
+            }
+            return new BatteryHistory(startWalltime, endWalltime, size,
+                    Arrays.copyOf(mTimes, size), Arrays.copyOf(mCurrentTimes, size),
+                    Arrays.copyOf(mLevels, size), Arrays.copyOf(mStates, size),
+                    Arrays.copyOf(mStates2, size));
+        }
+    }
+}
@@ -25,33 +25,32 @@ import com.android.internal.os.BatteryStatsHelper;
 import com.android.settingslib.utils.AsyncLoaderCompat;
 
 /**
- * Loader to get new {@link BatteryStatsHelper} in the background
+ * Loader to get the shared {@link BatteryStatsHelper} in the background, see
+ * {@link BatteryStatsSnapshot}. The helper must not be refreshed by its users.
  */
 public class BatteryStatsHelperLoader extends AsyncLoaderCompat<BatteryStatsHelper> {
     @VisibleForTesting
     UserManager mUserManager;
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
+    @VisibleForTesting
+    BatteryStatsSnapshot mSnapshot;
 
     public BatteryStatsHelperLoader(Context context) {
         super(context);
         mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
         mBatteryUtils = BatteryUtils.getInstance(context);
+        mSnapshot = BatteryStatsSnapshot.getInstance(context);
     }
 
     @Override
     public BatteryStatsHelper loadInBackground() {
-        Context context = getContext();
-        final BatteryStatsHelper statsHelper = new BatteryStatsHelper(context,
-                true /* collectBatteryBroadcast */);
-        mBatteryUtils.initBatteryStatsHelper(statsHelper, null /* bundle */, mUserManager);
-
-        return statsHelper;
+        return mSnapshot.acquire(this, mBatteryUtils, mUserManager);
     }
 
     @Override
     protected void onDiscardResult(BatteryStatsHelper result) {
-
+        mSnapshot.release(this, result);
     }
 
 }
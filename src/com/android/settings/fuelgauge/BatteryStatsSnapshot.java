@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.util.ArrayMap;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settingslib.utils.PrioritizedExecutor.Priority;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.Objects;
+
+/**
+ * Process wide {@link BatteryStatsHelper} shared by the battery screens, so that entering a
+ * screen or a sub-screen does not compute the power usage of every uid again.
+ *
+ * <p>A computed helper is served for {@link #setFreshnessMs freshness window} after it was
+ * computed, until the battery level or plug state changes, or until it is {@link #invalidate
+ * invalidated}. Holders must treat it as read only: they may read its stats and usage list, but
+ * must not refresh or clear it, nor change its sippers.
+ *
+ * <p>Holders are counted per owner. While any owner holds the snapshot, battery changes refresh
+ * it in the background, so that the next {@link #acquire} finds it ready. Once nobody holds a
+ * stale snapshot it is dropped.
+ */
+public class BatteryStatsSnapshot {
+    private static final String TAG = "BatteryStatsSnapshot";
+
+    @VisibleForTesting
+    static final long DEFAULT_FRESHNESS_MS = 30 * 1000;
+
+    private static BatteryStatsSnapshot sInstance;
+
+    private final Context mContext;
+    // Held while computing, so that concurrent callers wait for one computation.
+    private final Object mComputeLock = new Object();
+    // Owner -> the helper it holds. Guarded by this.
+    private final ArrayMap<Object, BatteryStatsHelper> mHolders = new ArrayMap<>();
+    private BatteryStatsHelper mHelper;
+    private long mComputedTime;
+    private boolean mInvalidated;
+    private long mFreshnessMs = DEFAULT_FRESHNESS_MS;
+    // Battery level and status of the last change that invalidated the snapshot.
+    private String mBatteryLevel;
+    private String mBatteryStatus;
+
+    public static synchronized BatteryStatsSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BatteryStatsSnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BatteryStatsSnapshot(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Sets how long a computed snapshot is served before it is computed again.
+     */
+    public synchronized void setFreshnessMs(long freshnessMs) {
+        mFreshnessMs = freshnessMs;
+    }
+
+    /**
+     * Returns a fresh snapshot held by {@code owner}, computing it if needed. Any snapshot
+     * {@code owner} held before is released.
+     */
+    @WorkerThread
+    public BatteryStatsHelper acquire(Object owner, BatteryUtils batteryUtils,
+            UserManager userManager) {
+        synchronized (mComputeLock) {
+            BatteryStatsHelper helper;
+            synchronized (this) {
+                helper = isFreshLocked() ? mHelper : null;
+            }
+            if (helper == null) {
+                helper = compute(batteryUtils, userManager);
+            }
+            synchronized (this) {
+                mHolders.put(owner, helper);
+            }
+            return helper;
+        }
+    }
+
+    /**
+     * Returns the snapshot if it is fresh, without computing it.
+     */
+    public synchronized BatteryStatsHelper peek() {
+        return isFreshLocked() ? mHelper : null;
+    }
+
+    /**
+     * Releases {@code helper} held by {@code owner}.
+     */
+    public synchronized void release(Object owner, BatteryStatsHelper helper) {
+        if (mHolders.get(owner) == helper) {
+            mHolders.remove(owner);
+        }
+        if (mHolders.isEmpty() && !isFreshLocked()) {
+            mHelper = null;
+        }
+    }
+
+    /**
+     * Invalidates the snapshot when the battery level or plug state changed, refreshing it in the
+     * background if it is held.
+     */
+    public void onBatteryChanged(String batteryLevel, String batteryStatus) {
+        synchronized (this) {
+            if (Objects.equals(mBatteryLevel, batteryLevel)
+                    && Objects.equals(mBatteryStatus, batteryStatus)) {
+                // Already seen by another receiver.
+                return;
+            }
+            mBatteryLevel = batteryLevel;
+            mBatteryStatus = batteryStatus;
+            mInvalidated = true;
+            if (mHolders.isEmpty()) {
+                mHelper = null;
+                return;
+            }
+        }
+        ThreadUtils.postOnBackgroundThread(Priority.PREFETCH, () -> {
+            synchronized (mComputeLock) {
+                synchronized (this) {
+                    if (isFreshLocked()) {
+                        return;
+                    }
+                }
+                compute(BatteryUtils.getInstance(mContext),
+                        mContext.getSystemService(UserManager.class));
+            }
+        });
+    }
+
+    /**
+     * Invalidates the snapshot when the user asked for a manual update, so that the next
+     * {@link #acquire} computes it again.
+     */
+    public synchronized void invalidate() {
+        mInvalidated = true;
+        if (mHolders.isEmpty()) {
+            mHelper = null;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void clear() {
+        mHolders.clear();
+        mHelper = null;
+        mInvalidated = false;
+        mBatteryLevel = null;
+        mBatteryStatus = null;
+    }
+
+    // Called with mComputeLock held.
+    private BatteryStatsHelper compute(BatteryUtils batteryUtils, UserManager userManager) {
+        final long startTime = System.currentTimeMillis();
+        final BatteryStatsHelper helper = new BatteryStatsHelper(mContext,
+                true /* collectBatteryBroadcast */);
+        batteryUtils.initBatteryStatsHelper(helper, null /* bundle */, userManager);
+        synchronized (this) {
+            mHelper = helper;
+            mComputedTime = SystemClock.elapsedRealtime();
+            mInvalidated = false;
+        }
+        BatteryUtils.logRuntime(TAG, "compute", startTime);
+        return helper;
+    }
+
+    private boolean isFreshLocked() {
+        return mHelper != null && !mInvalidated
+                && SystemClock.elapsedRealtime() - mComputedTime < mFreshnessMs;
+    }
+}
@@ -58,6 +58,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -170,6 +171,32 @@ public class BatteryUtils {
                 + PowerUtil.convertUsToMs(getForegroundServiceTotalTimeUs(uid, rawRealTimeUs));
     }
 
+    /**
+     * Returns copies of {@code sippers}. The usage list of a {@link BatteryStatsHelper} is shared
+     * through {@link BatteryStatsSnapshot}, so callers copy it before changing any sipper, e.g.
+     * with {@link #removeHiddenBatterySippers}.
+     */
+    public static List<BatterySipper> copyUsageList(List<BatterySipper> sippers) {
+        final List<BatterySipper> copies = new ArrayList<>(sippers.size());
+        for (int i = 0, size = sippers.size(); i < size; i++) {
+            copies.add(copySipper(sippers.get(i)));
+        }
+        return copies;
+    }
+
+    @VisibleForTesting
+    static BatterySipper copySipper(BatterySipper sipper) {
+        final BatterySipper copy = new BatterySipper(sipper.drainType, sipper.uidObj, 0.0);
+        copy.add(sipper);
+        copy.userId = sipper.userId;
+        copy.percent = sipper.percent;
+        copy.noCoveragePercent = sipper.noCoveragePercent;
+        copy.shouldHide = sipper.shouldHide;
+        copy.packageWithHighestDrain = sipper.packageWithHighestDrain;
+        copy.mPackages = sipper.mPackages;
+        return copy;
+    }
+
     /**
      * Remove the {@link BatterySipper} that we should hide and smear the screen usage based on
      * foreground activity time.
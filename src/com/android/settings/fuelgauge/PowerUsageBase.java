@@ -77,6 +77,9 @@ public abstract class PowerUsageBase extends DashboardFragment {
     }
 
     protected void restartBatteryStatsLoader(int refreshType) {
+        if (refreshType == BatteryUpdateType.MANUAL) {
+            BatteryStatsSnapshot.getInstance(getContext()).invalidate();
+        }
         final Bundle bundle = new Bundle();
         bundle.putInt(KEY_REFRESH_TYPE, refreshType);
 
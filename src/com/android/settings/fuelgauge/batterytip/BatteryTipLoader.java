@@ -17,36 +17,67 @@
 package com.android.settings.fuelgauge.batterytip;
 
 import android.content.Context;
+import android.os.BatteryStats;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.fuelgauge.BatteryInfo;
 import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.fuelgauge.batterytip.detectors.BatteryTipDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.EarlyWarningDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.HighUsageDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.LowBatteryDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.SmartBatteryDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.SummaryDetector;
 import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.EarlyWarningTip;
+import com.android.settings.fuelgauge.batterytip.tips.HighUsageTip;
 import com.android.settings.fuelgauge.batterytip.tips.LowBatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.SmartBatteryTip;
 import com.android.settings.fuelgauge.batterytip.tips.SummaryTip;
 import com.android.settingslib.fuelgauge.EstimateKt;
 import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.PrioritizedExecutor.Priority;
+import com.android.settingslib.utils.ThreadUtils;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Loader to compute and return a battery tip list. It will always return a full length list even
  * though some tips may have state {@code BaseBatteryTip.StateType.INVISIBLE}.
+ *
+ * <p>Detectors run concurrently, each within its own time budget. A detector that misses its
+ * budget contributes its tip of the last load, or an invisible tip if there is none. Detectors
+ * that declare their inputs reuse the tip of the last load while those inputs are unchanged.
+ * Tips are cached as parceled copies, since callers update the state of the tips they get.
  */
 public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
     private static final String TAG = "BatteryTipLoader";
 
     private static final boolean USE_FAKE_DATA = false;
 
+    // HighUsageDetector walks every sipper and the battery history, the others read settings.
+    private static final long HIGH_USAGE_BUDGET_MS = 2000;
+    private static final long DEFAULT_BUDGET_MS = 500;
+
+    // Copy of the last tip of each detector, keyed by detector name.
+    private static final Map<String, CachedTip> sCachedTips = new ArrayMap<>();
+
     private BatteryStatsHelper mBatteryStatsHelper;
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
@@ -62,21 +93,51 @@ public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
         if (USE_FAKE_DATA) {
             return getFakeData();
         }
-        final List<BatteryTip> tips = new ArrayList<>();
         final BatteryTipPolicy policy = new BatteryTipPolicy(getContext());
         final BatteryInfo batteryInfo = mBatteryUtils.getBatteryInfo(mBatteryStatsHelper, TAG);
         final Context context = getContext();
+        final BatteryStats stats = mBatteryStatsHelper.getStats();
 
-        tips.add(new LowBatteryDetector(context, policy, batteryInfo).detect());
-        tips.add(new HighUsageDetector(context, policy, mBatteryStatsHelper,
-                batteryInfo.discharging).detect());
-        tips.add(new SmartBatteryDetector(policy, context.getContentResolver()).detect());
-        tips.add(new EarlyWarningDetector(policy, context).detect());
-        tips.add(new SummaryDetector(policy, batteryInfo.averageTimeToDischarge).detect());
+        final List<DetectorTask> tasks = new ArrayList<>();
+        tasks.add(new DetectorTask("LowBatteryDetector",
+                new LowBatteryDetector(context, policy, batteryInfo), DEFAULT_BUDGET_MS,
+                null /* stats */, null /* inputs */,
+                new LowBatteryTip(BatteryTip.StateType.INVISIBLE, false /* powerSaveModeOn */,
+                        null /* summary */)));
+        tasks.add(new DetectorTask("HighUsageDetector",
+                new HighUsageDetector(context, policy, mBatteryStatsHelper,
+                        batteryInfo.discharging), HIGH_USAGE_BUDGET_MS,
+                stats, Arrays.<Object>asList(batteryInfo.discharging, policy.highUsageEnabled,
+                        policy.highUsageAppCount, policy.highUsagePeriodMs,
+                        policy.highUsageBatteryDraining, policy.testHighUsageTip),
+                new HighUsageTip(0L /* lastFullChargeTimeMs */, new ArrayList<>())));
+        tasks.add(new DetectorTask("SmartBatteryDetector",
+                new SmartBatteryDetector(policy, context.getContentResolver()), DEFAULT_BUDGET_MS,
+                null /* stats */, null /* inputs */,
+                new SmartBatteryTip(BatteryTip.StateType.INVISIBLE)));
+        tasks.add(new DetectorTask("EarlyWarningDetector",
+                new EarlyWarningDetector(policy, context), DEFAULT_BUDGET_MS,
+                null /* stats */, null /* inputs */,
+                new EarlyWarningTip(BatteryTip.StateType.INVISIBLE, false /* powerSaveModeOn */)));
+        tasks.add(new DetectorTask("SummaryDetector",
+                new SummaryDetector(policy, batteryInfo.averageTimeToDischarge), DEFAULT_BUDGET_MS,
+                null /* stats */, Arrays.<Object>asList(batteryInfo.averageTimeToDischarge,
+                        policy.summaryEnabled),
+                new SummaryTip(BatteryTip.StateType.INVISIBLE,
+                        EstimateKt.AVERAGE_TIME_TO_DISCHARGE_UNKNOWN)));
         // Disable this feature now since it introduces false positive cases. We will try to improve
         // it in the future.
         // tips.add(new RestrictAppDetector(context, policy).detect());
 
+        final long startTime = SystemClock.elapsedRealtime();
+        for (DetectorTask task : tasks) {
+            task.start();
+        }
+        final List<BatteryTip> tips = new ArrayList<>();
+        for (DetectorTask task : tasks) {
+            tips.add(task.getTip(startTime));
+        }
+
         Collections.sort(tips);
         return tips;
     }
@@ -85,6 +146,28 @@ public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
     protected void onDiscardResult(List<BatteryTip> result) {
     }
 
+    @VisibleForTesting
+    static void clearCachedTips() {
+        synchronized (sCachedTips) {
+            sCachedTips.clear();
+        }
+    }
+
+    /**
+     * Returns a copy of {@code tip} that shares no state with it.
+     */
+    @VisibleForTesting
+    static BatteryTip copyOf(BatteryTip tip) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(tip, 0 /* flags */);
+            parcel.setDataPosition(0);
+            return parcel.readParcelable(BatteryTip.class.getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
     private List<BatteryTip> getFakeData() {
         final List<BatteryTip> tips = new ArrayList<>();
         tips.add(new SummaryTip(BatteryTip.StateType.NEW,
@@ -95,4 +178,91 @@ public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
         return tips;
     }
 
+    /**
+     * Runs one detector in the background and collects its tip within the detector's budget.
+     */
+    private static class DetectorTask {
+        private final String mName;
+        private final BatteryTipDetector mDetector;
+        private final long mBudgetMs;
+        private final BatteryStats mStats;
+        // Values the tip depends on besides mStats, or null if it can't be reused.
+        private final List<Object> mInputs;
+        private final BatteryTip mFallbackTip;
+        private BatteryTip mReusedTip;
+        private Future<BatteryTip> mFuture;
+
+        DetectorTask(String name, BatteryTipDetector detector, long budgetMs, BatteryStats stats,
+                List<Object> inputs, BatteryTip fallbackTip) {
+            mName = name;
+            mDetector = detector;
+            mBudgetMs = budgetMs;
+            mStats = stats;
+            mInputs = inputs;
+            mFallbackTip = fallbackTip;
+        }
+
+        void start() {
+            if (mInputs != null) {
+                synchronized (sCachedTips) {
+                    final CachedTip cached = sCachedTips.get(mName);
+                    if (cached != null && cached.matches(mStats, mInputs)) {
+                        mReusedTip = copyOf(cached.mTip);
+                        return;
+                    }
+                }
+            }
+            mFuture = ThreadUtils.postOnBackgroundThread(Priority.UI, () -> {
+                final long startTime = SystemClock.elapsedRealtime();
+                final BatteryTip tip = mDetector.detect();
+                Log.d(TAG, mName + " took " + (SystemClock.elapsedRealtime() - startTime)
+                        + " ms");
+                // Kept even if the budget was missed, so that the next load can use it.
+                final CachedTip cached = new CachedTip(mStats, mInputs, copyOf(tip));
+                synchronized (sCachedTips) {
+                    sCachedTips.put(mName, cached);
+                }
+                return tip;
+            });
+        }
+
+        BatteryTip getTip(long startTime) {
+            if (mReusedTip != null) {
+                return mReusedTip;
+            }
+            final long remainingMs = startTime + mBudgetMs - SystemClock.elapsedRealtime();
+            try {
+                return mFuture.get(Math.max(remainingMs, 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.w(TAG, mName + " exceeded its budget of " + mBudgetMs + " ms");
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, mName + " failed", e);
+            }
+            final CachedTip cached;
+            synchronized (sCachedTips) {
+                cached = sCachedTips.get(mName);
+            }
+            if (cached != null) {
+                Log.w(TAG, "Using the last tip of " + mName);
+                return copyOf(cached.mTip);
+            }
+            return mFallbackTip;
+        }
+    }
+
+    private static class CachedTip {
+        private final WeakReference<BatteryStats> mStats;
+        private final List<Object> mInputs;
+        private final BatteryTip mTip;
+
+        CachedTip(BatteryStats stats, List<Object> inputs, BatteryTip tip) {
+            mStats = new WeakReference<>(stats);
+            mInputs = inputs;
+            mTip = tip;
+        }
+
+        boolean matches(BatteryStats stats, List<Object> inputs) {
+            return mInputs != null && mStats.get() == stats && Objects.equals(mInputs, inputs);
+        }
+    }
 }
@@ -93,6 +93,13 @@ public class TopLevelSettings extends DashboardFragment implements
         return true;
     }
 
+    @Override
+    protected boolean isDeadlineBoundedControllers() {
+        // The entries' summaries are computed in the background, and the homepage renders
+        // within the deadline even if some of them are slow.
+        return true;
+    }
+
     @Override
     protected boolean shouldForceRoundedIcon() {
         return getContext().getResources()
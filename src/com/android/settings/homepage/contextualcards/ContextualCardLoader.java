@@ -27,6 +27,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -38,14 +39,17 @@ import com.android.settings.homepage.contextualcards.logging.ContextualCardLogUt
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.PrioritizedExecutor;
+import com.android.settingslib.utils.ThreadUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
 
 public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>> {
 
@@ -177,6 +181,13 @@ public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>
         return visibleCards;
     }
 
+    /**
+     * Returns the counters of the eligibility checks run while loading cards.
+     */
+    public static JSONObject dumpEligibilityStats(Context context) throws JSONException {
+        return EligibleCardCache.getInstance(context).dumpStats();
+    }
+
     static int getCardCount(Context context) {
         // Return the card count if Settings.Global has KEY_CONTEXTUAL_CARD_COUNT key,
         // otherwise return the default one.
@@ -197,39 +208,63 @@ public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>
             return candidates;
         }
 
-        final ExecutorService executor = Executors.newFixedThreadPool(candidates.size());
-        final List<ContextualCard> cards = new ArrayList<>();
-        List<Future<ContextualCard>> eligibleCards = new ArrayList<>();
-
-        final List<EligibleCardChecker> checkers = candidates.stream()
-                .map(card -> new EligibleCardChecker(mContext, card))
-                .collect(Collectors.toList());
-        try {
-            eligibleCards = executor.invokeAll(checkers, ELIGIBILITY_CHECKER_TIMEOUT_MS,
-                    TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            Log.w(TAG, "Failed to get eligible states for all cards", e);
+        final long startTime = SystemClock.elapsedRealtime();
+        final EligibleCardCache cache = EligibleCardCache.getInstance(mContext);
+        final List<ContextualCard> results = new ArrayList<>();
+        final List<Future<ContextualCard>> eligibleCards = new ArrayList<>();
+        int cacheHits = 0;
+        int timeouts = 0;
+
+        // Only check the cards whose result is not cached, on the shared background pool.
+        for (ContextualCard candidate : candidates) {
+            final EligibleCardCache.Entry entry = cache.get(candidate.getSliceUri());
+            if (entry != null) {
+                results.add(entry.apply(candidate));
+                eligibleCards.add(null);
+                cacheHits++;
+            } else {
+                results.add(null);
+                final EligibleCardChecker checker = new EligibleCardChecker(mContext, candidate);
+                eligibleCards.add(ThreadUtils.postOnBackgroundThread(
+                        PrioritizedExecutor.Priority.UI, checker));
+            }
         }
-        executor.shutdown();
 
         // Collect future and eligible cards
+        final long deadline = startTime + ELIGIBILITY_CHECKER_TIMEOUT_MS;
         for (int i = 0; i < eligibleCards.size(); i++) {
             final Future<ContextualCard> cardFuture = eligibleCards.get(i);
-            if (cardFuture.isCancelled()) {
-                Log.w(TAG, "Timeout getting eligible state for card: "
-                        + candidates.get(i).getSliceUri());
+            if (cardFuture == null) {
                 continue;
             }
-
             try {
-                final ContextualCard card = cardFuture.get();
-                if (card != null) {
-                    cards.add(card);
-                }
+                final long timeout = Math.max(0, deadline - SystemClock.elapsedRealtime());
+                final ContextualCard card = cardFuture.get(timeout, TimeUnit.MILLISECONDS);
+                results.set(i, card);
+                cache.put(candidates.get(i), card);
+            } catch (TimeoutException e) {
+                cardFuture.cancel(true /* mayInterruptIfRunning */);
+                timeouts++;
+                Log.w(TAG, "Timeout getting eligible state for card: "
+                        + candidates.get(i).getSliceUri());
             } catch (Exception e) {
                 Log.w(TAG, "Failed to get eligible state for card", e);
             }
         }
+
+        final List<ContextualCard> cards = new ArrayList<>();
+        for (ContextualCard card : results) {
+            if (card != null) {
+                cards.add(card);
+            }
+        }
+
+        final long latency = SystemClock.elapsedRealtime() - startTime;
+        Log.d(TAG, "Checked " + candidates.size() + " cards in " + latency + " ms, "
+                + cacheHits + " cached, " + timeouts + " timed out");
+        // ACTION_CONTEXTUAL_CARD_LOAD is reported per card by EligibleCardChecker, so the totals
+        // of the load are only kept for dumpsys.
+        cache.recordLoad(candidates.size(), cacheHits, timeouts, latency);
         return cards;
     }
 
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.homepage.contextualcards;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.slice.Slice;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Short lived cache of {@link EligibleCardChecker} results, keyed by slice uri.
+ *
+ * <p>An entry is dropped as soon as its slice notifies a change, or once it is older than
+ * {@link #TTL_MS}, so only cards whose slice changed are checked again on the next load.
+ */
+class EligibleCardCache {
+
+    @VisibleForTesting
+    static final long TTL_MS = 10000;
+
+    private static EligibleCardCache sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Map<Uri, Entry> mEntries = new ArrayMap<>();
+    private final Set<Uri> mObservedUris = new ArraySet<>();
+
+    private long mLoads;
+    private long mCheckedCards;
+    private long mCacheHits;
+    private long mTimeouts;
+    private long mLastLoadLatencyMs;
+
+    @VisibleForTesting
+    final ContentObserver mObserver = new ContentObserver(null /* handler */) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            invalidate(uri);
+        }
+    };
+
+    static synchronized EligibleCardCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EligibleCardCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    EligibleCardCache(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns the cached result for {@code uri}, or {@code null} if it has to be checked again.
+     */
+    synchronized Entry get(Uri uri) {
+        final Entry entry = mEntries.get(uri);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.mTimestamp > TTL_MS) {
+            mEntries.remove(uri);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the result of checking {@code candidate}. {@code result} is {@code null} when the
+     * card is not eligible.
+     */
+    synchronized void put(ContextualCard candidate, ContextualCard result) {
+        final Uri uri = candidate.getSliceUri();
+        mEntries.put(uri, new Entry(result, SystemClock.elapsedRealtime()));
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()) && mObservedUris.add(uri)) {
+            mContentResolver.registerContentObserver(uri, false /* notifyForDescendants */,
+                    mObserver);
+        }
+    }
+
+    synchronized void invalidate(Uri uri) {
+        mEntries.remove(uri);
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mObservedUris.clear();
+        mContentResolver.unregisterContentObserver(mObserver);
+    }
+
+    /**
+     * Records the outcome of checking the eligibility of all the candidates of one load.
+     */
+    synchronized void recordLoad(int candidateCount, int cacheHits, int timeouts, long latency) {
+        mLoads++;
+        mCheckedCards += candidateCount;
+        mCacheHits += cacheHits;
+        mTimeouts += timeouts;
+        mLastLoadLatencyMs = latency;
+    }
+
+    /**
+     * Returns the counters of the loads recorded so far.
+     */
+    synchronized JSONObject dumpStats() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("loads", mLoads);
+        obj.put("checked_cards", mCheckedCards);
+        obj.put("cache_hits", mCacheHits);
+        obj.put("timeouts", mTimeouts);
+        obj.put("last_load_latency_ms", mLastLoadLatencyMs);
+        return obj;
+    }
+
+    static class Entry {
+        private final boolean mEligible;
+        private final Slice mSlice;
+        private final boolean mHasInlineAction;
+        private final long mTimestamp;
+
+        Entry(ContextualCard result, long timestamp) {
+            mEligible = result != null;
+            mSlice = result != null ? result.getSlice() : null;
+            mHasInlineAction = result != null && result.hasInlineAction();
+            mTimestamp = timestamp;
+        }
+
+        /**
+         * Returns {@code candidate} updated with the cached slice, or {@code null} if it is not
+         * eligible to display.
+         */
+        ContextualCard apply(ContextualCard candidate) {
+            if (!mEligible || candidate.getRankingScore() < 0) {
+                return null;
+            }
+            return candidate.mutate()
+                    .setSlice(mSlice)
+                    .setHasInlineAction(mHasInlineAction)
+                    .build();
+        }
+    }
+}
@@ -45,6 +45,7 @@ import com.android.settings.R;
 import com.android.settings.SubSettings;
 import com.android.settings.Utils;
 import com.android.settings.fuelgauge.BatteryStatsHelperLoader;
+import com.android.settings.fuelgauge.BatteryStatsSnapshot;
 import com.android.settings.fuelgauge.PowerUsageSummary;
 import com.android.settings.fuelgauge.batterytip.BatteryTipLoader;
 import com.android.settings.fuelgauge.batterytip.BatteryTipPreferenceController;
@@ -207,8 +208,12 @@ public class BatteryFixSlice implements CustomSliceable {
     static List<BatteryTip> refreshBatteryTips(Context context) {
         final BatteryStatsHelperLoader statsLoader = new BatteryStatsHelperLoader(context);
         final BatteryStatsHelper statsHelper = statsLoader.loadInBackground();
-        final BatteryTipLoader loader = new BatteryTipLoader(context, statsHelper);
-        final List<BatteryTip> batteryTips = loader.loadInBackground();
+        final List<BatteryTip> batteryTips;
+        try {
+            batteryTips = new BatteryTipLoader(context, statsHelper).loadInBackground();
+        } finally {
+            BatteryStatsSnapshot.getInstance(context).release(statsLoader, statsHelper);
+        }
         for (BatteryTip batteryTip : batteryTips) {
             if (batteryTip.getState() != BatteryTip.StateType.INVISIBLE) {
                 context.getSharedPreferences(PREFS, MODE_PRIVATE)
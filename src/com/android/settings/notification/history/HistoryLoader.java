@@ -21,9 +21,13 @@ import android.app.NotificationHistory.HistoricalNotification;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
 import android.os.UserHandle;
+import android.util.LruCache;
 import android.util.Slog;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.settings.notification.NotificationBackend;
 import com.android.settingslib.utils.ThreadUtils;
 
@@ -32,12 +36,29 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Loads the notification history grouped by package, most recent package first.
+ *
+ * The packages are delivered in pages, so that the first rows show up without waiting for the
+ * labels and icons of every package in the history. Labels and icons are only resolved for the
+ * page about to be delivered, and are kept in an LRU cache for the following loads.
+ */
 public class HistoryLoader {
     private static final String TAG = "HistoryLoader";
+
+    @VisibleForTesting
+    static final int PAGE_SIZE = 10;
+    private static final int APP_INFO_CACHE_SIZE = 64;
+
     private final Context mContext;
     private final NotificationBackend mBackend;
     private final PackageManager mPm;
+    private final LruCache<String, AppLabelAndIcon> mAppInfoCache =
+            new LruCache<>(APP_INFO_CACHE_SIZE);
+    // Bumped by every load, so that the pages of a superseded load are dropped.
+    private final AtomicInteger mLoadGeneration = new AtomicInteger();
 
     public HistoryLoader(Context context, NotificationBackend backend, PackageManager pm) {
         mContext = context;
@@ -46,6 +67,7 @@ public class HistoryLoader {
     }
 
     public void load(OnHistoryLoaderListener listener) {
+        final int generation = mLoadGeneration.incrementAndGet();
         ThreadUtils.postOnBackgroundThread(() -> {
             try {
                 Map<String, NotificationHistoryPackage> historicalNotifications = new HashMap<>();
@@ -55,45 +77,96 @@ public class HistoryLoader {
                 while (history.hasNextNotification()) {
                     HistoricalNotification hn = history.getNextNotification();
 
-                    String key = hn.getPackage() + "|" + hn.getUid();
-                    NotificationHistoryPackage hnsForPackage = historicalNotifications.getOrDefault(
-                            key,
-                            new NotificationHistoryPackage(hn.getPackage(), hn.getUid()));
-                    hnsForPackage.notifications.add(hn);
-                    historicalNotifications.put(key, hnsForPackage);
+                    String key = getKey(hn.getPackage(), hn.getUid());
+                    historicalNotifications.computeIfAbsent(key,
+                            k -> new NotificationHistoryPackage(hn.getPackage(), hn.getUid()))
+                            .addNotification(hn);
                 }
                 List<NotificationHistoryPackage> packages =
                         new ArrayList<>(historicalNotifications.values());
                 Collections.sort(packages,
                         (o1, o2) -> -1 * Long.compare(o1.getMostRecent(), o2.getMostRecent()));
-                for (NotificationHistoryPackage nhp : packages) {
-                    ApplicationInfo info;
-                    try {
-                        info = mPm.getApplicationInfoAsUser(
-                                nhp.pkgName,
-                                PackageManager.MATCH_UNINSTALLED_PACKAGES
-                                        | PackageManager.MATCH_DISABLED_COMPONENTS
-                                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
-                                        | PackageManager.MATCH_DIRECT_BOOT_AWARE,
-                                UserHandle.getUserId(nhp.uid));
-                        if (info != null) {
-                            nhp.label = String.valueOf(mPm.getApplicationLabel(info));
-                            nhp.icon = mPm.getUserBadgedIcon(mPm.getApplicationIcon(info),
-                                    UserHandle.of(UserHandle.getUserId(nhp.uid)));
-                        }
-                    } catch (PackageManager.NameNotFoundException e) {
-                        // app is gone, just show package name and generic icon
-                        nhp.icon = mPm.getDefaultActivityIcon();
+
+                int start = 0;
+                do {
+                    if (mLoadGeneration.get() != generation) {
+                        return;
                     }
-                }
-                ThreadUtils.postOnMainThread(() -> listener.onHistoryLoaded(packages));
+                    final int end = Math.min(start + PAGE_SIZE, packages.size());
+                    final List<NotificationHistoryPackage> page =
+                            new ArrayList<>(packages.subList(start, end));
+                    for (NotificationHistoryPackage nhp : page) {
+                        loadLabelAndIcon(nhp);
+                    }
+                    final boolean firstPage = start == 0;
+                    ThreadUtils.postOnMainThread(() -> {
+                        if (mLoadGeneration.get() != generation) {
+                            return;
+                        }
+                        if (firstPage) {
+                            listener.onHistoryLoaded(page);
+                        } else {
+                            listener.onHistoryPageLoaded(page);
+                        }
+                    });
+                    start = end;
+                } while (start < packages.size());
             } catch (Exception e) {
                 Slog.e(TAG, "Error loading history", e);
             }
         });
     }
 
+    private void loadLabelAndIcon(NotificationHistoryPackage nhp) {
+        final String key = getKey(nhp.pkgName, nhp.uid);
+        AppLabelAndIcon labelAndIcon = mAppInfoCache.get(key);
+        if (labelAndIcon == null) {
+            labelAndIcon = new AppLabelAndIcon();
+            try {
+                ApplicationInfo info = mPm.getApplicationInfoAsUser(
+                        nhp.pkgName,
+                        PackageManager.MATCH_UNINSTALLED_PACKAGES
+                                | PackageManager.MATCH_DISABLED_COMPONENTS
+                                | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+                                | PackageManager.MATCH_DIRECT_BOOT_AWARE,
+                        UserHandle.getUserId(nhp.uid));
+                if (info != null) {
+                    labelAndIcon.mLabel = String.valueOf(mPm.getApplicationLabel(info));
+                    labelAndIcon.mIcon = mPm.getUserBadgedIcon(mPm.getApplicationIcon(info),
+                            UserHandle.of(UserHandle.getUserId(nhp.uid)));
+                }
+            } catch (PackageManager.NameNotFoundException e) {
+                // app is gone, just show package name and generic icon
+                labelAndIcon.mIcon = mPm.getDefaultActivityIcon();
+            }
+            mAppInfoCache.put(key, labelAndIcon);
+        }
+        nhp.label = labelAndIcon.mLabel;
+        // Each load inflates new rows, so hand each of them its own drawable.
+        nhp.icon = labelAndIcon.mIcon != null && labelAndIcon.mIcon.getConstantState() != null
+                ? labelAndIcon.mIcon.getConstantState().newDrawable() : labelAndIcon.mIcon;
+    }
+
+    private static String getKey(String pkgName, int uid) {
+        return pkgName + "|" + uid;
+    }
+
+    private static class AppLabelAndIcon {
+        CharSequence mLabel;
+        Drawable mIcon;
+    }
+
     interface OnHistoryLoaderListener {
+        /**
+         * Called with the first page of packages, which is empty if there is no history.
+         */
         void onHistoryLoaded(List<NotificationHistoryPackage> notificationsByPackage);
+
+        /**
+         * Called with each following page of packages, in order.
+         */
+        default void onHistoryPageLoaded(
+                List<NotificationHistoryPackage> notificationsByPackage) {
+        }
     }
 }
@@ -61,6 +61,7 @@ import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -126,10 +127,23 @@ public class NotificationHistoryActivity extends Activity {
         }
     }
 
-    private HistoryLoader.OnHistoryLoaderListener mOnHistoryLoaderListener = notifications -> {
-        findViewById(R.id.today_list).setVisibility(
-                notifications.isEmpty() ? View.GONE : View.VISIBLE);
-        mCountdownLatch.countDown();
+    private HistoryLoader.OnHistoryLoaderListener mOnHistoryLoaderListener =
+            new HistoryLoader.OnHistoryLoaderListener() {
+        @Override
+        public void onHistoryLoaded(List<NotificationHistoryPackage> notifications) {
+            findViewById(R.id.today_list).setVisibility(
+                    notifications.isEmpty() ? View.GONE : View.VISIBLE);
+            mCountdownLatch.countDown();
+            addPackageViews(notifications);
+        }
+
+        @Override
+        public void onHistoryPageLoaded(List<NotificationHistoryPackage> notifications) {
+            addPackageViews(notifications);
+        }
+    };
+
+    private void addPackageViews(List<NotificationHistoryPackage> notifications) {
         mTodayView.setClipToOutline(true);
         mTodayView.setOutlineProvider(new ViewOutlineProvider() {
             @Override
@@ -147,7 +161,9 @@ public class NotificationHistoryActivity extends Activity {
                         dialogCornerRadius);
             }
         });
-        // for each package, new header and recycler view
+        // for each package, new header and recycler view; pages are appended to the packages
+        // already shown
+        final int position = mTodayView.getChildCount();
         for (int i = 0, notificationsSize = notifications.size(); i < notificationsSize; i++) {
             NotificationHistoryPackage nhp = notifications.get(i);
             View viewForPackage = LayoutInflater.from(this)
@@ -159,7 +175,7 @@ public class NotificationHistoryActivity extends Activity {
             expand.setContentDescription(container.getVisibility() == View.VISIBLE
                     ? getString(R.string.condition_expand_hide)
                     : getString(R.string.condition_expand_show));
-            int finalI = i;
+            int finalI = position + i;
             expand.setOnClickListener(v -> {
                 container.setVisibility(container.getVisibility() == View.VISIBLE
                         ? View.GONE : View.VISIBLE);
@@ -204,7 +220,7 @@ public class NotificationHistoryActivity extends Activity {
 
             mTodayView.addView(viewForPackage);
         }
-    };
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -237,7 +253,10 @@ public class NotificationHistoryActivity extends Activity {
         mCountdownLatch = new CountDownLatch(2);
 
         mTodayView.removeAllViews();
-        mHistoryLoader = new HistoryLoader(this, new NotificationBackend(), mPm);
+        // Kept across resumes, so that its label and icon cache is reused.
+        if (mHistoryLoader == null) {
+            mHistoryLoader = new HistoryLoader(this, new NotificationBackend(), mPm);
+        }
         mHistoryLoader.load(mOnHistoryLoaderListener);
 
         mNm = INotificationManager.Stub.asInterface(
@@ -16,35 +16,55 @@
 
 package com.android.settings.notification.history;
 
-import android.app.NotificationHistory;
+import android.app.NotificationHistory.HistoricalNotification;
 import android.graphics.drawable.Drawable;
 
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
 import java.util.Objects;
-import java.util.Set;
-import java.util.TreeSet;
 
 public class NotificationHistoryPackage {
     String pkgName;
     int uid;
-    TreeSet<NotificationHistory.HistoricalNotification> notifications;
+    // Sorted by posted time, most recent first.
+    ArrayList<HistoricalNotification> notifications;
     CharSequence label;
     Drawable icon;
 
     public NotificationHistoryPackage(String pkgName, int uid) {
         this.pkgName = pkgName;
         this.uid = uid;
-        notifications = new TreeSet<>(
-                (o1, o2) -> Long.compare(o2.getPostedTimeMs(), o1.getPostedTimeMs()));
+        notifications = new ArrayList<>();
+    }
+
+    /**
+     * Adds {@code hn} in posted time order. History is read mostly in time order, so the
+     * notification usually goes at either end of the list.
+     */
+    void addNotification(HistoricalNotification hn) {
+        final long postedTimeMs = hn.getPostedTimeMs();
+        int low = 0;
+        int high = notifications.size();
+        if (high == 0 || notifications.get(high - 1).getPostedTimeMs() >= postedTimeMs) {
+            low = high;
+        } else if (notifications.get(0).getPostedTimeMs() < postedTimeMs) {
+            high = 0;
+        }
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (notifications.get(mid).getPostedTimeMs() >= postedTimeMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        notifications.add(low, hn);
     }
 
     public long getMostRecent() {
         if (notifications.isEmpty()) {
             return 0;
         }
-        return notifications.first().getPostedTimeMs();
+        return notifications.get(0).getPostedTimeMs();
     }
 
     @Override
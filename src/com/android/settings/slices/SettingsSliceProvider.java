@@ -25,15 +25,19 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.StrictMode;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.provider.SettingsSlicesContract;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.KeyValueListParser;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
@@ -76,7 +80,9 @@ import java.util.stream.Collectors;
  * the entire row is converted into a {@link SliceData}. Once complete, it is stored in
  * {@link #mSliceWeakDataCache}, and then an update sent via the Slice framework to the Slice.
  * The {@link Slice} displayed by the Slice-presenter will re-query this Slice-provider and find
- * the {@link SliceData} cached to build the full {@link Slice}.
+ * the {@link SliceData} cached to build the full {@link Slice}. Loaded {@link SliceData} is also
+ * kept in {@link #mWarmSliceDataCache}, so that slices which are pinned or bound again soon are
+ * built without going through a stub.
  *
  * <p>When an action is taken on that {@link Slice}, we receive the action in
  * {@link SliceBroadcastReceiver}, and use the
@@ -132,6 +138,38 @@ public class SettingsSliceProvider extends SliceProvider {
                     CustomSliceRegistry.ZEN_MODE_SLICE_URI
             );
 
+    /**
+     * Builders of the custom slices that are not provided by a {@link CustomSliceable}, by Uri.
+     */
+    private static final Map<Uri, SliceBinder> SPECIAL_SLICE_BINDERS = new ArrayMap<>();
+
+    static {
+        SPECIAL_SLICE_BINDERS.put(CustomSliceRegistry.WIFI_CALLING_URI,
+                (context, uri) -> FeatureFactory.getFactory(context)
+                        .getSlicesFeatureProvider()
+                        .getNewWifiCallingSliceHelper(context)
+                        .createWifiCallingSlice(uri));
+        SPECIAL_SLICE_BINDERS.put(CustomSliceRegistry.ZEN_MODE_SLICE_URI,
+                (context, uri) -> ZenModeSliceBuilder.getSlice(context));
+        SPECIAL_SLICE_BINDERS.put(CustomSliceRegistry.BLUETOOTH_URI,
+                (context, uri) -> BluetoothSliceBuilder.getSlice(context));
+        SPECIAL_SLICE_BINDERS.put(CustomSliceRegistry.ENHANCED_4G_SLICE_URI,
+                (context, uri) -> FeatureFactory.getFactory(context)
+                        .getSlicesFeatureProvider()
+                        .getNewEnhanced4gLteSliceHelper(context)
+                        .createEnhanced4gLteSlice(uri));
+        SPECIAL_SLICE_BINDERS.put(CustomSliceRegistry.WIFI_CALLING_PREFERENCE_URI,
+                (context, uri) -> FeatureFactory.getFactory(context)
+                        .getSlicesFeatureProvider()
+                        .getNewWifiCallingSliceHelper(context)
+                        .createWifiCallingPreferenceSlice(uri));
+    }
+
+    /**
+     * Maximum number of {@link SliceData} kept in {@link #mWarmSliceDataCache}.
+     */
+    private static final int WARM_CACHE_SIZE = 32;
+
     private static final KeyValueListParser KEY_VALUE_LIST_PARSER = new KeyValueListParser(',');
 
     @VisibleForTesting
@@ -140,9 +178,36 @@ public class SettingsSliceProvider extends SliceProvider {
     @VisibleForTesting
     Map<Uri, SliceData> mSliceWeakDataCache;
 
+    /**
+     * {@link SliceData} of the most recently loaded or bound slices, which keeps the pinned and
+     * frequently bound ones from being read from the database again.
+     */
+    @VisibleForTesting
+    final LruCache<Uri, SliceData> mWarmSliceDataCache = new LruCache<>(WARM_CACHE_SIZE);
+    // Index generation the SliceData in mWarmSliceDataCache was read at.
+    private volatile int mWarmCacheGeneration = SlicesIndexer.getIndexGeneration();
+
     @VisibleForTesting
     final Map<Uri, SliceBackgroundWorker> mPinnedWorkers = new ArrayMap<>();
 
+    private final Object mBlockedKeysLock = new Object();
+    // Parsed Settings.Global.BLOCKED_SLICES, or null until read or after it changed.
+    private Set<String> mBlockedKeys;
+    // Whether mBlockedKeysObserver is registered, so that mBlockedKeys can be cached.
+    private boolean mBlockedKeysObserved;
+
+    private final ContentObserver mBlockedKeysObserver = new ContentObserver(null /* handler */) {
+        @Override
+        public void onChange(boolean selfChange) {
+            synchronized (mBlockedKeysLock) {
+                mBlockedKeys = null;
+            }
+        }
+    };
+
+    private final SliceBindLatencyRecorder mBindLatencyRecorder =
+            SliceBindLatencyRecorder.getInstance();
+
     private Boolean mNightMode;
 
     public SettingsSliceProvider() {
@@ -153,9 +218,22 @@ public class SettingsSliceProvider extends SliceProvider {
     public boolean onCreateSliceProvider() {
         mSlicesDatabaseAccessor = new SlicesDatabaseAccessor(getContext());
         mSliceWeakDataCache = new WeakHashMap<>();
+        getContext().getContentResolver().registerContentObserver(
+                Settings.Global.getUriFor(Settings.Global.BLOCKED_SLICES),
+                false /* notifyForDescendants */, mBlockedKeysObserver);
+        synchronized (mBlockedKeysLock) {
+            mBlockedKeysObserved = true;
+        }
         return true;
     }
 
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // Slice titles and summaries are localized, so reload them from the reindexed database.
+        mWarmSliceDataCache.evictAll();
+    }
+
     @Override
     public void onSlicePinned(Uri sliceUri) {
         if (CustomSliceRegistry.isValidUri(sliceUri)) {
@@ -190,6 +268,7 @@ public class SettingsSliceProvider extends SliceProvider {
 
     @Override
     public Slice onBindSlice(Uri sliceUri) {
+        final long startTime = SystemClock.elapsedRealtimeNanos();
         final StrictMode.ThreadPolicy oldPolicy = StrictMode.getThreadPolicy();
         try {
             if (!ThreadUtils.isMainThread()) {
@@ -223,40 +302,31 @@ public class SettingsSliceProvider extends SliceProvider {
                         .getSlice();
             }
 
-            if (CustomSliceRegistry.WIFI_CALLING_URI.equals(sliceUri)) {
-                return FeatureFactory.getFactory(getContext())
-                        .getSlicesFeatureProvider()
-                        .getNewWifiCallingSliceHelper(getContext())
-                        .createWifiCallingSlice(sliceUri);
-            } else if (CustomSliceRegistry.ZEN_MODE_SLICE_URI.equals(sliceUri)) {
-                return ZenModeSliceBuilder.getSlice(getContext());
-            } else if (CustomSliceRegistry.BLUETOOTH_URI.equals(sliceUri)) {
-                return BluetoothSliceBuilder.getSlice(getContext());
-            } else if (CustomSliceRegistry.ENHANCED_4G_SLICE_URI.equals(sliceUri)) {
-                return FeatureFactory.getFactory(getContext())
-                        .getSlicesFeatureProvider()
-                        .getNewEnhanced4gLteSliceHelper(getContext())
-                        .createEnhanced4gLteSlice(sliceUri);
-            } else if (CustomSliceRegistry.WIFI_CALLING_PREFERENCE_URI.equals(sliceUri)) {
-                return FeatureFactory.getFactory(getContext())
-                        .getSlicesFeatureProvider()
-                        .getNewWifiCallingSliceHelper(getContext())
-                        .createWifiCallingPreferenceSlice(sliceUri);
-            }
-
-            final SliceData cachedSliceData = mSliceWeakDataCache.get(sliceUri);
-            if (cachedSliceData == null) {
-                loadSliceInBackground(sliceUri);
-                return getSliceStub(sliceUri);
+            final SliceBinder sliceBinder = SPECIAL_SLICE_BINDERS.get(sliceUri);
+            if (sliceBinder != null) {
+                return sliceBinder.bindSlice(getContext(), sliceUri);
             }
 
-            // Remove the SliceData from the cache after it has been used to prevent a memory-leak.
-            if (!getPinnedSlices().contains(sliceUri)) {
-                mSliceWeakDataCache.remove(sliceUri);
+            SliceData cachedSliceData = mSliceWeakDataCache.get(sliceUri);
+            if (cachedSliceData != null) {
+                // Remove the SliceData from the cache after it has been used to prevent a
+                // memory-leak.
+                if (!getPinnedSlices().contains(sliceUri)) {
+                    mSliceWeakDataCache.remove(sliceUri);
+                }
+            } else {
+                cachedSliceData = getWarmSliceData(sliceUri);
+                if (cachedSliceData == null) {
+                    loadSliceInBackground(sliceUri);
+                    mBindLatencyRecorder.recordStub();
+                    return getSliceStub(sliceUri);
+                }
+                mBindLatencyRecorder.recordWarmHit();
             }
             return SliceBuilderUtils.buildSlice(getContext(), cachedSliceData);
         } finally {
             StrictMode.setThreadPolicy(oldPolicy);
+            mBindLatencyRecorder.recordBind(SystemClock.elapsedRealtimeNanos() - startTime);
         }
     }
 
@@ -377,6 +447,7 @@ public class SettingsSliceProvider extends SliceProvider {
     void loadSlice(Uri uri) {
         long startBuildTime = System.currentTimeMillis();
 
+        final int generation = SlicesIndexer.getIndexGeneration();
         final SliceData sliceData;
         try {
             sliceData = mSlicesDatabaseAccessor.getSliceDataFromUri(uri);
@@ -396,12 +467,29 @@ public class SettingsSliceProvider extends SliceProvider {
         ThreadUtils.postOnMainThread(() -> startBackgroundWorker(controller, uri));
 
         mSliceWeakDataCache.put(uri, sliceData);
+        if (generation == SlicesIndexer.getIndexGeneration()) {
+            // Otherwise the index was rebuilt meanwhile and sliceData may be stale.
+            mWarmSliceDataCache.put(uri, sliceData);
+        }
         getContext().getContentResolver().notifyChange(uri, null /* content observer */);
 
         Log.d(TAG, "Built slice (" + uri + ") in: " +
                 (System.currentTimeMillis() - startBuildTime));
     }
 
+    /**
+     * Returns the {@link SliceData} of {@code uri} from {@link #mWarmSliceDataCache}, dropping the
+     * cache first if the index was rebuilt since it was filled.
+     */
+    private SliceData getWarmSliceData(Uri uri) {
+        final int generation = SlicesIndexer.getIndexGeneration();
+        if (generation != mWarmCacheGeneration) {
+            mWarmCacheGeneration = generation;
+            mWarmSliceDataCache.evictAll();
+        }
+        return mWarmSliceDataCache.get(uri);
+    }
+
     @VisibleForTesting
     void loadSliceInBackground(Uri uri) {
         ThreadUtils.postOnBackgroundThread(() -> loadSlice(uri));
@@ -419,6 +507,19 @@ public class SettingsSliceProvider extends SliceProvider {
 
     @VisibleForTesting
     Set<String> getBlockedKeys() {
+        synchronized (mBlockedKeysLock) {
+            if (mBlockedKeys != null) {
+                return mBlockedKeys;
+            }
+            final Set<String> blockedKeys = Collections.unmodifiableSet(readBlockedKeys());
+            if (mBlockedKeysObserved) {
+                mBlockedKeys = blockedKeys;
+            }
+            return blockedKeys;
+        }
+    }
+
+    private Set<String> readBlockedKeys() {
         final String value = Settings.Global.getString(getContext().getContentResolver(),
                 Settings.Global.BLOCKED_SLICES);
         final Set<String> set = new ArraySet<>();
@@ -488,6 +589,13 @@ public class SettingsSliceProvider extends SliceProvider {
         return new Slice.Builder(uri).build();
     }
 
+    /**
+     * Builds a custom slice that is not provided by a {@link CustomSliceable}.
+     */
+    private interface SliceBinder {
+        Slice bindSlice(Context context, Uri uri);
+    }
+
     private static String[] parseStringArray(String value) {
         if (value != null) {
             String[] parts = value.split(":");
@@ -20,22 +20,19 @@ import android.annotation.MainThread;
 import android.annotation.Nullable;
 import android.content.Context;
 import android.net.Uri;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
-import android.os.Process;
-import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.Log;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * The Slice background worker is used to make Settings Slices be able to work with data that is
@@ -46,7 +43,8 @@ import java.util.Map;
  * SettingsSliceProvider#shutdown()}.
  *
  * {@link SliceBackgroundWorker} caches the results, uses the cache to compare if there is any data
- * changed, and then notifies the Slice {@link Uri} to update.
+ * changed, and then notifies the Slice {@link Uri} to update. Notifications of all workers are
+ * throttled and batched by {@link SliceNotificationBatcher}.
  *
  * It also stores all instances of all workers to ensure each worker is a Singleton.
  */
@@ -54,14 +52,16 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
     private static final String TAG = "SliceBackgroundWorker";
 
-    private static final long SLICE_UPDATE_THROTTLE_INTERVAL = 300L;
-
     private static final Map<Uri, SliceBackgroundWorker> LIVE_WORKERS = new ArrayMap<>();
 
     private final Context mContext;
     private final Uri mUri;
 
-    private List<E> mCachedResults;
+    // Read by SliceNotificationBatcher on its own thread.
+    private volatile List<E> mCachedResults;
+    // Results last read to build the Slice, and whether they were read at all.
+    private volatile List<E> mDeliveredResults;
+    private volatile boolean mResultsDelivered;
 
     protected SliceBackgroundWorker(Context context, Uri uri) {
         mContext = context;
@@ -124,6 +124,14 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
         LIVE_WORKERS.clear();
     }
 
+    /**
+     * Returns the counters of Slice change notifications sent and suppressed by all workers.
+     */
+    public static JSONObject dumpNotificationStats() throws JSONException {
+        final SliceNotificationBatcher batcher = SliceNotificationBatcher.peekInstance();
+        return batcher != null ? batcher.dumpStats() : new JSONObject();
+    }
+
     /**
      * Called when the Slice is pinned. This is the place to register callbacks or initialize scan
      * tasks.
@@ -142,7 +150,18 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
      * @return a {@link List} of cached results
      */
     public final List<E> getResults() {
-        return mCachedResults == null ? null : new ArrayList<>(mCachedResults);
+        // Called to build the Slice, so these are the results the host will show.
+        final List<E> results = mCachedResults;
+        mDeliveredResults = results;
+        mResultsDelivered = true;
+        return results == null ? null : new ArrayList<>(results);
+    }
+
+    /**
+     * Returns whether the cached results equal the ones the Slice was last built with.
+     */
+    boolean areResultsDelivered() {
+        return mResultsDelivered && Objects.equals(mCachedResults, mDeliveredResults);
     }
 
     /**
@@ -161,7 +180,7 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
         if (needNotify) {
             mCachedResults = results;
-            notifySliceChange();
+            SliceNotificationBatcher.getInstance().updateSlice(this, true /* resultsOnly */);
         }
     }
 
@@ -173,7 +192,7 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
      * Notify that data was updated and attempt to sync changes to the Slice.
      */
     protected final void notifySliceChange() {
-        NotifySliceChangeHandler.getInstance().updateSlice(this);
+        SliceNotificationBatcher.getInstance().updateSlice(this, false /* resultsOnly */);
     }
 
     void pin() {
@@ -182,67 +201,6 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
     void unpin() {
         onSliceUnpinned();
-        NotifySliceChangeHandler.getInstance().cancelSliceUpdate(this);
+        SliceNotificationBatcher.getInstance().cancelSliceUpdate(this);
     }
-
-    private static class NotifySliceChangeHandler extends Handler {
-
-        private static final int MSG_UPDATE_SLICE = 1000;
-
-        private static NotifySliceChangeHandler sHandler;
-
-        private final Map<Uri, Long> mLastUpdateTimeLookup = Collections.synchronizedMap(
-                new ArrayMap<>());
-
-        private static NotifySliceChangeHandler getInstance() {
-            if (sHandler == null) {
-                final HandlerThread workerThread = new HandlerThread("NotifySliceChangeHandler",
-                        Process.THREAD_PRIORITY_BACKGROUND);
-                workerThread.start();
-                sHandler = new NotifySliceChangeHandler(workerThread.getLooper());
-            }
-            return sHandler;
-        }
-
-        private NotifySliceChangeHandler(Looper looper) {
-            super(looper);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            if (msg.what != MSG_UPDATE_SLICE) {
-                return;
-            }
-
-            final SliceBackgroundWorker worker = (SliceBackgroundWorker) msg.obj;
-            final Uri uri = worker.getUri();
-            final Context context = worker.getContext();
-            mLastUpdateTimeLookup.put(uri, SystemClock.uptimeMillis());
-            context.getContentResolver().notifyChange(uri, null);
-        }
-
-        private void updateSlice(SliceBackgroundWorker worker) {
-            if (hasMessages(MSG_UPDATE_SLICE, worker)) {
-                return;
-            }
-
-            final Message message = obtainMessage(MSG_UPDATE_SLICE, worker);
-            final long lastUpdateTime = mLastUpdateTimeLookup.getOrDefault(worker.getUri(), 0L);
-            if (lastUpdateTime == 0L) {
-                // Postpone the first update triggering by onSlicePinned() to avoid being too close
-                // to the first Slice bind.
-                sendMessageDelayed(message, SLICE_UPDATE_THROTTLE_INTERVAL);
-            } else if (SystemClock.uptimeMillis() - lastUpdateTime
-                    > SLICE_UPDATE_THROTTLE_INTERVAL) {
-                sendMessage(message);
-            } else {
-                sendMessageAtTime(message, lastUpdateTime + SLICE_UPDATE_THROTTLE_INTERVAL);
-            }
-        }
-
-        private void cancelSliceUpdate(SliceBackgroundWorker worker) {
-            removeMessages(MSG_UPDATE_SLICE, worker);
-            mLastUpdateTimeLookup.remove(worker.getUri());
-        }
-    };
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Records the latency of {@link SettingsSliceProvider#onBindSlice} over the most recent binds, and
+ * how the binds were served, for dumpsys.
+ */
+public class SliceBindLatencyRecorder {
+
+    @VisibleForTesting
+    static final int MAX_SAMPLES = 512;
+
+    private static SliceBindLatencyRecorder sInstance;
+
+    // Ring buffer of the latest bind latencies, in microseconds.
+    private final long[] mSamples = new long[MAX_SAMPLES];
+    private int mNextSample;
+    private long mBindCount;
+    private long mStubCount;
+    private long mWarmHitCount;
+
+    public static synchronized SliceBindLatencyRecorder getInstance() {
+        if (sInstance == null) {
+            sInstance = new SliceBindLatencyRecorder();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SliceBindLatencyRecorder() {
+    }
+
+    /**
+     * Records one bind that took {@code latencyNanos}.
+     */
+    public synchronized void recordBind(long latencyNanos) {
+        mSamples[mNextSample] = latencyNanos / 1000;
+        mNextSample = (mNextSample + 1) % MAX_SAMPLES;
+        mBindCount++;
+    }
+
+    /**
+     * Records that a bind returned a stub while its data loads in the background.
+     */
+    public synchronized void recordStub() {
+        mStubCount++;
+    }
+
+    /**
+     * Records that a bind was served from the warm {@link SliceData} cache.
+     */
+    public synchronized void recordWarmHit() {
+        mWarmHitCount++;
+    }
+
+    /**
+     * Returns the {@code percentile} of the recorded latencies in microseconds, or 0 if nothing
+     * was recorded.
+     */
+    public synchronized long getPercentileMicros(int percentile) {
+        final int count = (int) Math.min(mBindCount, MAX_SAMPLES);
+        if (count == 0) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(mSamples, count);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("binds", mBindCount);
+        obj.put("stubs", mStubCount);
+        obj.put("warm_hits", mWarmHitCount);
+        obj.put("p50_us", getPercentileMicros(50));
+        obj.put("p90_us", getPercentileMicros(90));
+        obj.put("p99_us", getPercentileMicros(99));
+        return obj;
+    }
+}
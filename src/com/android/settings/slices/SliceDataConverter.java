@@ -257,7 +257,11 @@ class SliceDataConverter {
         return xmlSliceData;
     }
 
-    private List<SliceData> getAccessibilitySliceData() {
+    /**
+     * Returns the slices of the accessibility services listed in
+     * {@code config_settings_slices_accessibility_components}.
+     */
+    List<SliceData> getAccessibilitySliceData() {
         final List<SliceData> sliceData = new ArrayList<>();
 
         final String accessibilityControllerClassName =
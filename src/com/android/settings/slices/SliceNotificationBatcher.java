@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the change notifications of all {@link SliceBackgroundWorker}s in batches.
+ *
+ * Each worker's Slice {@link Uri} is throttled on its own, then its notification is aligned to
+ * the next frame boundary, so that the workers which update together, e.g. after a connectivity
+ * change, are sent to the host in one {@code notifyChange} call. A notification requested by a
+ * results update is dropped if the worker's results equal the ones the Slice was last built with.
+ */
+class SliceNotificationBatcher extends Handler {
+
+    private static final int MSG_FLUSH = 1000;
+
+    @VisibleForTesting
+    static final long SLICE_UPDATE_THROTTLE_INTERVAL = 300L;
+    @VisibleForTesting
+    static final long FRAME_INTERVAL = 16L;
+
+    private static SliceNotificationBatcher sInstance;
+
+    private final Map<Uri, Long> mLastUpdateTimeLookup = new ArrayMap<>();
+    private final ArrayMap<SliceBackgroundWorker, PendingUpdate> mPendingUpdates =
+            new ArrayMap<>();
+    private long mNextFlushTime;
+
+    private long mNotificationsSent;
+    private long mNotificationsSuppressed;
+    private long mBatchesSent;
+
+    static synchronized SliceNotificationBatcher getInstance() {
+        if (sInstance == null) {
+            final HandlerThread workerThread = new HandlerThread("NotifySliceChangeHandler",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            workerThread.start();
+            sInstance = new SliceNotificationBatcher(workerThread.getLooper());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the instance if it was created, without creating it.
+     */
+    static synchronized SliceNotificationBatcher peekInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void setInstance(SliceNotificationBatcher batcher) {
+        sInstance = batcher;
+    }
+
+    @VisibleForTesting
+    SliceNotificationBatcher(Looper looper) {
+        super(looper);
+    }
+
+    /**
+     * Schedules a change notification for the Slice of {@code worker}.
+     *
+     * @param resultsOnly whether the notification is only for a change of
+     *                    {@link SliceBackgroundWorker#getResults()}, and can be dropped if the
+     *                    results are back to the ones the Slice was last built with.
+     */
+    synchronized void updateSlice(SliceBackgroundWorker worker, boolean resultsOnly) {
+        final PendingUpdate pendingUpdate = mPendingUpdates.get(worker);
+        if (pendingUpdate != null) {
+            pendingUpdate.mResultsOnly &= resultsOnly;
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        final long lastUpdateTime = mLastUpdateTimeLookup.getOrDefault(worker.getUri(), 0L);
+        final long updateTime;
+        if (lastUpdateTime == 0L) {
+            // Postpone the first update triggering by onSlicePinned() to avoid being too close
+            // to the first Slice bind.
+            updateTime = now + SLICE_UPDATE_THROTTLE_INTERVAL;
+        } else {
+            updateTime = Math.max(now, lastUpdateTime + SLICE_UPDATE_THROTTLE_INTERVAL);
+        }
+        final long flushTime = alignToFrame(updateTime);
+        mPendingUpdates.put(worker, new PendingUpdate(flushTime, resultsOnly));
+        scheduleFlushLocked(flushTime);
+    }
+
+    /**
+     * Drops the pending notification of {@code worker}, and forgets its throttling state.
+     */
+    synchronized void cancelSliceUpdate(SliceBackgroundWorker worker) {
+        mPendingUpdates.remove(worker);
+        mLastUpdateTimeLookup.remove(worker.getUri());
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        if (msg.what != MSG_FLUSH) {
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        final List<Uri> uris = new ArrayList<>();
+        Context context = null;
+        synchronized (this) {
+            mNextFlushTime = 0L;
+            long nextFlushTime = Long.MAX_VALUE;
+            for (int i = mPendingUpdates.size() - 1; i >= 0; i--) {
+                final PendingUpdate pendingUpdate = mPendingUpdates.valueAt(i);
+                if (pendingUpdate.mFlushTime > now) {
+                    nextFlushTime = Math.min(nextFlushTime, pendingUpdate.mFlushTime);
+                    continue;
+                }
+                final SliceBackgroundWorker worker = mPendingUpdates.keyAt(i);
+                mPendingUpdates.removeAt(i);
+
+                if (pendingUpdate.mResultsOnly && worker.areResultsDelivered()) {
+                    mNotificationsSuppressed++;
+                    continue;
+                }
+                final Uri uri = worker.getUri();
+                mLastUpdateTimeLookup.put(uri, now);
+                uris.add(uri);
+                context = worker.getContext();
+            }
+            if (nextFlushTime != Long.MAX_VALUE) {
+                scheduleFlushLocked(nextFlushTime);
+            }
+            if (!uris.isEmpty()) {
+                mNotificationsSent += uris.size();
+                mBatchesSent++;
+            }
+        }
+
+        if (context != null) {
+            // All workers are created with the application context.
+            context.getContentResolver().notifyChange(uris, null /* observer */, 0 /* flags */);
+        }
+    }
+
+    /**
+     * Returns the counters of notifications sent and suppressed.
+     */
+    synchronized JSONObject dumpStats() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("notifications_sent", mNotificationsSent);
+        obj.put("notifications_suppressed", mNotificationsSuppressed);
+        obj.put("batches_sent", mBatchesSent);
+        return obj;
+    }
+
+    @VisibleForTesting
+    synchronized long getNotificationsSent() {
+        return mNotificationsSent;
+    }
+
+    @VisibleForTesting
+    synchronized long getNotificationsSuppressed() {
+        return mNotificationsSuppressed;
+    }
+
+    @VisibleForTesting
+    synchronized long getBatchesSent() {
+        return mBatchesSent;
+    }
+
+    private void scheduleFlushLocked(long flushTime) {
+        if (mNextFlushTime != 0L && mNextFlushTime <= flushTime) {
+            return;
+        }
+        removeMessages(MSG_FLUSH);
+        sendEmptyMessageAtTime(MSG_FLUSH, flushTime);
+        mNextFlushTime = flushTime;
+    }
+
+    private static long alignToFrame(long time) {
+        return (time + FRAME_INTERVAL - 1) / FRAME_INTERVAL * FRAME_INTERVAL;
+    }
+
+    private static class PendingUpdate {
+        final long mFlushTime;
+        boolean mResultsOnly;
+
+        PendingUpdate(long flushTime, boolean resultsOnly) {
+            mFlushTime = flushTime;
+            mResultsOnly = resultsOnly;
+        }
+    }
+}
@@ -16,15 +16,22 @@
 
 package com.android.settings.slices;
 
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.android.settings.R;
+
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Defines the schema for the Slices database.
@@ -36,10 +43,13 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "slices_index.db";
     private static final String SHARED_PREFS_TAG = "slices_shared_prefs";
 
-    private static final int DATABASE_VERSION = 8;
+    private static final String KEY_PREFIX_PACKAGE_UPDATE_TIME = "package_update_time:";
+
+    private static final int DATABASE_VERSION = 10;
 
     public interface Tables {
         String TABLE_SLICES_INDEX = "slices_index";
+        String TABLE_FRAGMENT_HASHES = "slices_fragment_hashes";
     }
 
     public interface IndexColumns {
@@ -105,6 +115,18 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
         String PUBLIC_SLICE = "public_slice";
     }
 
+    public interface FragmentHashColumns {
+        /**
+         * Class name of the fragment, or other source, the indexed rows were collected from.
+         */
+        String FRAGMENT = "fragment";
+
+        /**
+         * Content hash of all rows indexed for the fragment.
+         */
+        String HASH = "hash";
+    }
+
     private static final String CREATE_SLICES_TABLE =
             "CREATE VIRTUAL TABLE " + Tables.TABLE_SLICES_INDEX + " USING fts4" +
                     "(" +
@@ -137,8 +159,20 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
                     +
                     ");";
 
+    private static final String CREATE_FRAGMENT_HASHES_TABLE =
+            "CREATE TABLE " + Tables.TABLE_FRAGMENT_HASHES +
+                    "(" +
+                    FragmentHashColumns.FRAGMENT +
+                    " TEXT PRIMARY KEY, " +
+                    FragmentHashColumns.HASH +
+                    " BLOB" +
+                    ");";
+
     private final Context mContext;
 
+    // Last update time of the packages the indexed data depends on, read once per process.
+    private Map<String, Long> mPackageUpdateTimes;
+
     private static SlicesDatabaseHelper sSingleton;
 
     public static synchronized SlicesDatabaseHelper getInstance(Context context) {
@@ -172,12 +206,20 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
      * {@link#isNewIndexingState(Context)} will return {@code true}.
      */
     void reconstruct(SQLiteDatabase db) {
+        clearIndexedState();
+        dropTables(db);
+        createDatabases(db);
+    }
+
+    /**
+     * Un-marks the state of the data without dropping it, such that the next index only has to
+     * rewrite the rows that changed.
+     */
+    void clearIndexedState() {
         mContext.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE)
                 .edit()
                 .clear()
                 .apply();
-        dropTables(db);
-        createDatabases(db);
     }
 
     /**
@@ -187,6 +229,7 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
     public void setIndexedState() {
         setBuildIndexed();
         setLocaleIndexed();
+        setPackagesIndexed();
     }
 
     /**
@@ -195,16 +238,41 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
      * @return {@code true} if database should be rebuilt, {@code false} otherwise.
      */
     public boolean isSliceDataIndexed() {
-        return isBuildIndexed() && isLocaleIndexed();
+        return isSettingsDataIndexed() && isAccessibilityDataIndexed();
+    }
+
+    /**
+     * Indicates if the slice data coming from Settings itself is up to date, i.e. the build, the
+     * locale and the Settings package did not change since it was indexed.
+     */
+    boolean isSettingsDataIndexed() {
+        return isBuildIndexed() && isLocaleIndexed()
+                && isPackageIndexed(mContext.getPackageName());
+    }
+
+    /**
+     * Indicates if none of the accessibility services that provide slices changed since they
+     * were indexed.
+     */
+    boolean isAccessibilityDataIndexed() {
+        for (String packageName : getPackageUpdateTimes().keySet()) {
+            if (!packageName.equals(mContext.getPackageName())
+                    && !isPackageIndexed(packageName)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void createDatabases(SQLiteDatabase db) {
         db.execSQL(CREATE_SLICES_TABLE);
+        db.execSQL(CREATE_FRAGMENT_HASHES_TABLE);
         Log.d(TAG, "Created databases");
     }
 
     private void dropTables(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SLICES_INDEX);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_FRAGMENT_HASHES);
     }
 
     private void setBuildIndexed() {
@@ -221,6 +289,15 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
                 .apply();
     }
 
+    private void setPackagesIndexed() {
+        final SharedPreferences.Editor editor =
+                mContext.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE).edit();
+        for (Map.Entry<String, Long> entry : getPackageUpdateTimes().entrySet()) {
+            editor.putLong(KEY_PREFIX_PACKAGE_UPDATE_TIME + entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+
     private boolean isBuildIndexed() {
         return mContext.getSharedPreferences(SHARED_PREFS_TAG,
                 Context.MODE_PRIVATE)
@@ -233,6 +310,43 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
                 .getBoolean(Locale.getDefault().toString(), false /* default */);
     }
 
+    private boolean isPackageIndexed(String packageName) {
+        final Long updateTime = getPackageUpdateTimes().get(packageName);
+        return mContext.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE)
+                .getLong(KEY_PREFIX_PACKAGE_UPDATE_TIME + packageName, -1 /* default */)
+                == (updateTime != null ? updateTime : 0);
+    }
+
+    /**
+     * Returns the last update time of Settings and of the packages of the accessibility services
+     * that provide slices, 0 for the ones that are not installed. Other packages do not affect the
+     * index, so their changes are ignored.
+     */
+    private synchronized Map<String, Long> getPackageUpdateTimes() {
+        if (mPackageUpdateTimes == null) {
+            final Map<String, Long> updateTimes = new ArrayMap<>();
+            updateTimes.put(mContext.getPackageName(), 0L);
+            for (String component : mContext.getResources()
+                    .getStringArray(R.array.config_settings_slices_accessibility_components)) {
+                final ComponentName componentName = ComponentName.unflattenFromString(component);
+                if (componentName != null) {
+                    updateTimes.put(componentName.getPackageName(), 0L);
+                }
+            }
+            final PackageManager pm = mContext.getPackageManager();
+            for (Map.Entry<String, Long> entry : updateTimes.entrySet()) {
+                try {
+                    entry.setValue(pm.getPackageInfo(entry.getKey(), 0 /* flags */)
+                            .lastUpdateTime);
+                } catch (PackageManager.NameNotFoundException e) {
+                    // Not installed, keep 0.
+                }
+            }
+            mPackageUpdateTimes = updateTimes;
+        }
+        return mPackageUpdateTimes;
+    }
+
     @VisibleForTesting
     String getBuildTag() {
         return Build.FINGERPRINT;
@@ -6,6 +6,9 @@ import android.net.Uri;
 import com.android.settings.network.telephony.Enhanced4gLteSliceHelper;
 import com.android.settings.wifi.calling.WifiCallingSliceHelper;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 /**
  * Manages Slices in Settings.
  */
@@ -41,6 +44,11 @@ public interface SlicesFeatureProvider {
      */
     void indexSliceData(Context context);
 
+    /**
+     * Returns the counters of the last slice indexing pass.
+     */
+    JSONObject dumpIndexingStats(Context context) throws JSONException;
+
 
     /**
      * Return a {@link CustomSliceable} associated to the Uri.
@@ -24,6 +24,9 @@ import com.android.settings.network.telephony.Enhanced4gLteSliceHelper;
 import com.android.settings.wifi.calling.WifiCallingSliceHelper;
 import com.android.settingslib.utils.ThreadUtils;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 /**
  * Manages Slices in Settings.
  */
@@ -63,6 +66,11 @@ public class SlicesFeatureProviderImpl implements SlicesFeatureProvider {
         indexer.indexSliceData();
     }
 
+    @Override
+    public JSONObject dumpIndexingStats(Context context) throws JSONException {
+        return getSliceIndexer(context).dumpStats();
+    }
+
     @Override
     public WifiCallingSliceHelper getNewWifiCallingSliceHelper(Context context) {
         return new WifiCallingSliceHelper(context);
@@ -16,33 +16,91 @@
 
 package com.android.settings.slices;
 
-import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.android.settings.accessibility.AccessibilitySlicePreferenceController;
 import com.android.settings.core.BasePreferenceController;
 import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.overlay.FeatureFactory;
+import com.android.settings.slices.SlicesDatabaseHelper.FragmentHashColumns;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
 import com.android.settings.slices.SlicesDatabaseHelper.Tables;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages the conversion of {@link DashboardFragment} and {@link BasePreferenceController} to
  * indexable data {@link SliceData} to be stored for Slices.
+ *
+ * <p>Rows are grouped by the fragment they come from, and a content hash of every group is stored
+ * next to the index. When the locale, the build or Settings change, only the groups whose hash
+ * changed are rewritten. The rows of accessibility services form a group of their own, which is
+ * rebuilt alone when only the packages of those services changed.
  */
 class SlicesIndexer implements Runnable {
 
     private static final String TAG = "SlicesIndexer";
 
+    private static final String INSERT_SLICE_SQL = "INSERT INTO " + Tables.TABLE_SLICES_INDEX
+            + " (" + IndexColumns.KEY
+            + ", " + IndexColumns.SLICE_URI
+            + ", " + IndexColumns.TITLE
+            + ", " + IndexColumns.SUMMARY
+            + ", " + IndexColumns.SCREENTITLE
+            + ", " + IndexColumns.KEYWORDS
+            + ", " + IndexColumns.ICON_RESOURCE
+            + ", " + IndexColumns.FRAGMENT
+            + ", " + IndexColumns.CONTROLLER
+            + ", " + IndexColumns.SLICE_TYPE
+            + ", " + IndexColumns.UNAVAILABLE_SLICE_SUBTITLE
+            + ", " + IndexColumns.PUBLIC_SLICE
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_HASH_SQL = "INSERT OR REPLACE INTO "
+            + Tables.TABLE_FRAGMENT_HASHES
+            + " (" + FragmentHashColumns.FRAGMENT
+            + ", " + FragmentHashColumns.HASH
+            + ") VALUES (?, ?)";
+
+    // Group of the rows of accessibility services, which do not come from a fragment's xml.
+    @VisibleForTesting
+    static final String ACCESSIBILITY_GROUP = "accessibility_services";
+    private static final String ACCESSIBILITY_CONTROLLER =
+            AccessibilitySlicePreferenceController.class.getName();
+
+    // Bumped every time the index is rebuilt, so that SliceData read before can be dropped.
+    private static final AtomicInteger sIndexGeneration = new AtomicInteger();
+
     private Context mContext;
 
     private SlicesDatabaseHelper mHelper;
 
+    // Counters, guarded by this.
+    private int mIndexCount;
+    private long mLastIndexMillis;
+    private int mLastRowCount;
+    private int mLastInsertedRows;
+    private int mLastSkippedRows;
+    private int mLastRemovedFragments;
+
     public SlicesIndexer(Context context) {
         mContext = context;
         mHelper = SlicesDatabaseHelper.getInstance(mContext);
@@ -68,22 +126,51 @@ class SlicesIndexer implements Runnable {
 
         final SQLiteDatabase database = mHelper.getWritableDatabase();
 
-        long startTime = System.currentTimeMillis();
+        final long startTime = SystemClock.elapsedRealtime();
+        final boolean accessibilityOnly = mHelper.isSettingsDataIndexed();
         database.beginTransaction();
         try {
-            mHelper.reconstruct(database);
-            List<SliceData> indexData = getSliceData();
-            insertSliceData(database, indexData);
+            mHelper.clearIndexedState();
+            if (accessibilityOnly) {
+                insertSliceData(database, getAccessibilitySliceData(),
+                        true /* accessibilityOnly */);
+            } else {
+                insertSliceData(database, getSliceData());
+            }
 
             mHelper.setIndexedState();
-
-            // TODO (b/71503044) Log indexing time.
-            Log.d(TAG,
-                    "Indexing slices database took: " + (System.currentTimeMillis() - startTime));
             database.setTransactionSuccessful();
         } finally {
             database.endTransaction();
         }
+        sIndexGeneration.incrementAndGet();
+        final long elapsedTime = SystemClock.elapsedRealtime() - startTime;
+        synchronized (this) {
+            mIndexCount++;
+            mLastIndexMillis = elapsedTime;
+        }
+        Log.d(TAG, "Indexing slices database took: " + elapsedTime);
+    }
+
+    /**
+     * Returns a number that changes every time the index is rebuilt in this process.
+     */
+    static int getIndexGeneration() {
+        return sIndexGeneration.get();
+    }
+
+    /**
+     * Returns the counters of the last indexing pass.
+     */
+    synchronized JSONObject dumpStats() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("index_count", mIndexCount);
+        obj.put("last_index_ms", mLastIndexMillis);
+        obj.put("last_row_count", mLastRowCount);
+        obj.put("last_inserted_rows", mLastInsertedRows);
+        obj.put("last_skipped_rows", mLastSkippedRows);
+        obj.put("last_removed_fragments", mLastRemovedFragments);
+        return obj;
     }
 
     @VisibleForTesting
@@ -94,31 +181,196 @@ class SlicesIndexer implements Runnable {
                 .getSliceData();
     }
 
+    @VisibleForTesting
+    List<SliceData> getAccessibilitySliceData() {
+        return FeatureFactory.getFactory(mContext)
+                .getSlicesFeatureProvider()
+                .getSliceDataConverter(mContext)
+                .getAccessibilitySliceData();
+    }
+
     @VisibleForTesting
     void insertSliceData(SQLiteDatabase database, List<SliceData> indexData) {
-        ContentValues values;
+        insertSliceData(database, indexData, false /* accessibilityOnly */);
+    }
 
+    /**
+     * Writes {@code indexData} into the index, rewriting only the groups whose rows changed
+     * since they were last indexed. Must be called inside a transaction.
+     *
+     * @param accessibilityOnly whether {@code indexData} only holds the rows of accessibility
+     *                          services, so that the other groups are left as they are.
+     */
+    @VisibleForTesting
+    void insertSliceData(SQLiteDatabase database, List<SliceData> indexData,
+            boolean accessibilityOnly) {
+        final Map<String, List<SliceData>> fragments = new ArrayMap<>();
+        if (accessibilityOnly) {
+            fragments.put(ACCESSIBILITY_GROUP, new ArrayList<>());
+        }
         for (SliceData dataRow : indexData) {
-            values = new ContentValues();
-            values.put(IndexColumns.KEY, dataRow.getKey());
-            values.put(IndexColumns.SLICE_URI, dataRow.getUri().toSafeString());
-            values.put(IndexColumns.TITLE, dataRow.getTitle());
-            values.put(IndexColumns.SUMMARY, dataRow.getSummary());
-            final CharSequence screenTitle = dataRow.getScreenTitle();
-            if (screenTitle != null) {
-                values.put(IndexColumns.SCREENTITLE, screenTitle.toString());
+            final String group = getGroup(dataRow);
+            List<SliceData> rows = fragments.get(group);
+            if (rows == null) {
+                rows = new ArrayList<>();
+                fragments.put(group, rows);
+            }
+            rows.add(dataRow);
+        }
+
+        final Map<String, byte[]> storedHashes = getStoredHashes(database);
+        if (accessibilityOnly) {
+            storedHashes.keySet().retainAll(fragments.keySet());
+        }
+        final Map<String, byte[]> changed = new ArrayMap<>();
+        int skippedRows = 0;
+        for (Map.Entry<String, List<SliceData>> entry : fragments.entrySet()) {
+            final byte[] hash = computeHash(entry.getValue());
+            if (Arrays.equals(hash, storedHashes.remove(entry.getKey()))) {
+                skippedRows += entry.getValue().size();
+            } else {
+                changed.put(entry.getKey(), hash);
             }
-            values.put(IndexColumns.KEYWORDS, dataRow.getKeywords());
-            values.put(IndexColumns.ICON_RESOURCE, dataRow.getIconResource());
-            values.put(IndexColumns.FRAGMENT, dataRow.getFragmentClassName());
-            values.put(IndexColumns.CONTROLLER, dataRow.getPreferenceController());
-            values.put(IndexColumns.SLICE_TYPE, dataRow.getSliceType());
-            values.put(IndexColumns.UNAVAILABLE_SLICE_SUBTITLE,
-                    dataRow.getUnavailableSliceSubtitle());
-            values.put(IndexColumns.PUBLIC_SLICE, dataRow.isPublicSlice());
+        }
+        // What is left in storedHashes are fragments that no longer provide any slice.
+        final int removedFragments = storedHashes.size();
+
+        if (skippedRows == 0 && !accessibilityOnly) {
+            // Nothing to keep, clear the table in one go instead of per fragment.
+            database.delete(Tables.TABLE_SLICES_INDEX, null /* whereClause */,
+                    null /* whereArgs */);
+            database.delete(Tables.TABLE_FRAGMENT_HASHES, null /* whereClause */,
+                    null /* whereArgs */);
+        } else {
+            for (String fragment : storedHashes.keySet()) {
+                deleteFragment(database, fragment);
+            }
+            for (String fragment : changed.keySet()) {
+                deleteFragment(database, fragment);
+            }
+        }
+
+        int insertedRows = 0;
+        final SQLiteStatement insertSlice = database.compileStatement(INSERT_SLICE_SQL);
+        final SQLiteStatement insertHash = database.compileStatement(INSERT_HASH_SQL);
+        try {
+            for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+                final List<SliceData> rows = fragments.get(entry.getKey());
+                if (rows.isEmpty()) {
+                    // No accessibility service provides slices anymore.
+                    continue;
+                }
+                for (SliceData dataRow : rows) {
+                    bindSliceData(insertSlice, dataRow);
+                    insertSlice.executeInsert();
+                    insertedRows++;
+                }
+                insertHash.clearBindings();
+                insertHash.bindString(1, entry.getKey());
+                insertHash.bindBlob(2, entry.getValue());
+                insertHash.executeInsert();
+            }
+        } finally {
+            insertSlice.close();
+            insertHash.close();
+        }
+
+        Log.d(TAG, "Indexed " + indexData.size() + " slices: " + insertedRows + " written, "
+                + skippedRows + " unchanged, " + removedFragments + " fragments removed");
+        synchronized (this) {
+            mLastRowCount = indexData.size();
+            mLastInsertedRows = insertedRows;
+            mLastSkippedRows = skippedRows;
+            mLastRemovedFragments = removedFragments;
+        }
+    }
+
+    private static Map<String, byte[]> getStoredHashes(SQLiteDatabase database) {
+        final Map<String, byte[]> hashes = new ArrayMap<>();
+        try (Cursor cursor = database.query(Tables.TABLE_FRAGMENT_HASHES,
+                new String[] {FragmentHashColumns.FRAGMENT, FragmentHashColumns.HASH},
+                null /* selection */, null /* selectionArgs */, null /* groupBy */,
+                null /* having */, null /* orderBy */)) {
+            while (cursor.moveToNext()) {
+                hashes.put(cursor.getString(0), cursor.getBlob(1));
+            }
+        }
+        return hashes;
+    }
+
+    private static String getGroup(SliceData dataRow) {
+        return ACCESSIBILITY_CONTROLLER.equals(dataRow.getPreferenceController())
+                ? ACCESSIBILITY_GROUP : dataRow.getFragmentClassName();
+    }
+
+    private static void deleteFragment(SQLiteDatabase database, String fragment) {
+        if (ACCESSIBILITY_GROUP.equals(fragment)) {
+            database.delete(Tables.TABLE_SLICES_INDEX, IndexColumns.CONTROLLER + " = ?",
+                    new String[] {ACCESSIBILITY_CONTROLLER});
+        } else {
+            database.delete(Tables.TABLE_SLICES_INDEX, IndexColumns.FRAGMENT + " = ? AND ("
+                    + IndexColumns.CONTROLLER + " IS NULL OR " + IndexColumns.CONTROLLER
+                    + " != ?)", new String[] {fragment, ACCESSIBILITY_CONTROLLER});
+        }
+        database.delete(Tables.TABLE_FRAGMENT_HASHES, FragmentHashColumns.FRAGMENT + " = ?",
+                new String[] {fragment});
+    }
+
+    private static void bindSliceData(SQLiteStatement statement, SliceData dataRow) {
+        statement.clearBindings();
+        bindString(statement, 1, dataRow.getKey());
+        bindString(statement, 2, dataRow.getUri().toSafeString());
+        bindString(statement, 3, dataRow.getTitle());
+        bindString(statement, 4, dataRow.getSummary());
+        final CharSequence screenTitle = dataRow.getScreenTitle();
+        bindString(statement, 5, screenTitle != null ? screenTitle.toString() : null);
+        bindString(statement, 6, dataRow.getKeywords());
+        statement.bindLong(7, dataRow.getIconResource());
+        bindString(statement, 8, dataRow.getFragmentClassName());
+        bindString(statement, 9, dataRow.getPreferenceController());
+        statement.bindLong(10, dataRow.getSliceType());
+        bindString(statement, 11, dataRow.getUnavailableSliceSubtitle());
+        statement.bindLong(12, dataRow.isPublicSlice() ? 1 : 0);
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    @VisibleForTesting
+    static byte[] computeHash(List<SliceData> rows) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (SliceData dataRow : rows) {
+            update(digest, dataRow.getKey());
+            update(digest, dataRow.getUri().toSafeString());
+            update(digest, dataRow.getTitle());
+            update(digest, dataRow.getSummary());
+            final CharSequence screenTitle = dataRow.getScreenTitle();
+            update(digest, screenTitle != null ? screenTitle.toString() : null);
+            update(digest, dataRow.getKeywords());
+            update(digest, String.valueOf(dataRow.getIconResource()));
+            update(digest, dataRow.getPreferenceController());
+            update(digest, String.valueOf(dataRow.getSliceType()));
+            update(digest, dataRow.getUnavailableSliceSubtitle());
+            update(digest, String.valueOf(dataRow.isPublicSlice()));
+        }
+        return digest.digest();
+    }
 
-            database.replaceOrThrow(Tables.TABLE_SLICES_INDEX, null /* nullColumnHack */,
-                    values);
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
         }
+        // Separate fields so that moving text from one field to the next changes the hash.
+        digest.update((byte) (value != null ? 0 : 1));
     }
-}
\ No newline at end of file
+}
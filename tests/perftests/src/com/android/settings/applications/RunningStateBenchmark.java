@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Measures one {@link RunningState} update tick with 200 running services, built from the
+ * services installed on the device so that their metadata can be resolved.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RunningStateBenchmark {
+    private static final int WARM_UP = 5;
+    private static final int ITERATIONS = 50;
+    private static final int NUM_SERVICES = 200;
+    // Processes that get a new pid on every tick of the restart run.
+    private static final int RESTARTS_PER_TICK = 10;
+    private static final int FIRST_PID = 100000;
+
+    private final List<ActivityManager.RunningServiceInfo> mServices = new ArrayList<>();
+    private final List<ActivityManager.RunningAppProcessInfo> mProcesses = new ArrayList<>();
+    private final HashMap<ActivityManager.RunningAppProcessInfo,
+            List<ActivityManager.RunningServiceInfo>> mServicesByProcess = new HashMap<>();
+
+    private Context mContext;
+    private RunningState mState;
+    private Bundle mBundle;
+    private int mNextPid = FIRST_PID;
+    private int mTick;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        getInstrumentation().runOnMainSync(() -> mState = RunningState.getInstance(mContext));
+        mBundle = new Bundle();
+        buildRunningServices();
+        mState.reset();
+    }
+
+    @After
+    public void tearDown() {
+        mState.reset();
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void update_nothingChanged() {
+        final long nanos = measure(false /* reset */, false /* restart */);
+        mBundle.putString("RunningStateBenchmark_unchanged_us", String.valueOf(nanos / 1000));
+    }
+
+    @Test
+    public void update_processesRestarted() {
+        final long nanos = measure(false /* reset */, true /* restart */);
+        mBundle.putString("RunningStateBenchmark_restarted_us", String.valueOf(nanos / 1000));
+    }
+
+    @Test
+    public void update_afterReset() {
+        final long nanos = measure(true /* reset */, false /* restart */);
+        mBundle.putString("RunningStateBenchmark_reset_us", String.valueOf(nanos / 1000));
+    }
+
+    /**
+     * Returns the average time of one update.
+     */
+    private long measure(boolean reset, boolean restart) {
+        for (int i = 0; i < WARM_UP; i++) {
+            runTick(reset, restart);
+        }
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            runTick(reset, restart);
+            total += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return total / ITERATIONS;
+    }
+
+    private void runTick(boolean reset, boolean restart) {
+        if (reset) {
+            mState.reset();
+        }
+        if (restart) {
+            restartProcesses();
+        }
+        // update() filters the service list in place.
+        mState.update(mContext, new ArrayList<>(mServices), mProcesses);
+    }
+
+    private void restartProcesses() {
+        for (int i = 0; i < RESTARTS_PER_TICK; i++) {
+            final ActivityManager.RunningAppProcessInfo process =
+                    mProcesses.get(mTick++ % mProcesses.size());
+            process.pid = mNextPid++;
+            for (ActivityManager.RunningServiceInfo service : mServicesByProcess.get(process)) {
+                service.pid = process.pid;
+                service.activeSince = SystemClock.elapsedRealtime();
+            }
+        }
+    }
+
+    private void buildRunningServices() {
+        final HashMap<String, ActivityManager.RunningAppProcessInfo> processes = new HashMap<>();
+        final long now = SystemClock.elapsedRealtime();
+        final List<PackageInfo> packages = mContext.getPackageManager()
+                .getInstalledPackages(PackageManager.GET_SERVICES);
+        for (PackageInfo pkg : packages) {
+            if (pkg.services == null) {
+                continue;
+            }
+            for (ServiceInfo info : pkg.services) {
+                if (mServices.size() == NUM_SERVICES) {
+                    return;
+                }
+                final String key = info.applicationInfo.uid + ":" + info.processName;
+                ActivityManager.RunningAppProcessInfo process = processes.get(key);
+                if (process == null) {
+                    process = new ActivityManager.RunningAppProcessInfo(info.processName,
+                            mNextPid++, new String[] {info.packageName});
+                    process.uid = info.applicationInfo.uid;
+                    process.importance =
+                            ActivityManager.RunningAppProcessInfo.IMPORTANCE_SERVICE;
+                    processes.put(key, process);
+                    mProcesses.add(process);
+                    mServicesByProcess.put(process, new ArrayList<>());
+                }
+
+                final ActivityManager.RunningServiceInfo service =
+                        new ActivityManager.RunningServiceInfo();
+                service.service = new ComponentName(info.packageName, info.name);
+                service.uid = process.uid;
+                service.process = process.processName;
+                service.pid = process.pid;
+                service.started = true;
+                service.activeSince = now - mServices.size() * 1000L;
+                mServices.add(service);
+                mServicesByProcess.get(process).add(service);
+            }
+        }
+    }
+}
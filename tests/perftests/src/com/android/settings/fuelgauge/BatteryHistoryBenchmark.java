@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.Context;
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.fuelgauge.BatteryInfo.BatteryDataParser;
+import com.android.settings.fuelgauge.batterytip.HighUsageDataParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares one pass over the battery history of the device per parser with decoding it once into
+ * a {@link BatteryHistory} and replaying it to the same parsers: the level chart, the flag rows of
+ * the history screen and the high usage detector.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatteryHistoryBenchmark {
+    private static final int WARM_UP = 5;
+    private static final int ITERATIONS = 50;
+
+    private BatteryStats mStats;
+    private Bundle mBundle;
+
+    @Before
+    public void setUp() {
+        final Context context = getInstrumentation().getTargetContext();
+        final BatteryStatsHelper helper = new BatteryStatsHelper(context,
+                true /* collectBatteryBroadcast */);
+        helper.create((Bundle) null);
+        mStats = helper.getStats();
+        mBundle = new Bundle();
+        mBundle.putString("BatteryHistoryBenchmark_entries",
+                String.valueOf(BatteryHistory.decode(mStats).size()));
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void parse_passPerParser() {
+        final long nanos = measure(false /* shared */);
+        mBundle.putString("BatteryHistoryBenchmark_perParser_us", String.valueOf(nanos / 1000));
+    }
+
+    @Test
+    public void parse_sharedTimeline() {
+        final long nanos = measure(true /* shared */);
+        mBundle.putString("BatteryHistoryBenchmark_shared_us", String.valueOf(nanos / 1000));
+    }
+
+    /**
+     * Returns the average time to run all parsers over the history once.
+     */
+    private long measure(boolean shared) {
+        for (int i = 0; i < WARM_UP; i++) {
+            runParsers(shared);
+        }
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            runParsers(shared);
+            total += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return total / ITERATIONS;
+    }
+
+    private void runParsers(boolean shared) {
+        final BatteryDataParser[] parsers = createParsers();
+        // Decoding iterates the history of the snapshot, like BatteryInfo.parse() used to do for
+        // every caller. The cache is bypassed so that each run pays for it.
+        if (shared) {
+            BatteryHistory.decode(mStats).replay(parsers);
+        } else {
+            for (BatteryDataParser parser : parsers) {
+                BatteryHistory.decode(mStats).replay(parser);
+            }
+        }
+    }
+
+    private static BatteryDataParser[] createParsers() {
+        return new BatteryDataParser[] {
+                new BatteryFlagParser(0 /* accent */, false /* state2 */,
+                        HistoryItem.STATE_SCREEN_ON_FLAG),
+                new BatteryFlagParser(0 /* accent */, false /* state2 */,
+                        HistoryItem.STATE_GPS_ON_FLAG),
+                new BatteryFlagParser(0 /* accent */, true /* state2 */,
+                        HistoryItem.STATE2_CHARGING_FLAG),
+                new BatteryWifiParser(0 /* accent */),
+                new HighUsageDataParser(TimeUnit.HOURS.toMillis(2), 25 /* threshold */),
+        };
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.R;
+import com.android.settings.core.PreferenceXmlParserUtils;
+import com.android.settings.core.PreferenceXmlParserUtils.MetadataFlag;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares parsing preference xml on every {@link PreferenceXmlParserUtils#extractMetadata} call
+ * with serving it from the metadata cache, using the flag sets of search, slice and controller
+ * indexing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PreferenceXmlParserBenchmark {
+    private static final int WARM_UP = 5;
+    private static final int ITERATIONS = 50;
+    private static final int[] XML_RES_IDS = {
+            R.xml.top_level_settings,
+            R.xml.network_and_internet,
+            R.xml.connected_devices,
+            R.xml.display_settings,
+            R.xml.sound_settings,
+            R.xml.accessibility_settings,
+            R.xml.security_dashboard_settings,
+    };
+    private static final int[] FLAG_SETS = {
+            // BaseSearchIndexProvider#getNonIndexableKeysFromXml
+            MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_INCLUDE_PREF_SCREEN
+                    | MetadataFlag.FLAG_NEED_SEARCHABLE,
+            // SliceDataConverter
+            MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_NEED_PREF_CONTROLLER
+                    | MetadataFlag.FLAG_NEED_PREF_TYPE | MetadataFlag.FLAG_NEED_PREF_TITLE
+                    | MetadataFlag.FLAG_NEED_PREF_ICON | MetadataFlag.FLAG_NEED_PREF_SUMMARY
+                    | MetadataFlag.FLAG_UNAVAILABLE_SLICE_SUBTITLE,
+            // PreferenceControllerListHelper
+            MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_NEED_PREF_CONTROLLER
+                    | MetadataFlag.FLAG_INCLUDE_PREF_SCREEN | MetadataFlag.FLAG_FOR_WORK,
+    };
+
+    private Context mContext;
+    private Bundle mBundle;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        mBundle = new Bundle();
+    }
+
+    @After
+    public void tearDown() {
+        PreferenceXmlParserUtils.clearMetadataCache();
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void extractMetadata_parseEveryTime() throws Exception {
+        final long nanos = measure(true /* clearCache */);
+        mBundle.putString("PreferenceXmlParserBenchmark_parse_us", String.valueOf(nanos / 1000));
+    }
+
+    @Test
+    public void extractMetadata_cached() throws Exception {
+        final long nanos = measure(false /* clearCache */);
+        mBundle.putString("PreferenceXmlParserBenchmark_cached_us", String.valueOf(nanos / 1000));
+    }
+
+    /**
+     * Returns the average time of one pass over every xml with every flag set.
+     */
+    private long measure(boolean clearCache) throws Exception {
+        for (int i = 0; i < WARM_UP; i++) {
+            runPass(clearCache);
+        }
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            runPass(clearCache);
+            total += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return total / ITERATIONS;
+    }
+
+    private void runPass(boolean clearCache) throws Exception {
+        for (int xmlResId : XML_RES_IDS) {
+            for (int flags : FLAG_SETS) {
+                if (clearCache) {
+                    PreferenceXmlParserUtils.clearMetadataCache();
+                }
+                PreferenceXmlParserUtils.extractMetadata(mContext, xmlResId, flags);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.net.wifi.ScanResult;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.wifitrackerlib.ScanResultStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the BSSID keyed {@link HashMap} that scan results used to be cached in with
+ * {@link ScanResultStore}, for 1000 BSSIDs of which a varying part is seen by each scan. Every
+ * scan is followed by an eviction and two age-filtered reads, as the Wi-Fi trackers do.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanResultStoreBenchmark {
+    private static final int WARM_UP = 5;
+    private static final int ITERATIONS = 20;
+    private static final int BSSIDS = 1000;
+    private static final int SCANS = 100;
+    private static final long SCAN_INTERVAL_MS = 10_000;
+    private static final long MAX_SCAN_AGE_MS = 15_000;
+
+    private Bundle mBundle;
+    private List<List<ScanResult>> mScans;
+
+    @Before
+    public void setUp() {
+        mBundle = new Bundle();
+        mScans = buildScans();
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void scans_hashMap() {
+        final long nanos = measure(false /* store */);
+        mBundle.putString("ScanResultStoreBenchmark_hashMap_us", String.valueOf(nanos / 1000));
+    }
+
+    @Test
+    public void scans_scanResultStore() {
+        final long nanos = measure(true /* store */);
+        mBundle.putString("ScanResultStoreBenchmark_store_us", String.valueOf(nanos / 1000));
+    }
+
+    /**
+     * Returns the average time to process all scans once.
+     */
+    private long measure(boolean store) {
+        for (int i = 0; i < WARM_UP; i++) {
+            runScans(store);
+        }
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            runScans(store);
+            total += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return total / ITERATIONS;
+    }
+
+    private int runScans(boolean store) {
+        final ScanResultStore scanResultStore = new ScanResultStore();
+        final HashMap<String, ScanResult> scanResultsByBssid = new HashMap<>();
+        int count = 0;
+        for (int i = 0; i < SCANS; i++) {
+            final long now = (i + 1) * SCAN_INTERVAL_MS;
+            final List<ScanResult> scan = mScans.get(i);
+            if (store) {
+                scanResultStore.evictOlderThan(now - MAX_SCAN_AGE_MS - SCAN_INTERVAL_MS);
+                scanResultStore.putAll(scan);
+                count += scanResultStore.getScanResults(now - MAX_SCAN_AGE_MS).size();
+                count += scanResultStore.getScanResults(now - MAX_SCAN_AGE_MS).size();
+            } else {
+                scanResultsByBssid.entrySet().removeIf(entry -> now
+                        - entry.getValue().timestamp / 1000 > MAX_SCAN_AGE_MS + SCAN_INTERVAL_MS);
+                for (ScanResult result : scan) {
+                    final ScanResult prevResult = scanResultsByBssid.get(result.BSSID);
+                    if (prevResult == null || prevResult.timestamp < result.timestamp) {
+                        scanResultsByBssid.put(result.BSSID, result);
+                    }
+                }
+                count += filter(scanResultsByBssid, now).size();
+                count += filter(scanResultsByBssid, now).size();
+            }
+        }
+        return count;
+    }
+
+    private static List<ScanResult> filter(HashMap<String, ScanResult> results, long now) {
+        final List<ScanResult> filtered = new ArrayList<>();
+        for (ScanResult result : results.values()) {
+            if (now - result.timestamp / 1000 <= MAX_SCAN_AGE_MS) {
+                filtered.add(result);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Builds scans that each see between half and all of the BSSIDs, with timestamps spread over
+     * the scan interval before the scan completes.
+     */
+    private static List<List<ScanResult>> buildScans() {
+        final Random random = new Random(0 /* seed */);
+        final List<List<ScanResult>> scans = new ArrayList<>();
+        for (int i = 0; i < SCANS; i++) {
+            final long now = (i + 1) * SCAN_INTERVAL_MS;
+            final int seen = BSSIDS / 2 + random.nextInt(BSSIDS / 2);
+            final List<ScanResult> scan = new ArrayList<>(seen);
+            for (int j = 0; j < BSSIDS && scan.size() < seen; j++) {
+                if (random.nextInt(BSSIDS) >= seen) {
+                    continue;
+                }
+                final ScanResult result = new ScanResult();
+                result.SSID = "ssid" + (j % 50);
+                result.BSSID = String.format(Locale.US, "02:00:00:00:%02x:%02x", j >> 8, j & 0xff);
+                result.timestamp = (now - random.nextInt((int) SCAN_INTERVAL_MS)) * 1000;
+                result.capabilities = "";
+                scan.add(result);
+            }
+            scans.add(scan);
+        }
+        return scans;
+    }
+}
@@ -32,6 +32,7 @@ import android.content.pm.ResolveInfo;
 import androidx.annotation.NonNull;
 
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
+import com.android.settingslib.applications.ApplicationsState;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -42,6 +43,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.robolectric.util.ReflectionHelpers;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -101,6 +103,17 @@ public class SettingsDumpServiceTest {
                 ANOMALY_VERSION);
     }
 
+    @Test
+    public void testDumpApplicationsState_notCreated_shouldNotCreateInstance()
+            throws JSONException {
+        ReflectionHelpers.setStaticField(ApplicationsState.class, "sInstance", null);
+
+        final JSONObject object = mTestService.dumpApplicationsState();
+
+        assertThat(object.getBoolean("created")).isFalse();
+        assertThat(ApplicationsState.peekInstance()).isNull();
+    }
+
     @Test
     public void testDump_ReturnJsonObject() throws JSONException {
         mResolveInfo.activityInfo = new ActivityInfo();
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.os.UserManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppOpsStateCacheTest {
+
+    private static final String PACKAGE_NAME = "com.android.test";
+    private static final int UID = 10001;
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private IPackageManager mIpm;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+    @Mock
+    private UserManager mUserManager;
+
+    private AppOpsStateCache mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getSystemService(Context.APP_OPS_SERVICE)).thenReturn(mAppOpsManager);
+        when(mContext.getSystemService(UserManager.class)).thenReturn(mUserManager);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mUserManager.getProfileIdsWithDisabled(anyInt())).thenReturn(new int[] {0});
+        when(mAppOpsManager.getPackagesForOps(any(int[].class))).thenReturn(new ArrayList<>());
+        mCache = new AppOpsStateCache(mContext, mIpm);
+    }
+
+    @Test
+    public void getOpModes_registeredOps_shouldQueryAllOpsOnce() {
+        mCache.register(new int[] {AppOpsManager.OP_SYSTEM_ALERT_WINDOW});
+        mCache.register(new int[] {AppOpsManager.OP_WRITE_SETTINGS});
+
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+        mCache.getOpModes(AppOpsManager.OP_WRITE_SETTINGS);
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        verify(mAppOpsManager).getPackagesForOps(any(int[].class));
+        verify(mAppOpsManager).getPackagesForOps(eq(new int[] {
+                AppOpsManager.OP_WRITE_SETTINGS, AppOpsManager.OP_SYSTEM_ALERT_WINDOW}));
+    }
+
+    @Test
+    public void getOpModes_notRegistered_shouldNotCache() {
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        verify(mAppOpsManager, times(2)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void getOpModes_opChangedForAllPackages_shouldQueryAgain() {
+        mCache.register(new int[] {AppOpsManager.OP_SYSTEM_ALERT_WINDOW});
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        mCache.mOpChangedListener.onOpChanged(AppOpsManager.OPSTR_SYSTEM_ALERT_WINDOW,
+                null /* packageName */);
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        verify(mAppOpsManager, times(2)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void getOpModes_toggled_shouldOnlyQueryThatPackage() throws Exception {
+        when(mIpm.getPackageUid(PACKAGE_NAME, 0, 0)).thenReturn(UID);
+        mCache.register(new int[] {AppOpsManager.OP_SYSTEM_ALERT_WINDOW});
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        // A toggle invalidates the package and then gets the callback of its own change.
+        mCache.invalidatePackage(PACKAGE_NAME, UID);
+        mCache.mOpChangedListener.onOpChanged(AppOpsManager.OPSTR_SYSTEM_ALERT_WINDOW,
+                PACKAGE_NAME);
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        verify(mAppOpsManager).getPackagesForOps(any(int[].class));
+        verify(mAppOpsManager, times(2)).getOpsForPackage(eq(UID), eq(PACKAGE_NAME),
+                any(int[].class));
+    }
+
+    @Test
+    public void getOpModes_opChangedForUnknownPackage_shouldQueryAgain() throws Exception {
+        when(mIpm.getPackageUid(PACKAGE_NAME, 0, 0)).thenReturn(-1);
+        mCache.register(new int[] {AppOpsManager.OP_SYSTEM_ALERT_WINDOW});
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        mCache.mOpChangedListener.onOpChanged(AppOpsManager.OPSTR_SYSTEM_ALERT_WINDOW,
+                PACKAGE_NAME);
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        verify(mAppOpsManager, times(2)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void getOpModes_packageInvalidated_shouldOnlyQueryThatPackage() {
+        mCache.register(new int[] {AppOpsManager.OP_SYSTEM_ALERT_WINDOW});
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        mCache.invalidatePackage(PACKAGE_NAME, UID);
+        mCache.getOpModes(AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+
+        verify(mAppOpsManager).getPackagesForOps(any(int[].class));
+        verify(mAppOpsManager).getOpsForPackage(eq(UID), eq(PACKAGE_NAME), any(int[].class));
+    }
+
+    @Test
+    public void getAppOpPermissionPackages_registered_shouldQueryOnce() throws Exception {
+        mCache.register(new int[] {AppOpsManager.OP_SYSTEM_ALERT_WINDOW});
+
+        mCache.getAppOpPermissionPackages("permission");
+        mCache.getAppOpPermissionPackages("permission");
+
+        verify(mIpm).getAppOpPermissionPackages(anyString());
+    }
+}
@@ -44,6 +44,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowLooper;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -158,6 +159,7 @@ public class AvailableMediaBluetoothDeviceUpdaterTest {
 
         mBluetoothDeviceUpdater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
                 BluetoothProfile.STATE_CONNECTED, BluetoothProfile.A2DP);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
 
         verify(mBluetoothDeviceUpdater).addPreference(mCachedBluetoothDevice);
     }
@@ -171,6 +173,7 @@ public class AvailableMediaBluetoothDeviceUpdaterTest {
 
         mBluetoothDeviceUpdater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
                 BluetoothProfile.STATE_CONNECTED, BluetoothProfile.A2DP);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
 
         verify(mBluetoothDeviceUpdater).removePreference(mCachedBluetoothDevice);
     }
@@ -184,6 +187,7 @@ public class AvailableMediaBluetoothDeviceUpdaterTest {
 
         mBluetoothDeviceUpdater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
                 BluetoothProfile.STATE_CONNECTED, BluetoothProfile.A2DP);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
 
         verify(mBluetoothDeviceUpdater).removePreference(mCachedBluetoothDevice);
     }
@@ -197,6 +201,7 @@ public class AvailableMediaBluetoothDeviceUpdaterTest {
 
         mBluetoothDeviceUpdater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
                 BluetoothProfile.STATE_CONNECTED, BluetoothProfile.A2DP);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
 
         verify(mBluetoothDeviceUpdater).addPreference(mCachedBluetoothDevice);
     }
@@ -211,6 +216,7 @@ public class AvailableMediaBluetoothDeviceUpdaterTest {
 
         mBluetoothDeviceUpdater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
                 BluetoothProfile.STATE_CONNECTED, BluetoothProfile.HEARING_AID);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
 
         verify(mBluetoothDeviceUpdater).addPreference(mCachedBluetoothDevice);
     }
@@ -224,6 +230,7 @@ public class AvailableMediaBluetoothDeviceUpdaterTest {
 
         mBluetoothDeviceUpdater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
                 BluetoothProfile.STATE_CONNECTED, BluetoothProfile.HEARING_AID);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
 
         verify(mBluetoothDeviceUpdater).addPreference(mCachedBluetoothDevice);
     }
@@ -232,6 +239,7 @@ public class AvailableMediaBluetoothDeviceUpdaterTest {
     public void onProfileConnectionStateChanged_deviceDisconnected_removePreference() {
         mBluetoothDeviceUpdater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
                 BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.A2DP);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
 
         verify(mBluetoothDeviceUpdater).removePreference(mCachedBluetoothDevice);
     }
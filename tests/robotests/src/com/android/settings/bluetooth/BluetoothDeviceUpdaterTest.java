@@ -18,13 +18,17 @@ package com.android.settings.bluetooth;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 
@@ -48,6 +52,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowLooper;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -256,4 +261,64 @@ public class BluetoothDeviceUpdaterTest {
         verify(mDevicePreferenceCallback).onDeviceRemoved(mPreference);
         assertThat(mBluetoothDeviceUpdater.mPreferenceMap.containsKey(mBluetoothDevice)).isFalse();
     }
+
+    @Test
+    public void onProfileConnectionStateChanged_burst_filterEvaluatedOnce() {
+        final BluetoothDeviceUpdater updater = spy(mBluetoothDeviceUpdater);
+
+        updater.onAclConnectionStateChanged(mCachedBluetoothDevice,
+                BluetoothAdapter.STATE_CONNECTED);
+        updater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.HEADSET);
+        updater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.A2DP);
+
+        verify(updater, never()).isFilterMatched(mCachedBluetoothDevice);
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(updater, times(1)).isFilterMatched(mCachedBluetoothDevice);
+        verify(mDevicePreferenceCallback).onDeviceAdded(any(Preference.class));
+    }
+
+    @Test
+    public void forceUpdate_pendingUpdate_dropped() {
+        final BluetoothDeviceUpdater updater = spy(mBluetoothDeviceUpdater);
+        mShadowBluetoothAdapter.setEnabled(false);
+
+        updater.onDeviceBondStateChanged(mCachedBluetoothDevice, BluetoothDevice.BOND_BONDED);
+        updater.forceUpdate();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(updater, never()).isFilterMatched(mCachedBluetoothDevice);
+        verify(mDevicePreferenceCallback, never()).onDeviceAdded(any(Preference.class));
+    }
+
+    @Test
+    public void onDeviceDeleted_pendingUpdate_dropped() {
+        final BluetoothDeviceUpdater updater = spy(mBluetoothDeviceUpdater);
+
+        updater.onDeviceBondStateChanged(mCachedBluetoothDevice, BluetoothDevice.BOND_BONDED);
+        updater.onDeviceDeleted(mCachedBluetoothDevice);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(updater, never()).isFilterMatched(mCachedBluetoothDevice);
+        verify(mDevicePreferenceCallback, never()).onDeviceAdded(any(Preference.class));
+    }
+
+    @Test
+    public void onDeviceDeleted_whileFiltering_resultDropped() {
+        final BluetoothDeviceUpdater updater = spy(mBluetoothDeviceUpdater);
+        doAnswer(invocation -> {
+            updater.onDeviceDeleted(mCachedBluetoothDevice);
+            return true;
+        }).when(updater).isFilterMatched(mCachedBluetoothDevice);
+
+        updater.onDeviceBondStateChanged(mCachedBluetoothDevice, BluetoothDevice.BOND_BONDED);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(updater).isFilterMatched(mCachedBluetoothDevice);
+        verify(mDevicePreferenceCallback, never()).onDeviceAdded(any(Preference.class));
+        assertThat(updater.mPreferenceMap.containsKey(mBluetoothDevice)).isFalse();
+    }
 }
@@ -20,11 +20,13 @@ import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_APPEND
 import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_KEY;
 import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_KEYWORDS;
 import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_SEARCHABLE;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_TITLE;
 import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_UNAVAILABLE_SLICE_SUBTITLE;
 
 import static com.google.common.truth.Truth.assertThat;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.XmlResourceParser;
 import android.os.Bundle;
 import android.text.TextUtils;
@@ -45,6 +47,7 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -62,6 +65,7 @@ public class PreferenceXmlParserUtilsTest {
     @Before
     public void setUp() {
         mContext = RuntimeEnvironment.application;
+        PreferenceXmlParserUtils.clearMetadataCache();
     }
 
     @Test
@@ -359,6 +363,56 @@ public class PreferenceXmlParserUtilsTest {
         assertThat(bundleWithKey2Found).isTrue();
     }
 
+    @Test
+    public void extractMetadata_calledTwice_shouldReturnSameDataInNewBundles()
+            throws IOException, XmlPullParserException {
+        final int flags = MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_NEED_PREF_TITLE;
+        final List<Bundle> first = PreferenceXmlParserUtils.extractMetadata(mContext,
+                R.xml.display_settings, flags);
+        first.get(0).putString(METADATA_KEY, "modified");
+
+        final List<Bundle> second = PreferenceXmlParserUtils.extractMetadata(mContext,
+                R.xml.display_settings, flags);
+
+        assertThat(second).hasSize(first.size());
+        assertThat(second.get(0).getString(METADATA_KEY)).isNotEqualTo("modified");
+        assertThat(second.get(0).keySet()).containsExactly(METADATA_KEY, METADATA_TITLE);
+    }
+
+    @Test
+    public void extractMetadata_cachedWithScreen_shouldStillExcludeScreenWhenNotRequested()
+            throws IOException, XmlPullParserException {
+        final List<Bundle> withScreen = PreferenceXmlParserUtils.extractMetadata(mContext,
+                R.xml.display_settings,
+                MetadataFlag.FLAG_INCLUDE_PREF_SCREEN | MetadataFlag.FLAG_NEED_KEY);
+
+        final List<Bundle> withoutScreen = PreferenceXmlParserUtils.extractMetadata(mContext,
+                R.xml.display_settings, MetadataFlag.FLAG_NEED_KEY);
+
+        assertThat(withoutScreen).hasSize(withScreen.size() - 1);
+        assertThat(withoutScreen.get(0).getString(METADATA_KEY))
+                .isEqualTo(withScreen.get(1).getString(METADATA_KEY));
+    }
+
+    @Test
+    public void extractMetadata_otherLocaleContext_shouldKeepBothCached()
+            throws IOException, XmlPullParserException {
+        final Configuration configuration =
+                new Configuration(mContext.getResources().getConfiguration());
+        configuration.setLocale(Locale.FRANCE);
+        final Context frenchContext = mContext.createConfigurationContext(configuration);
+
+        PreferenceXmlParserUtils.extractMetadata(mContext, R.xml.display_settings,
+                MetadataFlag.FLAG_NEED_KEY);
+        PreferenceXmlParserUtils.extractMetadata(frenchContext, R.xml.display_settings,
+                MetadataFlag.FLAG_NEED_KEY);
+
+        assertThat(PreferenceXmlParserUtils.isMetadataCached(mContext, R.xml.display_settings))
+                .isTrue();
+        assertThat(PreferenceXmlParserUtils.isMetadataCached(frenchContext,
+                R.xml.display_settings)).isTrue();
+    }
+
     /**
      * @param resId the ID for the XML preference
      * @return an XML resource parser that points to the start tag
@@ -27,6 +27,7 @@ import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.ProviderInfo;
 import android.os.Bundle;
+import android.util.DisplayMetrics;
 import android.util.Pair;
 
 import com.android.settingslib.drawer.ActivityTile;
@@ -41,6 +42,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -70,6 +72,38 @@ public class CategoryManagerTest {
         assertThat(mCategoryManager).isSameAs(CategoryManager.get(mContext));
     }
 
+    @Test
+    public void reloadAllCategories_coldStart_shouldReusePersistedIndex() {
+        final File file = new File(mContext.getCacheDir(), TileIndex.FILE_NAME);
+        file.delete();
+        new CategoryManager(mContext, new TileIndex(file)).getCategories(mContext);
+
+        final TileIndex index = new TileIndex(file);
+        new CategoryManager(mContext, index).reloadAllCategories(mContext);
+
+        assertThat(index.getStats().fullRebuildCount).isEqualTo(0);
+    }
+
+    @Test
+    public void reloadAllCategories_densityChanged_shouldKeepIndex() {
+        final File file = new File(mContext.getCacheDir(), TileIndex.FILE_NAME);
+        file.delete();
+        final TileIndex index = new TileIndex(file);
+        final CategoryManager categoryManager = new CategoryManager(mContext, index);
+        categoryManager.getCategories(mContext);
+        final DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        final int density = metrics.densityDpi;
+        metrics.densityDpi = density * 2;
+
+        try {
+            categoryManager.reloadAllCategories(mContext);
+        } finally {
+            metrics.densityDpi = density;
+        }
+
+        assertThat(index.getStats().fullRebuildCount).isEqualTo(1);
+    }
+
     @Test
     public void backwardCompatCleanupForCategory_shouldNotChangeCategoryForNewKeys() {
         final Tile tile1 = new ActivityTile(mActivityInfo, CategoryKey.CATEGORY_ACCOUNT);
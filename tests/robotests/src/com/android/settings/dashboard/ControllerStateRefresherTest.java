@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.android.settingslib.core.instrumentation.Instrumentable.METRICS_CATEGORY_UNKNOWN;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
+
+import com.android.settings.deviceinfo.TopLevelStoragePreferenceController;
+import com.android.settings.display.darkmode.DarkModeCustomPreferenceController;
+import com.android.settings.fuelgauge.batterysaver.BatterySaverStickyPreferenceController;
+import com.android.settingslib.core.AbstractPreferenceController;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(RobolectricTestRunner.class)
+public class ControllerStateRefresherTest {
+    private static final String KEY = "my_key";
+    private static final long DEADLINE_MILLIS = 1000;
+
+    private Context mContext;
+    private PreferenceScreen mScreen;
+    private Preference mPreference;
+    private UpdatingPreferenceController mController;
+    private List<List<AbstractPreferenceController>> mControllers;
+    private ControllerStateRefresher mRefresher;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        final PreferenceManager preferenceManager = new PreferenceManager(mContext);
+        mScreen = preferenceManager.createPreferenceScreen(mContext);
+        mPreference = new Preference(mContext);
+        mPreference.setKey(KEY);
+        mScreen.addPreference(mPreference);
+        mController = spy(new UpdatingPreferenceController(mContext));
+        mControllers = Collections.singletonList(Collections.singletonList(mController));
+        mRefresher = new ControllerStateRefresher(null /* metricsFeature */,
+                METRICS_CATEGORY_UNKNOWN);
+    }
+
+    @Test
+    public void refresh_available_shouldUpdateStateAndCacheSummary() {
+        mRefresher.refresh(mScreen, mControllers, DEADLINE_MILLIS, null /* lifecycle */);
+
+        verify(mController).updateState(mPreference);
+        assertThat(mRefresher.getSummaryCache().get(KEY)).isEqualTo("summary");
+        assertThat(mRefresher.getTimings()).containsKey(KEY);
+    }
+
+    @Test
+    public void refresh_summaryOnlyController_shouldApplyBackgroundSummary() {
+        final TestPreferenceController controller = new TestPreferenceController(mContext);
+
+        mRefresher.refresh(mScreen, Collections.singletonList(Collections.singletonList(
+                controller)), DEADLINE_MILLIS, null /* lifecycle */);
+
+        assertThat(ControllerStateRefresher.isSummaryOnly(controller)).isTrue();
+        assertThat(controller.mSummaryCount).isEqualTo(1);
+        assertThat(mPreference.getSummary()).isEqualTo("summary");
+    }
+
+    @Test
+    public void isSummaryOnly_overridesUpdateState_false() {
+        final TestPreferenceController controller = new UpdatingPreferenceController(mContext);
+
+        assertThat(ControllerStateRefresher.isSummaryOnly(controller)).isFalse();
+    }
+
+    @Test
+    public void isSummaryOnly_overridesRefreshSummary_false() {
+        final TestPreferenceController controller = new TestPreferenceController(mContext) {
+            @Override
+            protected void refreshSummary(Preference preference) {
+                preference.setSummary("async");
+            }
+        };
+
+        assertThat(ControllerStateRefresher.isSummaryOnly(controller)).isFalse();
+    }
+
+    @Test
+    public void isSummaryOnly_topLevelStorage_false() {
+        assertThat(ControllerStateRefresher.isSummaryOnly(
+                new TopLevelStoragePreferenceController(mContext, KEY))).isFalse();
+    }
+
+    @Test
+    public void isSummaryOnly_darkModeCustom_false() {
+        assertThat(ControllerStateRefresher.isSummaryOnly(
+                new DarkModeCustomPreferenceController(mContext, KEY))).isFalse();
+    }
+
+    @Test
+    public void isSummaryOnly_batterySaverSticky_false() {
+        assertThat(ControllerStateRefresher.isSummaryOnly(
+                new BatterySaverStickyPreferenceController(mContext, KEY))).isFalse();
+    }
+
+    @Test
+    public void refresh_overridesRefreshSummary_shouldUpdateState() {
+        final TestPreferenceController controller = new TestPreferenceController(mContext) {
+            @Override
+            public CharSequence getSummary() {
+                return null;
+            }
+
+            @Override
+            protected void refreshSummary(Preference preference) {
+                preference.setSummary("async");
+            }
+        };
+
+        mRefresher.refresh(mScreen, Collections.singletonList(Collections.singletonList(
+                controller)), DEADLINE_MILLIS, null /* lifecycle */);
+
+        assertThat(mPreference.getSummary()).isEqualTo("async");
+    }
+
+    @Test
+    public void refresh_notAvailable_shouldNotUpdateState() {
+        mController.mAvailable = false;
+
+        mRefresher.refresh(mScreen, mControllers, DEADLINE_MILLIS, null /* lifecycle */);
+
+        verify(mController, never()).updateState(any(Preference.class));
+        assertThat(mRefresher.getSummaryCache()).doesNotContainKey(KEY);
+    }
+
+    @Test
+    public void refresh_missedDeadline_shouldApplyCachedSummary() {
+        mRefresher.refresh(mScreen, mControllers, DEADLINE_MILLIS, null /* lifecycle */);
+        mPreference.setSummary(null);
+        mController.mBlocker = new CountDownLatch(1);
+
+        mRefresher.refresh(mScreen, mControllers, 10 /* deadlineMillis */, null /* lifecycle */);
+        mController.mBlocker.countDown();
+
+        verify(mController, times(1)).updateState(any(Preference.class));
+        assertThat(mPreference.getSummary()).isEqualTo("summary");
+    }
+
+    static class TestPreferenceController extends AbstractPreferenceController {
+        private volatile boolean mAvailable = true;
+        private volatile CountDownLatch mBlocker;
+        private volatile int mSummaryCount;
+
+        TestPreferenceController(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            if (mBlocker != null) {
+                try {
+                    mBlocker.await();
+                } catch (InterruptedException e) {
+                    // Exit.
+                }
+            }
+            return mAvailable;
+        }
+
+        @Override
+        public String getPreferenceKey() {
+            return KEY;
+        }
+
+        @Override
+        public CharSequence getSummary() {
+            mSummaryCount++;
+            return "summary";
+        }
+    }
+
+    static class UpdatingPreferenceController extends TestPreferenceController {
+        UpdatingPreferenceController(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void updateState(Preference preference) {
+            super.updateState(preference);
+        }
+    }
+}
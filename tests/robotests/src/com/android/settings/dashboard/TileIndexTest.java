@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.android.settingslib.drawer.TileUtils.META_DATA_KEY_ORDER;
+import static com.android.settingslib.drawer.TileUtils.META_DATA_PREFERENCE_ICON_TINTABLE;
+import static com.android.settingslib.drawer.TileUtils.META_DATA_PREFERENCE_KEYHINT;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ProviderInfo;
+import android.os.Bundle;
+import android.os.UserHandle;
+import android.util.Pair;
+
+import com.android.settingslib.drawer.ActivityTile;
+import com.android.settingslib.drawer.CategoryKey;
+import com.android.settingslib.drawer.ProviderTile;
+import com.android.settingslib.drawer.Tile;
+import com.android.settingslib.drawer.TileUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileIndexTest {
+
+    private Context mContext;
+    private File mFile;
+    private Tile mActivityTile;
+    private Tile mProviderTile;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mFile = new File(mContext.getCacheDir(), TileIndex.FILE_NAME);
+        mFile.delete();
+
+        final ActivityInfo activityInfo = new ActivityInfo();
+        activityInfo.packageName = "pkg";
+        activityInfo.name = "class";
+        activityInfo.applicationInfo = new ApplicationInfo();
+        activityInfo.metaData = new Bundle();
+        mActivityTile = new ActivityTile(activityInfo, CategoryKey.CATEGORY_HOMEPAGE);
+
+        final ProviderInfo providerInfo = new ProviderInfo();
+        providerInfo.packageName = "pkg";
+        providerInfo.name = "provider";
+        providerInfo.authority = "authority";
+        providerInfo.applicationInfo = new ApplicationInfo();
+        final Bundle metaData = new Bundle();
+        metaData.putString(META_DATA_PREFERENCE_KEYHINT, "key");
+        mProviderTile = new ProviderTile(providerInfo, CategoryKey.CATEGORY_HOMEPAGE, metaData);
+    }
+
+    @Test
+    public void readFromDisk_afterWrite_shouldRestoreActivityTilesIntoCache() {
+        final TileIndex index = new TileIndex(mFile);
+        final Bundle metaData = mActivityTile.getMetaData();
+        metaData.putInt(META_DATA_KEY_ORDER, 100);
+        metaData.putString(META_DATA_PREFERENCE_KEYHINT, "activity_key");
+        metaData.putBoolean(META_DATA_PREFERENCE_ICON_TINTABLE, true);
+        mActivityTile.userHandle.add(UserHandle.of(10));
+        index.putPackage("pkg", 1L /* versionCode */, Arrays.asList(mActivityTile));
+        index.writeToDisk();
+
+        final Map<Pair<String, String>, Tile> cache = new HashMap<>();
+        final TileIndex restored = new TileIndex(mFile);
+        restored.readFromDisk(cache);
+
+        assertThat(restored.getStats().packageCount).isEqualTo(1);
+        assertThat(restored.getIncompletePackages()).isEmpty();
+        assertThat(cache).hasSize(1);
+        final Tile activityTile = cache.get(TileUtils.getCacheKey(mActivityTile));
+        assertThat(activityTile.getDescription()).isEqualTo(mActivityTile.getDescription());
+        assertThat(activityTile.getCategory()).isEqualTo(CategoryKey.CATEGORY_HOMEPAGE);
+        assertThat(activityTile.getOrder()).isEqualTo(100);
+        assertThat(activityTile.getMetaData().getString(META_DATA_PREFERENCE_KEYHINT))
+                .isEqualTo("activity_key");
+        assertThat(activityTile.getMetaData().getBoolean(META_DATA_PREFERENCE_ICON_TINTABLE))
+                .isTrue();
+        assertThat(activityTile.userHandle).containsExactly(UserHandle.of(10));
+    }
+
+    @Test
+    public void readFromDisk_providerTile_shouldMarkPackageIncomplete() {
+        final TileIndex index = new TileIndex(mFile);
+        index.putPackage("pkg", 1L /* versionCode */,
+                Arrays.asList(mActivityTile, mProviderTile));
+        index.writeToDisk();
+
+        final Map<Pair<String, String>, Tile> cache = new HashMap<>();
+        final TileIndex restored = new TileIndex(mFile);
+        restored.readFromDisk(cache);
+
+        assertThat(cache).hasSize(1);
+        assertThat(cache).doesNotContainKey(TileUtils.getCacheKey(mProviderTile));
+        assertThat(restored.getIncompletePackages()).containsExactly("pkg");
+    }
+
+    @Test
+    @Config(qualifiers = "en-rUS")
+    public void getTiles_localeChanged_shouldRebuild() {
+        final Map<Pair<String, String>, Tile> cache = new HashMap<>();
+        new TileIndex(mFile).getTiles(mContext, cache);
+
+        final TileIndex sameLocale = new TileIndex(mFile);
+        sameLocale.getTiles(mContext, cache);
+        assertThat(sameLocale.getStats().fullRebuildCount).isEqualTo(0);
+
+        RuntimeEnvironment.setQualifiers("fr-rFR");
+        final TileIndex otherLocale = new TileIndex(mFile);
+        otherLocale.getTiles(mContext, cache);
+        assertThat(otherLocale.getStats().fullRebuildCount).isEqualTo(1);
+    }
+
+    @Test
+    public void readFromDisk_corruptFile_shouldStartEmpty() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[] {0, 0, 0, 1, 42});
+        }
+
+        final Map<Pair<String, String>, Tile> cache = new HashMap<>();
+        final TileIndex index = new TileIndex(mFile);
+        index.readFromDisk(cache);
+
+        assertThat(index.getStats().packageCount).isEqualTo(0);
+        assertThat(cache).isEmpty();
+        assertThat(mFile.exists()).isFalse();
+    }
+}
@@ -18,6 +18,12 @@ package com.android.settings.datausage;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.graphics.Color;
@@ -73,13 +79,32 @@ public class AppDataUsagePreferenceTest {
     }
 
     @Test
-    public void createPref_noCachedUidDetail_shouldSetAppInfo() {
-        when(mUidDetailProvider.getUidDetail(mAppItem.key, true /* blocking */))
-                .thenReturn(mUidDetail);
+    public void createPref_noCachedUidDetail_shouldNotLoadUntilBound() {
+        mPreference = new AppDataUsagePreference(RuntimeEnvironment.application, mAppItem,
+                50 /* percent */, mUidDetailProvider);
 
+        verify(mUidDetailProvider, never()).getUidDetail(anyInt(),
+                any(UidDetailProvider.Callback.class));
+        assertThat(mPreference.getTitle()).isNull();
+    }
+
+    @Test
+    public void bindPref_noCachedUidDetail_shouldLoadOnceAndSetAppInfo() {
+        doAnswer(invocation -> {
+            final UidDetailProvider.Callback callback = invocation.getArgument(1);
+            callback.onUidDetailLoaded(mAppItem.key, mUidDetail);
+            return null;
+        }).when(mUidDetailProvider).getUidDetail(eq(mAppItem.key),
+                any(UidDetailProvider.Callback.class));
         mPreference = new AppDataUsagePreference(RuntimeEnvironment.application, mAppItem,
                 50 /* percent */, mUidDetailProvider);
+        final PreferenceViewHolder preferenceViewHolder = createViewHolder();
+
+        mPreference.onBindViewHolder(preferenceViewHolder);
+        mPreference.onBindViewHolder(preferenceViewHolder);
 
+        verify(mUidDetailProvider).getUidDetail(eq(mAppItem.key),
+                any(UidDetailProvider.Callback.class));
         assertThat(mPreference.getTitle()).isEqualTo(mUidDetail.label);
         assertThat(mPreference.getIcon()).isEqualTo(mUidDetail.icon);
     }
@@ -90,10 +115,7 @@ public class AppDataUsagePreferenceTest {
                 .thenReturn(mUidDetail);
         mPreference = new AppDataUsagePreference(RuntimeEnvironment.application, mAppItem,
                 50 /* percent */, mUidDetailProvider);
-        final View view = LayoutInflater.from(RuntimeEnvironment.application).inflate(
-                com.android.settingslib.R.layout.preference_app, null);
-        final PreferenceViewHolder preferenceViewHolder =
-                PreferenceViewHolder.createInstanceForTests(view);
+        final PreferenceViewHolder preferenceViewHolder = createViewHolder();
         final ProgressBar progressBar = (ProgressBar) preferenceViewHolder.findViewById(
                 android.R.id.progress);
 
@@ -101,4 +123,10 @@ public class AppDataUsagePreferenceTest {
 
         assertThat(progressBar.getContentDescription()).isEqualTo(FIFTY_PERCENT);
     }
+
+    private static PreferenceViewHolder createViewHolder() {
+        final View view = LayoutInflater.from(RuntimeEnvironment.application).inflate(
+                com.android.settingslib.R.layout.preference_app, null);
+        return PreferenceViewHolder.createInstanceForTests(view);
+    }
 }
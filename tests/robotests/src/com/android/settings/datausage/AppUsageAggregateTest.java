@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.UserInfo;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppUsageAggregateTest {
+    private static final int USER_OWNER = 0;
+    private static final int USER_WORK = 10;
+    private static final int USER_OTHER = 11;
+    private static final int USER_REMOVED = 12;
+
+    @Mock
+    private UserManager mUserManager;
+
+    private List<UserHandle> mProfiles;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mProfiles = Arrays.asList(UserHandle.of(USER_OWNER), UserHandle.of(USER_WORK));
+        when(mUserManager.getUserInfo(USER_OTHER)).thenReturn(new UserInfo());
+    }
+
+    @Test
+    public void create_shouldCollapseUidsLikeTheAppList() {
+        final int app = UserHandle.getUid(USER_OWNER, 10001);
+        final int workApp = UserHandle.getUid(USER_WORK, 10001);
+        final int otherUserApp = UserHandle.getUid(USER_OTHER, 10001);
+        final int removedUserApp = UserHandle.getUid(USER_REMOVED, 10001);
+        final AppUsageAggregate.Buckets buckets = new AppUsageAggregate.Buckets();
+        buckets.add(app, 100L);
+        buckets.add(workApp, 10L);
+        buckets.add(app, 50L);
+        buckets.add(otherUserApp, 20L);
+        buckets.add(removedUserApp, 5L);
+        buckets.add(removedUserApp, 5L);
+        buckets.add(Process.BLUETOOTH_UID, 7L);
+
+        final AppUsageAggregate aggregate = AppUsageAggregate.create(buckets, USER_OWNER,
+                mProfiles, mUserManager, null /* restrictedUids */);
+
+        assertThat(getItem(aggregate, app).total).isEqualTo(150L);
+        assertThat(getItem(aggregate, workApp).total).isEqualTo(10L);
+        final AppItem work = getItem(aggregate, UidDetailProvider.buildKeyForUser(USER_WORK));
+        assertThat(work.category).isEqualTo(AppItem.CATEGORY_USER);
+        assertThat(work.total).isEqualTo(10L);
+        final AppItem other = getItem(aggregate, UidDetailProvider.buildKeyForUser(USER_OTHER));
+        assertThat(other.category).isEqualTo(AppItem.CATEGORY_USER);
+        assertThat(other.total).isEqualTo(20L);
+        assertThat(getItem(aggregate, UID_REMOVED).total).isEqualTo(10L);
+        assertThat(getItem(aggregate, Process.SYSTEM_UID).total).isEqualTo(7L);
+        assertThat(aggregate.getLargest()).isEqualTo(150L);
+        // The user is looked up once for both of its buckets.
+        verify(mUserManager, times(1)).getUserInfo(USER_REMOVED);
+    }
+
+    @Test
+    public void create_restrictedUidWithoutUsage_shouldAddRestrictedItem() {
+        final int restricted = UserHandle.getUid(USER_OWNER, 10002);
+        final int otherUserRestricted = UserHandle.getUid(USER_OTHER, 10002);
+
+        final AppUsageAggregate aggregate = AppUsageAggregate.create(
+                new AppUsageAggregate.Buckets(), USER_OWNER, mProfiles, mUserManager,
+                new int[] {restricted, otherUserRestricted});
+
+        assertThat(aggregate.getItems()).hasSize(1);
+        final AppItem item = aggregate.getItems().get(0);
+        assertThat(item.key).isEqualTo(restricted);
+        assertThat(item.restricted).isTrue();
+        assertThat(item.total).isEqualTo(-1L);
+    }
+
+    @Test
+    public void create_manyBuckets_shouldSumEveryUid() {
+        final int numUids = 100;
+        final long[] expected = new long[numUids];
+        final AppUsageAggregate.Buckets buckets = new AppUsageAggregate.Buckets();
+        for (int i = 0; i < AppUsageAggregate.PARALLEL_THRESHOLD * 2; i++) {
+            final int index = (i * 31) % numUids;
+            buckets.add(Process.FIRST_APPLICATION_UID + index, i);
+            expected[index] += i;
+        }
+
+        final AppUsageAggregate aggregate = AppUsageAggregate.create(buckets, USER_OWNER,
+                mProfiles, mUserManager, null /* restrictedUids */);
+
+        assertThat(aggregate.getItems()).hasSize(numUids);
+        for (int i = 0; i < numUids; i++) {
+            assertThat(getItem(aggregate, Process.FIRST_APPLICATION_UID + i).total)
+                    .isEqualTo(expected[i]);
+        }
+    }
+
+    private static AppItem getItem(AppUsageAggregate aggregate, int key) {
+        for (AppItem item : aggregate.getItems()) {
+            if (item.key == key) {
+                return item;
+            }
+        }
+        throw new AssertionError("No item for " + key);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryHistoryTest {
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long WALL_START = 1_500_000_000_000L;
+
+    @Mock
+    private BatteryStats mBatteryStats;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        BatteryHistory.clearCache();
+    }
+
+    @Test
+    public void parse_twoCallers_shouldIterateHistoryOnce() {
+        mockHistory(new long[] {0, 1000, 2000}, new byte[] {100, 99, 98});
+        final RecordingParser first = new RecordingParser();
+        final RecordingParser second = new RecordingParser();
+
+        BatteryInfo.parse(mBatteryStats, first);
+        BatteryInfo.parse(mBatteryStats, second);
+
+        verify(mBatteryStats, times(1)).startIteratingHistoryLocked();
+        assertThat(first.mEvents).containsExactly("start 0-2000", "0=100", "1000=99", "2000=98",
+                "done").inOrder();
+        assertThat(second.mEvents).isEqualTo(first.mEvents);
+    }
+
+    @Test
+    public void replay_timeJump_shouldReportGap() {
+        final BatteryHistory.Records records = new BatteryHistory.Records();
+        records.add(HistoryItem.CMD_RESET, 0, WALL_START, (byte) 100, 0, 0);
+        records.add(HistoryItem.CMD_UPDATE, 1000, 0, (byte) 99, 0, 0);
+        // The clock moves by two hours while only ten minutes of real time pass.
+        records.add(HistoryItem.CMD_CURRENT_TIME, 600_000, WALL_START + 2 * HOUR_MS, (byte) 99,
+                0, 0);
+        records.add(HistoryItem.CMD_UPDATE, 601_000, 0, (byte) 98, 0, 0);
+        records.add(HistoryItem.CMD_OVERFLOW, 602_000, 0, (byte) 98, 0, 0);
+        final RecordingParser parser = new RecordingParser();
+
+        records.toHistory().replay(parser);
+
+        assertThat(parser.mEvents).containsExactly(
+                "start " + WALL_START + "-" + (WALL_START + 2 * HOUR_MS + 1000),
+                "gap", "1000=99", "gap", (2 * HOUR_MS + 1000) + "=98", "done").inOrder();
+    }
+
+    private void mockHistory(long[] times, byte[] levels) {
+        doAnswer(invocation -> {
+            doAnswer(new Answer() {
+                private int mCount = 0;
+
+                @Override
+                public Object answer(InvocationOnMock invocation) {
+                    if (mCount == times.length) {
+                        return false;
+                    }
+                    final HistoryItem record = invocation.getArgument(0);
+                    record.cmd = HistoryItem.CMD_UPDATE;
+                    record.time = times[mCount];
+                    record.batteryLevel = levels[mCount];
+                    mCount++;
+                    return true;
+                }
+            }).when(mBatteryStats).getNextHistoryLocked(any(HistoryItem.class));
+            return true;
+        }).when(mBatteryStats).startIteratingHistoryLocked();
+    }
+
+    private static class RecordingParser implements BatteryInfo.BatteryDataParser {
+        private final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onParsingStarted(long startTime, long endTime) {
+            mEvents.add("start " + startTime + "-" + endTime);
+        }
+
+        @Override
+        public void onDataPoint(long time, HistoryItem record) {
+            mEvents.add(time + "=" + record.batteryLevel);
+        }
+
+        @Override
+        public void onDataGap() {
+            mEvents.add("gap");
+        }
+
+        @Override
+        public void onParsingDone() {
+            mEvents.add("done");
+        }
+    }
+}
@@ -52,6 +52,7 @@ public class BatteryStatsHelperLoaderTest {
 
         mBatteryStatsHelperLoader = spy(new BatteryStatsHelperLoader(mContext));
         mBatteryStatsHelperLoader.mBatteryUtils = mBatteryUtils;
+        mBatteryStatsHelperLoader.mSnapshot = new BatteryStatsSnapshot(mContext);
     }
 
     @Test
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.os.UserManager;
+
+import com.android.internal.os.BatteryStatsHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryStatsSnapshotTest {
+    @Mock
+    private BatteryUtils mBatteryUtils;
+    @Mock
+    private UserManager mUserManager;
+
+    private Context mContext;
+    private BatteryStatsSnapshot mSnapshot;
+    private final Object mFirstOwner = new Object();
+    private final Object mSecondOwner = new Object();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        mSnapshot = new BatteryStatsSnapshot(mContext);
+    }
+
+    @Test
+    public void acquire_twoOwners_shouldComputeOnce() {
+        final BatteryStatsHelper first = mSnapshot.acquire(mFirstOwner, mBatteryUtils,
+                mUserManager);
+        final BatteryStatsHelper second = mSnapshot.acquire(mSecondOwner, mBatteryUtils,
+                mUserManager);
+
+        assertThat(second).isSameAs(first);
+        verify(mBatteryUtils, times(1)).initBatteryStatsHelper(any(), eq(null), any());
+    }
+
+    @Test
+    public void acquire_afterBatteryChanged_shouldComputeAgain() {
+        final BatteryStatsHelper first = mSnapshot.acquire(mFirstOwner, mBatteryUtils,
+                mUserManager);
+        mSnapshot.release(mFirstOwner, first);
+
+        mSnapshot.onBatteryChanged("50%", "Discharging");
+
+        assertThat(mSnapshot.peek()).isNull();
+        assertThat(mSnapshot.acquire(mFirstOwner, mBatteryUtils, mUserManager))
+                .isNotSameAs(first);
+        verify(mBatteryUtils, times(2)).initBatteryStatsHelper(any(), eq(null), any());
+    }
+
+    @Test
+    public void acquire_afterInvalidate_shouldComputeAgain() {
+        final BatteryStatsHelper first = mSnapshot.acquire(mFirstOwner, mBatteryUtils,
+                mUserManager);
+
+        mSnapshot.invalidate();
+
+        assertThat(mSnapshot.peek()).isNull();
+        assertThat(mSnapshot.acquire(mSecondOwner, mBatteryUtils, mUserManager))
+                .isNotSameAs(first);
+    }
+
+    @Test
+    public void acquire_afterFreshnessWindow_shouldComputeAgain() {
+        mSnapshot.setFreshnessMs(0L);
+        final BatteryStatsHelper first = mSnapshot.acquire(mFirstOwner, mBatteryUtils,
+                mUserManager);
+
+        assertThat(mSnapshot.acquire(mSecondOwner, mBatteryUtils, mUserManager))
+                .isNotSameAs(first);
+    }
+}
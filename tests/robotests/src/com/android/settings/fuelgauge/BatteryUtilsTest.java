@@ -412,6 +412,24 @@ public class BatteryUtilsTest {
                 BATTERY_APP_USAGE + BATTERY_SCREEN_USAGE / 2);
     }
 
+    @Test
+    public void testCopyUsageList_smearCopies_shouldNotChangeOriginals() {
+        final BatterySipper sipper = new BatterySipper(BatterySipper.DrainType.APP,
+                null /* uid */, BATTERY_APP_USAGE);
+        sipper.packageWithHighestDrain = PACKAGE_NAME;
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(sipper);
+
+        final List<BatterySipper> copies = BatteryUtils.copyUsageList(sippers);
+        copies.get(0).totalPowerMah += BATTERY_SCREEN_USAGE;
+
+        assertThat(copies.get(0)).isNotSameAs(sipper);
+        assertThat(copies.get(0).packageWithHighestDrain).isEqualTo(PACKAGE_NAME);
+        assertThat(copies.get(0).totalPowerMah).isWithin(PRECISION).of(
+                BATTERY_APP_USAGE + BATTERY_SCREEN_USAGE);
+        assertThat(sipper.totalPowerMah).isWithin(PRECISION).of(BATTERY_APP_USAGE);
+    }
+
     @Test
     public void testSmearScreenBatterySipper_screenSipperNull_shouldNotCrash() {
         final BatterySipper sipperFg = createTestSmearBatterySipper(TIME_FOREGROUND,
@@ -21,6 +21,8 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import android.content.Context;
 import android.content.Intent;
@@ -32,6 +34,7 @@ import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.batterytip.tips.AppLabelPredicate;
 import com.android.settings.fuelgauge.batterytip.tips.AppRestrictionPredicate;
 import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.SmartBatteryTip;
 
 import org.junit.After;
 import org.junit.Before;
@@ -79,6 +82,7 @@ public class BatteryTipLoaderTest {
         doReturn(mBatteryInfo).when(mBatteryUtils).getBatteryInfo(any(), any());
         mBatteryTipLoader = new BatteryTipLoader(mContext, mBatteryStatsHelper);
         mBatteryTipLoader.mBatteryUtils = mBatteryUtils;
+        BatteryTipLoader.clearCachedTips();
     }
 
     @After
@@ -96,4 +100,29 @@ public class BatteryTipLoaderTest {
             assertThat(batteryTips.get(i).getType()).isEqualTo(TIP_ORDER[i]);
         }
     }
+
+    @Test
+    public void testLoadBackground_sameStats_reusesHighUsageTip() {
+        final List<BatteryTip> firstTips = mBatteryTipLoader.loadInBackground();
+        final List<BatteryTip> secondTips = mBatteryTipLoader.loadInBackground();
+
+        // A copy of the cached tip, so that updating the state of one leaves the other alone.
+        assertThat(secondTips.get(1)).isNotSameAs(firstTips.get(1));
+        assertThat(secondTips.get(1).getType()).isEqualTo(firstTips.get(1).getType());
+        assertThat(secondTips.get(1).getState()).isEqualTo(firstTips.get(1).getState());
+        // HighUsageDetector reads the start of the stats once per detection.
+        verify(mBatteryStatsHelper.getStats(), times(1)).getStartClockTime();
+    }
+
+    @Test
+    public void copyOf_shouldNotShareState() {
+        final BatteryTip tip = new SmartBatteryTip(BatteryTip.StateType.NEW);
+
+        final BatteryTip copy = BatteryTipLoader.copyOf(tip);
+        tip.updateState(new SmartBatteryTip(BatteryTip.StateType.HANDLED));
+
+        assertThat(copy).isNotSameAs(tip);
+        assertThat(copy.getType()).isEqualTo(BatteryTip.TipType.SMART_BATTERY_MANAGER);
+        assertThat(copy.getState()).isEqualTo(BatteryTip.StateType.NEW);
+    }
 }
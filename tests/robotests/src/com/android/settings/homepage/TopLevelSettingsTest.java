@@ -45,4 +45,9 @@ public class TopLevelSettingsTest {
     public void shouldForceRoundedIcon_true() {
         assertThat(mSettings.shouldForceRoundedIcon()).isTrue();
     }
+
+    @Test
+    public void isDeadlineBoundedControllers_true() {
+        assertThat(mSettings.isDeadlineBoundedControllers()).isTrue();
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.homepage.contextualcards;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class EligibleCardCacheTest {
+
+    private static final Uri TEST_SLICE_URI = Uri.parse("content://test/test");
+
+    private Context mContext;
+    private EligibleCardCache mCache;
+    private ContextualCard mCard;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mCache = new EligibleCardCache(mContext);
+        mCard = new ContextualCard.Builder()
+                .setName("test_card")
+                .setRankingScore(0.5)
+                .setCardType(ContextualCard.CardType.SLICE)
+                .setSliceUri(TEST_SLICE_URI)
+                .build();
+    }
+
+    @Test
+    public void get_notCached_returnNull() {
+        assertThat(mCache.get(TEST_SLICE_URI)).isNull();
+    }
+
+    @Test
+    public void get_eligibleCard_returnCachedCard() {
+        mCache.put(mCard, mCard.mutate().setHasInlineAction(true).build());
+
+        final ContextualCard card = mCache.get(TEST_SLICE_URI).apply(mCard);
+
+        assertThat(card.getName()).isEqualTo("test_card");
+        assertThat(card.hasInlineAction()).isTrue();
+    }
+
+    @Test
+    public void get_notEligibleCard_applyReturnNull() {
+        mCache.put(mCard, null /* result */);
+
+        assertThat(mCache.get(TEST_SLICE_URI)).isNotNull();
+        assertThat(mCache.get(TEST_SLICE_URI).apply(mCard)).isNull();
+    }
+
+    @Test
+    public void dumpStats_shouldSumRecordedLoads() throws JSONException {
+        mCache.recordLoad(5 /* candidateCount */, 3 /* cacheHits */, 1 /* timeouts */, 40);
+        mCache.recordLoad(5 /* candidateCount */, 5 /* cacheHits */, 0 /* timeouts */, 2);
+
+        final JSONObject stats = mCache.dumpStats();
+        assertThat(stats.getLong("loads")).isEqualTo(2);
+        assertThat(stats.getLong("checked_cards")).isEqualTo(10);
+        assertThat(stats.getLong("cache_hits")).isEqualTo(8);
+        assertThat(stats.getLong("timeouts")).isEqualTo(1);
+        assertThat(stats.getLong("last_load_latency_ms")).isEqualTo(2);
+    }
+
+    @Test
+    public void onChange_sliceUri_shouldInvalidateEntry() {
+        mCache.put(mCard, mCard);
+
+        mCache.mObserver.onChange(false /* selfChange */, TEST_SLICE_URI);
+
+        assertThat(mCache.get(TEST_SLICE_URI)).isNull();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.NotificationHistory;
+import android.app.NotificationHistory.HistoricalNotification;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import com.android.settings.notification.NotificationBackend;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class HistoryLoaderTest {
+
+    private static final int PACKAGES = HistoryLoader.PAGE_SIZE + 2;
+
+    @Mock
+    private NotificationBackend mBackend;
+    @Mock
+    private PackageManager mPm;
+
+    private Context mContext;
+    private HistoryLoader mHistoryLoader;
+    private final List<NotificationHistoryPackage> mFirstPage = new ArrayList<>();
+    private final List<List<NotificationHistoryPackage>> mNextPages = new ArrayList<>();
+    private final HistoryLoader.OnHistoryLoaderListener mListener =
+            new HistoryLoader.OnHistoryLoaderListener() {
+                @Override
+                public void onHistoryLoaded(List<NotificationHistoryPackage> packages) {
+                    mFirstPage.addAll(packages);
+                }
+
+                @Override
+                public void onHistoryPageLoaded(List<NotificationHistoryPackage> packages) {
+                    mNextPages.add(packages);
+                }
+            };
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        when(mPm.getApplicationInfoAsUser(anyString(), anyInt(), anyInt()))
+                .thenThrow(new PackageManager.NameNotFoundException());
+        mHistoryLoader = new HistoryLoader(mContext, mBackend, mPm);
+    }
+
+    @Test
+    public void load_pagesMostRecentPackagesFirst() {
+        final NotificationHistory history = new NotificationHistory();
+        // Package i posts at times i and i + PACKAGES, so the last package is the most recent.
+        for (int i = 0; i < PACKAGES; i++) {
+            history.addNotificationToWrite(createNotification("pkg" + i, i));
+        }
+        for (int i = 0; i < PACKAGES; i++) {
+            history.addNotificationToWrite(createNotification("pkg" + i, i + PACKAGES));
+        }
+        when(mBackend.getNotificationHistory(anyString(), any())).thenReturn(history);
+
+        mHistoryLoader.load(mListener);
+
+        assertThat(mFirstPage).hasSize(HistoryLoader.PAGE_SIZE);
+        assertThat(mFirstPage.get(0).pkgName).isEqualTo("pkg" + (PACKAGES - 1));
+        assertThat(mFirstPage.get(0).getMostRecent()).isEqualTo(2 * PACKAGES - 1);
+        assertThat(mFirstPage.get(0).notifications.get(1).getPostedTimeMs())
+                .isEqualTo(PACKAGES - 1);
+        assertThat(mNextPages).hasSize(1);
+        assertThat(mNextPages.get(0)).hasSize(PACKAGES - HistoryLoader.PAGE_SIZE);
+        assertThat(mNextPages.get(0).get(1).pkgName).isEqualTo("pkg0");
+    }
+
+    @Test
+    public void load_twice_resolvesEachPackageOnce() throws Exception {
+        final NotificationHistory history = new NotificationHistory();
+        history.addNotificationToWrite(createNotification("pkg", 1));
+        when(mBackend.getNotificationHistory(anyString(), any())).thenReturn(history);
+        mHistoryLoader.load(mListener);
+
+        final NotificationHistory newHistory = new NotificationHistory();
+        newHistory.addNotificationToWrite(createNotification("pkg", 2));
+        when(mBackend.getNotificationHistory(anyString(), any())).thenReturn(newHistory);
+        mHistoryLoader.load(mListener);
+
+        verify(mPm, times(1)).getApplicationInfoAsUser(eq("pkg"), anyInt(), anyInt());
+        assertThat(mNextPages).isEmpty();
+    }
+
+    @Test
+    public void addNotification_keepsNotificationsPostedAtTheSameTime() {
+        final NotificationHistoryPackage nhp = new NotificationHistoryPackage("pkg", 0);
+
+        nhp.addNotification(createNotification("pkg", 2));
+        nhp.addNotification(createNotification("pkg", 3));
+        nhp.addNotification(createNotification("pkg", 1));
+        nhp.addNotification(createNotification("pkg", 2));
+
+        assertThat(nhp.notifications).hasSize(4);
+        assertThat(nhp.getMostRecent()).isEqualTo(3);
+        assertThat(nhp.notifications.get(1).getPostedTimeMs()).isEqualTo(2);
+        assertThat(nhp.notifications.get(2).getPostedTimeMs()).isEqualTo(2);
+        assertThat(nhp.notifications.get(3).getPostedTimeMs()).isEqualTo(1);
+    }
+
+    private static HistoricalNotification createNotification(String pkg, long postedTimeMs) {
+        return new HistoricalNotification.Builder()
+                .setPackage(pkg)
+                .setUid(0)
+                .setPostedTimeMs(postedTimeMs)
+                .setTitle("title")
+                .setText("text")
+                .setChannelId("channel")
+                .setChannelName("channel")
+                .build();
+    }
+}
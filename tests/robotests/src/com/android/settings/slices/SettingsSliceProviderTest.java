@@ -268,6 +268,48 @@ public class SettingsSliceProviderTest {
         assertThat(slice).isNull();
     }
 
+    @Test
+    public void onBindSlice_loadedBefore_buildsFromWarmCache() {
+        SliceTestUtils.insertSliceToDb(mContext, KEY);
+        mProvider.loadSlice(INTENT_SLICE_URI);
+        mProvider.mSliceWeakDataCache.clear();
+
+        final Slice slice = mProvider.onBindSlice(INTENT_SLICE_URI);
+
+        assertThat(slice.getItems()).isNotEmpty();
+        verify(mProvider, never()).loadSliceInBackground(INTENT_SLICE_URI);
+    }
+
+    @Test
+    public void onBindSlice_reindexedAfterLoad_shouldNotUseWarmCache() {
+        SliceTestUtils.insertSliceToDb(mContext, KEY);
+        mProvider.loadSlice(INTENT_SLICE_URI);
+        mProvider.mSliceWeakDataCache.clear();
+        final SlicesIndexer indexer = spy(new SlicesIndexer(mContext));
+        doReturn(new ArrayList<SliceData>()).when(indexer).getSliceData();
+        SlicesDatabaseHelper.getInstance(mContext).clearIndexedState();
+        indexer.run();
+
+        mProvider.onBindSlice(INTENT_SLICE_URI);
+
+        verify(mProvider).loadSliceInBackground(INTENT_SLICE_URI);
+    }
+
+    @Test
+    public void getBlockedKeys_observed_cachedUntilSettingChanges() {
+        final ContentResolver resolver = mContext.getContentResolver();
+        Settings.Global.putString(resolver, Settings.Global.BLOCKED_SLICES, "key1:key2");
+        mProvider.onCreateSliceProvider();
+
+        assertThat(mProvider.getBlockedKeys()).containsExactly("key1", "key2");
+
+        Settings.Global.putString(resolver, Settings.Global.BLOCKED_SLICES, "key3");
+        assertThat(mProvider.getBlockedKeys()).containsExactly("key1", "key2");
+
+        resolver.notifyChange(Settings.Global.getUriFor(Settings.Global.BLOCKED_SLICES), null);
+        assertThat(mProvider.getBlockedKeys()).containsExactly("key3");
+    }
+
     @Test
     public void onBindSlice_nightModeChanged_shouldReloadTheme() {
         mContext.getResources().getConfiguration().uiMode = UI_MODE_NIGHT_NO;
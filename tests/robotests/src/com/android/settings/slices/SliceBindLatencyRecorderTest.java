@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceBindLatencyRecorderTest {
+
+    private SliceBindLatencyRecorder mRecorder;
+
+    @Before
+    public void setUp() {
+        mRecorder = new SliceBindLatencyRecorder();
+    }
+
+    @Test
+    public void getPercentileMicros_noBinds_returnsZero() {
+        assertThat(mRecorder.getPercentileMicros(50)).isEqualTo(0);
+    }
+
+    @Test
+    public void getPercentileMicros_returnsNearestRank() {
+        for (int i = 100; i >= 1; i--) {
+            mRecorder.recordBind(i * 1000L);
+        }
+
+        assertThat(mRecorder.getPercentileMicros(50)).isEqualTo(50);
+        assertThat(mRecorder.getPercentileMicros(90)).isEqualTo(90);
+        assertThat(mRecorder.getPercentileMicros(100)).isEqualTo(100);
+    }
+
+    @Test
+    public void recordBind_moreThanMaxSamples_keepsLatestSamples() {
+        for (int i = 0; i < SliceBindLatencyRecorder.MAX_SAMPLES; i++) {
+            mRecorder.recordBind(1_000_000L);
+        }
+        for (int i = 0; i < SliceBindLatencyRecorder.MAX_SAMPLES; i++) {
+            mRecorder.recordBind(1000L);
+        }
+
+        assertThat(mRecorder.getPercentileMicros(99)).isEqualTo(1);
+    }
+
+    @Test
+    public void dump_containsCounters() throws Exception {
+        mRecorder.recordBind(1000L);
+        mRecorder.recordStub();
+        mRecorder.recordWarmHit();
+
+        final JSONObject dump = mRecorder.dump();
+
+        assertThat(dump.getLong("binds")).isEqualTo(1);
+        assertThat(dump.getLong("stubs")).isEqualTo(1);
+        assertThat(dump.getLong("warm_hits")).isEqualTo(1);
+        assertThat(dump.getLong("p50_us")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceNotificationBatcherTest {
+
+    private static final Uri URI_1 = Uri.parse("content://com.android.settings.slices/test1");
+    private static final Uri URI_2 = Uri.parse("content://com.android.settings.slices/test2");
+    private static final long FLUSH_DELAY = SliceNotificationBatcher.SLICE_UPDATE_THROTTLE_INTERVAL
+            + SliceNotificationBatcher.FRAME_INTERVAL;
+
+    @Mock
+    private ContentResolver mResolver;
+
+    private Context mContext;
+    private SliceNotificationBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = spy(RuntimeEnvironment.application);
+        doReturn(mResolver).when(mContext).getContentResolver();
+        mBatcher = new SliceNotificationBatcher(Looper.getMainLooper());
+        SliceNotificationBatcher.setInstance(mBatcher);
+    }
+
+    @After
+    public void tearDown() {
+        SliceNotificationBatcher.setInstance(null);
+    }
+
+    @Test
+    public void notifySliceChange_twoWorkers_notifiedInOneBatch() {
+        final TestWorker worker1 = new TestWorker(mContext, URI_1);
+        final TestWorker worker2 = new TestWorker(mContext, URI_2);
+
+        worker1.notifySliceChange();
+        worker2.notifySliceChange();
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+
+        final ArgumentCaptor<Collection<Uri>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(mResolver).notifyChange(captor.capture(), isNull(), eq(0));
+        assertThat(captor.getValue()).containsExactly(URI_1, URI_2);
+        assertThat(mBatcher.getBatchesSent()).isEqualTo(1);
+        assertThat(mBatcher.getNotificationsSent()).isEqualTo(2);
+    }
+
+    @Test
+    public void updateResults_backToDeliveredResults_suppressed() {
+        final TestWorker worker = new TestWorker(mContext, URI_1);
+        worker.updateResults(Arrays.asList("a"));
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+        // The host binds the Slice.
+        worker.getResults();
+
+        worker.updateResults(Arrays.asList("b"));
+        worker.updateResults(Arrays.asList("a"));
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+
+        verify(mResolver, times(1)).notifyChange(anyCollection(), isNull(), eq(0));
+        assertThat(mBatcher.getNotificationsSent()).isEqualTo(1);
+        assertThat(mBatcher.getNotificationsSuppressed()).isEqualTo(1);
+    }
+
+    @Test
+    public void updateResults_hostBoundOtherResults_notSuppressed() {
+        final TestWorker worker = new TestWorker(mContext, URI_1);
+        worker.updateResults(Arrays.asList("a"));
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+        worker.getResults();
+
+        worker.updateResults(Arrays.asList("b"));
+        // The host rebinds the Slice for another reason while the results are "b".
+        worker.getResults();
+        worker.updateResults(Arrays.asList("a"));
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+
+        verify(mResolver, times(2)).notifyChange(anyCollection(), isNull(), eq(0));
+        assertThat(mBatcher.getNotificationsSuppressed()).isEqualTo(0);
+    }
+
+    @Test
+    public void updateResults_neverBound_notSuppressed() {
+        final TestWorker worker = new TestWorker(mContext, URI_1);
+        worker.updateResults(Arrays.asList("a"));
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+
+        worker.updateResults(Arrays.asList("b"));
+        worker.updateResults(Arrays.asList("a"));
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+
+        verify(mResolver, times(2)).notifyChange(anyCollection(), isNull(), eq(0));
+    }
+
+    @Test
+    public void dumpNotificationStats_noBatcher_shouldNotCreateIt() throws Exception {
+        SliceNotificationBatcher.setInstance(null);
+
+        assertThat(SliceBackgroundWorker.dumpNotificationStats().length()).isEqualTo(0);
+        assertThat(SliceNotificationBatcher.peekInstance()).isNull();
+    }
+
+    @Test
+    public void notifySliceChange_sameResults_notSuppressed() {
+        final TestWorker worker = new TestWorker(mContext, URI_1);
+        worker.updateResults(Arrays.asList("a"));
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+
+        worker.notifySliceChange();
+        ShadowLooper.idleMainLooper(FLUSH_DELAY);
+
+        verify(mResolver, times(2)).notifyChange(anyCollection(), isNull(), eq(0));
+        assertThat(mBatcher.getNotificationsSuppressed()).isEqualTo(0);
+    }
+
+    private static class TestWorker extends SliceBackgroundWorker<String> {
+
+        TestWorker(Context context, Uri uri) {
+            super(context, uri);
+        }
+
+        @Override
+        protected void onSlicePinned() {
+        }
+
+        @Override
+        protected void onSliceUnpinned() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
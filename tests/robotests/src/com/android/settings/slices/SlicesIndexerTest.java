@@ -27,9 +27,11 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 
+import com.android.settings.accessibility.AccessibilitySlicePreferenceController;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
 import com.android.settings.testutils.DatabaseTestUtils;
 
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -38,6 +40,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
@@ -194,6 +197,110 @@ public class SlicesIndexerTest {
         }
     }
 
+    @Test
+    public void reindex_unchangedFragment_skipsRows() throws Exception {
+        final List<SliceData> sliceData = getDummyIndexableData(false);
+        doReturn(sliceData).when(mManager).getSliceData();
+        mManager.run();
+
+        SlicesDatabaseHelper.getInstance(mContext).clearIndexedState();
+        mManager.run();
+
+        final JSONObject stats = mManager.dumpStats();
+        assertThat(stats.getInt("index_count")).isEqualTo(2);
+        assertThat(stats.getInt("last_skipped_rows")).isEqualTo(sliceData.size());
+        assertThat(stats.getInt("last_inserted_rows")).isEqualTo(0);
+        final SQLiteDatabase db = SlicesDatabaseHelper.getInstance(mContext).getWritableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index", null)) {
+            assertThat(cursor.getCount()).isEqualTo(sliceData.size());
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void reindex_changedAndRemovedFragments_rewritesOnlyChangedRows() throws Exception {
+        final List<SliceData> sliceData = new ArrayList<>(getDummyIndexableData(false));
+        final SliceData otherFragmentRow = new SliceData.Builder()
+                .setKey("otherKey")
+                .setTitle("otherTitle")
+                .setFragmentName("other fragment")
+                .setUri(URI)
+                .setPreferenceControllerClassName(PREF_CONTROLLER)
+                .build();
+        sliceData.add(otherFragmentRow);
+        doReturn(sliceData).when(mManager).getSliceData();
+        mManager.run();
+
+        // Change one row of the first fragment and drop the second fragment.
+        final List<SliceData> newSliceData = getDummyIndexableData(false);
+        final SliceData changedRow = new SliceData.Builder()
+                .setKey(KEYS[0])
+                .setTitle("newTitle")
+                .setFragmentName(FRAGMENT_NAME)
+                .setUri(URI)
+                .setPreferenceControllerClassName(PREF_CONTROLLER)
+                .build();
+        newSliceData.set(0, changedRow);
+        doReturn(newSliceData).when(mManager).getSliceData();
+        SlicesDatabaseHelper.getInstance(mContext).clearIndexedState();
+        mManager.run();
+
+        final JSONObject stats = mManager.dumpStats();
+        assertThat(stats.getInt("last_inserted_rows")).isEqualTo(newSliceData.size());
+        assertThat(stats.getInt("last_removed_fragments")).isEqualTo(1);
+        final SQLiteDatabase db = SlicesDatabaseHelper.getInstance(mContext).getWritableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index WHERE key = ?",
+                new String[] {KEYS[0]})) {
+            assertThat(cursor.getCount()).isEqualTo(1);
+            cursor.moveToFirst();
+            assertThat(cursor.getString(cursor.getColumnIndex(IndexColumns.TITLE)))
+                    .isEqualTo("newTitle");
+        }
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index", null)) {
+            assertThat(cursor.getCount()).isEqualTo(newSliceData.size());
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void insertSliceData_accessibilityOnly_keepsFragmentRows() {
+        final List<SliceData> sliceData = new ArrayList<>(getDummyIndexableData(false));
+        sliceData.add(getAccessibilityRow("a11yKey", "a11yTitle"));
+        final SQLiteDatabase db = SlicesDatabaseHelper.getInstance(mContext).getWritableDatabase();
+        mManager.insertSliceData(db, sliceData);
+
+        mManager.insertSliceData(db,
+                Collections.singletonList(getAccessibilityRow("a11yKey", "newA11yTitle")),
+                true /* accessibilityOnly */);
+
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index", null)) {
+            assertThat(cursor.getCount()).isEqualTo(sliceData.size());
+        }
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index WHERE key = ?",
+                new String[] {"a11yKey"})) {
+            assertThat(cursor.getCount()).isEqualTo(1);
+            cursor.moveToFirst();
+            assertThat(cursor.getString(cursor.getColumnIndex(IndexColumns.TITLE)))
+                    .isEqualTo("newA11yTitle");
+        } finally {
+            db.close();
+        }
+    }
+
+    private SliceData getAccessibilityRow(String key, String title) {
+        // Accessibility service rows share the fragment of the accessibility settings rows.
+        return new SliceData.Builder()
+                .setKey(key)
+                .setTitle(title)
+                .setFragmentName(FRAGMENT_NAME)
+                .setUri(URI)
+                .setPreferenceControllerClassName(
+                        AccessibilitySlicePreferenceController.class.getName())
+                .build();
+    }
+
     private void insertSpecialCase(String key, String title) {
         final ContentValues values = new ContentValues();
         values.put(IndexColumns.KEY, key);